@@ -1,8 +1,7 @@
 // Analysis.java 保持不变
 package net.sherpherd.bgp.utils;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetAddress;
@@ -17,30 +16,30 @@ import java.util.List;
 public class Analysis {
 
     public static List<String> ipv4Aggregate(String csvPath) throws IOException {
-        List<long[]> ranges = new ArrayList<>();
+        RouteEvents.Span span = RouteEvents.begin(RouteEvents.Phase.AGGREGATE);
+        List<String> prefixes = readPrefixColumn(csvPath);
+        List<long[]> merged = mergeIPv4Ranges(prefixes);
 
-        try (BufferedReader br = new BufferedReader(new FileReader(csvPath))) {
-            String header = br.readLine();
-            if (header == null) return Collections.emptyList();
-            String[] cols = splitCsvLine(header);
-            int prefixIdx = 0;
-            for (int i = 0; i < cols.length; i++) {
-                if ("prefix".equalsIgnoreCase(cols[i].trim())) {
-                    prefixIdx = i;
-                    break;
-                }
-            }
+        // convert merged ranges to minimal CIDR blocks
+        List<String> result = new ArrayList<>();
+        for (long[] r : merged) {
+            result.addAll(rangeToCidrs(r[0], r[1]));
+        }
 
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = splitCsvLine(line);
-                if (parts.length <= prefixIdx) continue;
-                String pref = parts[prefixIdx].trim();
-                pref = stripQuotes(pref);
-                if (!isValidIPv4Cidr(pref)) continue;
-                long[] se = cidrToRange(pref);
-                if (se != null) ranges.add(se);
-            }
+        span.end(prefixes.size(), span == RouteEvents.NOOP ? 0 : new File(csvPath).length(), result.size());
+        return result;
+    }
+
+    /**
+     * 将 IPv4 前缀合并为互不重叠、互不相邻的地址区间，非 IPv4 前缀会被忽略
+     * @return 按起始地址升序的 {start, end} 列表（含两端）
+     */
+    static List<long[]> mergeIPv4Ranges(Iterable<String> prefixes) {
+        List<long[]> ranges = new ArrayList<>();
+        for (String pref : prefixes) {
+            if (!isValidIPv4Cidr(pref)) continue;
+            long[] se = cidrToRange(pref);
+            if (se != null) ranges.add(se);
         }
 
         if (ranges.isEmpty()) return Collections.emptyList();
@@ -61,41 +60,23 @@ public class Analysis {
             }
         }
         merged.add(new long[] {curS, curE});
-
-        // convert merged ranges to minimal CIDR blocks
-        List<String> result = new ArrayList<>();
-        for (long[] r : merged) {
-            result.addAll(rangeToCidrs(r[0], r[1]));
-        }
-
-        return result;
+        return merged;
     }
 
-    public static long ipv4Summary(String csvPath) throws IOException {
-        List<String> cidrs = ipv4Aggregate(csvPath);
-        long total = 0L;
-        for (String c : cidrs) {
-            String[] parts = c.split("/");
-            int prefix = Integer.parseInt(parts[1]);
-            long block = 1L << (32 - prefix);
-            total += block;
-        }
-        return total;
-    }
-
-    // --- helpers ---
-    private static String[] splitCsvLine(String line) {
-        // simple split, handles quoted commas roughly by removing surrounding quotes first
-        // For our CSV it is expected to be simple
-        return line.split(",");
+    /**
+     * 读取 CSV 文件的 prefix 列（没有该列时取第一列）
+     */
+    private static List<String> readPrefixColumn(String csvPath) throws IOException {
+        List<String> prefixes = new ArrayList<>();
+        CSVProvider.readPrefixPaths(csvPath, route -> prefixes.add(route[0]));
+        return prefixes;
     }
 
-    private static String stripQuotes(String s) {
-        if (s == null) return null;
-        if (s.length() >= 2 && ((s.startsWith("\"") && s.endsWith("\"")) || (s.startsWith("'") && s.endsWith("'")))) {
-            return s.substring(1, s.length() - 1);
-        }
-        return s;
+    /**
+     * 返回聚合后网络覆盖的 IPv4 地址数
+     */
+    public static long ipv4Summary(String csvPath) throws IOException {
+        return RouteStatistics.ofCsv(csvPath).ipv4Covered();
     }
 
     public static boolean isValidIPv4Cidr(String s) {
@@ -143,11 +124,11 @@ public class Analysis {
         return res & 0xffffffffL;
     }
 
-    private static String longToIp(long v) {
+    static String longToIp(long v) {
         return String.format("%d.%d.%d.%d", (v >>> 24) & 0xff, (v >>> 16) & 0xff, (v >>> 8) & 0xff, v & 0xff);
     }
 
-    private static List<String> rangeToCidrs(long start, long end) {
+    static List<String> rangeToCidrs(long start, long end) {
         List<String> out = new ArrayList<>();
         long cur = start;
         while (cur <= end) {
@@ -209,7 +190,7 @@ public class Analysis {
         return new BigInteger(1, bytes);
     }
 
-    private static String bigIntToIp6(BigInteger v) throws UnknownHostException {
+    static String bigIntToIp6(BigInteger v) throws UnknownHostException {
         byte[] bytes = toFixedLength(v.toByteArray(), 16);
         InetAddress addr = InetAddress.getByAddress(bytes);
         return addr.getHostAddress();
@@ -224,7 +205,7 @@ public class Analysis {
         return dest;
     }
 
-    private static List<String> rangeToIpv6Cidrs(BigInteger start, BigInteger end) {
+    static List<String> rangeToIpv6Cidrs(BigInteger start, BigInteger end) {
         List<String> out = new ArrayList<>();
         BigInteger cur = start;
         BigInteger one = BigInteger.ONE;
@@ -254,30 +235,30 @@ public class Analysis {
     }
 
     public static List<String> ipv6Aggregate(String csvPath) throws IOException {
-        List<BigInteger[]> ranges = new ArrayList<>();
+        RouteEvents.Span span = RouteEvents.begin(RouteEvents.Phase.AGGREGATE);
+        List<String> prefixes = readPrefixColumn(csvPath);
+        List<BigInteger[]> merged = mergeIPv6Ranges(prefixes);
 
-        try (BufferedReader br = new BufferedReader(new FileReader(csvPath))) {
-            String header = br.readLine();
-            if (header == null) return Collections.emptyList();
-            String[] cols = splitCsvLine(header);
-            int prefixIdx = 0;
-            for (int i = 0; i < cols.length; i++) {
-                if ("prefix".equalsIgnoreCase(cols[i].trim())) {
-                    prefixIdx = i;
-                    break;
-                }
-            }
+        // convert merged ranges to minimal CIDR blocks
+        List<String> result = new ArrayList<>();
+        for (BigInteger[] r : merged) {
+            result.addAll(rangeToIpv6Cidrs(r[0], r[1]));
+        }
 
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = splitCsvLine(line);
-                if (parts.length <= prefixIdx) continue;
-                String pref = parts[prefixIdx].trim();
-                pref = stripQuotes(pref);
-                if (!isValidIPv6Cidr(pref)) continue;
-                BigInteger[] se = ipv6CidrToRange(pref);
-                if (se != null) ranges.add(se);
-            }
+        span.end(prefixes.size(), span == RouteEvents.NOOP ? 0 : new File(csvPath).length(), result.size());
+        return result;
+    }
+
+    /**
+     * 将 IPv6 前缀合并为互不重叠、互不相邻的地址区间，非 IPv6 前缀会被忽略
+     * @return 按起始地址升序的 {start, end} 列表（含两端）
+     */
+    static List<BigInteger[]> mergeIPv6Ranges(Iterable<String> prefixes) {
+        List<BigInteger[]> ranges = new ArrayList<>();
+        for (String pref : prefixes) {
+            if (!isValidIPv6Cidr(pref)) continue;
+            BigInteger[] se = ipv6CidrToRange(pref);
+            if (se != null) ranges.add(se);
         }
 
         if (ranges.isEmpty()) return Collections.emptyList();
@@ -303,14 +284,7 @@ public class Analysis {
             }
         }
         merged.add(new BigInteger[] {curS, curE});
-
-        // convert merged ranges to minimal CIDR blocks
-        List<String> result = new ArrayList<>();
-        for (BigInteger[] r : merged) {
-            result.addAll(rangeToIpv6Cidrs(r[0], r[1]));
-        }
-
-        return result;
+        return merged;
     }
 
 //     /**
@@ -374,17 +348,7 @@ public class Analysis {
      * 返回聚合后网络可容纳的 /64 大小网络块数量
      */
     public static BigInteger ipv6Summary(String csvPath) throws IOException {
-        List<String> cidrs = ipv6Aggregate(csvPath);
-        BigInteger total = BigInteger.ZERO;
-        BigInteger size64 = BigInteger.ONE.shiftLeft(64);
-        for (String c : cidrs) {
-            String[] parts = c.split("/");
-            int prefix = Integer.parseInt(parts[1]);
-            BigInteger blockSize = BigInteger.ONE.shiftLeft(128 - prefix);
-            BigInteger num64 = blockSize.divide(size64);
-            total = total.add(num64);
-        }
-        return total;
+        return new BigInteger(Long.toUnsignedString(RouteStatistics.ofCsv(csvPath).ipv6Covered()));
     }
 
     // ========== 新增方法 ==========
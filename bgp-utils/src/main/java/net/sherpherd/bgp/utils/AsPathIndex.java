@@ -0,0 +1,494 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * ASN → 路由 ID 的倒排索引，按 ASN 在 AS_PATH 中的位置分为起源（最后一个 ASN）和中转（其余 ASN）两类。
+ *
+ * 构建时用以 ASN 为键的开放寻址表和每个 ASN 一个可增长的 int 数组收集 ID，{@link Builder#build()} 时
+ * 压缩为容器：稀疏的 ID 列表写成差分 varint，稠密的写成位图，取两者中较小的一种。查询时只解码一个容器，
+ * 结果为 {@link IdSet}，可以继续求交、并、差。
+ *
+ * 路由 ID 对应快照的全局索引（IPv4 在前，IPv6 在后），索引文件保存在快照旁边，见 {@link #indexPath(String)}。
+ * 文件头记录快照的长度、修改时间和 CRC32。打开时长度和修改时间都一致即直接使用索引，
+ * 只有修改时间变化时才计算 CRC32：内容未变（如从缓存恢复）则更新文件头中的修改时间，
+ * 内容变化（即使长度和路由数不变）则索引过期。
+ * 文件布局（大端序）：
+ * <pre>
+ * header : magic "BGPASIX\0", version, routeCount, asnCount, long snapshotLength, long snapshotMtime, long snapshotCrc
+ * 每个 ASN: int asn | int originBytes | byte origin[] | int transitBytes | byte transit[]
+ * </pre>
+ */
+final class AsPathIndex {
+    static final byte[] MAGIC = {'B', 'G', 'P', 'A', 'S', 'I', 'X', 0};
+    static final int VERSION = 3;
+    static final String SUFFIX = ".asidx";
+
+    private static final byte KIND_DELTA = 0;
+    private static final byte KIND_BITMAP = 1;
+    private static final byte[] EMPTY_CONTAINER = {KIND_DELTA, 0};
+
+    private final int routeCount;
+    private final long snapshotLength;
+    private final long snapshotMtime;
+    private final long snapshotCrc;
+    private final AsnTable table;
+    private final byte[][] origin;
+    private final byte[][] transit;
+
+    private AsPathIndex(int routeCount, long snapshotLength, long snapshotMtime, long snapshotCrc, AsnTable table,
+                        byte[][] origin, byte[][] transit) {
+        this.routeCount = routeCount;
+        this.snapshotLength = snapshotLength;
+        this.snapshotMtime = snapshotMtime;
+        this.snapshotCrc = snapshotCrc;
+        this.table = table;
+        this.origin = origin;
+        this.transit = transit;
+    }
+
+    /**
+     * 以该 ASN 为起源的路由
+     */
+    IdSet origin(int asn) {
+        int slot = table.find(asn);
+        return slot < 0 ? IdSet.EMPTY : decode(origin[slot]);
+    }
+
+    /**
+     * 该 ASN 出现在中转位置的路由，起源 AS 自身的重复（prepend）不计入
+     */
+    IdSet transit(int asn) {
+        int slot = table.find(asn);
+        return slot < 0 ? IdSet.EMPTY : decode(transit[slot]);
+    }
+
+    /**
+     * AS_PATH 中任意位置出现该 ASN 的路由
+     */
+    IdSet any(int asn) {
+        int slot = table.find(asn);
+        return slot < 0 ? IdSet.EMPTY : decode(origin[slot]).or(decode(transit[slot]));
+    }
+
+    int routeCount() {
+        return routeCount;
+    }
+
+    /**
+     * 构建或最近一次校验时快照文件的修改时间
+     */
+    long snapshotMtime() {
+        return snapshotMtime;
+    }
+
+    /**
+     * 索引中出现过的 ASN 数量
+     */
+    int asnCount() {
+        return table.size;
+    }
+
+    /**
+     * 全部容器占用的字节数，不含 ASN 表本身
+     */
+    long compressedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < table.size; i++) bytes += origin[i].length + transit[i].length;
+        return bytes;
+    }
+
+    /**
+     * 快照对应的索引文件路径
+     */
+    static String indexPath(String snapshotPath) {
+        return snapshotPath + SUFFIX;
+    }
+
+    /**
+     * 读取快照旁边的索引；索引不存在或与快照不一致时从快照重建并写回
+     */
+    static AsPathIndex forSnapshot(SnapshotProvider snapshot) throws IOException {
+        File snapshotFile = new File(snapshot.path);
+        File indexFile = new File(indexPath(snapshot.path));
+        if (indexFile.exists()) {
+            try {
+                AsPathIndex index = read(indexFile.getPath());
+                if (index.routeCount == snapshot.size() && index.snapshotLength == snapshotFile.length()) {
+                    long mtime = snapshotFile.lastModified();
+                    if (index.snapshotMtime == mtime) {
+                        return index;
+                    }
+                    if (index.snapshotCrc == checksum(snapshotFile)) {
+                        // 内容未变，记下新的修改时间，下次打开不再计算 CRC
+                        index = new AsPathIndex(index.routeCount, index.snapshotLength, mtime, index.snapshotCrc,
+                                index.table, index.origin, index.transit);
+                        index.write(indexFile.getPath());
+                        return index;
+                    }
+                }
+            } catch (IOException e) {
+                if (Main.verbose) {
+                    System.err.println("AS_PATH 索引无法读取，将重新生成: " + e.getMessage());
+                }
+            }
+        }
+        AsPathIndex index = build(snapshot);
+        index.write(indexFile.getPath());
+        return index;
+    }
+
+    /**
+     * 从快照的 AS_PATH 列构建索引
+     */
+    static AsPathIndex build(SnapshotProvider snapshot) throws IOException {
+        int n = snapshot.size();
+        Builder builder = new Builder();
+        for (int i = 0; i < n; i++) {
+            builder.add(i, snapshot.getPathAsns(i));
+        }
+        return builder.build(new File(snapshot.path));
+    }
+
+    /**
+     * 快照文件内容的 CRC32，写入索引文件头用于判断索引是否过期
+     */
+    static long checksum(File snapshotFile) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[1 << 16];
+        try (FileInputStream in = new FileInputStream(snapshotFile)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 写入索引文件：先写临时文件再原子替换
+     */
+    void write(String filePath) throws IOException {
+        File target = new File(filePath);
+        File tmpFile = new File(target.getAbsolutePath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(routeCount);
+            out.writeInt(table.size);
+            out.writeLong(snapshotLength);
+            out.writeLong(snapshotMtime);
+            out.writeLong(snapshotCrc);
+            for (int i = 0; i < table.size; i++) {
+                out.writeInt(table.asns[i]);
+                out.writeInt(origin[i].length);
+                out.write(origin[i]);
+                out.writeInt(transit[i].length);
+                out.write(transit[i]);
+            }
+        }
+        Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static AsPathIndex read(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filePath), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("不是有效的 AS_PATH 索引文件: " + filePath);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的 AS_PATH 索引版本: " + version);
+            }
+            int routeCount = in.readInt();
+            int asnCount = in.readInt();
+            long snapshotLength = in.readLong();
+            long snapshotMtime = in.readLong();
+            long snapshotCrc = in.readLong();
+            if (routeCount < 0 || asnCount < 0) {
+                throw new IOException("AS_PATH 索引文件头已损坏: " + filePath);
+            }
+            AsnTable table = new AsnTable(asnCount);
+            byte[][] origin = new byte[asnCount][];
+            byte[][] transit = new byte[asnCount][];
+            for (int i = 0; i < asnCount; i++) {
+                if (table.slot(in.readInt()) != i) {
+                    throw new IOException("AS_PATH 索引中 ASN 重复: " + filePath);
+                }
+                origin[i] = new byte[in.readInt()];
+                in.readFully(origin[i]);
+                transit[i] = new byte[in.readInt()];
+                in.readFully(transit[i]);
+            }
+            return new AsPathIndex(routeCount, snapshotLength, snapshotMtime, snapshotCrc, table, origin, transit);
+        }
+    }
+
+    /**
+     * 逐条写入路由的 AS_PATH，ID 按升序写入时无需排序
+     */
+    static final class Builder {
+        private final AsnTable table = new AsnTable(1024);
+        private int[][] originIds = new int[1024][];
+        private int[] originCounts = new int[1024];
+        private int[][] transitIds = new int[1024][];
+        private int[] transitCounts = new int[1024];
+        private int routeCount;
+
+        /**
+         * @param id 路由 ID，非负
+         * @param asns AS_PATH，为 null 或空时只计入路由数
+         */
+        Builder add(int id, int[] asns) {
+            if (id < 0) {
+                throw new IllegalArgumentException("路由 ID 不能为负数: " + id);
+            }
+            routeCount = Math.max(routeCount, id + 1);
+            if (asns == null || asns.length == 0) return this;
+            int originAs = asns[asns.length - 1];
+            int s = slot(originAs);
+            append(true, s, id);
+            for (int i = 0; i < asns.length - 1; i++) {
+                int asn = asns[i];
+                if (asn == originAs || seenBefore(asns, i)) continue;
+                append(false, slot(asn), id);
+            }
+            return this;
+        }
+
+        AsPathIndex build() {
+            return build(0L, 0L, 0L);
+        }
+
+        /**
+         * 构建与快照文件绑定的索引，记录快照的长度、修改时间和 CRC32
+         */
+        AsPathIndex build(File snapshotFile) throws IOException {
+            return build(snapshotFile.length(), snapshotFile.lastModified(), checksum(snapshotFile));
+        }
+
+        AsPathIndex build(long snapshotLength, long snapshotMtime, long snapshotCrc) {
+            int n = table.size;
+            byte[][] origin = new byte[n][];
+            byte[][] transit = new byte[n][];
+            for (int i = 0; i < n; i++) {
+                origin[i] = encode(originIds[i], originCounts[i]);
+                transit[i] = encode(transitIds[i], transitCounts[i]);
+                originIds[i] = null;
+                transitIds[i] = null;
+            }
+            return new AsPathIndex(routeCount, snapshotLength, snapshotMtime, snapshotCrc, table, origin, transit);
+        }
+
+        private int slot(int asn) {
+            int s = table.slot(asn);
+            if (s == originCounts.length) {
+                int capacity = s * 2;
+                originIds = Arrays.copyOf(originIds, capacity);
+                originCounts = Arrays.copyOf(originCounts, capacity);
+                transitIds = Arrays.copyOf(transitIds, capacity);
+                transitCounts = Arrays.copyOf(transitCounts, capacity);
+            }
+            return s;
+        }
+
+        private void append(boolean isOrigin, int s, int id) {
+            int[][] lists = isOrigin ? originIds : transitIds;
+            int[] counts = isOrigin ? originCounts : transitCounts;
+            int[] ids = lists[s];
+            int n = counts[s];
+            if (ids == null) {
+                ids = lists[s] = new int[4];
+            } else if (n == ids.length) {
+                ids = lists[s] = Arrays.copyOf(ids, n * 2);
+            }
+            ids[n] = id;
+            counts[s] = n + 1;
+        }
+
+        private static boolean seenBefore(int[] asns, int i) {
+            for (int j = 0; j < i; j++) {
+                if (asns[j] == asns[i]) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 将 ID 列表压缩为容器：首字节为类型，随后是 varint 元素数，差分编码时接各 ID 与前一个的差值，
+     * 位图时接 varint 字数和各 64 位字
+     */
+    static byte[] encode(int[] ids, int n) {
+        if (n == 0) return EMPTY_CONTAINER;
+        int[] sorted = Arrays.copyOf(ids, n);
+        boolean ascending = true;
+        for (int i = 1; i < n && ascending; i++) ascending = sorted[i] > sorted[i - 1];
+        if (!ascending) {
+            Arrays.sort(sorted);
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                if (m == 0 || sorted[m - 1] != sorted[i]) sorted[m++] = sorted[i];
+            }
+            n = m;
+        }
+
+        int words = (sorted[n - 1] >>> 6) + 1;
+        int deltaBytes = varintSize(n);
+        for (int i = 0, prev = 0; i < n; i++) {
+            deltaBytes += varintSize(sorted[i] - prev);
+            prev = sorted[i];
+        }
+        int bitmapBytes = varintSize(n) + varintSize(words) + 8 * words;
+
+        if (bitmapBytes < deltaBytes) {
+            long[] bits = new long[words];
+            for (int i = 0; i < n; i++) bits[sorted[i] >>> 6] |= 1L << sorted[i];
+            byte[] out = new byte[1 + bitmapBytes];
+            out[0] = KIND_BITMAP;
+            int p = writeVarint(out, 1, n);
+            p = writeVarint(out, p, words);
+            for (long word : bits) {
+                for (int b = 56; b >= 0; b -= 8) out[p++] = (byte) (word >>> b);
+            }
+            return out;
+        }
+        byte[] out = new byte[1 + deltaBytes];
+        out[0] = KIND_DELTA;
+        int p = writeVarint(out, 1, n);
+        for (int i = 0, prev = 0; i < n; i++) {
+            p = writeVarint(out, p, sorted[i] - prev);
+            prev = sorted[i];
+        }
+        return out;
+    }
+
+    static IdSet decode(byte[] container) {
+        int[] pos = {1};
+        int n = readVarint(container, pos);
+        if (n == 0) return IdSet.EMPTY;
+        if (container[0] == KIND_BITMAP) {
+            long[] bits = new long[readVarint(container, pos)];
+            int p = pos[0];
+            for (int w = 0; w < bits.length; w++) {
+                long word = 0;
+                for (int b = 0; b < 8; b++) word = word << 8 | (container[p++] & 0xff);
+                bits[w] = word;
+            }
+            return IdSet.ofBits(bits);
+        }
+        int[] ids = new int[n];
+        int prev = 0;
+        for (int i = 0; i < n; i++) {
+            prev += readVarint(container, pos);
+            ids[i] = prev;
+        }
+        return IdSet.ofSorted(ids, n);
+    }
+
+    private static int varintSize(int v) {
+        int size = 1;
+        while ((v >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int p, int v) {
+        while ((v & ~0x7f) != 0) {
+            out[p++] = (byte) (v & 0x7f | 0x80);
+            v >>>= 7;
+        }
+        out[p++] = (byte) v;
+        return p;
+    }
+
+    private static int readVarint(byte[] in, int[] pos) {
+        int p = pos[0];
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in[p++];
+            v |= (b & 0x7f) << shift;
+            if (b >= 0) break;
+        }
+        pos[0] = p;
+        return v;
+    }
+
+    /**
+     * ASN → 槽位编号的开放寻址表，槽位按首次出现的顺序分配
+     */
+    private static final class AsnTable {
+        private int[] keys;
+        private int[] slots;
+        private int[] asns;
+        private int size;
+
+        AsnTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            keys = new int[capacity];
+            slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            asns = new int[Math.max(16, expected)];
+        }
+
+        int find(int asn) {
+            int mask = keys.length - 1;
+            int pos = hash(asn) & mask;
+            while (slots[pos] >= 0) {
+                if (keys[pos] == asn) return slots[pos];
+                pos = (pos + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * 查找或分配槽位
+         */
+        int slot(int asn) {
+            int mask = keys.length - 1;
+            int pos = hash(asn) & mask;
+            while (slots[pos] >= 0) {
+                if (keys[pos] == asn) return slots[pos];
+                pos = (pos + 1) & mask;
+            }
+            int s = size++;
+            if (s == asns.length) asns = Arrays.copyOf(asns, s * 2);
+            asns[s] = asn;
+            keys[pos] = asn;
+            slots[pos] = s;
+            if (size * 2 > keys.length) rehash();
+            return s;
+        }
+
+        private void rehash() {
+            int capacity = keys.length * 2;
+            keys = new int[capacity];
+            slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            int mask = capacity - 1;
+            for (int s = 0; s < size; s++) {
+                int pos = hash(asns[s]) & mask;
+                while (slots[pos] >= 0) pos = (pos + 1) & mask;
+                keys[pos] = asns[s];
+                slots[pos] = s;
+            }
+        }
+
+        private static int hash(int asn) {
+            int h = asn * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.sherpherd.bgp.utils;
+
+import java.util.Arrays;
+
+/**
+ * AS_PATH 的原始整数表示：每个 ASN 以 int 保存（按 32 位无符号解释）。
+ */
+final class AsPaths {
+    static final int[] EMPTY = new int[0];
+
+    private AsPaths() {
+    }
+
+    /**
+     * 将空格分隔的 AS_PATH 解析为 int 数组
+     * @return 解析结果，格式无效时返回 null
+     */
+    static int[] parse(String aspath) {
+        if (aspath == null) return null;
+        int n = aspath.length();
+        int[] out = new int[8];
+        int count = 0;
+        int i = 0;
+        while (i < n) {
+            char c = aspath.charAt(i);
+            if (c == ' ' || c == '\t') {
+                i++;
+                continue;
+            }
+            long v = 0;
+            int start = i;
+            while (i < n && (c = aspath.charAt(i)) >= '0' && c <= '9') {
+                v = v * 10 + (c - '0');
+                if (v > 0xFFFFFFFFL) return null;
+                i++;
+            }
+            if (i == start || (i < n && c != ' ' && c != '\t')) return null;
+            if (count == out.length) out = Arrays.copyOf(out, count * 2);
+            out[count++] = (int) v;
+        }
+        return count == 0 ? null : Arrays.copyOf(out, count);
+    }
+
+    static String format(int[] asns) {
+        return format(asns, 0, asns.length);
+    }
+
+    static String format(int[] asns, int from, int to) {
+        StringBuilder sb = new StringBuilder((to - from) * 7);
+        for (int i = from; i < to; i++) {
+            if (i > from) sb.append(' ');
+            sb.append(asns[i] & 0xFFFFFFFFL);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 统计 AS_PATH 的跳数，不创建中间对象
+     */
+    static int length(String aspath) {
+        if (aspath == null) return 0;
+        int count = 0;
+        boolean inToken = false;
+        for (int i = 0; i < aspath.length(); i++) {
+            char c = aspath.charAt(i);
+            boolean space = c == ' ' || c == '\t';
+            if (!space && !inToken) count++;
+            inToken = !space;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,564 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 非交互的批处理入口，供 cron 等场景调用。
+ *
+ * 每个任务由空白分隔的 key=value 组成（值中有空白时用双引号括起），可直接写在命令行上，
+ * 也可以用 --jobs 指定任务文件，每行一个任务，# 开头为注释：
+ * <pre>
+ * name=cn in=rib.mrt out=cn.csv out=cn.txt regex=_4134$ regex=_4837$ aggregate=true
+ * name=cn-route in=cn.csv out=cn.sh nexthop=192.0.2.1
+ * </pre>
+ * 输入按扩展名识别（.csv 为 CSV，其余为 MRT，.txt、.sh 等只能作为输出的格式不能作为输入），输出按扩展名选择格式：.csv、.txt（纯文本）、
+ * .sh / .ip（iproute2 脚本 / ip -batch）、.snap（快照）、.nft / .ipset（防火墙集合），可附加 .gz。
+ * 输入文件相同的任务合并为一次多路输出，输入只读取一遍；输入是另一任务输出的任务在其完成后执行，
+ * 其余任务在有界线程池中并发执行。任一任务失败时返回非零退出码。
+ * --cache 指定目录时启用 {@link ResultCache}，输入和参数未变化的输出直接从缓存复制。
+ * 归约设置（-Dbgp.bestpath、-Dbgp.paths）与多路输出相同；统计和重叠分析报告（-Dbgp.stats、-Dbgp.overlaps）
+ * 不支持，设置时直接以参数错误退出，不执行任何任务。
+ */
+final class BatchRunner {
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    /**
+     * 一个转换任务
+     */
+    static final class Job {
+        final String name;
+        final String input;
+        final List<String> outputs = new ArrayList<>();
+        final List<String> aspathRegex = new ArrayList<>();
+        boolean aggregate;
+        String nexthop;
+        String setName;
+
+        Job(String name, String input) {
+            this.name = name;
+            this.input = input;
+        }
+
+        RouteFanOut.Sink sink(String output) {
+            List<String> regex = aspathRegex.isEmpty() ? null : aspathRegex;
+            switch (outputType(output)) {
+                case "csv":
+                    return RouteFanOut.Sink.csv(new CSVProvider(output), regex, aggregate);
+                case "txt":
+                    return RouteFanOut.Sink.rawText(new RawTextProvider(output), regex, aggregate);
+                case "sh":
+                    return RouteFanOut.Sink.iproute2(new Iproute2ScriptProvider(output), nexthop, regex, aggregate);
+                case "ip":
+                    return RouteFanOut.Sink.iproute2(new Iproute2ScriptProvider(output, Iproute2ScriptProvider.Mode.BATCH),
+                            nexthop, regex, aggregate);
+                case "snap":
+                    return RouteFanOut.Sink.snapshot(new SnapshotProvider(output), regex, aggregate);
+                default: {
+                    FirewallSetProvider set = new FirewallSetProvider(output, "ipset".equals(outputType(output))
+                            ? FirewallSetProvider.Format.IPSET : FirewallSetProvider.Format.NFTABLES);
+                    if (setName != null) {
+                        set.setSetName(setName);
+                    }
+                    return RouteFanOut.Sink.firewallSet(set, regex);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个任务的执行结果
+     */
+    static final class Result {
+        final Job job;
+        /** 相对批处理开始的时间 */
+        long startNanos;
+        long elapsedNanos;
+        /** 与该任务共享输入读取的任务数（含自身） */
+        int sharedWith;
+        /** 所在任务组的指标，与其他并发任务组分开；同组任务共用 */
+        RouteMetrics.Scope metrics;
+        boolean skipped;
+        Throwable error;
+
+        Result(Job job) {
+            this.job = job;
+        }
+
+        boolean succeeded() {
+            return !skipped && error == null;
+        }
+    }
+
+    /**
+     * 输入文件相同的任务，一次多路输出完成
+     */
+    private static final class Group {
+        final String input;
+        final List<Result> results = new ArrayList<>();
+        final Set<Group> dependencies = new HashSet<>();
+        CompletableFuture<Boolean> done;
+
+        Group(String input) {
+            this.input = input;
+        }
+    }
+
+    private static final Set<String> OUTPUT_TYPES = new HashSet<>(Arrays.asList("csv", "txt", "sh", "ip", "snap", "nft", "ipset"));
+
+    private BatchRunner() {
+    }
+
+    /**
+     * 解析命令行并执行任务，返回进程退出码
+     */
+    static int run(String[] args) {
+        return run(args, System.out);
+    }
+
+    static int run(String[] args, PrintStream report) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Job> jobs = new ArrayList<>();
+        List<String> inline = new ArrayList<>();
+        String cacheDir = null;
+        long cacheSize = ResultCache.DEFAULT_MAX_BYTES;
+        ResultCache.InputKey cacheKey = ResultCache.InputKey.CONTENT;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--help".equals(arg) || "-h".equals(arg)) {
+                    printUsage(report);
+                    return EXIT_OK;
+                } else if ("--verbose".equals(arg) || "-v".equals(arg)) {
+                    Main.verbose = true;
+                    DataProvider.setVerbose(true);
+                } else if ("--threads".equals(arg) || "-t".equals(arg)) {
+                    threads = Integer.parseInt(requireValue(args, ++i, arg));
+                    if (threads <= 0) {
+                        throw new IllegalArgumentException("线程数必须大于0: " + threads);
+                    }
+                } else if ("--jobs".equals(arg) || "-j".equals(arg)) {
+                    jobs.addAll(parseJobFile(requireValue(args, ++i, arg)));
+                } else if ("--cache".equals(arg)) {
+                    cacheDir = requireValue(args, ++i, arg);
+                } else if ("--cache-size".equals(arg)) {
+                    cacheSize = ResultCache.parseSize(requireValue(args, ++i, arg));
+                } else if ("--cache-key".equals(arg)) {
+                    cacheKey = ResultCache.parseInputKey(requireValue(args, ++i, arg));
+                } else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("未知选项: " + arg);
+                } else {
+                    inline.add(arg);
+                }
+            }
+            if (!inline.isEmpty()) {
+                jobs.add(parseJob(inline, "job" + (jobs.size() + 1)));
+            }
+            if (jobs.isEmpty()) {
+                throw new IllegalArgumentException("未指定任何任务");
+            }
+            checkJobs(jobs);
+            Generate.checkNoReports("批处理");
+            if (cacheDir != null) {
+                Generate.setResultCache(new ResultCache(new File(cacheDir), cacheSize, cacheKey));
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("参数错误: " + e.getMessage());
+            printUsage(System.err);
+            return EXIT_USAGE;
+        }
+
+        RouteMetrics.reset();
+        long start = System.nanoTime();
+        List<Result> results;
+        try {
+            results = execute(jobs, threads);
+        } catch (IllegalArgumentException e) {
+            System.err.println("参数错误: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        printReport(results, System.nanoTime() - start, report);
+        if (Generate.getResultCache() != null) {
+            report.println("结果缓存: 命中 " + RouteMetrics.counter(RouteMetrics.CACHE_HITS).get()
+                    + "，未命中 " + RouteMetrics.counter(RouteMetrics.CACHE_MISSES).get()
+                    + "，淘汰 " + RouteMetrics.counter(RouteMetrics.CACHE_EVICTIONS).get()
+                    + "，当前 " + Generate.getResultCache().size() + " 字节");
+        }
+        if (Main.verbose) {
+            // 先按任务组分别输出，最后是整个批处理的合计
+            Set<RouteMetrics.Scope> printed = new HashSet<>();
+            for (Result r : results) {
+                if (r.metrics == null || !printed.add(r.metrics)) continue;
+                List<String> names = new ArrayList<>();
+                for (Result other : results) {
+                    if (other.metrics == r.metrics) names.add(other.job.name);
+                }
+                report.println(r.metrics.summary("任务指标: " + String.join(", ", names)));
+            }
+            report.println(RouteMetrics.summary());
+        }
+        Main.writeMetricsJson();
+        for (Result r : results) {
+            if (!r.succeeded()) return EXIT_FAILED;
+        }
+        return EXIT_OK;
+    }
+
+    private static String requireValue(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " 缺少参数");
+        }
+        return args[i];
+    }
+
+    /**
+     * 读取任务文件，空行和 # 开头的行被忽略
+     */
+    static List<Job> parseJobFile(String path) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(Paths.get(path)), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                try {
+                    jobs.add(parseJob(tokenize(line), "line" + lineNo));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(path + " 第 " + lineNo + " 行: " + e.getMessage());
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * 按空白切分一行任务描述，双引号内的空白保留，\" 表示引号本身
+     */
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                current.append('"');
+                inToken = true;
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inToken) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                current.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("引号未闭合: " + line);
+        }
+        if (inToken) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    static Job parseJob(List<String> tokens, String defaultName) {
+        String name = defaultName;
+        String input = null;
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        for (String token : tokens) {
+            int eq = token.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("任务参数必须为 key=value 形式: " + token);
+            }
+            String key = token.substring(0, eq).trim().toLowerCase();
+            String value = token.substring(eq + 1);
+            switch (key) {
+                case "name":
+                    name = value;
+                    break;
+                case "in":
+                    if (input != null) {
+                        throw new IllegalArgumentException("每个任务只能有一个输入: " + token);
+                    }
+                    input = value;
+                    break;
+                case "out":
+                case "regex":
+                case "aggregate":
+                case "nexthop":
+                case "set":
+                    values.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的任务参数: " + key);
+            }
+        }
+        if (input == null || input.isEmpty()) {
+            throw new IllegalArgumentException("任务 " + name + " 缺少输入 (in=)");
+        }
+        if (!isCsvInput(input) && OUTPUT_TYPES.contains(outputType(input))) {
+            throw new IllegalArgumentException("不支持的输入格式: " + input + "（输入只能是 CSV 或 MRT 文件）");
+        }
+        Job job = new Job(name, input);
+        for (String out : values.getOrDefault("out", new ArrayList<>())) {
+            if (!OUTPUT_TYPES.contains(outputType(out))) {
+                throw new IllegalArgumentException("无法识别的输出格式: " + out);
+            }
+            job.outputs.add(out);
+        }
+        if (job.outputs.isEmpty()) {
+            throw new IllegalArgumentException("任务 " + name + " 缺少输出 (out=)");
+        }
+        for (String regex : values.getOrDefault("regex", new ArrayList<>())) {
+            if (!regex.isEmpty()) job.aspathRegex.add(regex);
+        }
+        job.aggregate = parseBoolean(last(values.get("aggregate")), false);
+        job.nexthop = last(values.get("nexthop"));
+        job.setName = last(values.get("set"));
+        for (String out : job.outputs) {
+            String type = outputType(out);
+            if (("sh".equals(type) || "ip".equals(type)) && (job.nexthop == null || job.nexthop.isEmpty())) {
+                throw new IllegalArgumentException("任务 " + name + " 的 iproute2 输出需要 nexthop=: " + out);
+            }
+        }
+        return job;
+    }
+
+    private static String last(List<String> values) {
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    private static boolean parseBoolean(String value, boolean defaultValue) {
+        if (value == null || value.isEmpty()) return defaultValue;
+        switch (value.toLowerCase()) {
+            case "true":
+            case "yes":
+            case "y":
+            case "1":
+                return true;
+            case "false":
+            case "no":
+            case "n":
+            case "0":
+                return false;
+            default:
+                throw new IllegalArgumentException("无效的布尔值: " + value);
+        }
+    }
+
+    /**
+     * 输出格式，取扩展名（忽略 .gz）
+     */
+    static String outputType(String path) {
+        String lower = path.toLowerCase();
+        if (lower.endsWith(DataProvider.GZIP_SUFFIX)) {
+            lower = lower.substring(0, lower.length() - DataProvider.GZIP_SUFFIX.length());
+        }
+        int dot = lower.lastIndexOf('.');
+        int slash = Math.max(lower.lastIndexOf('/'), lower.lastIndexOf(File.separatorChar));
+        return dot > slash ? lower.substring(dot + 1) : "";
+    }
+
+    private static boolean isCsvInput(String path) {
+        return "csv".equals(outputType(path));
+    }
+
+    /**
+     * 任务名和输出文件不能重复，否则报告和输出会互相覆盖
+     */
+    private static void checkJobs(List<Job> jobs) {
+        Set<String> names = new HashSet<>();
+        Set<String> outputs = new HashSet<>();
+        for (Job job : jobs) {
+            if (!names.add(job.name)) {
+                throw new IllegalArgumentException("任务名重复: " + job.name);
+            }
+            for (String out : job.outputs) {
+                if (!outputs.add(canonical(out))) {
+                    throw new IllegalArgumentException("输出文件被多个任务使用: " + out);
+                }
+            }
+        }
+    }
+
+    private static String canonical(String path) {
+        try {
+            return new File(path).getCanonicalPath();
+        } catch (IOException e) {
+            return new File(path).getAbsolutePath();
+        }
+    }
+
+    /**
+     * 执行任务，返回与 jobs 顺序一致的结果
+     * @param threads 同时执行的任务组数
+     */
+    static List<Result> execute(List<Job> jobs, int threads) {
+        Map<String, Group> groups = new LinkedHashMap<>();
+        Map<String, Group> producers = new LinkedHashMap<>();
+        List<Result> results = new ArrayList<>();
+        for (Job job : jobs) {
+            Group group = groups.computeIfAbsent(canonical(job.input), Group::new);
+            Result result = new Result(job);
+            group.results.add(result);
+            results.add(result);
+            for (String out : job.outputs) {
+                producers.put(canonical(out), group);
+            }
+        }
+        for (Map.Entry<String, Group> e : groups.entrySet()) {
+            Group producer = producers.get(e.getKey());
+            if (producer == e.getValue()) {
+                throw new IllegalArgumentException("任务的输出不能覆盖自身输入: " + e.getKey());
+            }
+            if (producer != null) {
+                e.getValue().dependencies.add(producer);
+            }
+        }
+
+        AtomicInteger seq = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, groups.size()), r -> {
+            Thread t = new Thread(r, "batch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        long origin = System.nanoTime();
+        try {
+            Set<Group> visiting = new HashSet<>();
+            for (Group group : groups.values()) {
+                schedule(group, pool, origin, visiting);
+            }
+            for (Group group : groups.values()) {
+                group.done.join();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    private static CompletableFuture<Boolean> schedule(Group group, ExecutorService pool, long origin, Set<Group> visiting) {
+        if (group.done != null) return group.done;
+        if (!visiting.add(group)) {
+            throw new IllegalArgumentException("任务之间存在循环依赖: " + group.input);
+        }
+        List<CompletableFuture<Boolean>> deps = new ArrayList<>();
+        for (Group dep : group.dependencies) {
+            deps.add(schedule(dep, pool, origin, visiting));
+        }
+        visiting.remove(group);
+        group.done = CompletableFuture.allOf(deps.toArray(new CompletableFuture<?>[0])).thenApplyAsync(v -> {
+            for (CompletableFuture<Boolean> dep : deps) {
+                if (!dep.join()) {
+                    for (Result r : group.results) r.skipped = true;
+                    return false;
+                }
+            }
+            return runGroup(group, origin);
+        }, pool);
+        return group.done;
+    }
+
+    private static boolean runGroup(Group group, long origin) {
+        long start = System.nanoTime();
+        Throwable error = null;
+        RouteMetrics.Scope metrics = new RouteMetrics.Scope();
+        RouteMetrics.Scope previous = metrics.enter();
+        try {
+            Generate.checkInputFile(group.input);
+            DataProvider in = isCsvInput(group.input) ? new CSVProvider(group.input) : new MRTProvider(group.input);
+            List<RouteFanOut.Sink> sinks = new ArrayList<>();
+            for (Result r : group.results) {
+                for (String out : r.job.outputs) {
+                    sinks.add(r.job.sink(out));
+                }
+            }
+            Generate.generateFanOut(in, sinks);
+        } catch (Throwable e) {
+            error = e;
+            if (Main.verbose) {
+                e.printStackTrace();
+            }
+        } finally {
+            RouteMetrics.restore(previous);
+        }
+        long elapsed = System.nanoTime() - start;
+        for (Result r : group.results) {
+            r.startNanos = start - origin;
+            r.elapsedNanos = elapsed;
+            r.sharedWith = group.results.size();
+            r.metrics = metrics;
+            r.error = error;
+        }
+        return error == null;
+    }
+
+    static void printReport(List<Result> results, long totalNanos, PrintStream out) {
+        out.println("=== 批处理报告 ===");
+        out.println(String.format("%-20s %-6s %10s %10s %10s %10s %6s  %s", "任务", "状态", "开始", "耗时", "读取", "写出",
+                "输出", "说明"));
+        int failed = 0;
+        for (Result r : results) {
+            String status = r.skipped ? "跳过" : r.error != null ? "失败" : "成功";
+            String note;
+            if (r.skipped) {
+                note = "依赖的任务失败";
+            } else if (r.error != null) {
+                note = r.error.getMessage() != null ? r.error.getMessage() : r.error.getClass().getSimpleName();
+            } else {
+                note = r.sharedWith > 1 ? "与 " + (r.sharedWith - 1) + " 个任务共享输入 " + r.job.input : r.job.input;
+            }
+            if (!r.succeeded()) failed++;
+            // 读取和写出条数来自任务组自己的指标，共享输入的任务显示同一组的数量
+            String read = r.metrics == null ? "-" : Long.toString(r.metrics.counter(RouteMetrics.READ_RECORDS).get());
+            String written = r.metrics == null ? "-" : Long.toString(r.metrics.counter(RouteMetrics.WRITE_RECORDS).get());
+            out.println(String.format("%-20s %-6s %10s %10s %10s %10s %6d  %s", r.job.name, status,
+                    formatSeconds(r.startNanos), r.skipped ? "-" : formatSeconds(r.elapsedNanos), read, written,
+                    r.job.outputs.size(), note));
+        }
+        out.println("共 " + results.size() + " 个任务，失败 " + failed + " 个，总耗时 " + formatSeconds(totalNanos));
+    }
+
+    private static String formatSeconds(long nanos) {
+        return String.format("%.2fs", nanos / 1e9);
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("用法: java -jar bgp-utils-cli.jar [--threads N] [--verbose] [--cache 目录] (--jobs 任务文件 | key=value ...)");
+        out.println("  任务参数: name=名称 in=输入 out=输出(可重复) regex=AS_PATH正则(可重复) aggregate=true|false");
+        out.println("           nexthop=下一跳(.sh/.ip 输出) set=集合名(.nft/.ipset 输出)");
+        out.println("  输出格式: .csv .txt .sh .ip .snap .nft .ipset，可附加 .gz");
+        out.println("  --cache 目录 [--cache-size 1G] [--cache-key content|stat]: 启用转换结果缓存");
+        out.println("  -Dbgp.bestpath / -Dbgp.paths 对所有任务生效；不支持 -Dbgp.stats 和 -Dbgp.overlaps");
+        out.println("  不带参数运行时进入交互菜单");
+    }
+}
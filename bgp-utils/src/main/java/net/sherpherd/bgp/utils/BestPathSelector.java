@@ -0,0 +1,376 @@
+package net.sherpherd.bgp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BGP 最优路径选择。
+ *
+ * 按 RFC 4271 9.1.2.2 的顺序比较：LOCAL_PREF 高者优先，AS_PATH 短者优先，ORIGIN 低者优先（IGP &lt; EGP &lt; INCOMPLETE），
+ * 相邻 AS 相同时 MED 低者优先，最后依次比较路由器 ID 和对等体地址，取较小者；仍然相同时保留输入序号最小的。
+ * MRT 中没有 eBGP/iBGP 和 IGP 开销信息，这两步跳过。
+ *
+ * 前三项打包为一个 long（pref），路由器 ID 和对等体地址打包为另一个 long（tie），比较只是无符号整数比较。
+ * MED 只能在相邻 AS 相同的候选之间比较，因此按 (前缀, 相邻 AS) 分组：组内按 pref、MED、tie、序号保留胜者，
+ * routes() 再在同一前缀的各组胜者之间按 pref、tie、序号选出结果（即 deterministic-med）。
+ * 这样结果与写入顺序和线程交错无关。分组表按哈希高位分成若干条带，与 {@link ConcurrentRouteReducer} 相同。
+ */
+final class BestPathSelector {
+    static final long DEFAULT_LOCAL_PREF = 100;
+    static final int ORIGIN_IGP = 0;
+    static final int ORIGIN_EGP = 1;
+    static final int ORIGIN_INCOMPLETE = 2;
+    /** 未知的 ORIGIN 排在 INCOMPLETE 之后 */
+    static final int ORIGIN_UNKNOWN = 3;
+
+    /**
+     * 一条候选路由的选路属性
+     */
+    static final class PathAttributes {
+        /** 没有属性的输入（如 CSV）使用的默认值，此时选路退化为最短 AS_PATH 加先到先得 */
+        static final PathAttributes DEFAULT = new PathAttributes(DEFAULT_LOCAL_PREF, ORIGIN_IGP, 0, 0, 0);
+
+        final long localPref;
+        final int origin;
+        final long med;
+        /** 路由器 ID（有 ORIGINATOR_ID 时取它），按 32 位无符号解释 */
+        final long routerId;
+        /** 对等体地址：IPv4 为地址本身，IPv6 为低 32 位 */
+        final long peer;
+
+        PathAttributes(long localPref, int origin, long med, long routerId, long peer) {
+            this.localPref = localPref & 0xffffffffL;
+            this.origin = origin < ORIGIN_IGP || origin > ORIGIN_INCOMPLETE ? ORIGIN_UNKNOWN : origin;
+            this.med = med & 0xffffffffL;
+            this.routerId = routerId & 0xffffffffL;
+            this.peer = peer & 0xffffffffL;
+        }
+
+        /**
+         * 从 route_btoa 格式的记录文本中解析属性：
+         * TYPE|时间|B|对等体|对等体AS|前缀|AS_PATH|ORIGIN|NEXT_HOP|LOCAL_PREF|MED|...
+         * 缺少或无法解析的字段取默认值
+         */
+        static PathAttributes parse(String record) {
+            if (record == null) return DEFAULT;
+            String[] parts = record.split("\\|");
+            long peer = parts.length > 3 ? peerBits(parts[3].trim()) : 0;
+            int origin = parts.length > 7 ? parseOrigin(parts[7].trim()) : ORIGIN_IGP;
+            long localPref = parts.length > 9 ? parseUnsigned(parts[9], DEFAULT_LOCAL_PREF) : DEFAULT_LOCAL_PREF;
+            long med = parts.length > 10 ? parseUnsigned(parts[10], 0) : 0;
+            // 对等体是 IPv4 时一般与 BGP ID 相同；IPv6 对等体的 BGP ID 在 MRT 中不可见，记为 0
+            long routerId = parts.length > 3 && parts[3].indexOf(':') < 0 ? peer : 0;
+            return new PathAttributes(localPref, origin, med, routerId, peer);
+        }
+
+        static int parseOrigin(String origin) {
+            switch (origin.toUpperCase()) {
+                case "IGP":
+                case "I":
+                    return ORIGIN_IGP;
+                case "EGP":
+                case "E":
+                    return ORIGIN_EGP;
+                case "INCOMPLETE":
+                case "?":
+                    return ORIGIN_INCOMPLETE;
+                default:
+                    return ORIGIN_UNKNOWN;
+            }
+        }
+
+        /**
+         * 对等体地址的低 32 位，无法解析时为 0
+         */
+        static long peerBits(String address) {
+            if (address.isEmpty()) return 0;
+            if (address.indexOf(':') < 0) {
+                long packed = PackedPrefix.parseIPv4(address + "/32");
+                return packed < 0 ? 0 : PackedPrefix.ipv4Address(packed);
+            }
+            long[] key = new long[3];
+            return PackedPrefix.parseIPv6(address + "/128", key) ? key[1] & 0xffffffffL : 0;
+        }
+
+        private static long parseUnsigned(String value, long defaultValue) {
+            try {
+                return Long.parseLong(value.trim()) & 0xffffffffL;
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
+
+    static final int DEFAULT_STRIPES = 256;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    BestPathSelector() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes 条带数，会向上取整为 2 的幂
+     */
+    BestPathSelector(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("条带数必须大于0: " + stripes);
+        }
+        int n = Integer.highestOneBit(stripes - 1 == 0 ? 1 : (stripes - 1) << 1);
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(n);
+    }
+
+    /**
+     * 选路的主键，越小越优：高 32 位为 LOCAL_PREF 取反，其后 16 位为 AS_PATH 跳数，再 2 位为 ORIGIN
+     * @param pathLen AS_PATH 跳数，超过 65535 时按 65535 计
+     */
+    static long prefKey(long localPref, int pathLen, int origin) {
+        return (~localPref & 0xffffffffL) << 32
+                | (long) Math.min(Math.max(pathLen, 0), 0xffff) << 16
+                | (long) (origin & 3) << 14;
+    }
+
+    /**
+     * 最后的取舍键，越小越优：高 32 位为路由器 ID，低 32 位为对等体地址
+     */
+    static long tieKey(long routerId, long peer) {
+        return (routerId & 0xffffffffL) << 32 | (peer & 0xffffffffL);
+    }
+
+    /**
+     * AS_PATH 的第一个 ASN，即相邻 AS；AS_PATH 为空或以 AS_SET 开头时为 0
+     */
+    static int neighborAs(String aspath) {
+        if (aspath == null) return 0;
+        long v = 0;
+        boolean digits = false;
+        for (int i = 0; i < aspath.length(); i++) {
+            char c = aspath.charAt(i);
+            if (c >= '0' && c <= '9') {
+                v = v * 10 + (c - '0');
+                if (v > 0xffffffffL) return 0;
+                digits = true;
+            } else if (digits || c != ' ' && c != '\t') {
+                break;
+            }
+        }
+        return digits ? (int) v : 0;
+    }
+
+    /**
+     * 写入一条候选路由
+     * @param family 地址家族（PackedPrefix.FAMILY_IPV4 / FAMILY_IPV6）
+     * @param hi IPv4 为网络地址，IPv6 为高 64 位
+     * @param lo IPv6 低 64 位，IPv4 为 0
+     * @param len 前缀长度
+     * @param pathLen AS_PATH 跳数
+     * @param attributes 选路属性，为 null 时使用默认值
+     * @param seq 输入序号，作为最后的取舍规则，routes() 的输出顺序也依赖它
+     * @param route 原始路由数据，route[1] 为 AS_PATH
+     * @return 该路由成为所在 (前缀, 相邻 AS) 分组的当前胜者时返回 true
+     */
+    boolean offer(int family, long hi, long lo, int len, int pathLen, PathAttributes attributes, long seq, String[] route) {
+        PathAttributes a = attributes == null ? PathAttributes.DEFAULT : attributes;
+        int neighbor = neighborAs(route.length > 1 ? route[1] : null);
+        long pref = prefKey(a.localPref, pathLen, a.origin);
+        long tie = tieKey(a.routerId, a.peer);
+        int meta = family << 8 | len;
+        int h = RoutePipeline.ShortestPathTable.hash(hi, lo ^ neighbor * 0x9E3779B97F4A7C15L, meta);
+        Stripe stripe = stripes.length == 1 ? stripes[0] : stripes[h >>> stripeShift];
+        synchronized (stripe) {
+            return stripe.offer(h, meta, hi, lo, neighbor, pref, a.med, tie, seq, route);
+        }
+    }
+
+    /**
+     * 选路结果，每个前缀一条，按前缀第一次出现的序号排序；调用时不应再有写入
+     */
+    List<String[]> routes() {
+        int total = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                total += stripe.size;
+            }
+        }
+        int[] meta = new int[total];
+        long[] hi = new long[total];
+        long[] lo = new long[total];
+        long[] pref = new long[total];
+        long[] tie = new long[total];
+        long[] seq = new long[total];
+        long[] firstSeq = new long[total];
+        String[][] rows = new String[total][];
+        int k = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int s = 0; s < stripe.meta.length; s++) {
+                    if (stripe.meta[s] == 0) continue;
+                    meta[k] = stripe.meta[s];
+                    hi[k] = stripe.hi[s];
+                    lo[k] = stripe.lo[s];
+                    pref[k] = stripe.pref[s];
+                    tie[k] = stripe.tie[s];
+                    seq[k] = stripe.seq[s];
+                    firstSeq[k] = stripe.firstSeq[s];
+                    rows[k] = stripe.route[s];
+                    k++;
+                }
+            }
+        }
+
+        // 同一前缀的各组胜者相邻，组间只比较 pref、tie 和序号
+        Integer[] idx = new Integer[k];
+        for (int i = 0; i < k; i++) idx[i] = i;
+        Arrays.sort(idx, (x, y) -> {
+            int c = Integer.compare(meta[x], meta[y]);
+            if (c == 0) c = Long.compareUnsigned(hi[x], hi[y]);
+            if (c == 0) c = Long.compareUnsigned(lo[x], lo[y]);
+            if (c == 0) c = Long.compareUnsigned(pref[x], pref[y]);
+            if (c == 0) c = Long.compareUnsigned(tie[x], tie[y]);
+            if (c == 0) c = Long.compare(seq[x], seq[y]);
+            return c;
+        });
+        int prefixes = 0;
+        int[] winner = new int[k];
+        long[] order = new long[k];
+        for (int i = 0; i < k; ) {
+            int best = idx[i];
+            long first = firstSeq[best];
+            int j = i + 1;
+            while (j < k && meta[idx[j]] == meta[best] && hi[idx[j]] == hi[best] && lo[idx[j]] == lo[best]) {
+                first = Math.min(first, firstSeq[idx[j]]);
+                j++;
+            }
+            winner[prefixes] = best;
+            order[prefixes] = first;
+            prefixes++;
+            i = j;
+        }
+
+        Integer[] out = new Integer[prefixes];
+        for (int i = 0; i < prefixes; i++) out[i] = i;
+        Arrays.sort(out, (x, y) -> Long.compare(order[x], order[y]));
+        List<String[]> result = new ArrayList<>(prefixes);
+        for (Integer i : out) {
+            result.add(rows[winner[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * 分组内的胜者被更优路由替换的次数
+     */
+    long replacements() {
+        long n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.replacements;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 一个条带：以 (前缀, 相邻 AS) 为键的开放寻址表，由调用者持有条带锁
+     */
+    private static final class Stripe {
+        long[] hi = new long[64];
+        long[] lo = new long[64];
+        int[] meta = new int[64];
+        int[] neighbor = new int[64];
+        long[] pref = new long[64];
+        long[] med = new long[64];
+        long[] tie = new long[64];
+        long[] seq = new long[64];
+        long[] firstSeq = new long[64];
+        String[][] route = new String[64][];
+        int size;
+        long replacements;
+
+        boolean offer(int h, int m, long keyHi, long keyLo, int as, long p, long md, long t, long s, String[] r) {
+            int mask = meta.length - 1;
+            int slot = h & mask;
+            while (meta[slot] != 0) {
+                if (meta[slot] == m && hi[slot] == keyHi && lo[slot] == keyLo && neighbor[slot] == as) {
+                    if (s < firstSeq[slot]) firstSeq[slot] = s;
+                    int c = Long.compareUnsigned(p, pref[slot]);
+                    if (c == 0) c = Long.compare(md, med[slot]);
+                    if (c == 0) c = Long.compareUnsigned(t, tie[slot]);
+                    if (c == 0) c = Long.compare(s, seq[slot]);
+                    if (c >= 0) return false;
+                    replacements++;
+                    pref[slot] = p;
+                    med[slot] = md;
+                    tie[slot] = t;
+                    seq[slot] = s;
+                    route[slot] = r;
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            meta[slot] = m;
+            hi[slot] = keyHi;
+            lo[slot] = keyLo;
+            neighbor[slot] = as;
+            pref[slot] = p;
+            med[slot] = md;
+            tie[slot] = t;
+            seq[slot] = s;
+            firstSeq[slot] = s;
+            route[slot] = r;
+            if (++size * 2 > meta.length) {
+                rehash();
+            }
+            return true;
+        }
+
+        private void rehash() {
+            long[] oldHi = hi;
+            long[] oldLo = lo;
+            int[] oldMeta = meta;
+            int[] oldNeighbor = neighbor;
+            long[] oldPref = pref;
+            long[] oldMed = med;
+            long[] oldTie = tie;
+            long[] oldSeq = seq;
+            long[] oldFirst = firstSeq;
+            String[][] oldRoute = route;
+            int capacity = oldMeta.length * 2;
+            hi = new long[capacity];
+            lo = new long[capacity];
+            meta = new int[capacity];
+            neighbor = new int[capacity];
+            pref = new long[capacity];
+            med = new long[capacity];
+            tie = new long[capacity];
+            seq = new long[capacity];
+            firstSeq = new long[capacity];
+            route = new String[capacity][];
+            int mask = capacity - 1;
+            for (int s = 0; s < oldMeta.length; s++) {
+                if (oldMeta[s] == 0) continue;
+                int h = RoutePipeline.ShortestPathTable.hash(oldHi[s], oldLo[s] ^ oldNeighbor[s] * 0x9E3779B97F4A7C15L, oldMeta[s]);
+                int slot = h & mask;
+                while (meta[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hi[slot] = oldHi[s];
+                lo[slot] = oldLo[s];
+                meta[slot] = oldMeta[s];
+                neighbor[slot] = oldNeighbor[s];
+                pref[slot] = oldPref[s];
+                med[slot] = oldMed[s];
+                tie[slot] = oldTie[s];
+                seq[slot] = oldSeq[s];
+                firstSeq[slot] = oldFirst[s];
+                route[slot] = oldRoute[s];
+            }
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * bogon/martian 过滤：拒绝落在保留地址段内的前缀、过长的前缀（默认长于 /24 或 /48）以及 AS_PATH 中含保留 ASN 的路由。
+ *
+ * 规则在构建时编译为有序、互不重叠的区间数组（IPv4、IPv6、ASN 各一组），每个区间记录命中的规则；
+ * 多条规则重叠时先定义的优先。前缀落在某个区间及其连续的后继区间内即被拒绝，查找是一次二分，
+ * IPv4 和 ASN 只比较一个 long，循环体可以编译为条件传送。检查直接作用在解析出的地址和 ASN 上，
+ * 每条规则有自己的拒绝计数器 reject.bogon.规则名。
+ *
+ * 规则文件每行一条，# 开头为注释：
+ * <pre>
+ * defaults                       加入默认规则
+ * prefix 规则名 CIDR
+ * asn 规则名 起始[-结束]
+ * max-length IPv4长度 IPv6长度
+ * </pre>
+ */
+final class BogonFilter {
+    static final String RULE_TOO_SPECIFIC = "too-specific";
+    static final String COUNTER_PREFIX = "reject.bogon.";
+
+    private static final long IPV4_MAX = 0xffffffffL;
+    private static final long ASN_MAX = 0xffffffffL;
+
+    private static volatile BogonFilter active = null;
+
+    private final String[] rules;
+    private final RouteMetrics.Counter[] counters;
+    private final IntervalSet v4;
+    private final IntervalSet v6;
+    private final IntervalSet asns;
+    private final int maxLengthV4;
+    private final int maxLengthV6;
+    private final int tooSpecific;
+    private final String digest;
+
+    private BogonFilter(Builder b) {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        for (long[] r : b.v4) ids.putIfAbsent(b.names.get((int) r[4]), ids.size());
+        for (long[] r : b.v6) ids.putIfAbsent(b.names.get((int) r[4]), ids.size());
+        for (long[] r : b.asns) ids.putIfAbsent(b.names.get((int) r[4]), ids.size());
+        ids.putIfAbsent(RULE_TOO_SPECIFIC, ids.size());
+        this.rules = ids.keySet().toArray(new String[0]);
+        this.counters = new RouteMetrics.Counter[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            counters[i] = RouteMetrics.counter(COUNTER_PREFIX + rules[i]);
+        }
+        this.v4 = IntervalSet.compile(b.v4, b.names, ids, 0L, IPV4_MAX);
+        this.v6 = IntervalSet.compile(b.v6, b.names, ids, -1L, -1L);
+        this.asns = IntervalSet.compile(b.asns, b.names, ids, 0L, ASN_MAX);
+        this.maxLengthV4 = b.maxLengthV4;
+        this.maxLengthV6 = b.maxLengthV6;
+        this.tooSpecific = ids.get(RULE_TOO_SPECIFIC);
+        this.digest = computeDigest();
+    }
+
+    /**
+     * 编译后规则集的 SHA-256，用于结果缓存键：规则内容相同（无论来自默认规则还是规则文件）则相同
+     */
+    String digest() {
+        return digest;
+    }
+
+    /**
+     * 过滤器的摘要，未启用（null）时为 "none"
+     */
+    static String digestOf(BogonFilter filter) {
+        return filter == null ? "none" : filter.digest();
+    }
+
+    private String computeDigest() {
+        MessageDigest md = ResultCache.sha256();
+        for (String rule : rules) {
+            md.update(rule.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        md.update(buf.putInt(maxLengthV4).putInt(maxLengthV6).array());
+        for (IntervalSet set : new IntervalSet[]{v4, v6, asns}) {
+            buf.clear();
+            md.update(buf.putInt(set.size).putInt(0).array());
+            for (int i = 0; i < set.size; i++) {
+                ByteBuffer entry = ByteBuffer.allocate(36);
+                entry.putLong(set.startHi[i]).putLong(set.startLo[i])
+                        .putLong(set.endHi[i]).putLong(set.endLo[i]).putInt(set.rule[i]);
+                md.update(entry.array());
+            }
+        }
+        return ResultCache.hex(md.digest());
+    }
+
+    /**
+     * 当前生效的过滤器，未启用时为 null
+     */
+    static BogonFilter active() {
+        return active;
+    }
+
+    static void setActive(BogonFilter filter) {
+        active = filter;
+    }
+
+    /**
+     * 按系统属性创建过滤器：bgp.bogon.rules 指定规则文件，否则 bgp.bogon=true 时使用默认规则，都未设置时返回 null
+     */
+    static BogonFilter fromSystemProperties() throws IOException {
+        String rulesFile = System.getProperty("bgp.bogon.rules");
+        if (rulesFile != null && !rulesFile.isEmpty()) {
+            return new Builder().load(new File(rulesFile)).build();
+        }
+        return Boolean.getBoolean("bgp.bogon") ? defaults() : null;
+    }
+
+    static BogonFilter defaults() {
+        return new Builder().defaults().build();
+    }
+
+    /**
+     * 检查一条路由，命中时递增对应规则的计数器
+     * @return 未命中任何规则时返回 true
+     */
+    boolean accept(String prefix, String aspath) {
+        int rule = check(prefix, aspath);
+        if (rule < 0) return true;
+        counters[rule].increment();
+        return false;
+    }
+
+    /**
+     * 检查一条路由，不计数；无法解析的前缀视为未命中，由调用方的有效性检查处理
+     * @return 命中的规则编号，未命中时返回 -1
+     */
+    int check(String prefix, String aspath) {
+        int rule = -1;
+        String p = prefix == null ? "" : prefix.trim();
+        if (PackedPrefix.family(p) == PackedPrefix.FAMILY_IPV4) {
+            long packed = PackedPrefix.parseIPv4(p);
+            if (packed >= 0) rule = checkIPv4(PackedPrefix.ipv4Address(packed), PackedPrefix.ipv4Length(packed));
+        } else {
+            long[] v = new long[3];
+            if (PackedPrefix.parseIPv6(p, v)) rule = checkIPv6(v[0], v[1], (int) v[2]);
+        }
+        return rule >= 0 ? rule : checkPath(aspath);
+    }
+
+    int checkIPv4(long addr, int len) {
+        if (len > maxLengthV4) return tooSpecific;
+        return v4.containing(0L, addr, 0L, addr | (~PackedPrefix.ipv4Mask(len) & IPV4_MAX));
+    }
+
+    int checkIPv6(long hi, long lo, int len) {
+        if (len > maxLengthV6) return tooSpecific;
+        return v6.containing(hi, lo, hi | ~PackedPrefix.ipv6MaskHi(len), lo | ~PackedPrefix.ipv6MaskLo(len));
+    }
+
+    int checkAsn(long asn) {
+        int i = asns.floorLow(asn);
+        return i >= 0 && asn <= asns.endLo[i] ? asns.rule[i] : -1;
+    }
+
+    /**
+     * 逐个解析 AS_PATH 中的十进制 ASN（AS_SET 的花括号和逗号视为分隔符），不创建中间对象
+     */
+    int checkPath(String aspath) {
+        if (aspath == null || asns.size == 0) return -1;
+        long v = -1;
+        for (int i = 0, n = aspath.length(); i <= n; i++) {
+            char c = i < n ? aspath.charAt(i) : ' ';
+            if (c >= '0' && c <= '9') {
+                v = v < 0 ? c - '0' : Math.min(v * 10 + (c - '0'), ASN_MAX + 1);
+            } else if (v >= 0) {
+                int rule = v <= ASN_MAX ? checkAsn(v) : -1;
+                if (rule >= 0) return rule;
+                v = -1;
+            }
+        }
+        return -1;
+    }
+
+    String ruleName(int rule) {
+        return rules[rule];
+    }
+
+    int ruleCount() {
+        return rules.length;
+    }
+
+    /**
+     * 规则的拒绝次数（自上次 RouteMetrics.reset() 起）
+     */
+    long rejects(String rule) {
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i].equals(rule)) return counters[i].get();
+        }
+        return 0;
+    }
+
+    static final class Builder {
+        // 每条区间: {startHi, startLo, endHi, endLo, nameId}
+        private final List<long[]> v4 = new ArrayList<>();
+        private final List<long[]> v6 = new ArrayList<>();
+        private final List<long[]> asns = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private int maxLengthV4 = 32;
+        private int maxLengthV6 = 128;
+
+        /**
+         * 默认规则：RFC 6890 等保留的 IPv4/IPv6 地址段、RFC 7607/5398/6996/7300 等保留的 ASN，
+         * 以及长于 /24（IPv4）和 /48（IPv6）的前缀
+         */
+        Builder defaults() {
+            prefixes("this-network", "0.0.0.0/8");
+            prefixes("private", "10.0.0.0/8", "100.64.0.0/10", "172.16.0.0/12", "192.168.0.0/16", "fc00::/7");
+            prefixes("loopback", "127.0.0.0/8", "::1/128");
+            prefixes("link-local", "169.254.0.0/16", "fe80::/10");
+            prefixes("documentation", "192.0.2.0/24", "198.51.100.0/24", "203.0.113.0/24", "2001:db8::/32");
+            prefixes("reserved", "192.0.0.0/24", "198.18.0.0/15", "240.0.0.0/4", "::/8", "100::/64",
+                    "2001:2::/48", "2001:10::/28", "3ffe::/16", "fec0::/10");
+            prefixes("multicast", "224.0.0.0/4", "ff00::/8");
+            asn("reserved-asn", 0, 0);
+            asn("reserved-asn", 23456, 23456);
+            asn("documentation-asn", 64496, 64511);
+            asn("private-asn", 64512, 65534);
+            asn("reserved-asn", 65535, 65535);
+            asn("documentation-asn", 65536, 65551);
+            asn("reserved-asn", 65552, 131071);
+            asn("private-asn", 4200000000L, 4294967294L);
+            asn("reserved-asn", 4294967295L, 4294967295L);
+            return maxLength(24, 48);
+        }
+
+        Builder prefixes(String rule, String... cidrs) {
+            for (String cidr : cidrs) prefix(rule, cidr);
+            return this;
+        }
+
+        Builder prefix(String rule, String cidr) {
+            long id = nameId(rule);
+            String p = cidr.trim();
+            if (PackedPrefix.family(p) == PackedPrefix.FAMILY_IPV4) {
+                long packed = PackedPrefix.parseIPv4(p);
+                if (packed < 0) {
+                    throw new IllegalArgumentException("无效的 bogon 前缀: " + cidr);
+                }
+                long addr = PackedPrefix.ipv4Address(packed);
+                long end = addr | (~PackedPrefix.ipv4Mask(PackedPrefix.ipv4Length(packed)) & IPV4_MAX);
+                v4.add(new long[]{0L, addr, 0L, end, id});
+                return this;
+            }
+            long[] v = new long[3];
+            if (!PackedPrefix.parseIPv6(p, v)) {
+                throw new IllegalArgumentException("无效的 bogon 前缀: " + cidr);
+            }
+            int len = (int) v[2];
+            v6.add(new long[]{v[0], v[1], v[0] | ~PackedPrefix.ipv6MaskHi(len), v[1] | ~PackedPrefix.ipv6MaskLo(len), id});
+            return this;
+        }
+
+        Builder asn(String rule, long first, long last) {
+            if (first < 0 || last > ASN_MAX || first > last) {
+                throw new IllegalArgumentException("无效的 ASN 范围: " + first + "-" + last);
+            }
+            asns.add(new long[]{0L, first, 0L, last, nameId(rule)});
+            return this;
+        }
+
+        /**
+         * 前缀长度上限，更长的前缀按 too-specific 拒绝
+         */
+        Builder maxLength(int v4Length, int v6Length) {
+            if (v4Length < 0 || v4Length > 32 || v6Length < 0 || v6Length > 128) {
+                throw new IllegalArgumentException("无效的前缀长度上限: " + v4Length + " " + v6Length);
+            }
+            this.maxLengthV4 = v4Length;
+            this.maxLengthV6 = v6Length;
+            return this;
+        }
+
+        /**
+         * 读取规则文件，格式见类注释
+         */
+        Builder load(File file) throws IOException {
+            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+                String line;
+                int lineNo = 0;
+                while ((line = br.readLine()) != null) {
+                    lineNo++;
+                    int hash = line.indexOf('#');
+                    String[] f = (hash >= 0 ? line.substring(0, hash) : line).trim().split("\\s+");
+                    if (f[0].isEmpty()) continue;
+                    try {
+                        if ("defaults".equals(f[0]) && f.length == 1) {
+                            defaults();
+                        } else if ("prefix".equals(f[0]) && f.length == 3) {
+                            prefix(f[1], f[2]);
+                        } else if ("asn".equals(f[0]) && f.length == 3) {
+                            int dash = f[2].indexOf('-');
+                            long first = Long.parseLong(dash < 0 ? f[2] : f[2].substring(0, dash));
+                            asn(f[1], first, dash < 0 ? first : Long.parseLong(f[2].substring(dash + 1)));
+                        } else if ("max-length".equals(f[0]) && f.length == 3) {
+                            maxLength(Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+                        } else {
+                            throw new IllegalArgumentException("无法识别的规则");
+                        }
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("bogon 规则文件 " + file + " 第 " + lineNo + " 行: "
+                                + e.getMessage(), e);
+                    }
+                }
+            }
+            return this;
+        }
+
+        BogonFilter build() {
+            return new BogonFilter(this);
+        }
+
+        private long nameId(String rule) {
+            if (rule == null || rule.isEmpty()) {
+                throw new IllegalArgumentException("规则名不能为空");
+            }
+            int id = names.indexOf(rule);
+            if (id < 0) {
+                id = names.size();
+                names.add(rule);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * 有序、互不重叠的 128 位闭区间，IPv4 和 ASN 只使用 lo
+     */
+    private static final class IntervalSet {
+        final long[] startHi;
+        final long[] startLo;
+        final long[] endHi;
+        final long[] endLo;
+        // 从该区间起连续相接的区间的最后终点
+        final long[] reachHi;
+        final long[] reachLo;
+        final int[] rule;
+        final int size;
+        // 取值不超过 63 位（IPv4、ASN）时只比较 lo
+        final boolean narrow;
+
+        private IntervalSet(int n, boolean narrow) {
+            startHi = new long[n];
+            startLo = new long[n];
+            endHi = new long[n];
+            endLo = new long[n];
+            reachHi = new long[n];
+            reachLo = new long[n];
+            rule = new int[n];
+            size = n;
+            this.narrow = narrow;
+        }
+
+        /**
+         * 按区间端点切分为基本段，每段取覆盖它的最先定义的规则，再合并相接且规则相同的段
+         * @param maxHi 取值上界的高 64 位，终点等于上界的区间没有后继端点
+         */
+        static IntervalSet compile(List<long[]> defs, List<String> names, Map<String, Integer> ids,
+                                   long maxHi, long maxLo) {
+            int n = defs.size();
+            long[][] bounds = new long[2 * n][];
+            int m = 0;
+            for (long[] d : defs) {
+                bounds[m++] = new long[]{d[0], d[1]};
+                if (d[2] != maxHi || d[3] != maxLo) {
+                    bounds[m++] = new long[]{d[3] == -1L ? d[2] + 1 : d[2], d[3] + 1};
+                }
+            }
+            bounds = Arrays.copyOf(bounds, m);
+            Arrays.sort(bounds, (a, b) -> PackedPrefix.compareIPv6(a[0], a[1], b[0], b[1]));
+
+            Integer[] byStart = new Integer[n];
+            for (int i = 0; i < n; i++) byStart[i] = i;
+            Arrays.sort(byStart, (a, b) -> PackedPrefix.compareIPv6(defs.get(a)[0], defs.get(a)[1],
+                    defs.get(b)[0], defs.get(b)[1]));
+
+            List<long[]> segments = new ArrayList<>();
+            PriorityQueue<Integer> open = new PriorityQueue<>();
+            int next = 0;
+            for (int i = 0; i < m; i++) {
+                long[] b = bounds[i];
+                if (i > 0 && bounds[i - 1][0] == b[0] && bounds[i - 1][1] == b[1]) continue;
+                while (next < n && PackedPrefix.compareIPv6(defs.get(byStart[next])[0], defs.get(byStart[next])[1],
+                        b[0], b[1]) <= 0) {
+                    open.add(byStart[next++]);
+                }
+                while (!open.isEmpty() && PackedPrefix.compareIPv6(defs.get(open.peek())[2], defs.get(open.peek())[3],
+                        b[0], b[1]) < 0) {
+                    open.poll();
+                }
+                if (open.isEmpty()) continue;
+                // 段的终点是下一个不同端点减一，没有时为上界
+                int j = i + 1;
+                while (j < m && bounds[j][0] == b[0] && bounds[j][1] == b[1]) j++;
+                long eHi = maxHi;
+                long eLo = maxLo;
+                if (j < m) {
+                    eHi = bounds[j][1] == 0L ? bounds[j][0] - 1 : bounds[j][0];
+                    eLo = bounds[j][1] - 1;
+                }
+                long[] d = defs.get(open.peek());
+                int r = ids.get(names.get((int) d[4]));
+                long[] last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (last != null && (int) last[4] == r && adjacent(last[2], last[3], b[0], b[1])) {
+                    last[2] = eHi;
+                    last[3] = eLo;
+                } else {
+                    segments.add(new long[]{b[0], b[1], eHi, eLo, r});
+                }
+            }
+
+            IntervalSet set = new IntervalSet(segments.size(), maxHi == 0L && maxLo >= 0L);
+            for (int i = set.size - 1; i >= 0; i--) {
+                long[] s = segments.get(i);
+                set.startHi[i] = s[0];
+                set.startLo[i] = s[1];
+                set.endHi[i] = s[2];
+                set.endLo[i] = s[3];
+                set.rule[i] = (int) s[4];
+                boolean joined = i + 1 < set.size && adjacent(s[2], s[3], set.startHi[i + 1], set.startLo[i + 1]);
+                set.reachHi[i] = joined ? set.reachHi[i + 1] : s[2];
+                set.reachLo[i] = joined ? set.reachLo[i + 1] : s[3];
+            }
+            return set;
+        }
+
+        /**
+         * 终点 (eHi, eLo) 加一是否等于起点 (sHi, sLo)
+         */
+        private static boolean adjacent(long eHi, long eLo, long sHi, long sLo) {
+            return eLo == -1L ? sLo == 0L && sHi == eHi + 1 : sHi == eHi && sLo == eLo + 1;
+        }
+
+        /**
+         * 起点不大于 v 的最后一个区间，没有时返回 -1；固定次数的二分，循环体无分支
+         */
+        int floorLow(long v) {
+            if (size == 0 || v < startLo[0]) return -1;
+            int base = 0;
+            int n = size;
+            while (n > 1) {
+                int half = n >>> 1;
+                base = startLo[base + half] <= v ? base + half : base;
+                n -= half;
+            }
+            return base;
+        }
+
+        int floor(long hi, long lo) {
+            int l = 0;
+            int h = size - 1;
+            int found = -1;
+            while (l <= h) {
+                int mid = (l + h) >>> 1;
+                if (PackedPrefix.compareIPv6(startHi[mid], startLo[mid], hi, lo) <= 0) {
+                    found = mid;
+                    l = mid + 1;
+                } else {
+                    h = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * 区间 [s, e] 是否整体落在规则区间内
+         * @return 起点所在区间的规则，不在任何区间内时返回 -1
+         */
+        int containing(long sHi, long sLo, long eHi, long eLo) {
+            int i = narrow ? floorLow(sLo) : floor(sHi, sLo);
+            if (i < 0 || PackedPrefix.compareIPv6(sHi, sLo, endHi[i], endLo[i]) > 0) return -1;
+            return PackedPrefix.compareIPv6(eHi, eLo, reachHi[i], reachLo[i]) <= 0 ? rule[i] : -1;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package net.sherpherd.bgp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 并发的最短 AS_PATH 归约表。
+ *
+ * 以打包前缀 (地址家族, hi, lo, 前缀长度) 为键，按哈希高位分成若干条带，每个条带是一张独立加锁的
+ * 开放寻址表，不同条带的写入互不阻塞。比较与替换在条带锁内完成，isShorterAsPath 的判断是原子的。
+ * AS_PATH 跳数相同时按 {@link TieBreak} 决定胜者：NONE 保留先写入的（结果依赖线程交错），
+ * FIRST_SEEN 保留序号最小的，LOWEST_PATH 保留 ASN 序列字典序最小的，后两者与线程交错无关。
+ */
+final class ConcurrentRouteReducer {
+    /**
+     * 跳数相同时的取舍规则
+     */
+    enum TieBreak {
+        NONE,
+        FIRST_SEEN,
+        LOWEST_PATH
+    }
+
+    static final int DEFAULT_STRIPES = 256;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final TieBreak tieBreak;
+
+    ConcurrentRouteReducer(TieBreak tieBreak) {
+        this(tieBreak, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes 条带数，会向上取整为 2 的幂
+     */
+    ConcurrentRouteReducer(TieBreak tieBreak, int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("条带数必须大于0: " + stripes);
+        }
+        int n = Integer.highestOneBit(stripes - 1 == 0 ? 1 : (stripes - 1) << 1);
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(n);
+        this.tieBreak = tieBreak == null ? TieBreak.NONE : tieBreak;
+    }
+
+    /**
+     * 写入一条路由
+     * @param family 地址家族（PackedPrefix.FAMILY_IPV4 / FAMILY_IPV6）
+     * @param hi IPv4 为网络地址，IPv6 为高 64 位
+     * @param lo IPv6 低 64 位，IPv4 为 0
+     * @param len 前缀长度
+     * @param pathLen AS_PATH 跳数，0 表示缺少 AS_PATH
+     * @param seq 输入序号，FIRST_SEEN 规则和 routes() 的输出顺序依赖它
+     * @param route 原始路由数据，route[1] 为 AS_PATH
+     * @return 该路由成为当前胜者时返回 true
+     */
+    boolean offer(int family, long hi, long lo, int len, int pathLen, long seq, String[] route) {
+        int meta = family << 8 | len;
+        int h = RoutePipeline.ShortestPathTable.hash(hi, lo, meta);
+        Stripe stripe = stripes.length == 1 ? stripes[0] : stripes[h >>> stripeShift];
+        synchronized (stripe) {
+            return stripe.offer(h, meta, hi, lo, pathLen, seq, route, tieBreak);
+        }
+    }
+
+    /**
+     * 归约结果，按每个前缀第一次出现的序号排序；调用时不应再有写入
+     */
+    List<String[]> routes() {
+        int total = size();
+        long[] order = new long[total];
+        String[][] rows = new String[total][];
+        int k = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int s = 0; s < stripe.meta.length; s++) {
+                    if (stripe.meta[s] == 0) continue;
+                    order[k] = stripe.firstSeq[s];
+                    rows[k] = stripe.route[s];
+                    k++;
+                }
+            }
+        }
+        Integer[] idx = new Integer[k];
+        for (int i = 0; i < k; i++) idx[i] = i;
+        Arrays.sort(idx, (a, b) -> Long.compare(order[a], order[b]));
+        List<String[]> result = new ArrayList<>(k);
+        for (Integer i : idx) {
+            result.add(rows[i]);
+        }
+        return result;
+    }
+
+    int size() {
+        int n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.size;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 已有前缀被更短（或按取舍规则胜出）的路由替换的次数
+     */
+    long replacements() {
+        long n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.replacements;
+            }
+        }
+        return n;
+    }
+
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * 跳数相同时，candidate 是否应替换 current
+     */
+    static boolean winsTie(TieBreak tieBreak, long seq, String[] candidate, long currentSeq, String[] current) {
+        switch (tieBreak) {
+            case FIRST_SEEN:
+                return seq < currentSeq;
+            case LOWEST_PATH: {
+                int c = compareAsPath(candidate[1], current[1]);
+                return c < 0 || (c == 0 && seq < currentSeq);
+            }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 按 ASN（无符号）逐个比较两条等长 AS_PATH；无法解析时退回字符串比较
+     */
+    static int compareAsPath(String a, String b) {
+        int[] x = AsPaths.parse(a);
+        int[] y = AsPaths.parse(b);
+        if (x == null || y == null) {
+            return a.trim().compareTo(b.trim());
+        }
+        int n = Math.min(x.length, y.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compareUnsigned(x[i], y[i]);
+            if (c != 0) return c;
+        }
+        return Integer.compare(x.length, y.length);
+    }
+
+    /**
+     * 一个条带：哈希低位寻址的开放寻址表，由调用者持有条带锁
+     */
+    private static final class Stripe {
+        long[] hi = new long[64];
+        long[] lo = new long[64];
+        int[] meta = new int[64];
+        int[] pathLen = new int[64];
+        long[] seq = new long[64];
+        long[] firstSeq = new long[64];
+        String[][] route = new String[64][];
+        int size;
+        long replacements;
+
+        boolean offer(int h, int m, long keyHi, long keyLo, int len, long s, String[] r, TieBreak tieBreak) {
+            int mask = meta.length - 1;
+            int slot = h & mask;
+            while (meta[slot] != 0) {
+                if (meta[slot] == m && hi[slot] == keyHi && lo[slot] == keyLo) {
+                    if (s < firstSeq[slot]) firstSeq[slot] = s;
+                    boolean replace = RoutePipeline.ShortestPathTable.isShorter(len, pathLen[slot])
+                            || (len == pathLen[slot] && winsTie(tieBreak, s, r, seq[slot], route[slot]));
+                    if (replace) {
+                        replacements++;
+                        pathLen[slot] = len;
+                        seq[slot] = s;
+                        route[slot] = r;
+                    }
+                    return replace;
+                }
+                slot = (slot + 1) & mask;
+            }
+            meta[slot] = m;
+            hi[slot] = keyHi;
+            lo[slot] = keyLo;
+            pathLen[slot] = len;
+            seq[slot] = s;
+            firstSeq[slot] = s;
+            route[slot] = r;
+            if (++size * 2 > meta.length) {
+                rehash();
+            }
+            return true;
+        }
+
+        private void rehash() {
+            long[] oldHi = hi;
+            long[] oldLo = lo;
+            int[] oldMeta = meta;
+            int[] oldPathLen = pathLen;
+            long[] oldSeq = seq;
+            long[] oldFirst = firstSeq;
+            String[][] oldRoute = route;
+            int capacity = oldMeta.length * 2;
+            hi = new long[capacity];
+            lo = new long[capacity];
+            meta = new int[capacity];
+            pathLen = new int[capacity];
+            seq = new long[capacity];
+            firstSeq = new long[capacity];
+            route = new String[capacity][];
+            int mask = capacity - 1;
+            for (int s = 0; s < oldMeta.length; s++) {
+                if (oldMeta[s] == 0) continue;
+                int slot = RoutePipeline.ShortestPathTable.hash(oldHi[s], oldLo[s], oldMeta[s]) & mask;
+                while (meta[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hi[slot] = oldHi[s];
+                lo[slot] = oldLo[s];
+                meta[slot] = oldMeta[s];
+                pathLen[slot] = oldPathLen[s];
+                seq[slot] = oldSeq[s];
+                firstSeq[slot] = oldFirst[s];
+                route[slot] = oldRoute[s];
+            }
+        }
+    }
+}
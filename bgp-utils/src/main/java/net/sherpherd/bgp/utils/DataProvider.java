@@ -3,23 +3,85 @@ package net.sherpherd.bgp.utils;
 
 import java.io.*;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
+import org.javamrt.mrt.Advertisement;
+import org.javamrt.mrt.AttrOrigin;
+import org.javamrt.mrt.Attribute;
+import org.javamrt.mrt.Attributes;
 import org.javamrt.mrt.BGPFileReader;
+import org.javamrt.mrt.Bgp4Update;
+import org.javamrt.mrt.LocalPref;
+import org.javamrt.mrt.MRTConstants;
 import org.javamrt.mrt.MRTRecord;
+import org.javamrt.mrt.Med;
+import org.javamrt.mrt.OriginatorID;
 
 public abstract class DataProvider {
     protected String path;
     protected static boolean verbose = false;
     final static String CSV_PREFIX_COL_HEADER = "prefix";
     final static String CSV_ASPATH_COL_HEADER = "as_path";
+    final static String GZIP_SUFFIX = ".gz";
+    /** 并行 gzip 压缩使用的线程数 */
+    protected static int compressionThreads = Runtime.getRuntime().availableProcessors();
+    /** 输出是否使用 gzip 压缩，默认按文件名是否以 .gz 结尾决定 */
+    protected boolean compressed;
+    static final RouteMetrics.Counter READ_RECORDS = RouteMetrics.counter(RouteMetrics.READ_RECORDS);
+    static final RouteMetrics.Counter WRITE_RECORDS = RouteMetrics.counter(RouteMetrics.WRITE_RECORDS);
+    static final RouteMetrics.Counter REJECT_INVALID_PREFIX = RouteMetrics.counter(RouteMetrics.REJECT_INVALID_PREFIX);
+    static final RouteMetrics.Counter REJECT_INVALID_ASPATH = RouteMetrics.counter(RouteMetrics.REJECT_INVALID_ASPATH);
 
     public DataProvider(String path) {
         this.path = path;
+        this.compressed = path != null && path.toLowerCase().endsWith(GZIP_SUFFIX);
     }
 
     public static void setVerbose(boolean verbose) {
         DataProvider.verbose = verbose;
     }
 
+    public static void setCompressionThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("压缩线程数必须大于0: " + threads);
+        }
+        DataProvider.compressionThreads = threads;
+    }
+
+    /**
+     * 设置输出是否使用并行 gzip 压缩
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * 打开带缓冲的输出流；启用压缩时数据块在线程池中并行压缩后按顺序写出
+     */
+    protected Writer openOutputWriter(boolean append) throws IOException {
+        OutputStream os = new FileOutputStream(path, append);
+        if (compressed) {
+            os = new ParallelGzipOutputStream(os, compressionThreads);
+        } else {
+            os = new BufferedOutputStream(os, 1 << 16);
+        }
+        return new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), 1 << 16);
+    }
+
+    /**
+     * 打开输入文件；以 gzip 魔数开头的文件会自动解压
+     */
+    protected BufferedReader openInputReader() throws IOException {
+        InputStream is = new BufferedInputStream(new RouteMetrics.CountingInputStream(new FileInputStream(path)), 1 << 16);
+        is.mark(2);
+        int b1 = is.read();
+        int b2 = is.read();
+        is.reset();
+        if (b1 == 0x1f && b2 == 0x8b) {
+            is = new GZIPInputStream(is, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(is, "UTF-8"));
+    }
+
     public abstract String[] getNextRoute();
     public abstract void setRoute(int index, String[] routeData);
     public abstract String[] getRoute(int index);
@@ -36,6 +98,8 @@ interface CreateProviderFile {
 }
 
 class CSVProvider extends DataProvider implements CreateProviderFile {
+    private static final RouteLog.Category LOG_SKIP = RouteLog.category("csv.skip", true).rateLimit(1000);
+
     private BufferedReader reader;
     private List<String[]> routes;
     private int currentLine;
@@ -43,6 +107,13 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
     private int prefixIndex = -1;
     private int aspathIndex = -1;
     private int communityIndex = -1;
+    private int nexthopIndex = -1;
+    private PrintWriter streamWriter;
+    private long streamedCount;
+    /** 整张表是否已加载到内存（按索引访问时） */
+    private boolean tableLoaded;
+    /** 已经流式读出、未保留在内存中的行数 */
+    private int streamedRoutes;
 
     public CSVProvider(String path) {
         super(path);
@@ -70,7 +141,11 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
             
             if (file.createNewFile()) {
                 // 写入CSV列首部
-                try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
+                OutputStream os = new FileOutputStream(filePath);
+                if (filePath.toLowerCase().endsWith(GZIP_SUFFIX)) {
+                    os = new java.util.zip.GZIPOutputStream(os);
+                }
+                try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(os, "UTF-8"))) {
                     String headerLine = CSV_PREFIX_COL_HEADER + "," + CSV_ASPATH_COL_HEADER;
                     writer.println(headerLine);
                     
@@ -106,8 +181,11 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
                 return;
             }
             
+            // mrtToCSV 留下的增量日志先合并回 CSV
+            IncrementalCsvStore.compactPending(file);
+
             // 按读取模式初始化
-            reader = new BufferedReader(new FileReader(path));
+            reader = openInputReader();
             String headerLine = reader.readLine();
             if (headerLine != null) {
                 headers = parseCSVLine(headerLine);
@@ -119,6 +197,8 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
                         aspathIndex = i;
                     } else if ("community".equals(header)) {
                         communityIndex = i;
+                    } else if ("nexthop".equals(header) || "next_hop".equals(header)) {
+                        nexthopIndex = i;
                     }
                 }
                 
@@ -126,10 +206,12 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
                     throw new IllegalArgumentException("CSV文件必须包含prefix和as_path列");
                 }
                 
-                boolean validStructure = (communityIndex == -1) || 
-                                       (headers.length == 3 && prefixIndex != -1 && aspathIndex != -1 && communityIndex != -1);
+                // nexthop 列可选，多个下一跳以空格分隔
+                int expectedColumns = 2 + (communityIndex == -1 ? 0 : 1) + (nexthopIndex == -1 ? 0 : 1);
+                boolean validStructure = (communityIndex == -1 && nexthopIndex == -1) || 
+                                       headers.length == expectedColumns;
                 if (!validStructure) {
-                    throw new IllegalArgumentException("CSV文件必须由prefix和as_path列组成，或者由prefix、as_path和community列组成");
+                    throw new IllegalArgumentException("CSV文件必须由prefix和as_path列组成，或者由prefix、as_path和community列组成，可附加nexthop列");
                 }
             }
         } catch (IOException e) {
@@ -143,6 +225,18 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
      * 将内存中的路由数据写入CSV文件
      */
     public void writeToFile() throws IOException {
+        beginWrite();
+        for (String[] route : routes) {
+            writeRoute(route);
+        }
+        endWrite();
+    }
+
+    /**
+     * 以流式方式打开输出文件并写入列首部，之后通过 writeRoute() 逐行写出，
+     * 路由不会保留在内存中
+     */
+    public void beginWrite() throws IOException {
         // 如果headers为空，使用默认头部
         if (headers == null) {
             headers = new String[]{CSV_PREFIX_COL_HEADER, CSV_ASPATH_COL_HEADER};
@@ -150,46 +244,82 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
             aspathIndex = 1;
         }
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(path))) {
-            // 写入头部
-            writer.println(String.join(",", headers));
-            
-            // 写入每一行数据
-            for (String[] route : routes) {
-                StringBuilder line = new StringBuilder();
-                for (int i = 0; i < route.length; i++) {
-                    if (i > 0) line.append(",");
-                    String field = route[i];
-                    // 如果字段包含逗号、引号或换行符，需要加引号并转义
-                    if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
-                        line.append("\"").append(field.replace("\"", "\"\"")).append("\"");
-                    } else {
-                        line.append(field);
-                    }
-                }
-                writer.println(line.toString());
-            }
-            
-            if (verbose) {
-                System.out.println("已写入 " + routes.size() + " 条路由到文件: " + path);
+        streamWriter = new PrintWriter(openOutputWriter(false));
+        // 写入头部
+        streamWriter.println(String.join(",", headers));
+        streamedCount = 0;
+    }
+
+    /**
+     * 写出一行路由数据，必须在 beginWrite() 之后调用
+     */
+    public void writeRoute(String[] route) {
+        if (streamWriter == null) {
+            throw new IllegalStateException("CSV输出尚未打开: " + path);
+        }
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < route.length; i++) {
+            if (i > 0) line.append(",");
+            String field = route[i];
+            // 如果字段包含逗号、引号或换行符，需要加引号并转义
+            if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
+                line.append("\"").append(field.replace("\"", "\"\"")).append("\"");
+            } else {
+                line.append(field);
             }
         }
+        streamWriter.println(line.toString());
+        streamedCount++;
+        WRITE_RECORDS.increment();
     }
 
+    /**
+     * 结束流式写出并关闭文件
+     */
+    public void endWrite() throws IOException {
+        if (streamWriter == null) {
+            return;
+        }
+        streamWriter.close();
+        boolean failed = streamWriter.checkError();
+        streamWriter = null;
+        if (failed) {
+            throw new IOException("写入CSV文件失败: " + path);
+        }
+        
+        if (verbose) {
+            System.out.println("已写入 " + streamedCount + " 条路由到文件: " + path);
+        }
+    }
+
+    /**
+     * 顺序读取下一条路由。从文件流式读取的行不会保留在内存中，
+     * 只有 setRoute() 放入或 getRoute() 按索引访问时加载的路由表才在内存中
+     */
     @Override
     public String[] getNextRoute() {
         if (currentLine < routes.size()) {
             return routes.get(currentLine++);
         }
         
-        // 如果没有reader，直接返回null
-        if (reader == null) {
+        // 如果没有reader，或者整张表已按索引访问加载，直接返回null
+        if (reader == null || tableLoaded) {
             return null;
         }
-        
+        String[] route = readRoute(reader);
+        if (route != null) {
+            streamedRoutes++;
+        }
+        return route;
+    }
+
+    /**
+     * 从reader中读取下一条有效路由，跳过无效行
+     */
+    private String[] readRoute(BufferedReader in) {
         try {
             String line;
-            while ((line = reader.readLine()) != null) {
+            while ((line = in.readLine()) != null) {
                 String[] fields = parseCSVLine(line);
                 if (fields.length < headers.length) {
                     String[] paddedFields = new String[headers.length];
@@ -204,21 +334,18 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
                 String aspath = fields[aspathIndex].trim();
                 
                 if (!Analysis.isValidCIDR(prefix)) {
-                    if (verbose) {
-                        System.err.println("忽略无效CIDR: " + prefix);
-                    }
+                    REJECT_INVALID_PREFIX.increment();
+                    RouteLog.log(LOG_SKIP, "忽略无效CIDR: {}", prefix);
                     continue;
                 }
                 
                 if (!Analysis.isValidAsPath(aspath)) {
-                    if (verbose) {
-                        System.err.println("忽略无效AS_PATH: " + aspath);
-                    }
+                    REJECT_INVALID_ASPATH.increment();
+                    RouteLog.log(LOG_SKIP, "忽略无效AS_PATH: {}", aspath);
                     continue;
                 }
                 
-                routes.add(fields);
-                currentLine++;
+                READ_RECORDS.increment();
                 return fields;
             }
         } catch (IOException e) {
@@ -230,8 +357,37 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
         return null;
     }
 
+    /**
+     * 首次按索引访问时把文件中的全部路由加载到内存，放在已通过 setRoute() 加入的路由之前；
+     * 之后 getNextRoute() 只遍历内存中的路由表
+     */
+    private void loadTable() {
+        tableLoaded = true;
+        if (headers == null || !new File(path).exists()) {
+            return;
+        }
+        List<String[]> fileRoutes = new ArrayList<>();
+        try (BufferedReader in = openInputReader()) {
+            in.readLine();
+            String[] route;
+            while ((route = readRoute(in)) != null) {
+                fileRoutes.add(route);
+            }
+        } catch (IOException e) {
+            if (verbose) {
+                System.err.println("读取CSV文件失败: " + e.getMessage());
+            }
+        }
+        routes.addAll(0, fileRoutes);
+        // 已流式读出的行不再重复返回
+        currentLine += streamedRoutes;
+    }
+
     @Override
     public void setRoute(int index, String[] routeData) {
+        if (!tableLoaded && index >= 0) {
+            loadTable();
+        }
         if (index == -1) {
             routes.add(routeData);
         } else if (index >= 0 && index < routes.size()) {
@@ -245,12 +401,56 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
 
     @Override
     public String[] getRoute(int index) {
+        if (!tableLoaded) {
+            loadTable();
+        }
         if (index >= 0 && index < routes.size()) {
             return routes.get(index);
         }
         return null;
     }
 
+    int getPrefixIndex() {
+        return prefixIndex;
+    }
+
+    int getAsPathIndex() {
+        return aspathIndex;
+    }
+
+    int getCommunityIndex() {
+        return communityIndex;
+    }
+
+    int getNexthopIndex() {
+        return nexthopIndex;
+    }
+
+    /**
+     * 逐行读取 CSV 文件的 prefix 和 as_path 两列（没有 prefix 列时取第一列），不做有效性检查，
+     * 每行交给 action 一个 {prefix, as_path} 数组，没有 as_path 列时只有 {prefix}。
+     * 字段按 {@link MRTTools#parseCsvLine(String)} 解析，引号中的逗号（如 AS_SET "{1,2}"）不会切断字段
+     */
+    static void readPrefixPaths(String csvPath, java.util.function.Consumer<String[]> action) throws IOException {
+        IncrementalCsvStore.compactPending(new File(csvPath));
+        try (BufferedReader br = new BufferedReader(new FileReader(csvPath))) {
+            String header = br.readLine();
+            if (header == null) return;
+            List<String> cols = MRTTools.parseHeader(header);
+            int prefixIdx = Math.max(0, MRTTools.indexOfIgnoreCase(cols, CSV_PREFIX_COL_HEADER));
+            int pathIdx = MRTTools.indexOfIgnoreCase(cols, CSV_ASPATH_COL_HEADER);
+            String line;
+            while ((line = br.readLine()) != null) {
+                List<String> parts = MRTTools.parseCsvLine(line);
+                if (parts.size() <= prefixIdx) continue;
+                String prefix = parts.get(prefixIdx).trim();
+                action.accept(pathIdx >= 0 && parts.size() > pathIdx
+                        ? new String[]{prefix, parts.get(pathIdx).trim()}
+                        : new String[]{prefix});
+            }
+        }
+    }
+
     private String[] parseCSVLine(String line) {
         List<String> result = new ArrayList<>();
         StringBuilder current = new StringBuilder();
@@ -274,9 +474,15 @@ class CSVProvider extends DataProvider implements CreateProviderFile {
 }
 
 class RawTextProvider extends DataProvider implements CreateProviderFile {
+    private static final RouteLog.Category LOG_SKIP = RouteLog.category("raw.skip", true).rateLimit(1000);
+
     private BufferedReader reader;
     private List<String> routes;
     private int currentLine;
+    /** 整张表是否已加载到内存（按索引访问时） */
+    private boolean tableLoaded;
+    /** 已经流式读出、未保留在内存中的行数 */
+    private int streamedRoutes;
 
     public RawTextProvider(String path) {
         super(path);
@@ -334,7 +540,7 @@ class RawTextProvider extends DataProvider implements CreateProviderFile {
             }
             
             // 按读取模式初始化
-            reader = new BufferedReader(new FileReader(path));
+            reader = openInputReader();
             
         } catch (IOException e) {
             if (verbose) {
@@ -347,46 +553,62 @@ class RawTextProvider extends DataProvider implements CreateProviderFile {
      * 将内存中的路由数据写入文本文件
      */
     public void writeToFile() throws IOException {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(path))) {
+        try (PrintWriter writer = new PrintWriter(openOutputWriter(false))) {
             for (String route : routes) {
                 writer.println(route);
             }
             
+            if (writer.checkError()) {
+                throw new IOException("写入文本文件失败: " + path);
+            }
+            WRITE_RECORDS.add(routes.size());
             if (verbose) {
                 System.out.println("已写入 " + routes.size() + " 条路由到文件: " + path);
             }
         }
     }
 
+    /**
+     * 顺序读取下一条前缀，从文件流式读取的行不会保留在内存中
+     */
     @Override
     public String[] getNextRoute() {
         if (currentLine < routes.size()) {
             return new String[]{routes.get(currentLine++)};
         }
         
-        // 如果没有reader，直接返回null
-        if (reader == null) {
+        // 如果没有reader，或者整张表已按索引访问加载，直接返回null
+        if (reader == null || tableLoaded) {
             return null;
         }
-        
+        String route = readRoute(reader);
+        if (route == null) {
+            return null;
+        }
+        streamedRoutes++;
+        return new String[]{route};
+    }
+
+    /**
+     * 从reader中读取下一条有效前缀，跳过空行和无效行
+     */
+    private String readRoute(BufferedReader in) {
         try {
             String line;
-            while ((line = reader.readLine()) != null) {
+            while ((line = in.readLine()) != null) {
                 line = line.trim();
                 if (line.isEmpty()) {
                     continue;
                 }
                 
                 if (!Analysis.isValidCIDR(line)) {
-                    if (verbose) {
-                        System.err.println("忽略无效CIDR: " + line);
-                    }
+                    REJECT_INVALID_PREFIX.increment();
+                    RouteLog.log(LOG_SKIP, "忽略无效CIDR: {}", line);
                     continue;
                 }
                 
-                routes.add(line);
-                currentLine++;
-                return new String[]{line};
+                READ_RECORDS.increment();
+                return line;
             }
         } catch (IOException e) {
             if (verbose) {
@@ -397,11 +619,38 @@ class RawTextProvider extends DataProvider implements CreateProviderFile {
         return null;
     }
 
+    /**
+     * 首次按索引访问时把文件中的全部前缀加载到内存，放在已通过 setRoute() 加入的前缀之前
+     */
+    private void loadTable() {
+        tableLoaded = true;
+        if (!new File(path).exists()) {
+            return;
+        }
+        List<String> fileRoutes = new ArrayList<>();
+        try (BufferedReader in = openInputReader()) {
+            String route;
+            while ((route = readRoute(in)) != null) {
+                fileRoutes.add(route);
+            }
+        } catch (IOException e) {
+            if (verbose) {
+                System.err.println("读取文本文件失败: " + e.getMessage());
+            }
+        }
+        routes.addAll(0, fileRoutes);
+        // 已流式读出的行不再重复返回
+        currentLine += streamedRoutes;
+    }
+
     @Override
     public void setRoute(int index, String[] routeData) {
         if (routeData == null || routeData.length == 0) {
             throw new IllegalArgumentException("路由数据不能为空");
         }
+        if (!tableLoaded && index >= 0) {
+            loadTable();
+        }
         
         String route = routeData[0];
         
@@ -418,6 +667,9 @@ class RawTextProvider extends DataProvider implements CreateProviderFile {
 
     @Override
     public String[] getRoute(int index) {
+        if (!tableLoaded) {
+            loadTable();
+        }
         if (index >= 0 && index < routes.size()) {
             return new String[]{routes.get(index)};
         }
@@ -442,12 +694,126 @@ class RawTextProvider extends DataProvider implements CreateProviderFile {
 }
 
 class Iproute2ScriptProvider extends DataProvider implements CreateProviderFile {
-    private List<String> scripts;
+    /**
+     * 输出格式
+     */
+    enum Mode {
+        /** bash 脚本，每条路由一个 ip route add 进程 */
+        SCRIPT,
+        /** ip -batch 输入文件，使用 route replace 保证可重复执行，由单个 ip 进程加载 */
+        BATCH,
+        /**
+         * ip -batch 输入文件，下一跳生成为 ip nexthop 对象（多个下一跳生成 ECMP 组），
+         * 路由通过 nhid 引用；切换网关只需更新一个 nexthop 对象。需要通过 setDevice() 指定出接口
+         */
+        NEXTHOP
+    }
+
+    private static final RouteLog.Category LOG_SKIP = RouteLog.category("iproute2.skip", true).rateLimit(1000);
+    private static final RouteLog.Category LOG_COMMAND = RouteLog.category("iproute2.command", false).rateLimit(1000);
+
+    /** 内核保留的路由协议，不能作为本工具专用的协议标识 */
+    private static final Set<String> RESERVED_PROTOCOLS = new HashSet<>(
+            Arrays.asList("unspec", "redirect", "kernel", "boot", "static"));
+
+    private Mode mode = Mode.SCRIPT;
+    private int table;
+    private String protocol;
+    private String device;
+    private final Map<String, Integer> nexthopIds = new HashMap<>();
+    private int nexthopIdBase = 1;
+    private int nextNexthopId;
+    private int nexthopCount;
+    private long routeCount;
     private PrintWriter writer;
 
     public Iproute2ScriptProvider(String path) {
         super(path);
-        this.scripts = new ArrayList<>();
+    }
+
+    public Iproute2ScriptProvider(String path, Mode mode) {
+        super(path);
+        setMode(mode);
+    }
+
+    /**
+     * 设置输出格式，必须在 initializeWriter() 之前调用
+     */
+    public void setMode(Mode mode) {
+        if (writer != null) {
+            throw new IllegalStateException("输出已初始化，不能再修改格式");
+        }
+        this.mode = mode == null ? Mode.SCRIPT : mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 设置 nexthop 对象的出接口，NEXTHOP 模式下必须指定
+     */
+    public void setDevice(String device) {
+        this.device = device;
+    }
+
+    /**
+     * 设置 nexthop 对象编号的起始值，避免与系统中已有的对象冲突
+     */
+    public void setNexthopIdBase(int base) {
+        if (writer != null) {
+            throw new IllegalStateException("输出已初始化，不能再修改编号起始值");
+        }
+        if (base <= 0) {
+            throw new IllegalArgumentException("nexthop 编号必须大于0: " + base);
+        }
+        this.nexthopIdBase = base;
+    }
+
+    /**
+     * 设置目标路由表，0 表示不指定（main 表）
+     */
+    public void setTable(int table) {
+        if (table < 0) {
+            throw new IllegalArgumentException("无效的路由表编号: " + table);
+        }
+        this.table = table;
+    }
+
+    public int getTable() {
+        return table;
+    }
+
+    /**
+     * 设置安装路由使用的协议标识（proto），为 null 时不指定（内核记为 boot）。
+     * 可以是 0-255 的编号或 /etc/iproute2/rt_protos 中登记的名称，保留协议 0-4 不可使用；
+     * 差异同步依赖该标识区分本工具安装的路由与其他来源的路由
+     */
+    public void setProtocol(String protocol) {
+        this.protocol = protocol == null ? null : checkProtocol(protocol);
+    }
+
+    /**
+     * 校验路由协议标识，与 NetlinkRouteProvider 共用
+     * @return 去掉首尾空白后的标识
+     */
+    static String checkProtocol(String protocol) {
+        protocol = protocol.trim();
+        boolean valid;
+        if (protocol.matches("\\d{1,3}")) {
+            int id = Integer.parseInt(protocol);
+            valid = id > 4 && id <= 255;
+        } else {
+            valid = protocol.matches("[A-Za-z][A-Za-z0-9_.-]*") && !RESERVED_PROTOCOLS.contains(protocol);
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("无效或保留的路由协议标识: " + protocol);
+        }
+        return protocol;
+    }
+
+    public String getProtocol() {
+        return protocol;
     }
 
     @Override
@@ -491,11 +857,23 @@ class Iproute2ScriptProvider extends DataProvider implements CreateProviderFile
      */
     public void initializeWriter() throws IOException {
         if (writer == null) {
-            writer = new PrintWriter(new FileWriter(path, false));
+            if (mode == Mode.NEXTHOP && (device == null || device.isEmpty())) {
+                throw new IllegalStateException("NEXTHOP 模式必须指定出接口");
+            }
+            writer = new PrintWriter(openOutputWriter(false));
+            routeCount = 0;
+            nexthopIds.clear();
+            nextNexthopId = nexthopIdBase;
+            nexthopCount = 0;
             // 写入脚本头
-            writer.println("#!/bin/bash");
-            writer.println("# Auto-generated iproute2 script");
-            writer.println();
+            if (mode != Mode.SCRIPT) {
+                writer.println("# Auto-generated iproute2 batch file");
+                writer.println("# Load with: ip -force -batch " + new File(path).getName());
+            } else {
+                writer.println("#!/bin/bash");
+                writer.println("# Auto-generated iproute2 script");
+                writer.println();
+            }
         }
     }
 
@@ -515,64 +893,169 @@ class Iproute2ScriptProvider extends DataProvider implements CreateProviderFile
     }
 
     public void addRoute(String prefix, String nexthop) {
+        writeRoute("add", prefix, nexthop);
+    }
+
+    /**
+     * 替换一条已存在路由的下一跳（不存在时同样会创建）
+     */
+    public void replaceRoute(String prefix, String nexthop) {
+        writeRoute("replace", prefix, nexthop);
+    }
+
+    /**
+     * 删除一条路由
+     */
+    public void deleteRoute(String prefix) {
+        writeRoute("del", prefix, null);
+    }
+
+    private void writeRoute(String verb, String prefix, String nexthop) {
         if (!Analysis.isValidCIDR(prefix)) {
-            if (verbose) {
-                System.err.println("跳过无效prefix: " + prefix);
-            }
+            REJECT_INVALID_PREFIX.increment();
+            RouteLog.log(LOG_SKIP, "跳过无效prefix: {}", prefix);
             return; // 跳过无效prefix
         }
         
-        if (!Analysis.isValidIPAddress(nexthop)) {
-            if (verbose) {
-                System.err.println("跳过无效nexthop: " + nexthop);
-            }
-            return; // 跳过无效nexthop
-        }
-        
         boolean prefixIsIPv4 = Analysis.isValidIPv4Cidr(prefix);
-        boolean nexthopIsIPv4 = Analysis.isValidIPv4Address(nexthop);
-        
-        // 当prefix和nexthop不属于同一地址家族时，跳过这条路由
-        if (prefixIsIPv4 != nexthopIsIPv4) {
-            if (verbose) {
-                System.err.println("跳过地址家族不匹配的路由: prefix=" + prefix + " (" + 
-                                 (prefixIsIPv4 ? "IPv4" : "IPv6") + "), nexthop=" + nexthop + 
-                                 " (" + (nexthopIsIPv4 ? "IPv4" : "IPv6") + ")");
+        // 多个下一跳以空白分隔，组成 ECMP
+        String[] hops = nexthop == null ? null : nexthop.trim().split("\\s+");
+        if (hops != null) {
+            for (String hop : hops) {
+                if (!Analysis.isValidIPAddress(hop)) {
+                    RouteMetrics.counter(RouteMetrics.REJECT_INVALID_NEXTHOP).increment();
+                    RouteLog.log(LOG_SKIP, "跳过无效nexthop: {}", hop);
+                    return; // 跳过无效nexthop
+                }
+                
+                boolean nexthopIsIPv4 = Analysis.isValidIPv4Address(hop);
+                
+                // 当prefix和nexthop不属于同一地址家族时，跳过这条路由
+                if (prefixIsIPv4 != nexthopIsIPv4) {
+                    RouteMetrics.counter(RouteMetrics.REJECT_FAMILY_MISMATCH).increment();
+                    RouteLog.log(LOG_SKIP, "跳过地址家族不匹配的路由: prefix={}, nexthop={} ({})", prefix, hop,
+                            prefixIsIPv4 ? "IPv4 前缀 / IPv6 下一跳" : "IPv6 前缀 / IPv4 下一跳");
+                    return;
+                }
             }
-            return;
         }
         
         String command;
-        if (prefixIsIPv4) {
-            command = String.format("ip route add %s via %s", prefix, nexthop);
+        if (mode != Mode.SCRIPT) {
+            // ip 会根据目的前缀自动识别地址家族，批处理文件中不需要 -6；
+            // add 也写成 replace 以保证可重复执行
+            command = "route " + ("del".equals(verb) ? "del" : "replace") + " " + prefix;
+        } else if (prefixIsIPv4) {
+            command = "ip route " + verb + " " + prefix;
         } else {
-            command = String.format("ip -6 route add %s via %s", prefix, nexthop);
+            command = "ip -6 route " + verb + " " + prefix;
+        }
+        if (hops != null) {
+            if (mode == Mode.NEXTHOP) {
+                command += " nhid " + nexthopId(hops);
+            } else if (hops.length == 1) {
+                command += " via " + hops[0];
+            } else {
+                StringBuilder sb = new StringBuilder(command);
+                for (String hop : hops) {
+                    sb.append(" nexthop via ").append(hop);
+                }
+                command = sb.toString();
+            }
+        }
+        if (protocol != null) {
+            command += " proto " + protocol;
+        }
+        if (table != 0) {
+            command += " table " + table;
         }
         
-        scripts.add(command);
+        // 依赖缓冲写出，不逐行flush，也不在内存中保留命令副本
+        routeCount++;
+        WRITE_RECORDS.increment();
         if (writer != null) {
             writer.println(command);
-            writer.flush();
         }
         
-        if (verbose) {
-            System.out.println("添加路由命令: " + command);
+        RouteLog.log(LOG_COMMAND, "添加路由命令: {}", command);
+    }
+
+    /**
+     * 返回一组下一跳对应的 nexthop 对象编号；首次出现时先写出 nexthop / 组的定义，
+     * 同一下一跳在所有路由间共享同一个对象
+     */
+    private int nexthopId(String[] hops) {
+        int[] members = new int[hops.length];
+        for (int i = 0; i < hops.length; i++) {
+            String hop = hops[i];
+            Integer id = nexthopIds.get(hop);
+            if (id == null) {
+                id = nextNexthopId++;
+                nexthopIds.put(hop, id);
+                emitNexthop("nexthop replace id " + id + " via " + hop + " dev " + device);
+            }
+            members[i] = id;
         }
+        if (members.length == 1) {
+            return members[0];
+        }
+        
+        // 组成员按编号排序，相同的下一跳集合（无论顺序）复用同一个组
+        Arrays.sort(members);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < members.length; i++) {
+            if (i > 0 && members[i] == members[i - 1]) continue;
+            if (key.length() > 0) key.append('/');
+            key.append(members[i]);
+        }
+        String group = key.toString();
+        Integer id = nexthopIds.get(group);
+        if (id == null) {
+            id = nextNexthopId++;
+            nexthopIds.put(group, id);
+            emitNexthop("nexthop replace id " + id + " group " + group);
+        }
+        return id;
+    }
+
+    private void emitNexthop(String command) {
+        nexthopCount++;
+        if (writer != null) {
+            writer.println(command);
+        }
+        RouteLog.log(LOG_COMMAND, "添加下一跳对象: {}", command);
+    }
+
+    /**
+     * 已生成的 nexthop 对象（含组）数量
+     */
+    public int getNexthopCount() {
+        return nexthopCount;
+    }
+
+    public long getRouteCount() {
+        return routeCount;
     }
 
     public void close() {
         if (writer != null) {
             writer.close();
+            if (writer.checkError()) {
+                System.err.println("写入脚本文件失败: " + path);
+            }
             writer = null;
             
             if (verbose) {
-                System.out.println("已写入 " + scripts.size() + " 条路由命令到文件: " + path);
+                System.out.println("已写入 " + routeCount + " 条路由命令到文件: " + path);
             }
         }
     }
 }
 
 class MRTProvider extends DataProvider {
+    private static final RouteLog.Category LOG_SKIP = RouteLog.category("mrt.invalid", true).rateLimit(1000);
+    private static final RouteLog.Category LOG_BOGON = RouteLog.category("mrt.bogon", true).rateLimit(1000);
+
     private BGPFileReader mrtReader;
     private InputStream inputStream;
     private MRTRecord currentRecord;
@@ -596,7 +1079,7 @@ class MRTProvider extends DataProvider {
                 return;
             }
             
-            inputStream = new BufferedInputStream(new FileInputStream(path));
+            inputStream = new BufferedInputStream(new RouteMetrics.CountingInputStream(new FileInputStream(path)));
             mrtReader = new BGPFileReader(inputStream);
             initialized = true;
         } catch (IOException e) {
@@ -619,15 +1102,23 @@ class MRTProvider extends DataProvider {
                 String prefix = route[0];
                 String asPath = route[1];
 
-                if (prefix.equals("0.0.0.0/0") || prefix.equals("::/0") || 
-                    !Analysis.isValidCIDR(prefix) || !Analysis.isValidAsPath(asPath) ||
-                    asPath == null || asPath.trim().isEmpty()) {
-                    if (verbose) {
-                        System.err.println("跳过无效路由: prefix=" + prefix + " AS_PATH=" + asPath);
-                    }
+                String reason = prefix.equals("0.0.0.0/0") || prefix.equals("::/0") ? RouteMetrics.REJECT_DEFAULT_ROUTE
+                        : !Analysis.isValidCIDR(prefix) ? RouteMetrics.REJECT_INVALID_PREFIX
+                        : asPath.trim().isEmpty() || !Analysis.isValidAsPath(asPath) ? RouteMetrics.REJECT_INVALID_ASPATH
+                        : null;
+                if (reason != null) {
+                    RouteMetrics.counter(reason).increment();
+                    RouteLog.log(LOG_SKIP, "跳过无效路由: prefix={} AS_PATH={}", prefix, asPath);
+                    continue;
+                }
+                // 启用 bogon 过滤时按规则丢弃，计数器由过滤器按规则递增
+                BogonFilter bogons = BogonFilter.active();
+                if (bogons != null && !bogons.accept(prefix, asPath)) {
+                    RouteLog.log(LOG_BOGON, "跳过bogon路由: prefix={} AS_PATH={}", prefix, asPath);
                     continue;
                 }
 
+                READ_RECORDS.increment();
                 return route;
             }
         } catch (Exception e) {
@@ -644,6 +1135,67 @@ class MRTProvider extends DataProvider {
         throw new UnsupportedOperationException("MRTProvider 不支持设置路由");
     }
 
+    /**
+     * 获取最近一次 getNextRoute() 返回的记录的 community 属性，不存在时返回空字符串
+     */
+    public String getCurrentCommunity() {
+        if (!(currentRecord instanceof Advertisement)) {
+            return "";
+        }
+        try {
+            String community = ((Advertisement) currentRecord).getCommunity();
+            return community == null ? "" : community.trim();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * 获取最近一次 getNextRoute() 返回的记录的对等体地址，不存在时返回空字符串
+     */
+    public String getCurrentPeer() {
+        if (currentRecord == null) {
+            return "";
+        }
+        try {
+            java.net.InetAddress peer = currentRecord.getPeer();
+            return peer == null ? "" : peer.getHostAddress();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * 获取最近一次 getNextRoute() 返回的记录的选路属性，缺少的属性取默认值。
+     * BGP4MP 记录直接读取属性对象（有 ORIGINATOR_ID 时作为路由器 ID），TABLE_DUMP 记录从文本格式解析
+     */
+    BestPathSelector.PathAttributes getCurrentPathAttributes() {
+        if (currentRecord == null) {
+            return BestPathSelector.PathAttributes.DEFAULT;
+        }
+        try {
+            if (currentRecord instanceof Bgp4Update) {
+                Attributes attrs = ((Bgp4Update) currentRecord).getAttributes();
+                Attribute localPref = attrs.getAttribute(MRTConstants.ATTRIBUTE_LOCAL_PREF);
+                Attribute origin = attrs.getAttribute(MRTConstants.ATTRIBUTE_ORIGIN);
+                Attribute med = attrs.getAttribute(MRTConstants.ATTRIBUTE_MULTI_EXIT);
+                Attribute originator = attrs.getAttribute(MRTConstants.ATTRIBUTE_ORIGINATOR_ID);
+                java.net.InetAddress peer = currentRecord.getPeer();
+                long peerBits = peer == null ? 0 : BestPathSelector.PathAttributes.peerBits(peer.getHostAddress());
+                long routerId = originator instanceof OriginatorID ? ((OriginatorID) originator).originatorId()
+                        : peer instanceof java.net.Inet4Address ? peerBits : 0;
+                return new BestPathSelector.PathAttributes(
+                        localPref instanceof LocalPref ? ((LocalPref) localPref).getLocalPref() : BestPathSelector.DEFAULT_LOCAL_PREF,
+                        origin instanceof AttrOrigin ? ((AttrOrigin) origin).getAttrOrigin() : BestPathSelector.ORIGIN_IGP,
+                        med instanceof Med ? ((Med) med).getMed() : 0,
+                        routerId, peerBits);
+            }
+            return BestPathSelector.PathAttributes.parse(currentRecord.toString());
+        } catch (Exception e) {
+            return BestPathSelector.PathAttributes.DEFAULT;
+        }
+    }
+
     @Override
     public String[] getRoute(int index) {
         throw new UnsupportedOperationException("MRTProvider 不支持按索引获取路由");
@@ -0,0 +1,486 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * 外部排序的最短 AS_PATH 归约器。
+ *
+ * 路由按打包前缀 (地址家族, 地址, 前缀长度) 排序；内存中的记录估算大小超过预算时，
+ * 排序并写出一个有序段（段内已完成同前缀去重）到临时文件。merge() 对所有有序段做 k 路归并，
+ * 每个前缀只输出 AS_PATH 最短、且最早出现的那一条。
+ *
+ * 每个打开的有序段占用一个文件描述符和 {@link #READ_BUFFER} 字节的读缓冲，同时归并的段数（fan-in）
+ * 取预算 / 读缓冲，并不超过 {@link #MAX_FAN_IN}；段数更多时先逐组归并为中间段，
+ * 因此归并阶段的内存和文件描述符只取决于预算，不随输入大小增长。
+ */
+class ExternalRouteSorter implements Closeable {
+    /** 每条记录除字符串外的估算开销（对象头、数组、key 字段） */
+    private static final long RECORD_OVERHEAD = 96;
+    /** 每个有序段的读缓冲大小 */
+    static final int READ_BUFFER = 1 << 16;
+    /** 同时打开的有序段数上限 */
+    static final int MAX_FAN_IN = 128;
+
+    private static final Comparator<Record> ORDER = (a, b) -> {
+        int c = Integer.compare(a.family, b.family);
+        if (c != 0) return c;
+        c = PackedPrefix.compareIPv6(a.hi, a.lo, b.hi, b.lo);
+        if (c != 0) return c;
+        c = Integer.compare(a.len, b.len);
+        if (c != 0) return c;
+        c = Integer.compare(a.pathLen, b.pathLen);
+        if (c != 0) return c;
+        return Long.compare(a.seq, b.seq);
+    };
+
+    /**
+     * 归并结果的接收者
+     */
+    interface Sink {
+        /**
+         * @param family 地址家族（PackedPrefix.FAMILY_IPV4 / FAMILY_IPV6）
+         * @param hi IPv4 为网络地址，IPv6 为高 64 位
+         * @param lo IPv6 低 64 位，IPv4 为 0
+         * @param len 前缀长度
+         * @param route 原始路由数据
+         */
+        void accept(int family, long hi, long lo, int len, String[] route) throws IOException;
+    }
+
+    private final long memoryBudget;
+    private final int fanIn;
+    private final File tempDir;
+    private final List<Record> buffer = new ArrayList<>();
+    private final List<File> runs = new ArrayList<>();
+    private final long[] keyBuf = new long[3];
+    private long buffered;
+    private long seq;
+    private long spilledRecords;
+    private int intermediateRuns;
+
+    /**
+     * @param memoryBudget 内存预算（字节），达到后写出有序段
+     * @param tempDir 临时文件目录，为 null 时使用 java.io.tmpdir
+     */
+    ExternalRouteSorter(long memoryBudget, File tempDir) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("内存预算必须大于0: " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        this.fanIn = (int) Math.max(2, Math.min(MAX_FAN_IN, memoryBudget / READ_BUFFER));
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * 加入一条路由，route[0] 为 prefix，route[1] 为 AS_PATH
+     * @return 前缀无效时返回 false
+     */
+    boolean add(String[] route) throws IOException {
+        String prefix = route[0].trim();
+        Record r = new Record();
+        if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+            long packed = PackedPrefix.parseIPv4(prefix);
+            if (packed < 0) return false;
+            r.family = PackedPrefix.FAMILY_IPV4;
+            r.hi = PackedPrefix.ipv4Address(packed);
+            r.len = PackedPrefix.ipv4Length(packed);
+        } else if (PackedPrefix.parseIPv6(prefix, keyBuf)) {
+            r.family = PackedPrefix.FAMILY_IPV6;
+            r.hi = keyBuf[0];
+            r.lo = keyBuf[1];
+            r.len = (int) keyBuf[2];
+        } else {
+            return false;
+        }
+        r.pathLen = AsPaths.length(route[1]);
+        r.seq = seq++;
+        r.route = route;
+        buffer.add(r);
+
+        long size = RECORD_OVERHEAD;
+        for (String f : route) {
+            size += 40 + 2L * (f == null ? 0 : f.length());
+        }
+        buffered += size;
+        if (buffered >= memoryBudget) {
+            spill();
+        }
+        return true;
+    }
+
+    int runCount() {
+        return runs.size();
+    }
+
+    long spilledRecords() {
+        return spilledRecords;
+    }
+
+    /**
+     * 一次归并同时打开的有序段数上限
+     */
+    int fanIn() {
+        return fanIn;
+    }
+
+    /**
+     * 因有序段数超过 fan-in 而写出的中间段数
+     */
+    int intermediateRuns() {
+        return intermediateRuns;
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) return;
+        buffer.sort(ORDER);
+        File run = File.createTempFile("bgp-run-", ".bin", tempDir);
+        run.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), READ_BUFFER))) {
+            Record prev = null;
+            for (Record r : buffer) {
+                if (prev != null && sameKey(prev, r)) continue;
+                r.writeTo(out);
+                spilledRecords++;
+                prev = r;
+            }
+        }
+        runs.add(run);
+        buffer.clear();
+        buffered = 0;
+        if (Main.verbose) {
+            System.out.println("内存预算已满，写出有序段 #" + runs.size() + ": " + run.getPath());
+        }
+    }
+
+    /**
+     * k 路归并所有有序段与内存中剩余的记录，每个前缀只向 sink 输出一次
+     */
+    void merge(Sink sink) throws IOException {
+        try (Cursor cursor = cursor()) {
+            while (cursor.advance()) {
+                sink.accept(cursor.family(), cursor.hi(), cursor.lo(), cursor.len(), cursor.route());
+            }
+        }
+    }
+
+    /**
+     * 以拉取方式逐条读取 merge() 的结果，便于同时归并多个排序器；关闭游标后排序器的内存缓冲被清空
+     */
+    Cursor cursor() throws IOException {
+        reduceRuns();
+        buffer.sort(ORDER);
+        MergeCursor cursor = new MergeCursor();
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                cursor.readers.add(reader);
+                if (reader.advance()) cursor.heap.add(reader);
+            }
+        } catch (IOException e) {
+            cursor.close();
+            throw e;
+        }
+        RunReader memory = new RunReader(buffer);
+        if (memory.advance()) cursor.heap.add(memory);
+        return cursor;
+    }
+
+    /**
+     * 有序段数超过 fan-in 时，每次取最早的 fanIn 个段归并为一个中间段，直到剩余段数不超过 fan-in
+     */
+    private void reduceRuns() throws IOException {
+        while (runs.size() > fanIn) {
+            List<File> group = runs.subList(0, fanIn);
+            File merged = mergeRuns(group);
+            for (File run : group) {
+                if (!run.delete() && Main.verbose) {
+                    System.err.println("删除临时文件失败: " + run.getPath());
+                }
+            }
+            group.clear();
+            runs.add(merged);
+            intermediateRuns++;
+        }
+    }
+
+    /**
+     * 把一组有序段归并为一个新的有序段，同前缀只保留排序最前的一条，记录的 seq 原样保留
+     */
+    private File mergeRuns(List<File> group) throws IOException {
+        File merged = File.createTempFile("bgp-run-", ".bin", tempDir);
+        merged.deleteOnExit();
+        List<RunReader> readers = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merged), READ_BUFFER))) {
+            PriorityQueue<RunReader> heap = new PriorityQueue<>((a, b) -> ORDER.compare(a.current, b.current));
+            for (File run : group) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.advance()) heap.add(reader);
+            }
+            Record prev = null;
+            while (!heap.isEmpty()) {
+                RunReader top = heap.poll();
+                Record r = top.current;
+                if (top.advance()) heap.add(top);
+                if (prev != null && sameKey(prev, r)) continue;
+                r.writeTo(out);
+                prev = r;
+            }
+        } catch (IOException e) {
+            merged.delete();
+            throw e;
+        } finally {
+            for (RunReader reader : readers) reader.close();
+        }
+        if (Main.verbose) {
+            System.out.println("有序段数超过 " + fanIn + "，归并为中间段: " + merged.getPath());
+        }
+        return merged;
+    }
+
+    /**
+     * 按 (地址家族, 地址, 前缀长度) 升序的路由游标，每个前缀一条
+     */
+    interface Cursor extends Closeable {
+        /**
+         * 移动到下一条路由
+         * @return 没有更多路由时返回 false
+         */
+        boolean advance() throws IOException;
+
+        int family();
+
+        long hi();
+
+        long lo();
+
+        int len();
+
+        String[] route();
+    }
+
+    private class MergeCursor implements Cursor {
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<RunReader> heap = new PriorityQueue<>((a, b) -> ORDER.compare(a.current, b.current));
+        private Record current;
+
+        @Override
+        public boolean advance() throws IOException {
+            while (!heap.isEmpty()) {
+                RunReader top = heap.poll();
+                Record r = top.current;
+                if (top.advance()) heap.add(top);
+                if (current == null || !sameKey(current, r)) {
+                    current = r;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int family() {
+            return current.family;
+        }
+
+        @Override
+        public long hi() {
+            return current.hi;
+        }
+
+        @Override
+        public long lo() {
+            return current.lo;
+        }
+
+        @Override
+        public int len() {
+            return current.len;
+        }
+
+        @Override
+        public String[] route() {
+            return current.route;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                for (RunReader reader : readers) reader.close();
+            } finally {
+                buffer.clear();
+                buffered = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (File run : runs) {
+            if (!run.delete() && Main.verbose) {
+                System.err.println("删除临时文件失败: " + run.getPath());
+            }
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private static boolean sameKey(Record a, Record b) {
+        return a.family == b.family && a.hi == b.hi && a.lo == b.lo && a.len == b.len;
+    }
+
+    private static class Record {
+        int family;
+        long hi;
+        long lo;
+        int len;
+        int pathLen;
+        long seq;
+        String[] route;
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeByte(family);
+            out.writeLong(hi);
+            out.writeLong(lo);
+            out.writeByte(len);
+            out.writeInt(pathLen);
+            out.writeLong(seq);
+            out.writeShort(route.length);
+            for (String f : route) {
+                out.writeUTF(f == null ? "" : f);
+            }
+        }
+
+        static Record readFrom(DataInputStream in) throws IOException {
+            int family;
+            try {
+                family = in.readByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            Record r = new Record();
+            r.family = family;
+            r.hi = in.readLong();
+            r.lo = in.readLong();
+            r.len = in.readByte() & 0xff;
+            r.pathLen = in.readInt();
+            r.seq = in.readLong();
+            r.route = new String[in.readShort()];
+            for (int i = 0; i < r.route.length; i++) {
+                r.route[i] = in.readUTF();
+            }
+            return r;
+        }
+    }
+
+    /**
+     * 有序段读取器；也可以直接包装内存中已排序的记录
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private final List<Record> records;
+        private int pos;
+        Record current;
+
+        RunReader(File run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), READ_BUFFER));
+            this.records = null;
+        }
+
+        RunReader(List<Record> records) {
+            this.in = null;
+            this.records = records;
+        }
+
+        boolean advance() throws IOException {
+            if (records != null) {
+                current = pos < records.size() ? records.get(pos++) : null;
+            } else {
+                current = Record.readFrom(in);
+            }
+            return current != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) in.close();
+        }
+    }
+
+    /**
+     * 流式聚合：输入按起始地址升序到达，合并相邻/重叠区间后转换为最少的 CIDR
+     */
+    static class SortedRangeAggregator {
+        private final Consumer<String> out;
+        private int family;
+        private boolean open;
+        private long sHi;
+        private long sLo;
+        private long eHi;
+        private long eLo;
+
+        SortedRangeAggregator(Consumer<String> out) {
+            this.out = out;
+        }
+
+        void add(int fam, long hi, long lo, int len) {
+            long endHi;
+            long endLo;
+            if (fam == PackedPrefix.FAMILY_IPV4) {
+                endHi = hi | (~PackedPrefix.ipv4Mask(len) & 0xffffffffL);
+                endLo = 0L;
+            } else {
+                endHi = hi | ~PackedPrefix.ipv6MaskHi(len);
+                endLo = lo | ~PackedPrefix.ipv6MaskLo(len);
+            }
+            if (open && fam == family && adjacentOrOverlapping(fam, hi, lo)) {
+                if (PackedPrefix.compareIPv6(endHi, endLo, eHi, eLo) > 0) {
+                    eHi = endHi;
+                    eLo = endLo;
+                }
+                return;
+            }
+            flush();
+            family = fam;
+            open = true;
+            sHi = hi;
+            sLo = lo;
+            eHi = endHi;
+            eLo = endLo;
+        }
+
+        /**
+         * 判断新区间起点是否不超过当前区间终点 + 1
+         */
+        private boolean adjacentOrOverlapping(int fam, long hi, long lo) {
+            if (fam == PackedPrefix.FAMILY_IPV4) {
+                return hi <= eHi + 1;
+            }
+            return FamilyLanes.ipv6AdjacentOrOverlapping(hi, lo, eHi, eLo);
+        }
+
+        void flush() {
+            if (!open) return;
+            if (family == PackedPrefix.FAMILY_IPV4) {
+                FamilyLanes.ipv4RangeToCidrs(sHi, eHi, out);
+            } else {
+                FamilyLanes.ipv6RangeToCidrs(sHi, sLo, eHi, eLo, out);
+            }
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package net.sherpherd.bgp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * 按地址家族分道的前缀聚合。
+ *
+ * 每个前缀在 add() 时解析一次并分到 IPv4 或 IPv6 道：IPv4 道是打包前缀 (地址 << 8 | 长度) 的 long 数组，
+ * IPv6 道是 hi/lo/len 三个基本类型数组。聚合时两道独立排序、合并区间并拆分为最少的 CIDR，
+ * IPv6 使用 hi/lo 两个 long 做 128 位运算，不经过 BigInteger 和临时文件。两道都足够大时并发执行，
+ * 结果固定按 IPv4 在前、IPv6 在后、各自地址升序合并，与 Analysis.ipv4Aggregate / ipv6Aggregate 的输出相同。
+ */
+final class FamilyLanes {
+    /** 两道都至少有这么多前缀时才并发聚合，否则线程切换的开销大于收益 */
+    static final int PARALLEL_THRESHOLD = 4096;
+
+    private long[] v4 = new long[16];
+    private int v4Size;
+    private String[] v4Template;
+
+    private long[] v6Hi = new long[16];
+    private long[] v6Lo = new long[16];
+    private int[] v6Len = new int[16];
+    private int v6Size;
+    private String[] v6Template;
+
+    private final long[] key = new long[3];
+
+    /**
+     * 加入一条路由，route[0] 为前缀；每个家族的第一条路由作为聚合结果的模板
+     * @return 前缀无效时返回 false
+     */
+    boolean add(String[] route) {
+        int family = add(route[0]);
+        if (family == PackedPrefix.FAMILY_IPV4 && v4Template == null) {
+            v4Template = route;
+        } else if (family == PackedPrefix.FAMILY_IPV6 && v6Template == null) {
+            v6Template = route;
+        }
+        return family != PackedPrefix.FAMILY_NONE;
+    }
+
+    /**
+     * 加入一个前缀
+     * @return 前缀所属家族，无效时为 PackedPrefix.FAMILY_NONE
+     */
+    int add(String prefix) {
+        if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+            long packed = PackedPrefix.parseIPv4(prefix);
+            if (packed < 0) return PackedPrefix.FAMILY_NONE;
+            if (v4Size == v4.length) v4 = Arrays.copyOf(v4, v4Size * 2);
+            v4[v4Size++] = packed;
+            return PackedPrefix.FAMILY_IPV4;
+        }
+        if (!PackedPrefix.parseIPv6(prefix, key)) return PackedPrefix.FAMILY_NONE;
+        if (v6Size == v6Hi.length) {
+            v6Hi = Arrays.copyOf(v6Hi, v6Size * 2);
+            v6Lo = Arrays.copyOf(v6Lo, v6Size * 2);
+            v6Len = Arrays.copyOf(v6Len, v6Size * 2);
+        }
+        v6Hi[v6Size] = key[0];
+        v6Lo[v6Size] = key[1];
+        v6Len[v6Size] = (int) key[2];
+        v6Size++;
+        return PackedPrefix.FAMILY_IPV6;
+    }
+
+    int ipv4Size() {
+        return v4Size;
+    }
+
+    int ipv6Size() {
+        return v6Size;
+    }
+
+    /**
+     * @return 该家族第一条加入的路由，没有时为 null
+     */
+    String[] template(int family) {
+        return family == PackedPrefix.FAMILY_IPV4 ? v4Template : v6Template;
+    }
+
+    /**
+     * 聚合两道的前缀
+     * @return {IPv4 结果, IPv6 结果}
+     */
+    List<List<String>> aggregate() {
+        if (v4Size >= PARALLEL_THRESHOLD && v6Size >= PARALLEL_THRESHOLD) {
+            CompletableFuture<List<String>> v6 = CompletableFuture.supplyAsync(this::aggregateIPv6);
+            List<String> v4Result = aggregateIPv4();
+            try {
+                return Arrays.asList(v4Result, v6.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw e;
+            }
+        }
+        return Arrays.asList(aggregateIPv4(), aggregateIPv6());
+    }
+
+    /**
+     * 聚合后的前缀，IPv4 在前
+     */
+    List<String> aggregatePrefixes() {
+        List<List<String>> lanes = aggregate();
+        List<String> result = new ArrayList<>(lanes.get(0).size() + lanes.get(1).size());
+        result.addAll(lanes.get(0));
+        result.addAll(lanes.get(1));
+        return result;
+    }
+
+    List<String> aggregateIPv4() {
+        List<String> out = new ArrayList<>();
+        if (v4Size == 0) return out;
+        RouteEvents.Span span = RouteEvents.begin(RouteEvents.Phase.AGGREGATE);
+        // 打包值的高位是地址，直接排序即按起始地址升序
+        long[] sorted = Arrays.copyOf(v4, v4Size);
+        Arrays.sort(sorted);
+        long start = -1;
+        long end = -1;
+        for (long packed : sorted) {
+            long s = PackedPrefix.ipv4Address(packed);
+            long e = s | (~PackedPrefix.ipv4Mask(PackedPrefix.ipv4Length(packed)) & 0xffffffffL);
+            if (start >= 0 && s <= end + 1) {
+                if (e > end) end = e;
+                continue;
+            }
+            if (start >= 0) ipv4RangeToCidrs(start, end, out::add);
+            start = s;
+            end = e;
+        }
+        ipv4RangeToCidrs(start, end, out::add);
+        span.end(v4Size, 0, out.size());
+        return out;
+    }
+
+    List<String> aggregateIPv6() {
+        List<String> out = new ArrayList<>();
+        if (v6Size == 0) return out;
+        RouteEvents.Span span = RouteEvents.begin(RouteEvents.Phase.AGGREGATE);
+        int[] order = sortIPv6();
+        boolean open = false;
+        long sHi = 0;
+        long sLo = 0;
+        long eHi = 0;
+        long eLo = 0;
+        for (int idx : order) {
+            long hi = v6Hi[idx];
+            long lo = v6Lo[idx];
+            int len = v6Len[idx];
+            long endHi = hi | ~PackedPrefix.ipv6MaskHi(len);
+            long endLo = lo | ~PackedPrefix.ipv6MaskLo(len);
+            if (open && ipv6AdjacentOrOverlapping(hi, lo, eHi, eLo)) {
+                if (PackedPrefix.compareIPv6(endHi, endLo, eHi, eLo) > 0) {
+                    eHi = endHi;
+                    eLo = endLo;
+                }
+                continue;
+            }
+            if (open) ipv6RangeToCidrs(sHi, sLo, eHi, eLo, out::add);
+            open = true;
+            sHi = hi;
+            sLo = lo;
+            eHi = endHi;
+            eLo = endLo;
+        }
+        ipv6RangeToCidrs(sHi, sLo, eHi, eLo, out::add);
+        span.end(v6Size, 0, out.size());
+        return out;
+    }
+
+    /**
+     * 被同一道中另一个更短前缀覆盖的前缀数（更具体前缀），重复的前缀只计一次。
+     * 前缀之间只有包含或不相交两种关系，按 (起始地址, 长度) 排序后用一个栈保存仍可能覆盖后续前缀的区间终点
+     */
+    int moreSpecificsIPv4() {
+        long[] sorted = Arrays.copyOf(v4, v4Size);
+        Arrays.sort(sorted);
+        long[] ends = new long[33];
+        int depth = 0;
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0 && sorted[i] == sorted[i - 1]) continue;
+            long s = PackedPrefix.ipv4Address(sorted[i]);
+            long e = s | (~PackedPrefix.ipv4Mask(PackedPrefix.ipv4Length(sorted[i])) & 0xffffffffL);
+            while (depth > 0 && ends[depth - 1] < s) depth--;
+            if (depth > 0) count++;
+            ends[depth++] = e;
+        }
+        return count;
+    }
+
+    int moreSpecificsIPv6() {
+        int[] order = sortIPv6();
+        long[] endHi = new long[129];
+        long[] endLo = new long[129];
+        int depth = 0;
+        int count = 0;
+        int prev = -1;
+        for (int idx : order) {
+            long hi = v6Hi[idx];
+            long lo = v6Lo[idx];
+            int len = v6Len[idx];
+            if (prev >= 0 && v6Hi[prev] == hi && v6Lo[prev] == lo && v6Len[prev] == len) continue;
+            prev = idx;
+            while (depth > 0 && PackedPrefix.compareIPv6(endHi[depth - 1], endLo[depth - 1], hi, lo) < 0) depth--;
+            if (depth > 0) count++;
+            endHi[depth] = hi | ~PackedPrefix.ipv6MaskHi(len);
+            endLo[depth] = lo | ~PackedPrefix.ipv6MaskLo(len);
+            depth++;
+        }
+        return count;
+    }
+
+    /**
+     * 按 (起始地址, 前缀长度) 对 IPv6 道做归并排序，返回下标顺序
+     */
+    private int[] sortIPv6() {
+        int[] order = new int[v6Size];
+        for (int i = 0; i < v6Size; i++) order[i] = i;
+        int[] tmp = new int[v6Size];
+        for (int width = 1; width < v6Size; width <<= 1) {
+            for (int lo = 0; lo < v6Size - width; lo += width << 1) {
+                int mid = lo + width;
+                int hi = Math.min(lo + (width << 1), v6Size);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    int a = order[i];
+                    int b = order[j];
+                    int c = PackedPrefix.compareIPv6(v6Hi[b], v6Lo[b], v6Hi[a], v6Lo[a]);
+                    tmp[k++] = c < 0 || (c == 0 && v6Len[b] < v6Len[a]) ? order[j++] : order[i++];
+                }
+                while (i < mid) tmp[k++] = order[i++];
+                while (j < hi) tmp[k++] = order[j++];
+                System.arraycopy(tmp, lo, order, lo, hi - lo);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * 起点 (hi, lo) 是否不超过终点 (eHi, eLo) + 1
+     */
+    static boolean ipv6AdjacentOrOverlapping(long hi, long lo, long eHi, long eLo) {
+        if (eHi == -1L && eLo == -1L) return true;
+        long nextLo = eLo + 1;
+        long nextHi = nextLo == 0 ? eHi + 1 : eHi;
+        return PackedPrefix.compareIPv6(hi, lo, nextHi, nextLo) <= 0;
+    }
+
+    /**
+     * 把 [start, end] 区间拆分为最少的 IPv4 CIDR
+     */
+    static void ipv4RangeToCidrs(long start, long end, Consumer<String> out) {
+        long cur = start;
+        while (cur <= end) {
+            int bits = cur == 0 ? 32 : Long.numberOfTrailingZeros(cur);
+            int fit = 63 - Long.numberOfLeadingZeros(end - cur + 1);
+            if (fit < bits) bits = fit;
+            out.accept(PackedPrefix.formatIPv4(cur, 32 - bits));
+            cur += 1L << bits;
+        }
+    }
+
+    /**
+     * 把 [start, end] 区间拆分为最少的 IPv6 CIDR，地址为 hi/lo 两个 long 表示的 128 位无符号数
+     */
+    static void ipv6RangeToCidrs(long sHi, long sLo, long eHi, long eLo, Consumer<String> out) {
+        long cHi = sHi;
+        long cLo = sLo;
+        while (true) {
+            int bits = cLo != 0 ? Long.numberOfTrailingZeros(cLo)
+                    : cHi != 0 ? 64 + Long.numberOfTrailingZeros(cHi) : 128;
+            // 剩余地址数 = end - cur + 1，溢出为 0 时表示 2^128
+            long dLo = eLo - cLo;
+            long dHi = eHi - cHi - (Long.compareUnsigned(eLo, cLo) < 0 ? 1 : 0);
+            long rLo = dLo + 1;
+            long rHi = rLo == 0 ? dHi + 1 : dHi;
+            int fit = rHi != 0 ? 127 - Long.numberOfLeadingZeros(rHi)
+                    : rLo != 0 ? 63 - Long.numberOfLeadingZeros(rLo) : 128;
+            if (fit < bits) bits = fit;
+            out.accept(PackedPrefix.formatIPv6(cHi, cLo, 128 - bits));
+            if (bits == 128) return;
+            if (bits >= 64) {
+                cHi += 1L << (bits - 64);
+                if (cHi == 0) return;
+            } else {
+                cLo += 1L << bits;
+                if (cLo == 0 && ++cHi == 0) return;
+            }
+            if (PackedPrefix.compareIPv6(cHi, cLo, eHi, eLo) > 0) return;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * nftables / ipset 集合输出。
+ *
+ * 前缀先经 Analysis 的区间合并得到最少的地址区间，再按目标格式写出：
+ * <ul>
+ * <li>NFTABLES：flags interval 集合，每个合并后的区间是一个元素（恰好是一个 CIDR 时写成 CIDR，
+ *     否则写成 start-end），add element 语句按 chunkSize 分块，整个文件由一次 nft -f 原子加载</li>
+ * <li>IPSET：ipset restore 文件，hash:net 只接受 CIDR，区间会拆分为最少的 CIDR；
+ *     先填充临时集合再 swap，替换过程对匹配规则是原子的</li>
+ * </ul>
+ * IPv4 与 IPv6 分别写入 name_v4 / name_v6 两个集合。路由数据格式为 {prefix}。
+ */
+class FirewallSetProvider extends DataProvider implements CreateProviderFile {
+    /**
+     * 输出格式
+     */
+    enum Format {
+        NFTABLES,
+        IPSET
+    }
+
+    /** 每条 add element 语句的默认元素数，保证单条 netlink 消息远小于内核限制 */
+    static final int DEFAULT_CHUNK_SIZE = 1024;
+    static final int IPSET_HASHSIZE = 65536;
+    static final int IPSET_MAXELEM = 1 << 20;
+
+    private final Format format;
+    private final List<String> prefixes = new ArrayList<>();
+    private String family = "inet";
+    private String table = "bgp";
+    private String setName = "bgp";
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int ipv4Elements;
+    private int ipv6Elements;
+
+    public FirewallSetProvider(String path, Format format) {
+        super(path);
+        this.format = format == null ? Format.NFTABLES : format;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * 设置 nftables 表（如 "inet filter"），对 ipset 无效
+     */
+    public void setTable(String family, String table) {
+        this.family = family;
+        this.table = table;
+    }
+
+    /**
+     * 设置集合名前缀，实际集合名为 name_v4 / name_v6
+     */
+    public void setSetName(String setName) {
+        this.setName = setName;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("分块大小必须大于0: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean createFile(String filePath) {
+        try {
+            File file = new File(filePath);
+            if (file.exists()) {
+                if (verbose) {
+                    System.out.println("集合文件已存在: " + filePath);
+                }
+                return false;
+            }
+
+            // 创建目录（如果不存在）
+            File parentDir = file.getParentFile();
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+
+            if (file.createNewFile()) {
+                if (verbose) {
+                    System.out.println("集合文件创建成功: " + filePath);
+                }
+                return true;
+            } else {
+                if (verbose) {
+                    System.err.println("集合文件创建失败: " + filePath);
+                }
+                return false;
+            }
+        } catch (IOException e) {
+            if (verbose) {
+                System.err.println("创建集合文件时发生IO异常: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public String[] getNextRoute() {
+        return null;
+    }
+
+    @Override
+    public void setRoute(int index, String[] routeData) {
+        // 集合无序，忽略索引
+        prefixes.add(routeData[0].trim());
+    }
+
+    @Override
+    public String[] getRoute(int index) {
+        if (index >= 0 && index < prefixes.size()) {
+            return new String[]{prefixes.get(index)};
+        }
+        return null;
+    }
+
+    /**
+     * 合并区间并写出集合文件
+     */
+    public void writeToFile() throws IOException {
+        List<String> v4 = new ArrayList<>();
+        for (long[] r : Analysis.mergeIPv4Ranges(prefixes)) {
+            if (format == Format.IPSET) {
+                v4.addAll(Analysis.rangeToCidrs(r[0], r[1]));
+            } else {
+                List<String> cidrs = Analysis.rangeToCidrs(r[0], r[1]);
+                v4.add(cidrs.size() == 1 ? cidrs.get(0) : Analysis.longToIp(r[0]) + "-" + Analysis.longToIp(r[1]));
+            }
+        }
+        List<String> v6 = new ArrayList<>();
+        for (BigInteger[] r : Analysis.mergeIPv6Ranges(prefixes)) {
+            List<String> cidrs = Analysis.rangeToIpv6Cidrs(r[0], r[1]);
+            if (format == Format.IPSET || cidrs.size() == 1) {
+                v6.addAll(cidrs);
+            } else {
+                v6.add(formatIPv6(r[0]) + "-" + formatIPv6(r[1]));
+            }
+        }
+        ipv4Elements = v4.size();
+        ipv6Elements = v6.size();
+
+        try (PrintWriter writer = new PrintWriter(openOutputWriter(false))) {
+            if (format == Format.NFTABLES) {
+                writer.println("#!/usr/sbin/nft -f");
+                writer.println("# Auto-generated nftables interval sets");
+                writer.println("add table " + family + " " + table);
+                writeNftSet(writer, setName + "_v4", "ipv4_addr", v4);
+                writeNftSet(writer, setName + "_v6", "ipv6_addr", v6);
+            } else {
+                writer.println("# Auto-generated ipset restore file");
+                writer.println("# Load with: ipset restore -file " + new File(path).getName());
+                writeIpset(writer, setName + "_v4", "inet", v4);
+                writeIpset(writer, setName + "_v6", "inet6", v6);
+            }
+            if (writer.checkError()) {
+                throw new IOException("写入集合文件失败: " + path);
+            }
+        }
+
+        if (verbose) {
+            System.out.println("已写入 " + ipv4Elements + " 个IPv4元素和 " + ipv6Elements + " 个IPv6元素到文件: " + path);
+        }
+    }
+
+    private void writeNftSet(PrintWriter writer, String name, String type, List<String> elements) {
+        String set = family + " " + table + " " + name;
+        writer.println("add set " + set + " { type " + type + "; flags interval; }");
+        writer.println("flush set " + set);
+        for (int i = 0; i < elements.size(); i += chunkSize) {
+            writer.print("add element " + set + " { ");
+            int end = Math.min(elements.size(), i + chunkSize);
+            for (int k = i; k < end; k++) {
+                if (k > i) writer.print(", ");
+                writer.print(elements.get(k));
+            }
+            writer.println(" }");
+        }
+    }
+
+    private void writeIpset(PrintWriter writer, String name, String ipsetFamily, List<String> elements) {
+        String tmp = name + "-tmp";
+        // create -exist 只在参数完全相同时忽略已存在的集合，因此参数取固定值，
+        // 只有元素数超过默认上限时才按 2 的幂增长，保证多次加载之间保持一致
+        int maxElem = IPSET_MAXELEM;
+        while (maxElem < elements.size()) {
+            maxElem <<= 1;
+        }
+        String options = " hash:net family " + ipsetFamily + " hashsize " + IPSET_HASHSIZE + " maxelem " + maxElem + " -exist";
+        writer.println("create " + name + options);
+        writer.println("create " + tmp + options);
+        writer.println("flush " + tmp);
+        for (String element : elements) {
+            writer.println("add " + tmp + " " + element);
+        }
+        writer.println("swap " + tmp + " " + name);
+        writer.println("destroy " + tmp);
+    }
+
+    private static String formatIPv6(BigInteger v) {
+        try {
+            return Analysis.bigIntToIp6(v);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("无法格式化IPv6地址: " + v.toString(16), e);
+        }
+    }
+
+    public int getIpv4ElementCount() {
+        return ipv4Elements;
+    }
+
+    public int getIpv6ElementCount() {
+        return ipv6Elements;
+    }
+}
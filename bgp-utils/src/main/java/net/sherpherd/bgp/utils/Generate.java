@@ -7,6 +7,236 @@ import java.io.IOException;
 
 public class Generate {
     
+    /** 内存预算（字节），大于0时MRT/CSV到CSV的转换改用外部排序，不再要求整张表放入堆内存 */
+    private static long memoryBudget = 0L;
+    /** 外部排序临时文件目录，为null时使用java.io.tmpdir */
+    private static File spillDirectory = null;
+    /** 为true时MRT到CSV的转换按完整的BGP选路规则归约，否则只保留最短AS_PATH */
+    private static boolean bestPathSelection = false;
+    /** 大于1时MRT/CSV到CSV的转换每个前缀保留AS_PATH最短的多条路由，优先于完整的BGP选路 */
+    private static int alternatePaths = 0;
+    /** 多路径时是否要求同一前缀的路由相邻AS互不相同 */
+    private static boolean distinctNeighborPaths = false;
+    /** 为true时MRT/CSV到CSV的转换在管道中顺带统计地址空间，结束后打印报告 */
+    private static boolean statisticsReport = false;
+    /** 最近一次转换的统计结果 */
+    private static volatile RouteStatistics lastStatistics = null;
+    // 重叠分析报告的输出路径，为null时不分析
+    private static String overlapReportPath = null;
+    /** 转换结果缓存，为null时不使用 */
+    private static volatile ResultCache resultCache = null;
+    /** 逐条路由的跳过日志，限流避免调试输出拖慢转换 */
+    static final RouteLog.Category LOG_SKIP = RouteLog.category("skip", true).rateLimit(1000);
+    
+    /**
+     * 设置转换的内存预算
+     * @param bytes 字节数，0表示不限制（全部在内存中完成）
+     */
+    public static void setMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("内存预算不能为负数: " + bytes);
+        }
+        memoryBudget = bytes;
+    }
+    
+    public static long getMemoryBudget() {
+        return memoryBudget;
+    }
+    
+    /**
+     * 设置外部排序临时文件目录
+     */
+    public static void setSpillDirectory(File dir) {
+        spillDirectory = dir;
+    }
+    
+    /**
+     * 设置MRT输入的转换（CSV、快照和多路输出）是否使用完整的BGP选路规则（见 BestPathSelector），外部排序模式下不生效
+     */
+    public static void setBestPathSelection(boolean enabled) {
+        bestPathSelection = enabled;
+    }
+    
+    public static boolean isBestPathSelection() {
+        return bestPathSelection;
+    }
+    
+    /**
+     * 设置MRT/CSV到CSV的转换和多路输出每个前缀保留的路由数，用于计算备份路由；外部排序模式下不生效，
+     * 二进制快照不支持（见 checkSnapshotReduction）
+     * @param k 路由数，0或1表示只保留一条
+     * @param distinctNeighbor 是否要求同一前缀的路由相邻AS（AS_PATH第一个ASN）互不相同
+     */
+    public static void setAlternatePaths(int k, boolean distinctNeighbor) {
+        if (k < 0 || k > TopPathTable.MAX_K) {
+            throw new IllegalArgumentException("每个前缀保留的路由数必须在 0 到 " + TopPathTable.MAX_K + " 之间: " + k);
+        }
+        alternatePaths = k;
+        distinctNeighborPaths = distinctNeighbor;
+    }
+    
+    public static int getAlternatePaths() {
+        return alternatePaths;
+    }
+    
+    /**
+     * 设置MRT/CSV到CSV的转换结束后是否打印地址空间统计（见 RouteStatistics）；结果来自缓存时不统计
+     */
+    public static void setStatisticsReport(boolean enabled) {
+        statisticsReport = enabled;
+    }
+    
+    public static boolean isStatisticsReport() {
+        return statisticsReport;
+    }
+    
+    /**
+     * 最近一次开启统计的转换的统计结果，没有时为null
+     */
+    static RouteStatistics getLastStatistics() {
+        return lastStatistics;
+    }
+    
+    /**
+     * 开启统计时为管道加入统计
+     */
+    private static RouteStatistics attachStatistics(RoutePipeline pipeline) {
+        if (!statisticsReport) return null;
+        RouteStatistics stats = new RouteStatistics();
+        pipeline.statistics(stats);
+        return stats;
+    }
+    
+    private static void reportStatistics(RouteStatistics stats) {
+        if (stats == null) return;
+        lastStatistics = stats;
+        System.out.print(stats.report());
+    }
+    
+    /**
+     * 设置MRT/CSV到CSV的转换在聚合前做前缀重叠分析（见 OverlapAnalysis），结果写入该CSV文件；为null时关闭。
+     * 结果来自缓存时不分析
+     */
+    public static void setOverlapReport(String csvPath) {
+        overlapReportPath = csvPath == null || csvPath.isEmpty() ? null : csvPath;
+    }
+    
+    public static String getOverlapReport() {
+        return overlapReportPath;
+    }
+    
+    /**
+     * 统计和重叠分析报告针对单个转换，多路输出的各组过滤条件会互相覆盖报告，不支持
+     */
+    static void checkNoReports(String conversion) {
+        if (statisticsReport || overlapReportPath != null) {
+            throw new IllegalArgumentException(conversion + "不支持地址空间统计和重叠分析报告 (bgp.stats / bgp.overlaps)，"
+                    + "请用单独的MRT/CSV到CSV转换生成报告");
+        }
+    }
+    
+    private static OverlapAnalysis attachOverlaps(RoutePipeline pipeline) {
+        if (overlapReportPath == null) return null;
+        OverlapAnalysis analysis = new OverlapAnalysis();
+        pipeline.overlaps(analysis);
+        return analysis;
+    }
+    
+    private static void reportOverlaps(OverlapAnalysis analysis) {
+        if (analysis == null) return;
+        try {
+            analysis.writeCsv(overlapReportPath);
+        } catch (IOException e) {
+            throw new RuntimeException("写入重叠分析报告失败: " + e.getMessage(), e);
+        }
+        System.out.print(analysis.report());
+    }
+    
+    /**
+     * 按当前设置为管道加入归约阶段：多路径优先，其次是完整的BGP选路（只对MRT输入有意义），默认最短AS_PATH
+     */
+    private static void addReduction(RoutePipeline pipeline, boolean mrt) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (alternatePaths > 1) {
+            pipeline.reduceTopPaths(alternatePaths, distinctNeighborPaths);
+        } else if (mrt && bestPathSelection) {
+            pipeline.reduceBestPath(threads);
+        } else {
+            pipeline.reduceShortestPath(threads);
+        }
+    }
+    
+    /**
+     * 与 addReduction 相同的归约方式，在调用线程中顺序归约
+     */
+    static RoutePipeline.Reduction newReduction(boolean mrt) {
+        if (alternatePaths > 1) {
+            return RoutePipeline.Reduction.topPaths(alternatePaths, distinctNeighborPaths);
+        }
+        return mrt && bestPathSelection ? RoutePipeline.Reduction.bestPath() : RoutePipeline.Reduction.shortestPath();
+    }
+    
+    /**
+     * 二进制快照按前缀去重，每个前缀只能保存一条路由，不能与多路径同时使用
+     */
+    static void checkSnapshotReduction() {
+        if (alternatePaths > 1) {
+            throw new IllegalArgumentException("二进制快照每个前缀只保存一条路由，不支持多路径 (每个前缀 "
+                    + alternatePaths + " 条)");
+        }
+    }
+    
+    /**
+     * 缓存键中区分归约方式的后缀，与 addReduction 对应
+     */
+    static String reductionKind(boolean mrt) {
+        if (alternatePaths > 1) {
+            return "-top" + alternatePaths + (distinctNeighborPaths ? "-diverse" : "");
+        }
+        return mrt && bestPathSelection ? "-bestpath" : "";
+    }
+    
+    /**
+     * 设置转换结果缓存，为null时关闭缓存
+     */
+    static void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+    
+    static ResultCache getResultCache() {
+        return resultCache;
+    }
+    
+    /**
+     * 计算转换结果的缓存键，包含当前生效的 bogon 过滤规则
+     * @return 未启用缓存时返回null
+     */
+    static String resultCacheKey(String conversion, DataProvider in, DataProvider out,
+                                 List<String> aspath_regex, boolean aggregate) {
+        ResultCache cache = resultCache;
+        return cache == null ? null : cache.key(conversion + "\nbogon:" + BogonFilter.digestOf(BogonFilter.active()),
+                in.path, aspath_regex, aggregate, out.path);
+    }
+    
+    /**
+     * 缓存命中时把结果复制到输出文件
+     * @return 是否命中，key为null时总是返回false
+     */
+    static boolean restoreResult(String key, DataProvider out) {
+        ResultCache cache = resultCache;
+        return key != null && cache != null && cache.restore(key, out.path);
+    }
+    
+    /**
+     * 把转换结果存入缓存，key为null时不做任何事
+     */
+    static void storeResult(String key, DataProvider out) {
+        ResultCache cache = resultCache;
+        if (key != null && cache != null) {
+            cache.store(key, out.path);
+        }
+    }
+    
     /**
      * 从CSVProvider中获取路由数据，并将prefix列的数据按行输出到RawTextProvider中
      */
@@ -29,59 +259,22 @@ public class Generate {
         // 准备输出文件
         prepareOutputFile(out.path);
         
-        String[] route;
-        List<String> prefixes = new ArrayList<>();
-        
-        while ((route = in.getNextRoute()) != null) {
-            // 检查AS_PATH匹配
-            if (aspath_regex != null && !aspath_regex.isEmpty() && route.length > 1) {
-                String asPath = route[1];
-                boolean matched = false;
-                for (String regex : aspath_regex) {
-                    // 使用 CiscoIOSRegex 静态方法进行匹配
-                    if (CiscoIOSRegex.matches(asPath, regex)) {
-                        matched = true;
-                        break;
-                    }
-                }
-                if (!matched) {
-                    continue; // 不匹配任何正则表达式，跳过该路由
-                }
-            }
-            
-            // 获取prefix列的数据
-            String prefix = route[0]; // 假设prefix是第一列
-            prefixes.add(prefix);
+        String cacheKey = resultCacheKey("csv-raw", in, out, aspath_regex, aggregate);
+        if (restoreResult(cacheKey, out)) {
+            return;
         }
         
-        // 如果需要进行聚合
+        RoutePipeline pipeline = new RoutePipeline(in).filter(aspath_regex);
         if (aggregate) {
-            try {
-                // 创建临时CSV文件进行聚合处理
-                List<String> aggregatedPrefixes = aggregatePrefixes(prefixes);
-                for (String prefix : aggregatedPrefixes) {
-                    out.setRoute(-1, new String[]{prefix});
-                }
-            } catch (IOException e) {
-                // 聚合失败，使用原始前缀
-                System.err.println("路由聚合失败，使用原始路由: " + e.getMessage());
-                for (String prefix : prefixes) {
-                    out.setRoute(-1, new String[]{prefix});
-                }
-            }
-        } else {
-            // 不进行聚合，直接输出
-            for (String prefix : prefixes) {
-                out.setRoute(-1, new String[]{prefix});
-            }
+            pipeline.aggregate(null);
         }
         
-        // 写入文件
         try {
-            out.writeToFile();
+            pipeline.run(RoutePipeline.Sink.rawText(out));
         } catch (IOException e) {
             throw new RuntimeException("写入输出文件失败: " + e.getMessage(), e);
         }
+        storeResult(cacheKey, out);
     }
     
     /**
@@ -97,23 +290,216 @@ public class Generate {
         // 准备输出文件
         prepareOutputFile(out.path);
         
-        // 初始化输出Provider的writer
+        try {
+            new RoutePipeline(in).run(RoutePipeline.Sink.iproute2(out, nexthop));
+        } catch (IOException e) {
+            throw new RuntimeException("初始化输出文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从CSVProvider中读取路由，按每条路由自己的 nexthop 列生成路由脚本；
+     * 配合 NEXTHOP 模式时，一次转换即可生成多个下一跳对象/ECMP 组
+     * @param in 输入的CSVProvider
+     * @param out 输出的Iproute2ScriptProvider
+     * @param defaultNexthop nexthop 列缺失或为空时使用的下一跳，可为 null（跳过这些路由）
+     */
+    public static void generateScriptFromCSVToIproute2(CSVProvider in, Iproute2ScriptProvider out, String defaultNexthop) {
+        // 检查输入文件
+        checkInputFile(in.path);
+        
+        // 准备输出文件
+        prepareOutputFile(out.path);
+        
         try {
             out.initializeWriter();
         } catch (IOException e) {
             throw new RuntimeException("初始化输出文件失败: " + e.getMessage(), e);
         }
         
+        int prefixIndex = in.getPrefixIndex();
+        int nexthopIndex = in.getNexthopIndex();
         String[] route;
         while ((route = in.getNextRoute()) != null) {
-            String prefix = route[0];
-            out.addRoute(prefix, nexthop);
+            String nexthop = nexthopIndex >= 0 ? route[nexthopIndex].trim() : "";
+            if (nexthop.isEmpty()) {
+                nexthop = defaultNexthop;
+            }
+            if (nexthop == null) {
+                RouteLog.log(LOG_SKIP, "跳过没有下一跳的路由: {}", route[prefixIndex]);
+                continue;
+            }
+            out.addRoute(route[prefixIndex].trim(), nexthop);
         }
         
-        // 关闭输出文件
         out.close();
     }
-    
+
+    /**
+     * 与内核当前路由表做差异同步：只为新增、下一跳变化和不再需要的前缀生成 add/replace/del 命令
+     * @param in 输入的RawTextProvider（期望的前缀列表）
+     * @param currentTable "ip -j route show table N" 的输出文件，"-" 表示标准输入
+     * @param out 输出的Iproute2ScriptProvider，必须通过 setTable() 指定 main 以外的专用路由表，
+     *            并通过 setProtocol() 指定专用的路由协议标识；只有该协议安装的路由会被比较和删除
+     * @param nexthop 下一跳地址
+     * @return {新增数, 替换数, 删除数}
+     */
+    public static long[] generateReconcileScriptFromRawTextToIproute2(RawTextProvider in, String currentTable,
+                                                                     Iproute2ScriptProvider out, String nexthop) {
+        // 检查输入文件
+        checkInputFile(in.path);
+        if (!Analysis.isValidIPAddress(nexthop)) {
+            throw new IllegalArgumentException("无效的下一跳地址: " + nexthop);
+        }
+        // 253 default、254 main、255 local 为系统路由表，差异同步会删除路由，不允许作用于这些表；
+        // 其余编号（包括 255 以上的 32 位编号）都可以作为专用路由表
+        int table = out.getTable();
+        if (table == 0 || (table >= 253 && table <= 255)) {
+            throw new IllegalArgumentException("差异同步必须指定专用路由表，不能是 default(253)、main(254) 或 local(255): "
+                    + (table == 0 ? "未指定" : Integer.toString(table)));
+        }
+        if (out.getProtocol() == null) {
+            throw new IllegalArgumentException("差异同步必须指定专用的路由协议标识 (proto)");
+        }
+        if (!"-".equals(currentTable)) {
+            checkInputFile(currentTable);
+        }
+
+        RouteSet installed;
+        try {
+            installed = KernelRouteDump.read(currentTable, out.getProtocol());
+        } catch (IOException e) {
+            throw new RuntimeException("读取当前路由表失败: " + e.getMessage(), e);
+        }
+
+        // 只同步与下一跳同一地址家族的路由，另一地址家族的已安装路由保持不变
+        int family = Analysis.isValidIPv4Address(nexthop) ? PackedPrefix.FAMILY_IPV4 : PackedPrefix.FAMILY_IPV6;
+        installed.retainFamily(family);
+
+        RouteSet desired = new RouteSet();
+        String[] route;
+        while ((route = in.getNextRoute()) != null) {
+            if (PackedPrefix.family(route[0].trim()) != family) continue;
+            if (!desired.add(route[0], nexthop)) {
+                RouteLog.log(LOG_SKIP, "跳过无效prefix: {}", route[0]);
+            }
+        }
+
+        // 准备输出文件
+        prepareOutputFile(out.path);
+        try {
+            out.initializeWriter();
+        } catch (IOException e) {
+            throw new RuntimeException("初始化输出文件失败: " + e.getMessage(), e);
+        }
+
+        final long[] counts = new long[3];
+        RouteSet.diff(desired, installed, new RouteSet.DiffListener() {
+            @Override
+            public void add(String prefix, String gateway) {
+                out.addRoute(prefix, gateway);
+                counts[0]++;
+            }
+
+            @Override
+            public void replace(String prefix, String oldGateway, String gateway) {
+                out.replaceRoute(prefix, gateway);
+                counts[1]++;
+            }
+
+            @Override
+            public void delete(String prefix, String oldGateway) {
+                // 默认路由从不删除
+                if (KernelRouteDump.isDefault(prefix)) return;
+                out.deleteRoute(prefix);
+                counts[2]++;
+            }
+        });
+        out.close();
+
+        if (Main.verbose) {
+            System.out.println("差异同步: 新增 " + counts[0] + " 条，替换 " + counts[1] + " 条，删除 " + counts[2] + " 条");
+        }
+        return counts;
+    }
+
+    /**
+     * 从CSVProvider中读取路由，生成 nftables / ipset 集合文件
+     * 集合只含前缀，而任何归约方式都为每个通过过滤的前缀至少保留一条路由，因此不做归约，
+     * BGP选路和多路径设置不影响结果
+     * @param in 输入的CSVProvider
+     * @param out 输出的FirewallSetProvider
+     * @param aspath_regex 用于匹配AS_PATH的正则表达式列表，可为null
+     */
+    public static void generateFirewallSetFromCSV(CSVProvider in, FirewallSetProvider out, List<String> aspath_regex) {
+        // 检查输入文件
+        checkInputFile(in.path);
+        
+        // 准备输出文件
+        prepareOutputFile(out.path);
+        
+        // 区间合并在写出时完成，集合元素数最少
+        try {
+            new RoutePipeline(in).filter(aspath_regex).run(RoutePipeline.Sink.firewallSet(out));
+        } catch (IOException e) {
+            throw new RuntimeException("写入输出文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从RawTextProvider中读取前缀，生成 nftables / ipset 集合文件
+     */
+    public static void generateFirewallSetFromRawText(RawTextProvider in, FirewallSetProvider out) {
+        // 检查输入文件
+        checkInputFile(in.path);
+        
+        // 准备输出文件
+        prepareOutputFile(out.path);
+        
+        String[] route;
+        while ((route = in.getNextRoute()) != null) {
+            out.setRoute(-1, route);
+        }
+        
+        try {
+            out.writeToFile();
+        } catch (IOException e) {
+            throw new RuntimeException("写入输出文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从RawTextProvider中读取前缀，编码为 rtnetlink RTM_NEWROUTE 消息写入NetlinkRouteProvider
+     * @param in 输入的RawTextProvider
+     * @param out 输出的NetlinkRouteProvider（文件或已 connect() 的发送程序）
+     * @param nexthop 下一跳地址
+     */
+    public static void generateNetlinkFromRawText(RawTextProvider in, NetlinkRouteProvider out, String nexthop) {
+        // 检查输入文件
+        checkInputFile(in.path);
+
+        // 接到发送程序时没有输出文件
+        if (!out.isConnected()) {
+            prepareOutputFile(out.path);
+        }
+
+        try {
+            out.initializeWriter();
+        } catch (IOException e) {
+            throw new RuntimeException("初始化netlink输出失败: " + e.getMessage(), e);
+        }
+
+        String[] route;
+        while ((route = in.getNextRoute()) != null) {
+            out.addRoute(route[0], nexthop);
+        }
+
+        out.close();
+        if (out.getErrorCount() > 0) {
+            throw new RuntimeException("内核拒绝了 " + out.getErrorCount() + " 条路由: " + out.getErrors().get(0));
+        }
+    }
+
     /**
      * 从MRTProvider中读取路由数据并写入CSVProvider，实现MRT到CSV的转换
      * 保持最短AS_PATH的原则，并过滤无效路由
@@ -124,7 +510,7 @@ public class Generate {
     
     /**
      * 从MRTProvider中读取路由数据并写入CSVProvider，实现MRT到CSV的转换
-     * 保持最短AS_PATH的原则，并过滤无效路由
+     * 保持最短AS_PATH的原则（启用 setBestPathSelection 时按完整的BGP选路规则），并过滤无效路由
      * @param in 输入的MRTProvider
      * @param out 输出的CSVProvider
      * @param aspath_regex 用于匹配AS_PATH的正则表达式列表，可为null
@@ -142,76 +528,48 @@ public class Generate {
         // 准备输出文件
         prepareOutputFile(out.path);
         
-        // 用于存储前缀到最短AS_PATH的映射
-        Map<String, String[]> routeMap = new LinkedHashMap<>();
+        // 外部排序的输出顺序不同，使用单独的缓存键
+        String cacheKey = resultCacheKey(memoryBudget > 0 ? "mrt-csv-external" : "mrt-csv" + reductionKind(true),
+                in, out, aspath_regex, aggregate);
+        if (restoreResult(cacheKey, out)) {
+            in.close();
+            return;
+        }
         
-        String[] route;
-        while ((route = in.getNextRoute()) != null) {
-            if (route.length < 2) continue;
-            
-            String prefix = route[0];
-            String asPath = route[1];
-            
-            // 检查AS_PATH匹配
-            if (aspath_regex != null && !aspath_regex.isEmpty()) {
-                boolean matched = false;
-                for (String regex : aspath_regex) {
-                    // 使用 CiscoIOSRegex 静态方法进行匹配
-                    if (CiscoIOSRegex.matches(asPath, regex)) {
-                        matched = true;
-                        break;
-                    }
-                }
-                if (!matched) {
-                    continue; // 不匹配任何正则表达式，跳过该路由
-                }
-            }
-            
-            // 如果前缀已存在，比较AS_PATH长度，保留较短的
-            if (routeMap.containsKey(prefix)) {
-                String[] existingRoute = routeMap.get(prefix);
-                String existingAsPath = existingRoute.length > 1 ? existingRoute[1] : "";
-                
-                if (Analysis.isShorterAsPath(asPath, existingAsPath)) {
-                    routeMap.put(prefix, route);
-                    if (Main.verbose) {
-                        System.out.println("更新较短AS_PATH: prefix=" + prefix + " AS_PATH=" + asPath);
-                    }
-                }
-            } else {
-                // 新前缀，直接添加
-                routeMap.put(prefix, route);
-                if (Main.verbose) {
-                    System.out.println("添加新路由: prefix=" + prefix + " AS_PATH=" + asPath);
-                }
+        if (memoryBudget > 0) {
+            if ((bestPathSelection || alternatePaths > 1) && Main.verbose) {
+                System.out.println("外部排序模式不支持完整的BGP选路和多路径，按最短AS_PATH归约");
             }
+            generateRouteToCSVExternal(in, out, aspath_regex, aggregate, null);
+            in.close();
+            storeResult(cacheKey, out);
+            return;
         }
         
-        // 处理聚合
-        List<String[]> outputRoutes;
+        // 过滤后保持最短AS_PATH的原则（或完整的BGP选路、多路径），聚合时保留第一条路由的其他信息
+        RoutePipeline pipeline = new RoutePipeline(in).filter(aspath_regex);
+        addReduction(pipeline, true);
+        RouteStatistics stats = attachStatistics(pipeline);
+        OverlapAnalysis overlaps = attachOverlaps(pipeline);
         if (aggregate) {
-            outputRoutes = aggregateRoutes(routeMap.values());
-        } else {
-            outputRoutes = new ArrayList<>(routeMap.values());
-        }
-        
-        // 将处理后的路由写入CSVProvider
-        for (String[] routeData : outputRoutes) {
-            out.setRoute(-1, routeData); // 使用-1表示追加到末尾
+            pipeline.aggregate(null);
         }
         
-        // 写入文件
+        long written;
         try {
-            out.writeToFile();
+            written = pipeline.run(RoutePipeline.Sink.csv(out));
         } catch (IOException e) {
             throw new RuntimeException("写入输出文件失败: " + e.getMessage(), e);
+        } finally {
+            // 关闭MRTProvider资源
+            in.close();
         }
-        
-        // 关闭MRTProvider资源
-        in.close();
+        storeResult(cacheKey, out);
+        reportStatistics(stats);
+        reportOverlaps(overlaps);
         
         if (Main.verbose) {
-            System.out.println("MRT到CSV转换完成，共处理 " + outputRoutes.size() + " 条路由");
+            System.out.println("MRT到CSV转换完成，共处理 " + written + " 条路由");
         }
     }
 
@@ -243,149 +601,258 @@ public class Generate {
         // 准备输出文件
         prepareOutputFile(out.path);
         
-        // 用于存储前缀到路由数据的映射（保持最短AS_PATH原则）
-        Map<String, String[]> routeMap = new LinkedHashMap<>();
+        String cacheKey = resultCacheKey(memoryBudget > 0 ? "csv-csv-external" : "csv-csv" + reductionKind(false),
+                in, out, aspath_regex, aggregate);
+        if (restoreResult(cacheKey, out)) {
+            return;
+        }
         
-        String[] route;
-        while ((route = in.getNextRoute()) != null) {
-            if (route.length < 2) continue;
-            
-            String prefix = route[0];
-            String asPath = route.length > 1 ? route[1] : "";
-            
-            // 验证路由数据的有效性
-            if (!Analysis.isValidCIDR(prefix) || !Analysis.isValidAsPath(asPath)) {
-                if (Main.verbose) {
-                    System.err.println("跳过无效路由: prefix=" + prefix + " AS_PATH=" + asPath);
+        if (memoryBudget > 0) {
+            generateRouteToCSVExternal(in, out, aspath_regex, aggregate, "0");
+            storeResult(cacheKey, out);
+            return;
+        }
+        
+        // 验证路由数据的有效性，过滤后保持最短AS_PATH原则；聚合时AS_PATH固定为0
+        RoutePipeline pipeline = new RoutePipeline(in).validate().filter(aspath_regex);
+        addReduction(pipeline, false);
+        RouteStatistics stats = attachStatistics(pipeline);
+        OverlapAnalysis overlaps = attachOverlaps(pipeline);
+        if (aggregate) {
+            pipeline.aggregate("0");
+        }
+        
+        long written;
+        try {
+            written = pipeline.run(RoutePipeline.Sink.csv(out));
+        } catch (IOException e) {
+            throw new RuntimeException("写入输出文件失败: " + e.getMessage(), e);
+        }
+        storeResult(cacheKey, out);
+        reportStatistics(stats);
+        reportOverlaps(overlaps);
+        
+        if (Main.verbose) {
+            System.out.println("CSV到CSV转换完成，共处理 " + written + " 条路由");
+        }
+    }
+
+    /**
+     * 外部排序模式的路由到CSV转换：达到内存预算时将有序段写入临时文件，
+     * 最后k路归并并按最短AS_PATH原则去重，结果直接流式写入输出文件。
+     * 输出按前缀地址排序（IPv4在前），不再保持输入顺序；聚合时以每个地址家族的第一条输出路由为模板。
+     * @param fixedASPath 聚合时使用的固定AS_PATH，为null时保留模板路由的AS_PATH
+     */
+    private static void generateRouteToCSVExternal(DataProvider in, CSVProvider out, List<String> aspath_regex,
+                                                   boolean aggregate, String fixedASPath) {
+        try (ExternalRouteSorter sorter = new ExternalRouteSorter(memoryBudget, spillDirectory)) {
+            // 校验和过滤与内存模式共用管道阶段，归约由排序器在归并时完成
+            new RoutePipeline(in).validate().filter(aspath_regex).run(new RoutePipeline.Sink() {
+                public void open() {
                 }
-                continue;
-            }
-            
-            // 检查AS_PATH匹配 - 只要有一条正则匹配即通过
-            if (aspath_regex != null && !aspath_regex.isEmpty()) {
-                boolean matched = false;
-                for (String regex : aspath_regex) {
-                    // 使用 CiscoIOSRegex 静态方法进行匹配
-                    if (CiscoIOSRegex.matches(asPath, regex)) {
-                        matched = true;
-                        break; // 有一条匹配就退出循环
-                    }
+
+                public void write(String[] route) throws IOException {
+                    sorter.add(route);
                 }
-                if (!matched) {
-                    continue; // 不匹配任何正则表达式，跳过该路由
+
+                public void close() {
                 }
-            }
+            });
             
-            // 保持最短AS_PATH原则（复用MRT到CSV的逻辑）
-            if (routeMap.containsKey(prefix)) {
-                String[] existingRoute = routeMap.get(prefix);
-                String existingAsPath = existingRoute.length > 1 ? existingRoute[1] : "";
-                
-                if (Analysis.isShorterAsPath(asPath, existingAsPath)) {
-                    routeMap.put(prefix, route);
-                    if (Main.verbose) {
-                        System.out.println("更新较短AS_PATH: prefix=" + prefix + " AS_PATH=" + asPath);
-                    }
-                }
+            out.beginWrite();
+            if (aggregate) {
+                String[][] templates = new String[2][];
+                ExternalRouteSorter.SortedRangeAggregator aggregator = new ExternalRouteSorter.SortedRangeAggregator(prefix -> {
+                    String[] template = templates[PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4 ? 0 : 1];
+                    out.writeRoute(fixedASPath != null
+                            ? createRouteWithFixedASPath(template, prefix, fixedASPath)
+                            : createRouteWithFixedASPath(template, prefix, template[1]));
+                });
+                sorter.merge((family, hi, lo, len, r) -> {
+                    int slot = family == PackedPrefix.FAMILY_IPV4 ? 0 : 1;
+                    if (templates[slot] == null) templates[slot] = r;
+                    aggregator.add(family, hi, lo, len);
+                });
+                aggregator.flush();
             } else {
-                // 新前缀，直接添加
-                routeMap.put(prefix, route);
-                if (Main.verbose) {
-                    System.out.println("添加新路由: prefix=" + prefix + " AS_PATH=" + asPath);
+                sorter.merge((family, hi, lo, len, r) -> out.writeRoute(r));
+            }
+            out.endWrite();
+            
+            if (Main.verbose) {
+                RouteLog.flush();
+                System.out.println("外部排序转换完成，共写出 " + sorter.runCount() + " 个有序段");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("外部排序转换失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从MRTProvider或CSVProvider中读取路由数据并写入二进制快照
+     */
+    public static void generateSnapshot(DataProvider in, SnapshotProvider out) {
+        generateSnapshot(in, out, null, false);
+    }
+
+    /**
+     * 从MRTProvider或CSVProvider中读取路由数据并写入二进制快照
+     * 保持最短AS_PATH的原则（MRT输入启用 setBestPathSelection 时按完整的BGP选路规则），不支持多路径；
+     * CSV的community列和MRT记录的community/peer会一并写入快照
+     * @param in 输入的MRTProvider或CSVProvider
+     * @param out 输出的SnapshotProvider
+     * @param aspath_regex 用于匹配AS_PATH的正则表达式列表，可为null
+     * @param aggregate 是否对路由进行聚合
+     */
+    public static void generateSnapshot(DataProvider in, SnapshotProvider out,
+                                        List<String> aspath_regex, boolean aggregate) {
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("输入Provider和SnapshotProvider不能为 null");
+        }
+        checkSnapshotReduction();
+
+        // 检查输入文件
+        checkInputFile(in.path);
+
+        // 准备输出文件
+        prepareOutputFile(out.path);
+
+        boolean mrt = in instanceof MRTProvider;
+        String cacheKey = resultCacheKey("snapshot" + reductionKind(mrt), in, out, aspath_regex, aggregate);
+        if (restoreResult(cacheKey, out)) {
+            if (in instanceof MRTProvider) {
+                ((MRTProvider) in).close();
+            }
+            // 缓存只保存快照本身，索引按需从恢复的快照重建
+            if (SnapshotProvider.isWriteAsIndex()) {
+                try {
+                    AsPathIndex.forSnapshot(new SnapshotProvider(out.path));
+                } catch (IOException e) {
+                    throw new RuntimeException("写入AS_PATH索引失败: " + e.getMessage(), e);
                 }
             }
+            return;
         }
-        
-        // 处理聚合
-        List<String[]> outputRoutes;
+
+        // MRT 的 community/peer 只能在读到当前记录时获取，读取时即转换为快照列顺序
+        RoutePipeline pipeline = new RoutePipeline(in)
+                .mapRows(route -> route.length < 2 ? route : toSnapshotRow(in, route))
+                .validate()
+                .filter(aspath_regex);
+        addReduction(pipeline, mrt);
         if (aggregate) {
-            // 复用聚合方法，设置固定AS_PATH
-            outputRoutes = aggregateRoutesWithFixedASPath(routeMap.values(), "0");
-            if (Main.verbose) {
-                System.out.println("路由聚合完成，从 " + routeMap.size() + " 条路由聚合为 " + outputRoutes.size() + " 条路由，AS_PATH固定为0");
+            pipeline.aggregate(null);
+        }
+
+        try {
+            pipeline.run(RoutePipeline.Sink.snapshot(out));
+        } catch (IOException e) {
+            throw new RuntimeException("写入快照文件失败: " + e.getMessage(), e);
+        } finally {
+            if (in instanceof MRTProvider) {
+                ((MRTProvider) in).close();
             }
-        } else {
-            // 不聚合，直接使用处理后的路由
-            outputRoutes = new ArrayList<>(routeMap.values());
         }
-        
-        // 将处理后的路由写入输出CSVProvider
-        for (String[] routeData : outputRoutes) {
-            out.setRoute(-1, routeData); // 使用-1表示追加到末尾
+        storeResult(cacheKey, out);
+
+        if (Main.verbose) {
+            RouteLog.flush();
+            System.out.println("快照生成完成，共写入 " + out.size() + " 条路由");
         }
+    }
+
+    /**
+     * 从MRTProvider或CSVProvider中读取一次路由数据，同时写出多个输出
+     * 每个输出可以有各自的AS_PATH过滤和聚合设置；过滤条件相同的输出共用同一次归约（与CSV转换相同的
+     * 最短AS_PATH、BGP选路或多路径设置，有快照输出时不支持多路径），
+     * 过滤和聚合设置都相同的输出共用同一份聚合结果，所有输出并发写出
+     * @param in 输入的MRTProvider或CSVProvider
+     * @param sinks 输出列表
+     */
+    public static void generateFanOut(DataProvider in, List<RouteFanOut.Sink> sinks) {
+        if (in == null || sinks == null || sinks.isEmpty()) {
+            throw new IllegalArgumentException("输入Provider和输出列表不能为空");
+        }
+        checkNoReports("多路输出");
+        int threads = Math.min(sinks.size(), Runtime.getRuntime().availableProcessors());
+        new RouteFanOut(in, sinks).run(threads);
+    }
+
+    /**
+     * 比较两张路由表（MRT、CSV或二进制快照），把新增、删除、起源AS变化和AS_PATH变化写入CSV文件
+     * 两侧按前缀排序后流式归并；非快照输入按最短AS_PATH归约，设置了内存预算时以该预算排序，超出部分写入临时文件
+     * @param oldTable 旧路由表
+     * @param newTable 新路由表
+     * @param out 差异输出的CSV文件路径
+     * @return 差异条数
+     */
+    public static long generateDiff(DataProvider oldTable, DataProvider newTable, String out) {
+        if (oldTable == null || newTable == null || out == null) {
+            throw new IllegalArgumentException("比较的两个Provider和输出文件不能为 null");
+        }
+        checkInputFile(oldTable.path);
+        checkInputFile(newTable.path);
+        prepareOutputFile(out);
         
-        // 写入文件
+        RouteDiff diff = new RouteDiff(oldTable, newTable).spillDirectory(spillDirectory);
+        if (memoryBudget > 0) {
+            diff.memoryBudget(memoryBudget);
+        }
+        long changes;
         try {
-            out.writeToFile();
+            changes = diff.writeCsv(out);
         } catch (IOException e) {
-            throw new RuntimeException("写入输出文件失败: " + e.getMessage(), e);
+            throw new RuntimeException("比较路由表失败: " + e.getMessage(), e);
         }
         
         if (Main.verbose) {
-            System.out.println("CSV到CSV转换完成，共处理 " + outputRoutes.size() + " 条路由");
+            RouteLog.flush();
+            System.out.println("路由表比较完成：" + diff.summary());
         }
+        return changes;
+    }
+
+    /**
+     * 将输入Provider的路由转换为快照列顺序 {prefix, as_path, community, peer}
+     */
+    static String[] toSnapshotRow(DataProvider in, String[] route) {
+        if (in instanceof CSVProvider) {
+            CSVProvider csv = (CSVProvider) in;
+            String community = csv.getCommunityIndex() >= 0 ? route[csv.getCommunityIndex()] : "";
+            return new String[]{route[csv.getPrefixIndex()].trim(), route[csv.getAsPathIndex()].trim(), community, ""};
+        }
+        if (in instanceof MRTProvider) {
+            MRTProvider mrt = (MRTProvider) in;
+            return new String[]{route[0], route[1], mrt.getCurrentCommunity(), mrt.getCurrentPeer()};
+        }
+        return new String[]{route[0], route[1], "", ""};
     }
 
     /**
      * 对路由进行聚合，并将AS_PATH设置为固定值
      */
-    private static List<String[]> aggregateRoutesWithFixedASPath(Collection<String[]> routes, String fixedASPath) {
-        // 分离IPv4和IPv6路由
-        List<String[]> ipv4Routes = new ArrayList<>();
-        List<String[]> ipv6Routes = new ArrayList<>();
-        
+    static List<String[]> aggregateRoutesWithFixedASPath(Collection<String[]> routes, String fixedASPath) {
+        long start = System.nanoTime();
+        // 按地址家族分道，两道并发聚合，IPv4 在前
+        FamilyLanes lanes = new FamilyLanes();
         for (String[] route : routes) {
             if (route.length > 0) {
-                String prefix = route[0];
-                if (Analysis.isValidIPv4Cidr(prefix)) {
-                    ipv4Routes.add(route);
-                } else if (Analysis.isValidIPv6Cidr(prefix)) {
-                    ipv6Routes.add(route);
-                }
+                lanes.add(route);
             }
         }
         
-        List<String[]> result = new ArrayList<>();
-        
-        try {
-            // 聚合IPv4路由
-            if (!ipv4Routes.isEmpty()) {
-                List<String> ipv4Prefixes = new ArrayList<>();
-                for (String[] route : ipv4Routes) {
-                    ipv4Prefixes.add(route[0]);
-                }
-                
-                List<String> aggregatedIPv4 = aggregatePrefixes(ipv4Prefixes);
-                for (String prefix : aggregatedIPv4) {
-                    // 创建新的路由数据，AS_PATH设置为固定值
-                    String[] aggregatedRoute = createRouteWithFixedASPath(ipv4Routes.get(0), prefix, fixedASPath);
-                    result.add(aggregatedRoute);
-                }
-            }
-            
-            // 聚合IPv6路由
-            if (!ipv6Routes.isEmpty()) {
-                List<String> ipv6Prefixes = new ArrayList<>();
-                for (String[] route : ipv6Routes) {
-                    ipv6Prefixes.add(route[0]);
-                }
-                
-                List<String> aggregatedIPv6 = aggregatePrefixes(ipv6Prefixes);
-                for (String prefix : aggregatedIPv6) {
-                    // 创建新的路由数据，AS_PATH设置为固定值
-                    String[] aggregatedRoute = createRouteWithFixedASPath(ipv6Routes.get(0), prefix, fixedASPath);
-                    result.add(aggregatedRoute);
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("路由聚合失败，使用原始路由: " + e.getMessage());
-            // 如果聚合失败，使用原始路由但AS_PATH仍设置为固定值
-            for (String[] route : routes) {
-                String[] fixedRoute = createRouteWithFixedASPath(route, route[0], fixedASPath);
-                result.add(fixedRoute);
-            }
+        List<List<String>> aggregated = lanes.aggregate();
+        List<String[]> result = new ArrayList<>(aggregated.get(0).size() + aggregated.get(1).size());
+        for (String prefix : aggregated.get(0)) {
+            result.add(createRouteWithFixedASPath(lanes.template(PackedPrefix.FAMILY_IPV4), prefix, fixedASPath));
+        }
+        for (String prefix : aggregated.get(1)) {
+            result.add(createRouteWithFixedASPath(lanes.template(PackedPrefix.FAMILY_IPV6), prefix, fixedASPath));
         }
         
+        RouteMetrics.counter(RouteMetrics.AGGREGATE_INPUT).add(routes.size());
+        RouteMetrics.counter(RouteMetrics.AGGREGATE_OUTPUT).add(result.size());
+        RouteMetrics.recordStage("aggregate", start);
         return result;
     }
 
@@ -409,7 +876,7 @@ public class Generate {
      * @param path 文件路径
      * @throws RuntimeException 如果文件不存在
      */
-    private static void checkInputFile(String path) {
+    static void checkInputFile(String path) {
         File file = new File(path);
         if (!file.exists()) {
             throw new RuntimeException("输入文件不存在: " + path);
@@ -431,7 +898,7 @@ public class Generate {
  * 准备输出文件：如果不存在则创建，如果存在则直接覆盖
  * @param path 文件路径
  */
-private static void prepareOutputFile(String path) {
+static void prepareOutputFile(String path) {
     File file = new File(path);
     
     // 确保父目录存在
@@ -465,122 +932,45 @@ private static void prepareOutputFile(String path) {
 }
     
     /**
-     * 对前缀列表进行聚合
+     * 对前缀列表进行聚合，结果中IPv4在前、IPv6在后，各自按地址升序
      */
-    private static List<String> aggregatePrefixes(List<String> prefixes) throws IOException {
-        // 分离IPv4和IPv6前缀
-        List<String> ipv4Prefixes = new ArrayList<>();
-        List<String> ipv6Prefixes = new ArrayList<>();
-        
+    static List<String> aggregatePrefixes(List<String> prefixes) {
+        FamilyLanes lanes = new FamilyLanes();
         for (String prefix : prefixes) {
-            if (Analysis.isValidIPv4Cidr(prefix)) {
-                ipv4Prefixes.add(prefix);
-            } else if (Analysis.isValidIPv6Cidr(prefix)) {
-                ipv6Prefixes.add(prefix);
-            }
-        }
-        
-        List<String> result = new ArrayList<>();
-        
-        // 聚合IPv4前缀
-        if (!ipv4Prefixes.isEmpty()) {
-            // 创建临时CSV文件进行聚合
-            java.nio.file.Path tempFile = java.nio.file.Files.createTempFile("ipv4_aggregate", ".csv");
-            try (java.io.BufferedWriter writer = java.nio.file.Files.newBufferedWriter(tempFile)) {
-                writer.write("prefix\n");
-                for (String prefix : ipv4Prefixes) {
-                    writer.write(prefix + "\n");
-                }
-            }
-            
-            List<String> aggregatedIPv4 = Analysis.ipv4Aggregate(tempFile.toString());
-            result.addAll(aggregatedIPv4);
-            
-            // 删除临时文件
-            java.nio.file.Files.deleteIfExists(tempFile);
-        }
-        
-        // 聚合IPv6前缀
-        if (!ipv6Prefixes.isEmpty()) {
-            // 创建临时CSV文件进行聚合
-            java.nio.file.Path tempFile = java.nio.file.Files.createTempFile("ipv6_aggregate", ".csv");
-            try (java.io.BufferedWriter writer = java.nio.file.Files.newBufferedWriter(tempFile)) {
-                writer.write("prefix\n");
-                for (String prefix : ipv6Prefixes) {
-                    writer.write(prefix + "\n");
-                }
-            }
-            
-            List<String> aggregatedIPv6 = Analysis.ipv6Aggregate(tempFile.toString());
-            result.addAll(aggregatedIPv6);
-            
-            // 删除临时文件
-            java.nio.file.Files.deleteIfExists(tempFile);
+            lanes.add(prefix);
         }
-        
-        return result;
+        return lanes.aggregatePrefixes();
     }
     
     /**
      * 对路由进行聚合（只聚合前缀，保留第一条路由的其他信息）
      */
-    private static List<String[]> aggregateRoutes(Collection<String[]> routes) {
-        // 分离IPv4和IPv6路由
-        List<String[]> ipv4Routes = new ArrayList<>();
-        List<String[]> ipv6Routes = new ArrayList<>();
-        
+    static List<String[]> aggregateRoutes(Collection<String[]> routes) {
+        long start = System.nanoTime();
+        // 按地址家族分道，两道并发聚合，IPv4 在前
+        FamilyLanes lanes = new FamilyLanes();
         for (String[] route : routes) {
             if (route.length > 0) {
-                String prefix = route[0];
-                if (Analysis.isValidIPv4Cidr(prefix)) {
-                    ipv4Routes.add(route);
-                } else if (Analysis.isValidIPv6Cidr(prefix)) {
-                    ipv6Routes.add(route);
-                }
+                lanes.add(route);
             }
         }
         
-        List<String[]> result = new ArrayList<>();
-        
-        try {
-            // 聚合IPv4路由
-            if (!ipv4Routes.isEmpty()) {
-                List<String> ipv4Prefixes = new ArrayList<>();
-                for (String[] route : ipv4Routes) {
-                    ipv4Prefixes.add(route[0]);
-                }
-                
-                List<String> aggregatedIPv4 = aggregatePrefixes(ipv4Prefixes);
-                for (String prefix : aggregatedIPv4) {
-                    // 使用第一条IPv4路由的其他信息作为模板
-                    String[] templateRoute = ipv4Routes.get(0);
-                    String[] aggregatedRoute = Arrays.copyOf(templateRoute, templateRoute.length);
-                    aggregatedRoute[0] = prefix;
-                    result.add(aggregatedRoute);
-                }
+        List<List<String>> aggregated = lanes.aggregate();
+        List<String[]> result = new ArrayList<>(aggregated.get(0).size() + aggregated.get(1).size());
+        int[] families = {PackedPrefix.FAMILY_IPV4, PackedPrefix.FAMILY_IPV6};
+        for (int f = 0; f < families.length; f++) {
+            // 使用该家族第一条路由的其他信息作为模板
+            String[] templateRoute = lanes.template(families[f]);
+            for (String prefix : aggregated.get(f)) {
+                String[] aggregatedRoute = Arrays.copyOf(templateRoute, templateRoute.length);
+                aggregatedRoute[0] = prefix;
+                result.add(aggregatedRoute);
             }
-            
-            // 聚合IPv6路由
-            if (!ipv6Routes.isEmpty()) {
-                List<String> ipv6Prefixes = new ArrayList<>();
-                for (String[] route : ipv6Routes) {
-                    ipv6Prefixes.add(route[0]);
-                }
-                
-                List<String> aggregatedIPv6 = aggregatePrefixes(ipv6Prefixes);
-                for (String prefix : aggregatedIPv6) {
-                    // 使用第一条IPv6路由的其他信息作为模板
-                    String[] templateRoute = ipv6Routes.get(0);
-                    String[] aggregatedRoute = Arrays.copyOf(templateRoute, templateRoute.length);
-                    aggregatedRoute[0] = prefix;
-                    result.add(aggregatedRoute);
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("路由聚合失败，使用原始路由: " + e.getMessage());
-            result.addAll(routes);
         }
         
+        RouteMetrics.counter(RouteMetrics.AGGREGATE_INPUT).add(routes.size());
+        RouteMetrics.counter(RouteMetrics.AGGREGATE_OUTPUT).add(result.size());
+        RouteMetrics.recordStage("aggregate", start);
         return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package net.sherpherd.bgp.utils;
+
+import java.util.Arrays;
+
+/**
+ * 不可变的非负 int ID 集合，用于 {@link AsPathIndex} 的查询结果。
+ *
+ * 稀疏时为有序 int 数组，元素数超过取值范围的 1/32 时为位图（long 数组），两种形式可以任意求交、并、差。
+ * 位图和数组在集合之间共享，不会被修改。
+ */
+final class IdSet {
+    static final IdSet EMPTY = new IdSet(new int[0], null, 0);
+
+    /** 稀疏形式：升序、无重复 */
+    private final int[] ids;
+    /** 稠密形式：第 i 位表示 ID i */
+    private final long[] bits;
+    private final int size;
+
+    private IdSet(int[] ids, long[] bits, int size) {
+        this.ids = ids;
+        this.bits = bits;
+        this.size = size;
+    }
+
+    /**
+     * 由任意顺序的 ID 构造，重复的 ID 只保留一个
+     */
+    static IdSet of(int... values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] < 0) {
+                throw new IllegalArgumentException("ID 不能为负数: " + sorted[i]);
+            }
+            if (n == 0 || sorted[n - 1] != sorted[i]) sorted[n++] = sorted[i];
+        }
+        return ofSorted(sorted, n);
+    }
+
+    /**
+     * 由升序无重复的 ID 构造，数组的前 n 个元素归集合所有
+     */
+    static IdSet ofSorted(int[] sorted, int n) {
+        if (n == 0) return EMPTY;
+        int universe = sorted[n - 1] + 1;
+        if ((long) n * 32 > universe) {
+            long[] bits = new long[(universe + 63) >>> 6];
+            for (int i = 0; i < n; i++) bits[sorted[i] >>> 6] |= 1L << sorted[i];
+            return new IdSet(null, bits, n);
+        }
+        return new IdSet(n == sorted.length ? sorted : Arrays.copyOf(sorted, n), null, n);
+    }
+
+    /**
+     * 由位图构造，位图归集合所有
+     */
+    static IdSet ofBits(long[] bits) {
+        int n = 0;
+        for (long word : bits) n += Long.bitCount(word);
+        return n == 0 ? EMPTY : new IdSet(null, bits, n);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int id) {
+        if (id < 0) return false;
+        if (bits != null) {
+            return (id >>> 6) < bits.length && (bits[id >>> 6] & 1L << id) != 0;
+        }
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * 升序的全部 ID
+     */
+    int[] toArray() {
+        if (bits == null) return ids.clone();
+        int[] out = new int[size];
+        int k = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                out[k++] = w << 6 | Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 交集
+     */
+    IdSet and(IdSet other) {
+        if (isEmpty() || other.isEmpty()) return EMPTY;
+        if (bits != null && other.bits != null) {
+            long[] out = new long[Math.min(bits.length, other.bits.length)];
+            for (int i = 0; i < out.length; i++) out[i] = bits[i] & other.bits[i];
+            return ofBits(out);
+        }
+        if (bits != null || other.bits != null) {
+            IdSet sparse = bits == null ? this : other;
+            IdSet dense = bits == null ? other : this;
+            int[] out = new int[sparse.size];
+            int n = 0;
+            for (int id : sparse.ids) {
+                if (dense.contains(id)) out[n++] = id;
+            }
+            return ofSorted(out, n);
+        }
+        int[] out = new int[Math.min(size, other.size)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            int a = ids[i];
+            int b = other.ids[j];
+            if (a == b) {
+                out[n++] = a;
+                i++;
+                j++;
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return ofSorted(out, n);
+    }
+
+    /**
+     * 并集
+     */
+    IdSet or(IdSet other) {
+        if (isEmpty()) return other;
+        if (other.isEmpty()) return this;
+        if (bits != null || other.bits != null) {
+            long[] a = toBits();
+            long[] b = other.toBits();
+            long[] out = Arrays.copyOf(a.length >= b.length ? a : b, Math.max(a.length, b.length));
+            long[] shorter = a.length >= b.length ? b : a;
+            for (int i = 0; i < shorter.length; i++) out[i] |= shorter[i];
+            return ofBits(out);
+        }
+        int[] out = new int[size + other.size];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            int a = i < size ? ids[i] : Integer.MAX_VALUE;
+            int b = j < other.size ? other.ids[j] : Integer.MAX_VALUE;
+            if (a <= b) i++;
+            if (b <= a) j++;
+            out[n++] = Math.min(a, b);
+        }
+        return ofSorted(out, n);
+    }
+
+    /**
+     * 差集：属于本集合但不属于 other 的 ID
+     */
+    IdSet andNot(IdSet other) {
+        if (isEmpty() || other.isEmpty()) return this;
+        if (bits != null) {
+            long[] out = bits.clone();
+            if (other.bits != null) {
+                for (int i = 0; i < Math.min(out.length, other.bits.length); i++) out[i] &= ~other.bits[i];
+            } else {
+                for (int id : other.ids) {
+                    if ((id >>> 6) < out.length) out[id >>> 6] &= ~(1L << id);
+                }
+            }
+            return ofBits(out);
+        }
+        int[] out = new int[size];
+        int n = 0;
+        for (int id : ids) {
+            if (!other.contains(id)) out[n++] = id;
+        }
+        return ofSorted(out, n);
+    }
+
+    /**
+     * 是否为位图形式
+     */
+    boolean isDense() {
+        return bits != null;
+    }
+
+    /**
+     * 位图形式的内部数组（不复制），稀疏形式返回 null
+     */
+    long[] bits() {
+        return bits;
+    }
+
+    private long[] toBits() {
+        if (bits != null) return bits;
+        long[] out = new long[(ids[size - 1] >>> 6) + 1];
+        for (int id : ids) out[id >>> 6] |= 1L << id;
+        return out;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IdSet)) return false;
+        IdSet other = (IdSet) o;
+        return size == other.size && Arrays.equals(toArray(), other.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
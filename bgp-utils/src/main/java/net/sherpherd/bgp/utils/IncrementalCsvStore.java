@@ -0,0 +1,500 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 增量路由 CSV 存储，供 MRTTools.mrtToCSV 使用。
+ *
+ * 由三个文件组成：
+ * <ul>
+ *   <li>基础文件 xxx.csv：上次压缩后的完整表；</li>
+ *   <li>增量日志 xxx.csv.delta：只追加，记录基础文件之后新增或缩短 AS_PATH 的行（列布局与基础文件相同）；</li>
+ *   <li>索引 xxx.csv.idx：内存映射的开放寻址哈希表，prefix -> 当前最短 AS_PATH 跳数。</li>
+ * </ul>
+ * 单个前缀的查询与更新为 O(1)，更新只追加增量日志，I/O 与变化量成正比；
+ * compact() 将增量日志合并回基础文件，增量日志超过基础文件一定比例时 close() 自动压缩，
+ * 其余情况由读取方通过 {@link #compactPending(File)} 在读取前合并。索引与基础/增量文件长度不一致时会自动重建。
+ */
+class IncrementalCsvStore implements Closeable {
+    static final String DELTA_SUFFIX = ".delta";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final byte[] INDEX_MAGIC = {'B', 'G', 'P', 'I', 'D', 'X', '1', 0};
+    private static final int INDEX_HEADER = 48;
+    private static final int SLOT_SIZE = 24;
+    private static final int USED = 1 << 31;
+    private static final int IPV6 = 1 << 30;
+    private static final int EMITTED = 1 << 29;
+    /** 增量日志超过基础文件该比例时，close() 会自动压缩 */
+    private static final double AUTO_COMPACT_RATIO = 0.5;
+
+    private final File baseFile;
+    private final File deltaFile;
+    private final File indexFile;
+    private List<String> cols;
+    private int prefixIdx;
+    private int asIdx;
+
+    private RandomAccessFile indexRaf;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int size;
+
+    private PrintWriter deltaWriter;
+    private final long[] keyBuf = new long[3];
+
+    private IncrementalCsvStore(File baseFile) {
+        this.baseFile = baseFile;
+        this.deltaFile = new File(baseFile.getPath() + DELTA_SUFFIX);
+        this.indexFile = new File(baseFile.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * 打开（必要时创建）增量存储。基础文件缺少 prefix/as_path 列时会补齐列首部并重写一次。
+     */
+    static IncrementalCsvStore open(File baseFile) throws IOException {
+        IncrementalCsvStore store = new IncrementalCsvStore(baseFile);
+        store.init();
+        return store;
+    }
+
+    private void init() throws IOException {
+        File parent = baseFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        if (!baseFile.exists()) {
+            try (PrintWriter pw = new PrintWriter(new FileWriter(baseFile, false))) {
+                pw.println("prefix,as_path");
+            }
+            Files.deleteIfExists(deltaFile.toPath());
+            Files.deleteIfExists(indexFile.toPath());
+        }
+
+        String header;
+        try (BufferedReader br = new BufferedReader(new FileReader(baseFile))) {
+            header = br.readLine();
+        }
+        List<String> parsed = header == null ? new ArrayList<>() : MRTTools.parseHeader(header);
+        cols = new ArrayList<>();
+        for (String c : parsed) {
+            if (!c.isEmpty()) cols.add(c);
+        }
+        boolean fixHeader = false;
+        if (MRTTools.indexOfIgnoreCase(cols, "prefix") < 0) {
+            cols.add("prefix");
+            fixHeader = true;
+        }
+        if (MRTTools.indexOfIgnoreCase(cols, "as_path") < 0) {
+            cols.add("as_path");
+            fixHeader = true;
+        }
+        prefixIdx = MRTTools.indexOfIgnoreCase(cols, "prefix");
+        asIdx = MRTTools.indexOfIgnoreCase(cols, "as_path");
+
+        if (fixHeader || !openIndex()) {
+            rebuildIndex();
+        }
+        if (fixHeader) {
+            // 列首部只需修正一次：借助压缩按新列布局重写基础文件
+            flush();
+            rewrite();
+        }
+    }
+
+    /**
+     * 基础文件旁有未合并的增量日志时将其合并，读取基础文件之前调用；没有增量日志时不打开存储
+     */
+    static void compactPending(File baseFile) throws IOException {
+        File delta = new File(baseFile.getPath() + DELTA_SUFFIX);
+        if (!delta.exists() || delta.length() == 0) return;
+        try (IncrementalCsvStore store = open(baseFile)) {
+            store.compact();
+        }
+    }
+
+    /**
+     * 查询前缀当前的 AS_PATH 跳数
+     * @return 跳数；不存在（或已有行 AS_PATH 为空）时返回 -1
+     */
+    int pathLength(String prefix) {
+        int slot = find(prefix);
+        if (slot < 0) return -1;
+        int len = index.getInt(slotOffset(slot) + 20);
+        return len > 0 ? len : -1;
+    }
+
+    /**
+     * 记录新增或更短的路由：追加到增量日志并更新索引
+     */
+    void put(String prefix, String asPath) throws IOException {
+        if (!keyOf(prefix)) {
+            throw new IllegalArgumentException("无效的前缀: " + prefix);
+        }
+        String[] fields = new String[cols.size()];
+        for (int i = 0; i < fields.length; i++) fields[i] = "";
+        fields[prefixIdx] = prefix;
+        fields[asIdx] = asPath;
+        if (deltaWriter == null) {
+            deltaWriter = new PrintWriter(new BufferedWriter(new FileWriter(deltaFile, true), 1 << 16));
+        }
+        deltaWriter.println(MRTTools.formatCsvLine(fields));
+        upsert(keyBuf[0], keyBuf[1], (int) keyBuf[2], AsPaths.length(asPath), true);
+    }
+
+    /**
+     * 将增量日志合并回基础文件。
+     * 顺序读取基础文件，被增量覆盖的行原地替换，基础文件中重复的前缀只保留最短的一行，
+     * 其余新增前缀追加在末尾；内存占用只与增量日志大小相关。增量日志为空时不重写基础文件。
+     */
+    void compact() throws IOException {
+        flush();
+        if (deltaLength() == 0) {
+            return;
+        }
+        rewrite();
+    }
+
+    private void rewrite() throws IOException {
+        Map<String, String[]> overrides = new LinkedHashMap<>();
+        if (deltaFile.exists()) {
+            try (BufferedReader br = new BufferedReader(new FileReader(deltaFile))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] fields = normalize(MRTTools.parseCsvLine(line));
+                    if (keyOf(fields[prefixIdx].trim())) {
+                        overrides.put(canonicalKey(), fields);
+                    }
+                }
+            }
+        }
+
+        File tmp = new File(baseFile.getAbsolutePath() + ".tmp");
+        int emitted = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(baseFile));
+             PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tmp, false), 1 << 16))) {
+            pw.println(String.join(",", cols));
+            br.readLine();
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = normalize(MRTTools.parseCsvLine(line));
+                String prefix = fields[prefixIdx].trim();
+                if (prefix.isEmpty()) continue;
+                int slot = keyOf(prefix) ? lookup(keyBuf[0], keyBuf[1], (int) keyBuf[2]) : -1;
+                if (slot < 0) {
+                    // 无法索引的行原样保留
+                    pw.println(MRTTools.formatCsvLine(fields));
+                    continue;
+                }
+                int off = slotOffset(slot);
+                int meta = index.getInt(off + 16);
+                if ((meta & EMITTED) != 0) continue;
+                String[] override = overrides.remove(canonicalKey());
+                if (override != null) {
+                    fields = override;
+                } else if (AsPaths.length(fields[asIdx]) != index.getInt(off + 20)) {
+                    continue; // 后面还有更短的重复行
+                }
+                pw.println(MRTTools.formatCsvLine(fields));
+                index.putInt(off + 16, meta | EMITTED);
+                emitted++;
+            }
+            for (String[] fields : overrides.values()) {
+                if (!keyOf(fields[prefixIdx].trim())) continue;
+                int slot = lookup(keyBuf[0], keyBuf[1], (int) keyBuf[2]);
+                if (slot < 0) continue;
+                int off = slotOffset(slot);
+                index.putInt(off + 16, index.getInt(off + 16) | EMITTED);
+                pw.println(MRTTools.formatCsvLine(fields));
+                emitted++;
+            }
+        }
+        Files.move(tmp.toPath(), baseFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(deltaFile.toPath());
+
+        if (emitted != size) {
+            rebuildIndex();
+        } else {
+            for (int slot = 0; slot < capacity; slot++) {
+                int off = slotOffset(slot);
+                int meta = index.getInt(off + 16);
+                if ((meta & EMITTED) != 0) index.putInt(off + 16, meta & ~EMITTED);
+            }
+            writeIndexHeader();
+        }
+        if (Main.verbose) {
+            System.out.println("已压缩增量日志: " + baseFile.getPath() + "，共 " + size + " 条路由");
+        }
+    }
+
+    void flush() throws IOException {
+        if (deltaWriter != null) {
+            deltaWriter.flush();
+            if (deltaWriter.checkError()) {
+                throw new IOException("写入增量日志失败: " + deltaFile.getPath());
+            }
+        }
+        writeIndexHeader();
+    }
+
+    long deltaLength() {
+        return deltaFile.exists() ? deltaFile.length() : 0L;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (deltaWriter != null) {
+                deltaWriter.close();
+                deltaWriter = null;
+            }
+            if (deltaLength() > baseFile.length() * AUTO_COMPACT_RATIO) {
+                compact();
+            }
+        } finally {
+            if (index != null) {
+                index.force();
+                index = null;
+            }
+            if (indexRaf != null) {
+                indexRaf.close();
+                indexRaf = null;
+            }
+        }
+    }
+
+    // ---------------- 索引 ----------------
+
+    private boolean openIndex() throws IOException {
+        if (!indexFile.exists() || indexFile.length() < INDEX_HEADER) return false;
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        boolean valid = true;
+        for (int i = 0; i < INDEX_MAGIC.length; i++) {
+            if (buf.get(i) != INDEX_MAGIC[i]) valid = false;
+        }
+        int cap = buf.getInt(8);
+        valid = valid && cap > 0 && Integer.bitCount(cap) == 1
+                && raf.length() == INDEX_HEADER + (long) cap * SLOT_SIZE
+                && buf.getLong(16) == baseFile.length()
+                && buf.getLong(24) == deltaLength();
+        if (!valid) {
+            raf.close();
+            return false;
+        }
+        indexRaf = raf;
+        index = buf;
+        capacity = cap;
+        size = buf.getInt(12);
+        return true;
+    }
+
+    /**
+     * 扫描基础文件与增量日志重建索引（仅在索引缺失或过期时发生）
+     */
+    private void rebuildIndex() throws IOException {
+        int lines = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(baseFile))) {
+            while (br.readLine() != null) lines++;
+        }
+        allocateIndex(capacityFor(lines));
+        scanInto(baseFile, true);
+        if (deltaFile.exists()) {
+            scanInto(deltaFile, false);
+        }
+        writeIndexHeader();
+        if (Main.verbose) {
+            System.out.println("已重建前缀索引: " + indexFile.getPath() + "，共 " + size + " 条");
+        }
+    }
+
+    private void scanInto(File file, boolean hasHeader) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            if (hasHeader) br.readLine();
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = normalize(MRTTools.parseCsvLine(line));
+                if (!keyOf(fields[prefixIdx].trim())) continue;
+                upsert(keyBuf[0], keyBuf[1], (int) keyBuf[2], AsPaths.length(fields[asIdx]), !hasHeader);
+            }
+        }
+    }
+
+    private void allocateIndex(int cap) throws IOException {
+        if (index != null) {
+            index = null;
+        }
+        if (indexRaf != null) {
+            indexRaf.close();
+        }
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.setLength(INDEX_HEADER + (long) cap * SLOT_SIZE);
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        indexRaf = new RandomAccessFile(indexFile, "rw");
+        index = indexRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexRaf.length());
+        capacity = cap;
+        size = 0;
+        for (int i = 0; i < INDEX_MAGIC.length; i++) index.put(i, INDEX_MAGIC[i]);
+    }
+
+    private void writeIndexHeader() {
+        if (index == null) return;
+        index.putInt(8, capacity);
+        index.putInt(12, size);
+        index.putLong(16, baseFile.length());
+        index.putLong(24, deltaLength());
+    }
+
+    /**
+     * @param replace 为 true 时无条件覆盖；否则只在新的 AS_PATH 更短时覆盖（与加载CSV时的去重规则一致）
+     */
+    private void upsert(long hi, long lo, int meta, int pathLen, boolean replace) throws IOException {
+        if ((size + 1) * 2L > capacity) {
+            grow();
+        }
+        int slot = probe(hi, lo, meta);
+        int off = slotOffset(slot);
+        if ((index.getInt(off + 16) & USED) == 0) {
+            index.putLong(off, hi);
+            index.putLong(off + 8, lo);
+            index.putInt(off + 16, meta | USED);
+            index.putInt(off + 20, pathLen);
+            size++;
+            return;
+        }
+        int existing = index.getInt(off + 20);
+        if (replace || existing == 0 || (pathLen > 0 && pathLen < existing)) {
+            index.putInt(off + 20, pathLen);
+        }
+    }
+
+    private void grow() throws IOException {
+        int oldCap = capacity;
+        MappedByteBuffer old = index;
+        long[] keys = new long[size * 2];
+        int[] metas = new int[size];
+        int[] lens = new int[size];
+        int n = 0;
+        for (int slot = 0; slot < oldCap; slot++) {
+            int off = INDEX_HEADER + slot * SLOT_SIZE;
+            int meta = old.getInt(off + 16);
+            if ((meta & USED) == 0) continue;
+            keys[2 * n] = old.getLong(off);
+            keys[2 * n + 1] = old.getLong(off + 8);
+            metas[n] = meta;
+            lens[n] = old.getInt(off + 20);
+            n++;
+        }
+        allocateIndex(oldCap * 2);
+        for (int i = 0; i < n; i++) {
+            int slot = probe(keys[2 * i], keys[2 * i + 1], metas[i]);
+            int off = slotOffset(slot);
+            index.putLong(off, keys[2 * i]);
+            index.putLong(off + 8, keys[2 * i + 1]);
+            index.putInt(off + 16, metas[i]);
+            index.putInt(off + 20, lens[i]);
+        }
+        size = n;
+    }
+
+    private int find(String prefix) {
+        if (!keyOf(prefix)) return -1;
+        return lookup(keyBuf[0], keyBuf[1], (int) keyBuf[2]);
+    }
+
+    private int lookup(long hi, long lo, int meta) {
+        int slot = probe(hi, lo, meta);
+        return (index.getInt(slotOffset(slot) + 16) & USED) != 0 ? slot : -1;
+    }
+
+    /**
+     * 线性探测，返回键所在槽位或第一个空槽位
+     */
+    private int probe(long hi, long lo, int meta) {
+        int mask = capacity - 1;
+        int slot = hash(hi, lo, meta) & mask;
+        while (true) {
+            int off = slotOffset(slot);
+            int m = index.getInt(off + 16);
+            if ((m & USED) == 0) return slot;
+            if ((m & ~(USED | EMITTED)) == meta && index.getLong(off) == hi && index.getLong(off + 8) == lo) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int hash(long hi, long lo, int meta) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo * 0xC2B2AE3D27D4EB4FL ^ meta;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    private static int slotOffset(int slot) {
+        return INDEX_HEADER + slot * SLOT_SIZE;
+    }
+
+    private static int capacityFor(int entries) {
+        int cap = 16;
+        while (cap < entries * 2L) cap <<= 1;
+        return cap;
+    }
+
+    /**
+     * 将前缀解析为索引键写入 keyBuf：{hi, lo, meta}，meta 含地址家族与前缀长度
+     */
+    private boolean keyOf(String prefix) {
+        if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+            long packed = PackedPrefix.parseIPv4(prefix);
+            if (packed < 0) return false;
+            keyBuf[0] = PackedPrefix.ipv4Address(packed);
+            keyBuf[1] = 0L;
+            keyBuf[2] = PackedPrefix.ipv4Length(packed);
+            return true;
+        }
+        if (!PackedPrefix.parseIPv6(prefix, keyBuf)) return false;
+        keyBuf[2] = keyBuf[2] | IPV6;
+        return true;
+    }
+
+    private String canonicalKey() {
+        int meta = (int) keyBuf[2];
+        if ((meta & IPV6) != 0) {
+            return PackedPrefix.formatIPv6(keyBuf[0], keyBuf[1], meta & 0xff);
+        }
+        return PackedPrefix.formatIPv4(keyBuf[0], meta & 0xff);
+    }
+
+    private String[] normalize(List<String> fields) {
+        String[] out = new String[cols.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = i < fields.size() && fields.get(i) != null ? fields.get(i) : "";
+        }
+        return out;
+    }
+}
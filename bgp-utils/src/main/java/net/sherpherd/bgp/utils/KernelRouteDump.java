@@ -0,0 +1,227 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * 读取 "ip -j route show table N" 的 JSON 输出。
+ *
+ * 只做流式扫描：每个路由对象中只取 dst / gateway / protocol / scope / type 几个顶层字段，
+ * 其余值（metric、flags、nexthops 等）直接跳过，不构建对象树。
+ * 只有 protocol 等于本工具专用协议标识（安装时 proto 指定的编号或 rt_protos 名称）的路由才属于
+ * 我们管理的范围；省略 protocol 字段的 boot 路由（手工 ip route add 的静态路由）、kernel、dhcp、bgp
+ * 等其他来源的路由，默认路由，以及非 unicast 类型、scope link/host 的路由读取时即被排除，差异计算不会删除它们。
+ */
+final class KernelRouteDump {
+    private final Reader in;
+    private final String protocol;
+    private final StringBuilder sb = new StringBuilder(64);
+    private int peeked = -2;
+
+    private KernelRouteDump(Reader in, String protocol) {
+        this.in = in;
+        this.protocol = protocol;
+    }
+
+    /**
+     * 读取 dump 文件；路径为 "-" 时从标准输入读取
+     * @param protocol 本工具安装路由使用的协议标识，需与 ip 输出的形式一致（登记在 rt_protos 中时为名称）
+     */
+    static RouteSet read(String path, String protocol) throws IOException {
+        try (Reader reader = "-".equals(path)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            return read(reader, protocol);
+        }
+    }
+
+    static RouteSet read(Reader reader, String protocol) throws IOException {
+        if (protocol == null || protocol.isEmpty()) {
+            throw new IllegalArgumentException("必须指定本工具安装路由使用的协议标识");
+        }
+        RouteSet routes = new RouteSet();
+        new KernelRouteDump(reader, protocol).parse(routes);
+        return routes;
+    }
+
+    private void parse(RouteSet routes) throws IOException {
+        skipWhitespace();
+        // 空表时 ip 可能什么都不输出
+        if (peek() < 0) return;
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            next();
+            return;
+        }
+        while (true) {
+            parseRoute(routes);
+            skipWhitespace();
+            int c = next();
+            if (c == ']') return;
+            if (c != ',') throw error("缺少 ',' 或 ']'");
+        }
+    }
+
+    private void parseRoute(RouteSet routes) throws IOException {
+        skipWhitespace();
+        expect('{');
+        String dst = null;
+        String gateway = null;
+        String protocol = null;
+        String scope = null;
+        String type = null;
+        skipWhitespace();
+        if (peek() == '}') {
+            next();
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            boolean wanted = "dst".equals(key) || "gateway".equals(key) || "protocol".equals(key)
+                    || "scope".equals(key) || "type".equals(key);
+            if (wanted && peek() == '"') {
+                String value = readString();
+                switch (key) {
+                    case "dst": dst = value; break;
+                    case "gateway": gateway = value; break;
+                    case "protocol": protocol = value; break;
+                    case "scope": scope = value; break;
+                    default: type = value; break;
+                }
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            int c = next();
+            if (c == '}') break;
+            if (c != ',') throw error("缺少 ',' 或 '}'");
+        }
+
+        if (dst == null || !this.protocol.equals(protocol)
+                || (type != null && !"unicast".equals(type))
+                || "link".equals(scope) || "host".equals(scope)
+                || isDefault(dst)) {
+            return;
+        }
+        boolean ipv6 = dst.indexOf(':') >= 0 || (gateway != null && gateway.indexOf(':') >= 0);
+        if (dst.indexOf('/') < 0) {
+            // 主机路由不带前缀长度
+            dst = dst + (ipv6 ? "/128" : "/32");
+        }
+        routes.add(dst, gateway);
+    }
+
+    /**
+     * 默认路由无论来源都不纳入管理
+     */
+    static boolean isDefault(String dst) {
+        dst = dst.trim();
+        return "default".equals(dst) || dst.endsWith("/0");
+    }
+
+    private void skipValue() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            next();
+            int close = c == '{' ? '}' : ']';
+            skipWhitespace();
+            if (peek() == close) {
+                next();
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                if (c == '{') {
+                    readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                }
+                skipValue();
+                skipWhitespace();
+                int d = next();
+                if (d == close) return;
+                if (d != ',') throw error("缺少 ',' 或 '" + (char) close + "'");
+            }
+        } else {
+            // 数字、true、false、null
+            while ((c = peek()) >= 0 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                next();
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        sb.setLength(0);
+        while (true) {
+            int c = next();
+            if (c < 0) throw error("字符串未结束");
+            if (c == '"') return sb.toString();
+            if (c == '\\') {
+                int e = next();
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        int v = 0;
+                        for (int k = 0; k < 4; k++) {
+                            v = v * 16 + Character.digit(next(), 16);
+                        }
+                        sb.append((char) v);
+                        break;
+                    default:
+                        if (e < 0) throw error("字符串未结束");
+                        sb.append((char) e);
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = next();
+        if (c != expected) {
+            throw error("期望 '" + expected + "'，实际为 " + (c < 0 ? "EOF" : "'" + (char) c + "'"));
+        }
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (peek() >= 0 && Character.isWhitespace(peek())) {
+            next();
+        }
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = in.read();
+        }
+        return peeked;
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        peeked = -2;
+        return c;
+    }
+
+    private IOException error(String message) {
+        return new IOException("解析 ip -j route 输出失败: " + message);
+    }
+}
@@ -1,220 +1,103 @@
 package net.sherpherd.bgp.utils;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import org.javamrt.mrt.BGPFileReader;
 import org.javamrt.mrt.MRTRecord;
 
 public class MRTTools {
+    private static final RouteLog.Category LOG_SKIP = RouteLog.category("mrt.skip", false).rateLimit(1000);
+    private static final RouteLog.Category LOG_CHANGE = RouteLog.category("mrt.change", false).rateLimit(1000);
+
+    /**
+     * 将 MRT 文件中的路由合并到 CSV（保持最短 AS_PATH）。变化只追加到增量日志，
+     * 增量日志超过阈值时才合并回 CSV；CSVProvider 读取前会自动合并剩余的增量日志
+     */
     public static void mrtToCSV(String mrt_file_location,String csv_file_location) throws Exception{
+        mrtToCSV(mrt_file_location, csv_file_location, false);
+    }
+
+    /**
+     * 将 MRT 文件中的路由增量合并到 CSV（保持最短 AS_PATH）。
+     * 变化只追加到 csv 旁的 .delta 增量日志，并通过 .idx 前缀索引做 O(1) 查询，
+     * 不再整体读入和重写 CSV；增量日志超过基础文件一定比例或 compact 为 true 时合并回 CSV。
+     * 未合并时 CSV 文件本身不包含最新的变化，CSVProvider 和统计分析读取前会合并增量日志，
+     * 直接读取文件的其他程序需要先调用 compactCSV()。
+     * @param compact 是否在结束时强制将增量日志合并回 CSV 文件
+     */
+    public static void mrtToCSV(String mrt_file_location, String csv_file_location, boolean compact) throws Exception {
         InputStream input = new FileInputStream(mrt_file_location);
         BGPFileReader mrt = new BGPFileReader(new BufferedInputStream(input));
 
         File csvFile = new File(csv_file_location);
-        File parent = csvFile.getParentFile();
-        if (parent != null && !parent.exists()) {
-            parent.mkdirs();
-        }
-
-        // Ensure CSV exists and has header containing prefix and as_path
-        if (!csvFile.exists()) {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(csvFile, false))) {
-                pw.println("prefix,as_path");
-            }
-        } else {
-            // Read existing header and rest lines
-            List<String> rest = new ArrayList<>();
-            String header = "";
-            try (BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
-                String first = br.readLine();
-                if (first != null) header = first;
-                String line;
-                while ((line = br.readLine()) != null) {
-                    rest.add(line);
-                }
-            }
-
-            String[] origParts = header.isEmpty() ? new String[0] : header.split(",", -1);
-            List<String> cols = new ArrayList<>();
-            for (String c : origParts) {
-                String t = c.trim();
-                if (!t.isEmpty()) cols.add(t);
-            }
-            boolean hasPrefix = cols.stream().anyMatch(s -> s.equalsIgnoreCase("prefix"));
-            boolean hasAsPath = cols.stream().anyMatch(s -> s.equalsIgnoreCase("as_path"));
-            if (!hasPrefix) cols.add("prefix");
-            if (!hasAsPath) cols.add("as_path");
 
-            if (cols.size() != origParts.length) {
-                int added = cols.size() - origParts.length;
-                File tmp = new File(csvFile.getAbsolutePath() + ".tmp");
-                try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tmp, false)))) {
-                    pw.println(String.join(",", cols));
-                    for (String l : rest) {
-                        StringBuilder sb = new StringBuilder(l == null ? "" : l);
-                        for (int i = 0; i < added; i++) sb.append(",");
-                        pw.println(sb.toString());
-                    }
-                }
-                Files.move(tmp.toPath(), csvFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            }
-        }
-
-        // Prepare async logger (create before loading CSV so loading logs can be shown)
-        final BlockingQueue<String> logQueue = new LinkedBlockingQueue<>();
-        Thread loggerThread = new Thread(() -> {
-            try {
-                while (true) {
-                    String msg = logQueue.take();
-                    if ("__END__".equals(msg)) break;
-                    System.out.println(msg);
+        // Process MRT records against the incremental store; count changed/added prefixes
+        long changed = 0;
+        BogonFilter bogons = BogonFilter.active();
+        IncrementalCsvStore store = IncrementalCsvStore.open(csvFile);
+        try {
+            while (true) {
+                MRTRecord mrtRecord = mrt.readNext();
+                if (mrtRecord == null) break;
+                String[] route = getRouteFromLine(mrtRecord);
+                String prefix = route[0];
+                String as_path = route[1];
+                if (prefix == null) continue;
+                String p = prefix.trim();
+                if (p.isEmpty()) continue;
+                // filter default routes
+                if (p.equals("0.0.0.0/0") || p.equals("::/0")) continue;
+
+                // validate prefix and as_path; skip invalid entries
+                String asTrim = as_path == null ? "" : as_path.trim();
+                if (!isValidCIDR(p) || !isValidAsPath(asTrim)) {
+                    RouteLog.log(LOG_SKIP, "Skipping invalid route: prefix={}  AS_PATH={}", p, asTrim);
+                    continue;
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }, "mrt-csv-logger");
-        // make logger a normal thread so console output reliably appears
-        loggerThread.setDaemon(false);
-        loggerThread.start();
-
-        // Load existing CSV rows into a map keyed by prefix (keep shortest AS_PATH)
-        List<String> cols;
-        java.util.LinkedHashMap<String, String[]> rowsMap = new java.util.LinkedHashMap<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
-            String headerLine = br.readLine();
-            if (headerLine == null) headerLine = "prefix,as_path";
-            cols = parseHeader(headerLine);
-            int prefixIdx = indexOfIgnoreCase(cols, "prefix");
-            int asIdx = indexOfIgnoreCase(cols, "as_path");
-            String line;
-            while ((line = br.readLine()) != null) {
-                java.util.List<String> fields = parseCsvLine(line);
-                // normalize size
-                while (fields.size() < cols.size()) fields.add("");
-                String prefix = prefixIdx >= 0 && prefixIdx < fields.size() ? fields.get(prefixIdx).trim() : "";
-                String asVal = asIdx >= 0 && asIdx < fields.size() ? fields.get(asIdx).trim() : "";
-                if (prefix.isEmpty()) continue;
-                if (!rowsMap.containsKey(prefix)) {
-                    rowsMap.put(prefix, fields.toArray(new String[0]));
-                    // log initial load added to memory
-                    logQueue.offer("Loaded in-memory: prefix=" + prefix + "  AS_PATH=" + asVal);
-                } else {
-                    String[] existing = rowsMap.get(prefix);
-                    String existingAs = (asIdx >= 0 && asIdx < existing.length) ? existing[asIdx] : "";
-                    if (isShorterAsPath(asVal, existingAs)) {
-                        String[] newFields = new String[cols.size()];
-                        for (int i = 0; i < newFields.length; i++) newFields[i] = "";
-                        if (prefixIdx >= 0) newFields[prefixIdx] = prefix;
-                        if (asIdx >= 0) newFields[asIdx] = asVal;
-                        rowsMap.put(prefix, newFields);
-                        // log that in-memory entry was updated during CSV load
-                        logQueue.offer("Loaded updated in-memory: prefix=" + prefix + "  AS_PATH=" + asVal);
-                    }
+                if (bogons != null && !bogons.accept(p, asTrim)) {
+                    RouteLog.log(LOG_SKIP, "Skipping bogon route: prefix={}  AS_PATH={}", p, asTrim);
+                    continue;
                 }
-            }
-        }
 
-        // Process MRT records, updating rowsMap; track which prefixes changed/added
-        java.util.List<String> changed = new java.util.ArrayList<>();
-        while (true) {
-            MRTRecord mrtRecord = mrt.readNext();
-            if (mrtRecord == null) break;
-            String[] route = getRouteFromLine(mrtRecord);
-            String prefix = route[0];
-            String as_path = route[1];
-            if (prefix == null) continue;
-            String p = prefix.trim();
-            if (p.isEmpty()) continue;
-            // filter default routes
-            if (p.equals("0.0.0.0/0") || p.equals("::/0")) continue;
-
-            // validate prefix and as_path; skip invalid entries
-            String asTrim = as_path == null ? "" : as_path.trim();
-            if (!isValidCIDR(p) || !isValidAsPath(asTrim)) {
-                // if logger available, record skipped entry; otherwise print
-                try {
-                    logQueue.offer("Skipping invalid route: prefix=" + p + "  AS_PATH=" + asTrim);
-                } catch (Throwable t) {
-                    System.out.println("Skipping invalid route: prefix=" + p + "  AS_PATH=" + asTrim);
+                int existing = store.pathLength(p);
+                if (existing < 0) {
+                    // not present -> add
+                    store.put(p, as_path);
+                    changed++;
+                    RouteLog.log(LOG_CHANGE, "Added: prefix={}  AS_PATH={}", p, as_path);
+                } else if (AsPaths.length(asTrim) < existing) {
+                    store.put(p, as_path);
+                    changed++;
+                    RouteLog.log(LOG_CHANGE, "Updated: prefix={}  AS_PATH={}", p, as_path);
                 }
-                continue;
-            }
-
-            int prefixIdx = indexOfIgnoreCase(cols, "prefix");
-            int asIdx = indexOfIgnoreCase(cols, "as_path");
-            String existingAs = null;
-            if (rowsMap.containsKey(p)) {
-                String[] ex = rowsMap.get(p);
-                existingAs = (asIdx >= 0 && asIdx < ex.length) ? ex[asIdx] : "";
             }
-            if (existingAs == null || existingAs.isEmpty()) {
-                // not present -> add
-                String[] newFields = new String[cols.size()];
-                for (int i = 0; i < newFields.length; i++) newFields[i] = "";
-                if (prefixIdx >= 0) newFields[prefixIdx] = p;
-                if (asIdx >= 0) newFields[asIdx] = as_path;
-                rowsMap.put(p, newFields);
-                changed.add(p);
-                // log addition to in-memory map
-                logQueue.offer("Added to memory: prefix=" + p + "  AS_PATH=" + as_path);
-            } else if (isShorterAsPath(as_path, existingAs)) {
-                String[] newFields = new String[cols.size()];
-                for (int i = 0; i < newFields.length; i++) newFields[i] = "";
-                if (prefixIdx >= 0) newFields[prefixIdx] = p;
-                if (asIdx >= 0) newFields[asIdx] = as_path;
-                rowsMap.put(p, newFields);
-                changed.add(p);
-                // log update to in-memory AS_PATH
-                logQueue.offer("Updated in memory: prefix=" + p + "  AS_PATH=" + as_path);
-            }
-        }
-
-        // Rewrite CSV with final rowsMap (preserve column order)
-        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(csvFile, false)))) {
-            pw.println(String.join(",", cols));
-            for (String key : rowsMap.keySet()) {
-                String[] fields = rowsMap.get(key);
-                java.util.List<String> outFields = new java.util.ArrayList<>();
-                for (int i = 0; i < cols.size(); i++) {
-                    String v = (i < fields.length && fields[i] != null) ? fields[i] : "";
-                    outFields.add(escapeCsv(v));
-                }
-                pw.println(String.join(",", outFields));
+            if (compact) {
+                store.compact();
             }
         } finally {
+            store.close();
             mrt.close();
             input.close();
-            // Enqueue log messages only for actually changed/added prefixes
-            int asIdx = indexOfIgnoreCase(cols, "as_path");
-            for (String pfx : changed) {
-                String[] f = rowsMap.get(pfx);
-                String asVal = (asIdx >= 0 && asIdx < f.length) ? f[asIdx] : "";
-                logQueue.offer("Wrote: prefix=" + pfx + "  AS_PATH=" + asVal);
-            }
-            logQueue.offer("__END__");
-            // wait briefly for logger to finish printing (non-blocking long wait)
-            try {
-                loggerThread.join(5000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            if (Main.verbose) {
+                RouteLog.flush();
+                System.out.println("Wrote " + changed + " changed prefixes to " + csv_file_location);
             }
         }
     }
 
+    /**
+     * 将 mrtToCSV 产生的增量日志合并回 CSV 文件，合并后 CSV 即为完整的路由表
+     */
+    public static void compactCSV(String csv_file_location) throws IOException {
+        try (IncrementalCsvStore store = IncrementalCsvStore.open(new File(csv_file_location))) {
+            store.compact();
+        }
+    }
+
     private static boolean isValidCIDR(String s) {
         if (s == null || s.isEmpty()) return false;
         String[] parts = s.split("/");
@@ -263,6 +146,15 @@ public class MRTTools {
         return true;
     }
 
+    static String formatCsvLine(String[] fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(escapeCsv(fields[i]));
+        }
+        return sb.toString();
+    }
+
     private static String escapeCsv(String s) {
         if (s == null) return "";
         boolean needQuote = s.contains(",") || s.contains("\"") || s.contains("\n") || s.contains("\r");
@@ -272,13 +164,13 @@ public class MRTTools {
         return s;
     }
 
-    private static java.util.List<String> parseHeader(String headerLine) {
+    static java.util.List<String> parseHeader(String headerLine) {
         java.util.List<String> cols = parseCsvLine(headerLine);
         for (int i = 0; i < cols.size(); i++) cols.set(i, cols.get(i).trim());
         return cols;
     }
 
-    private static int indexOfIgnoreCase(java.util.List<String> list, String key) {
+    static int indexOfIgnoreCase(java.util.List<String> list, String key) {
         if (list == null || key == null) return -1;
         for (int i = 0; i < list.size(); i++) {
             if (key.equalsIgnoreCase(list.get(i))) return i;
@@ -286,7 +178,7 @@ public class MRTTools {
         return -1;
     }
 
-    private static java.util.List<String> parseCsvLine(String line) {
+    static java.util.List<String> parseCsvLine(String line) {
         java.util.List<String> out = new java.util.ArrayList<>();
         if (line == null) return out;
         StringBuilder cur = new StringBuilder();
@@ -311,17 +203,6 @@ public class MRTTools {
         return out;
     }
 
-    private static boolean isShorterAsPath(String a, String b) {
-        if (a == null) return false;
-        if (b == null || b.trim().isEmpty()) return true;
-        String asA = a.trim();
-        String asB = b.trim();
-        if (asA.isEmpty()) return false;
-        int na = asA.split("\\s+").length;
-        int nb = asB.isEmpty() ? Integer.MAX_VALUE : asB.split("\\s+").length;
-        return na < nb;
-    }
-
     /**
      * 从 MRTRecord 中获取 prefix 和 as_path。
      * 优先使用 mrtRecord.getPrefix() 与 mrtRecord.getASPath() 方法（如果可用），
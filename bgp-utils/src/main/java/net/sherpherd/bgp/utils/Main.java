@@ -1,5 +1,9 @@
 package net.sherpherd.bgp.utils;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.*;
 import java.util.Scanner;
 
@@ -8,6 +12,26 @@ public class Main {
     private static Scanner scanner = new Scanner(System.in);
     
     public static void main(String[] args) throws Exception {
+        // -Dbgp.cache.dir 启用转换结果缓存
+        Generate.setResultCache(ResultCache.fromSystemProperties());
+        // -Dbgp.bestpath=true 时 MRT 到 CSV 按完整的 BGP 选路规则归约
+        Generate.setBestPathSelection(Boolean.getBoolean("bgp.bestpath"));
+        // -Dbgp.paths=K 时每个前缀保留 K 条路由，-Dbgp.paths.distinct=true 要求相邻 AS 互不相同
+        Generate.setAlternatePaths(Integer.getInteger("bgp.paths", 0), Boolean.getBoolean("bgp.paths.distinct"));
+        // -Dbgp.stats=true 时转换结束后打印地址空间统计
+        Generate.setStatisticsReport(Boolean.getBoolean("bgp.stats"));
+        // -Dbgp.overlaps=文件 时转换在聚合前做前缀重叠分析并写出 CSV 报告
+        Generate.setOverlapReport(System.getProperty("bgp.overlaps"));
+        // -Dbgp.bogon=true 时读取 MRT 丢弃 bogon/martian 路由，-Dbgp.bogon.rules=文件 使用自定义规则
+        BogonFilter.setActive(BogonFilter.fromSystemProperties());
+        // -Dbgp.snapshot.asindex=true 时生成快照的同时写入 ASN 倒排索引
+        SnapshotProvider.setWriteAsIndex(Boolean.getBoolean("bgp.snapshot.asindex"));
+        
+        // 带参数时以批处理方式运行，不进入交互菜单
+        if (args.length > 0) {
+            System.exit(BatchRunner.run(args));
+        }
+        
         System.out.println("=== BGP 路由处理工具 ===");
         
         while (true) {
@@ -16,21 +40,33 @@ public class Main {
             
             switch (choice) {
                 case "1":
-                    processMRTToCSV();
+                    runJob(Main::processMRTToCSV);
                     break;
                 case "2":
-                    processCSVToCSV();
+                    runJob(Main::processCSVToCSV);
                     break;
                 case "3":
-                    processCSVToRawText();
+                    runJob(Main::processCSVToRawText);
                     break;
                 case "4":
-                    processRawTextToIproute2();
+                    runJob(Main::processRawTextToIproute2);
                     break;
                 case "5":
-                    toggleVerbose();
+                    runJob(Main::processToSnapshot);
                     break;
                 case "6":
+                    runJob(Main::processToFirewallSet);
+                    break;
+                case "7":
+                    runJob(Main::processFanOut);
+                    break;
+                case "8":
+                    runJob(Main::processDiff);
+                    break;
+                case "9":
+                    toggleVerbose();
+                    break;
+                case "10":
                     System.out.println("感谢使用，再见！");
                     return;
                 default:
@@ -45,9 +81,13 @@ public class Main {
         System.out.println("2. 从 CSV 文件提取路由到 CSV");
         System.out.println("3. 从 CSV 文件提取路由到纯文本");
         System.out.println("4. 从纯文本文件生成 iproute2 路由添加脚本");
-        System.out.println("5. 启用调试输出（当前模式：" + (verbose ? "开启" : "关闭") + "）");
-        System.out.println("6. 退出程序");
-        System.out.print("请选择操作 (1-6): ");
+        System.out.println("5. 从 MRT/CSV 文件生成二进制路由快照");
+        System.out.println("6. 从 CSV/纯文本文件生成 nftables/ipset 集合");
+        System.out.println("7. 从 MRT/CSV 文件一次读取并同时输出多种格式");
+        System.out.println("8. 比较两个 MRT/CSV/快照路由表并输出差异");
+        System.out.println("9. 启用调试输出（当前模式：" + (verbose ? "开启" : "关闭") + "）");
+        System.out.println("10. 退出程序");
+        System.out.print("请选择操作 (1-10): ");
     }
     
     private static void processMRTToCSV() {
@@ -143,9 +183,38 @@ public class Main {
     private static void processRawTextToIproute2() {
         System.out.println("\n=== 从纯文本文件生成 iproute2 路由添加脚本 ===");
         
-        String inputFile = getInput("输入文件: ");
+        String inputFile = getInput("输入文件 (.csv 时使用其中的 nexthop 列): ");
         String outputFile = getInput("输出文件: ");
-        String nexthop = getInput("下一跳地址: ");
+        String nexthop = getInput("下一跳地址 (多个以空格分隔组成 ECMP): ");
+        String format = getInput("输出格式 (1=bash 脚本, 2=ip -batch 批处理文件, 3=rtnetlink 消息帧文件 (用 netlink-send.py 发送), 4=ip nexthop 对象批处理文件) [1]: ");
+        boolean csvInput = inputFile.toLowerCase().endsWith(".csv");
+        String currentTable = "";
+        String table = "";
+        String protocol = "";
+        String device = "";
+        boolean sendToKernel = false;
+        if ("3".equals(format)) {
+            sendToKernel = getInput("直接通过 netlink-send.py 写入本机内核 (需要 python3 与 CAP_NET_ADMIN)? (y/N): ")
+                    .equalsIgnoreCase("y");
+            table = getInput("路由表编号 (留空为 main): ");
+            protocol = getInput("路由协议标识 proto (编号或 rt_protos 中的名称，留空为 boot): ");
+        }
+        if ("4".equals(format)) {
+            device = getInput("出接口: ");
+        }
+        if (!"3".equals(format)) {
+            if (!csvInput && !"4".equals(format)) {
+                currentTable = getInput("当前路由表 (ip -j route show table N 的输出文件，留空则全量生成): ");
+            }
+            if (currentTable.isEmpty()) {
+                table = getInput("路由表编号 (留空为 main): ");
+                protocol = getInput("路由协议标识 proto (编号或 rt_protos 中的名称，留空则不指定): ");
+            } else {
+                // 差异同步会删除路由，只能作用于专用路由表中由专用协议安装的路由
+                table = getInput("路由表编号 (差异同步必须使用专用表，不能是 253-255): ");
+                protocol = getInput("路由协议标识 proto (编号或 rt_protos 中的名称，需与安装时一致): ");
+            }
+        }
         
         System.out.print("确认执行? (y/N): ");
         String confirm = scanner.nextLine().trim();
@@ -155,10 +224,77 @@ public class Main {
         }
         
         try {
-            RawTextProvider in = new RawTextProvider(inputFile);
-            Iproute2ScriptProvider out = new Iproute2ScriptProvider(outputFile);
+            if ("3".equals(format)) {
+                NetlinkRouteProvider out = new NetlinkRouteProvider(outputFile);
+                if (!table.isEmpty()) {
+                    out.setTable(Integer.parseInt(table));
+                }
+                if (!protocol.isEmpty()) {
+                    out.setProtocol(protocol);
+                }
+                if (sendToKernel) {
+                    out.connectSender();
+                }
+                Generate.generateNetlinkFromRawText(new RawTextProvider(inputFile), out, nexthop);
+            } else {
+                Iproute2ScriptProvider.Mode mode = "2".equals(format) ? Iproute2ScriptProvider.Mode.BATCH
+                        : "4".equals(format) ? Iproute2ScriptProvider.Mode.NEXTHOP : Iproute2ScriptProvider.Mode.SCRIPT;
+                Iproute2ScriptProvider out = new Iproute2ScriptProvider(outputFile, mode);
+                out.setDevice(device);
+                if (!table.isEmpty()) {
+                    out.setTable(Integer.parseInt(table));
+                }
+                if (!protocol.isEmpty()) {
+                    out.setProtocol(protocol);
+                }
+                if (csvInput) {
+                    Generate.generateScriptFromCSVToIproute2(new CSVProvider(inputFile), out, nexthop.isEmpty() ? null : nexthop);
+                } else if (currentTable.isEmpty()) {
+                    Generate.generateScriptFromRawTextToIproute2(new RawTextProvider(inputFile), out, nexthop);
+                } else {
+                    long[] counts = Generate.generateReconcileScriptFromRawTextToIproute2(
+                            new RawTextProvider(inputFile), currentTable, out, nexthop);
+                    System.out.println("新增 " + counts[0] + " 条，替换 " + counts[1] + " 条，删除 " + counts[2] + " 条");
+                }
+            }
             
-            Generate.generateScriptFromRawTextToIproute2(in, out, nexthop);
+            System.out.println("操作完成！");
+        } catch (Exception e) {
+            System.err.println("处理失败: " + e.getMessage());
+            if (verbose) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private static void processToFirewallSet() {
+        System.out.println("\n=== 从 CSV/纯文本文件生成 nftables/ipset 集合 ===");
+        
+        String inputFile = getInput("输入文件 (.csv 按 CSV 读取，其余按纯文本读取): ");
+        String outputFile = getInput("输出文件: ");
+        String format = getInput("输出格式 (1=nftables, 2=ipset restore) [1]: ");
+        String setName = getInput("集合名 (实际为 <名称>_v4 / <名称>_v6) [bgp]: ");
+        boolean csvInput = inputFile.toLowerCase().endsWith(".csv");
+        List<String> aspathRegex = csvInput ? getASPathRegex() : null;
+        
+        System.out.print("确认执行? (y/N): ");
+        String confirm = scanner.nextLine().trim();
+        if (!confirm.equalsIgnoreCase("y")) {
+            System.out.println("操作已取消。");
+            return;
+        }
+        
+        try {
+            FirewallSetProvider out = new FirewallSetProvider(outputFile,
+                    "2".equals(format) ? FirewallSetProvider.Format.IPSET : FirewallSetProvider.Format.NFTABLES);
+            if (!setName.isEmpty()) {
+                out.setSetName(setName);
+            }
+            if (csvInput) {
+                Generate.generateFirewallSetFromCSV(new CSVProvider(inputFile), out, aspathRegex);
+            } else {
+                Generate.generateFirewallSetFromRawText(new RawTextProvider(inputFile), out);
+            }
             
             System.out.println("操作完成！");
         } catch (Exception e) {
@@ -169,6 +305,147 @@ public class Main {
         }
     }
     
+    private static void processToSnapshot() {
+        System.out.println("\n=== 从 MRT/CSV 文件生成二进制路由快照 ===");
+        
+        String inputFile = getInput("输入文件 (.csv 按 CSV 读取，其余按 MRT 读取): ");
+        String outputFile = getInput("输出文件: ");
+        List<String> aspathRegex = getASPathRegex();
+        boolean aggregate = getAggregateOption();
+        
+        System.out.print("确认执行? (y/N): ");
+        String confirm = scanner.nextLine().trim();
+        if (!confirm.equalsIgnoreCase("y")) {
+            System.out.println("操作已取消。");
+            return;
+        }
+        
+        try {
+            DataProvider in = inputFile.toLowerCase().endsWith(".csv")
+                    ? new CSVProvider(inputFile) : new MRTProvider(inputFile);
+            SnapshotProvider out = new SnapshotProvider(outputFile);
+            
+            Generate.generateSnapshot(in, out, aspathRegex, aggregate);
+            
+            System.out.println("操作完成！");
+        } catch (Exception e) {
+            System.err.println("处理失败: " + e.getMessage());
+            if (verbose) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private static void processFanOut() {
+        System.out.println("\n=== 从 MRT/CSV 文件一次读取并同时输出多种格式 ===");
+        
+        String inputFile = getInput("输入文件 (.csv 按 CSV 读取，其余按 MRT 读取): ");
+        List<String> aspathRegex = getASPathRegex();
+        List<RouteFanOut.Sink> sinks = new ArrayList<>();
+        
+        String csvFile = getInput("CSV 输出文件 (留空跳过): ");
+        if (!csvFile.isEmpty()) {
+            sinks.add(RouteFanOut.Sink.csv(new CSVProvider(csvFile), aspathRegex, getAggregateOption()));
+        }
+        String rawFile = getInput("纯文本输出文件 (留空跳过): ");
+        if (!rawFile.isEmpty()) {
+            sinks.add(RouteFanOut.Sink.rawText(new RawTextProvider(rawFile), aspathRegex, getAggregateOption()));
+        }
+        String scriptFile = getInput("iproute2 脚本输出文件 (留空跳过): ");
+        if (!scriptFile.isEmpty()) {
+            String nexthop = getInput("下一跳地址: ");
+            sinks.add(RouteFanOut.Sink.iproute2(new Iproute2ScriptProvider(scriptFile), nexthop,
+                    aspathRegex, getAggregateOption()));
+        }
+        String snapshotFile = getInput("快照输出文件 (留空跳过): ");
+        if (!snapshotFile.isEmpty()) {
+            sinks.add(RouteFanOut.Sink.snapshot(new SnapshotProvider(snapshotFile), aspathRegex, getAggregateOption()));
+        }
+        if (sinks.isEmpty()) {
+            System.out.println("未指定任何输出，操作已取消。");
+            return;
+        }
+        
+        System.out.print("确认执行? (y/N): ");
+        String confirm = scanner.nextLine().trim();
+        if (!confirm.equalsIgnoreCase("y")) {
+            System.out.println("操作已取消。");
+            return;
+        }
+        
+        try {
+            DataProvider in = inputFile.toLowerCase().endsWith(".csv")
+                    ? new CSVProvider(inputFile) : new MRTProvider(inputFile);
+            
+            Generate.generateFanOut(in, sinks);
+            
+            System.out.println("操作完成！");
+        } catch (Exception e) {
+            System.err.println("处理失败: " + e.getMessage());
+            if (verbose) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private static void processDiff() {
+        System.out.println("\n=== 比较两个路由表 ===");
+        
+        String oldFile = getInput("旧路由表 (.csv 按 CSV 读取，快照按快照读取，其余按 MRT 读取): ");
+        String newFile = getInput("新路由表: ");
+        String outputFile = getInput("差异输出文件 (CSV): ");
+        
+        System.out.print("确认执行? (y/N): ");
+        String confirm = scanner.nextLine().trim();
+        if (!confirm.equalsIgnoreCase("y")) {
+            System.out.println("操作已取消。");
+            return;
+        }
+        
+        try {
+            long changes = Generate.generateDiff(openTable(oldFile), openTable(newFile), outputFile);
+            
+            System.out.println("操作完成！共 " + changes + " 条差异");
+        } catch (Exception e) {
+            System.err.println("处理失败: " + e.getMessage());
+            if (verbose) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private static DataProvider openTable(String path) {
+        if (path.toLowerCase().endsWith(".csv")) {
+            return new CSVProvider(path);
+        }
+        return SnapshotProvider.isSnapshotFile(path) ? new SnapshotProvider(path) : new MRTProvider(path);
+    }
+    
+    /**
+     * 执行一次转换：开始前清零指标，结束后输出指标汇总；
+     * 设置了系统属性 bgp.metrics.json 时同时把指标以 JSON 写入该文件
+     */
+    private static void runJob(Runnable job) {
+        RouteMetrics.reset();
+        job.run();
+        System.out.println(RouteMetrics.summary());
+        writeMetricsJson();
+    }
+    
+    /**
+     * 设置了系统属性 bgp.metrics.json 时把当前指标以 JSON 写入该文件
+     */
+    static void writeMetricsJson() {
+        String jsonPath = System.getProperty("bgp.metrics.json");
+        if (jsonPath != null && !jsonPath.isEmpty()) {
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(jsonPath), "UTF-8")) {
+                RouteMetrics.writeJson(w);
+            } catch (IOException e) {
+                System.err.println("写入指标文件失败: " + e.getMessage());
+            }
+        }
+    }
+    
     private static String getInput(String prompt) {
         System.out.print(prompt);
         return scanner.nextLine().trim();
@@ -198,6 +475,7 @@ public class Main {
     
     private static void toggleVerbose() {
         verbose = !verbose;
+        DataProvider.setVerbose(verbose);
         System.out.println("调试输出已" + (verbose ? "开启" : "关闭"));
     }
 }
\ No newline at end of file
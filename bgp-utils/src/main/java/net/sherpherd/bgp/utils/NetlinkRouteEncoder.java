@@ -0,0 +1,224 @@
+package net.sherpherd.bgp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * rtnetlink 路由消息编码器。
+ *
+ * 每条路由编码为 nlmsghdr + rtmsg + rtattr(RTA_DST / RTA_GATEWAY / RTA_OIF / RTA_TABLE)，
+ * 字段布局与 iproute2 的 "ip route replace/del" 发出的消息一致。
+ * 头部整数使用主机字节序（由传入 ByteBuffer 的 order 决定），地址字段始终为网络字节序。
+ */
+final class NetlinkRouteEncoder {
+    static final int NLMSG_HDRLEN = 16;
+    static final int RTMSG_LEN = 12;
+
+    static final short NLMSG_ERROR = 2;
+    static final short NLMSG_DONE = 3;
+    static final short RTM_NEWROUTE = 24;
+    static final short RTM_DELROUTE = 25;
+
+    static final short NLM_F_REQUEST = 0x1;
+    static final short NLM_F_ACK = 0x4;
+    static final short NLM_F_REPLACE = 0x100;
+    static final short NLM_F_EXCL = 0x200;
+    static final short NLM_F_CREATE = 0x400;
+
+    static final int AF_INET = 2;
+    static final int AF_INET6 = 10;
+
+    static final short RTA_DST = 1;
+    static final short RTA_OIF = 4;
+    static final short RTA_GATEWAY = 5;
+    static final short RTA_TABLE = 15;
+
+    static final int RT_TABLE_UNSPEC = 0;
+    static final int RT_TABLE_MAIN = 254;
+    static final int RTPROT_BOOT = 3;
+    static final int RTPROT_STATIC = 4;
+    static final int RT_SCOPE_UNIVERSE = 0;
+    static final int RT_SCOPE_NOWHERE = 255;
+    static final int RTN_UNICAST = 1;
+
+    private final long[] prefixBuf = new long[3];
+    private final long[] gatewayBuf = new long[2];
+    private int table = RT_TABLE_MAIN;
+    private int protocol = RTPROT_BOOT;
+    private int oif;
+
+    /**
+     * 设置路由表编号；大于 255 时与 iproute2 一样改用 RTA_TABLE 属性传递
+     */
+    void setTable(int table) {
+        if (table < 0) {
+            throw new IllegalArgumentException("无效的路由表编号: " + table);
+        }
+        this.table = table;
+    }
+
+    void setProtocol(int protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * 设置出接口索引，0 表示不指定
+     */
+    void setOutputInterface(int ifindex) {
+        this.oif = ifindex;
+    }
+
+    /**
+     * 按主机字节序分配发送缓冲区
+     */
+    static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * 编码一条 RTM_NEWROUTE（NLM_F_CREATE | NLM_F_REPLACE，语义同 ip route replace）
+     * @return 写入的字节数；前缀/下一跳无效返回 0；缓冲区空间不足返回 -1（缓冲区不变）
+     */
+    int encodeReplace(ByteBuffer buf, int seq, String prefix, String gateway) {
+        return encode(buf, RTM_NEWROUTE, (short) (NLM_F_REQUEST | NLM_F_ACK | NLM_F_CREATE | NLM_F_REPLACE),
+                seq, prefix, gateway);
+    }
+
+    /**
+     * 编码一条 RTM_DELROUTE
+     * @return 同 encodeReplace
+     */
+    int encodeDelete(ByteBuffer buf, int seq, String prefix) {
+        return encode(buf, RTM_DELROUTE, (short) (NLM_F_REQUEST | NLM_F_ACK), seq, prefix, null);
+    }
+
+    private int encode(ByteBuffer buf, short type, short flags, int seq, String prefix, String gateway) {
+        int family;
+        int addrLen;
+        int dstLen;
+        if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+            long packed = PackedPrefix.parseIPv4(prefix);
+            if (packed < 0) return 0;
+            family = AF_INET;
+            addrLen = 4;
+            prefixBuf[0] = PackedPrefix.ipv4Address(packed);
+            dstLen = PackedPrefix.ipv4Length(packed);
+        } else if (PackedPrefix.parseIPv6(prefix, prefixBuf)) {
+            family = AF_INET6;
+            addrLen = 16;
+            dstLen = (int) prefixBuf[2];
+        } else {
+            return 0;
+        }
+
+        boolean hasGateway = gateway != null;
+        if (hasGateway) {
+            if (family == AF_INET) {
+                long gw = PackedPrefix.parseIPv4Address(gateway);
+                if (gw < 0) return 0;
+                gatewayBuf[0] = gw;
+            } else if (!PackedPrefix.parseIPv6Address(gateway, gatewayBuf)) {
+                return 0;
+            }
+        }
+
+        int attrLen = align(4 + addrLen);
+        int total = NLMSG_HDRLEN + RTMSG_LEN + attrLen
+                + (hasGateway ? attrLen : 0)
+                + (oif != 0 ? 8 : 0)
+                + (table > 255 ? 8 : 0);
+        if (buf.remaining() < total) return -1;
+
+        boolean delete = type == RTM_DELROUTE;
+        // nlmsghdr
+        buf.putInt(total);
+        buf.putShort(type);
+        buf.putShort(flags);
+        buf.putInt(seq);
+        buf.putInt(0);
+        // rtmsg
+        buf.put((byte) family);
+        buf.put((byte) dstLen);
+        buf.put((byte) 0);
+        buf.put((byte) 0);
+        buf.put((byte) (table > 255 ? RT_TABLE_UNSPEC : table));
+        buf.put((byte) (delete ? 0 : protocol));
+        buf.put((byte) (delete ? RT_SCOPE_NOWHERE : RT_SCOPE_UNIVERSE));
+        buf.put((byte) (delete ? 0 : RTN_UNICAST));
+        buf.putInt(0);
+        // attributes
+        putAddress(buf, RTA_DST, family, prefixBuf[0], prefixBuf[1]);
+        if (hasGateway) {
+            putAddress(buf, RTA_GATEWAY, family, gatewayBuf[0], gatewayBuf[1]);
+        }
+        if (oif != 0) {
+            putU32(buf, RTA_OIF, oif);
+        }
+        if (table > 255) {
+            putU32(buf, RTA_TABLE, table);
+        }
+        return total;
+    }
+
+    private static void putAddress(ByteBuffer buf, short type, int family, long hi, long lo) {
+        ByteOrder order = buf.order();
+        buf.putShort((short) (4 + (family == AF_INET ? 4 : 16)));
+        buf.putShort(type);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        if (family == AF_INET) {
+            buf.putInt((int) hi);
+        } else {
+            buf.putLong(hi);
+            buf.putLong(lo);
+        }
+        buf.order(order);
+    }
+
+    private static void putU32(ByteBuffer buf, short type, int value) {
+        buf.putShort((short) 8);
+        buf.putShort(type);
+        buf.putInt(value);
+    }
+
+    private static int align(int len) {
+        return (len + 3) & ~3;
+    }
+
+    /**
+     * 内核应答的接收者
+     */
+    interface AckListener {
+        /**
+         * @param seq 对应请求的序号
+         * @param error 0 表示成功，否则为负的 errno
+         */
+        void onAck(int seq, int error);
+    }
+
+    /**
+     * 解析缓冲区中连续的 netlink 应答消息，对每个 NLMSG_ERROR 回调 listener
+     * @return 消费的字节数；末尾不完整的消息保留在缓冲区中不消费
+     */
+    static int decodeAcks(ByteBuffer buf, AckListener listener) {
+        int start = buf.position();
+        while (buf.remaining() >= NLMSG_HDRLEN) {
+            int pos = buf.position();
+            int len = buf.getInt(pos);
+            if (len < NLMSG_HDRLEN) {
+                throw new IllegalStateException("无效的netlink消息长度: " + len);
+            }
+            if (buf.remaining() < len) break;
+            short type = buf.getShort(pos + 4);
+            if (type == NLMSG_ERROR && len >= NLMSG_HDRLEN + 4) {
+                // 应答体为 int error + 原请求的 nlmsghdr，序号取原请求头中的值
+                int error = buf.getInt(pos + NLMSG_HDRLEN);
+                int seq = len >= NLMSG_HDRLEN * 2 + 4
+                        ? buf.getInt(pos + NLMSG_HDRLEN + 4 + 8)
+                        : buf.getInt(pos + 8);
+                listener.onAck(seq, error);
+            }
+            buf.position(pos + align(len));
+        }
+        return buf.position() - start;
+    }
+}
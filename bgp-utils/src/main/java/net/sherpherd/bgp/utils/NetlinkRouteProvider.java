@@ -0,0 +1,431 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * rtnetlink 路由消息帧输出。
+ *
+ * 与 Iproute2ScriptProvider 相对应，但不经过 ip 命令的文本解析：每条路由直接编码为
+ * RTM_NEWROUTE / RTM_DELROUTE 消息，多条消息打包进一个大的发送缓冲区，满后作为一帧写出。
+ * 帧格式为 4 字节大端长度 + 连续的 netlink 消息。
+ *
+ * JVM 没有 AF_NETLINK 套接字，本类自身不会修改内核路由表。写入内核由随附的发送程序
+ * netlink-send.py 完成：它把帧中的消息写入 NETLINK_ROUTE 套接字，并把内核的 NLMSG_ERROR 应答原样写回。
+ * connectSender() 直接启动该程序；也可以先写出帧文件，再在目标机上执行
+ * "python3 netlink-send.py &lt; 文件"，或通过 connect() 接到其他发送程序。
+ * 接有应答流时后台线程异步解析应答并统计失败的请求，不阻塞编码。
+ */
+class NetlinkRouteProvider extends DataProvider implements CreateProviderFile {
+    static final int DEFAULT_BATCH_SIZE = 256 * 1024;
+    /** 最多记录的错误明细条数，超出后只计数 */
+    static final int MAX_RECORDED_ERRORS = 100;
+    /** close() 等待应答的最长时间（毫秒） */
+    static final long ACK_TIMEOUT_MILLIS = 30_000;
+    /** 随附的发送程序 */
+    static final String SENDER_RESOURCE = "/netlink-send.py";
+    /** 协议名称登记文件，依次查找 */
+    static final String[] RT_PROTOS_FILES = {"/etc/iproute2/rt_protos", "/usr/share/iproute2/rt_protos",
+            "/usr/lib/iproute2/rt_protos"};
+
+    private static final RouteLog.Category LOG_SKIP = RouteLog.category("netlink.skip", true).rateLimit(1000);
+
+    private final NetlinkRouteEncoder encoder = new NetlinkRouteEncoder();
+    private final AtomicLong ackCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private ByteOrder byteOrder = ByteOrder.nativeOrder();
+    private OutputStream transport;
+    private InputStream ackStream;
+    private Thread ackReader;
+    private Process sender;
+    private DataOutputStream out;
+    private ByteBuffer batch;
+    private String protocol;
+    private int seq;
+    private long routeCount;
+    private long batchCount;
+
+    public NetlinkRouteProvider(String path) {
+        super(path);
+    }
+
+    /**
+     * 将输出接到外部发送程序，而不是写入文件；必须在 initializeWriter() 之前调用
+     * @param requests 发送程序的输入（帧流）
+     * @param acks 发送程序转发的内核应答，可为 null（不检查应答）
+     */
+    public void connect(OutputStream requests, InputStream acks) {
+        checkNotInitialized();
+        this.transport = requests;
+        this.ackStream = acks;
+    }
+
+    /**
+     * 启动随附的发送程序 netlink-send.py，把消息写入本机的 NETLINK_ROUTE 套接字并检查每条消息的应答；
+     * 必须在 initializeWriter() 之前调用，需要 python3 与 CAP_NET_ADMIN
+     * @param launcher 启动脚本的命令，为空时使用 python3；可带 "ip netns exec 名称" 等前缀
+     */
+    public void connectSender(String... launcher) throws IOException {
+        checkNotInitialized();
+        File script = File.createTempFile("netlink-send-", ".py");
+        script.deleteOnExit();
+        try (InputStream in = NetlinkRouteProvider.class.getResourceAsStream(SENDER_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("找不到发送程序: " + SENDER_RESOURCE);
+            }
+            Files.copy(in, script.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        List<String> command = new ArrayList<>(launcher.length == 0
+                ? Collections.singletonList("python3") : Arrays.asList(launcher));
+        command.add(script.getAbsolutePath());
+        sender = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        connect(sender.getOutputStream(), sender.getInputStream());
+    }
+
+    public boolean isConnected() {
+        return transport != null;
+    }
+
+    /**
+     * 设置每帧的最大字节数
+     */
+    public void setBatchSize(int batchSize) {
+        checkNotInitialized();
+        if (batchSize < 256) {
+            throw new IllegalArgumentException("批大小过小: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 设置消息头的字节序，默认与本机一致；为其他架构的目标机生成文件时使用
+     */
+    public void setByteOrder(ByteOrder order) {
+        checkNotInitialized();
+        this.byteOrder = order;
+    }
+
+    public void setTable(int table) {
+        encoder.setTable(table);
+    }
+
+    /**
+     * 设置安装路由使用的协议标识（rtm_protocol），为 null 时使用 boot，与 Iproute2ScriptProvider.setProtocol 规则相同；
+     * 名称按 rt_protos 解析为编号。Iproute2ScriptProvider 的差异同步以该标识识别本工具安装的路由
+     */
+    public void setProtocol(String protocol) {
+        checkNotInitialized();
+        if (protocol == null) {
+            encoder.setProtocol(NetlinkRouteEncoder.RTPROT_BOOT);
+            this.protocol = null;
+            return;
+        }
+        String checked = Iproute2ScriptProvider.checkProtocol(protocol);
+        encoder.setProtocol(checked.matches("\\d+") ? Integer.parseInt(checked) : resolveProtocol(checked, RT_PROTOS_FILES));
+        this.protocol = checked;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * 在 rt_protos 文件中查找协议名称对应的编号，格式为每行 "编号 名称"，# 开头为注释
+     */
+    static int resolveProtocol(String name, String... files) {
+        for (String path : files) {
+            File file = new File(path);
+            if (!file.isFile()) continue;
+            try {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length < 2 || fields[0].startsWith("#") || !fields[1].equals(name)) continue;
+                    if (fields[0].matches("\\d{1,3}")) {
+                        int id = Integer.parseInt(fields[0]);
+                        if (id > 4 && id <= 255) return id;
+                    }
+                    throw new IllegalArgumentException("无效或保留的路由协议标识: " + name + " (" + fields[0] + ")");
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("读取协议登记文件失败: " + path + " - " + e.getMessage(), e);
+            }
+        }
+        throw new IllegalArgumentException("路由协议名称未在 rt_protos 中登记: " + name);
+    }
+
+    /**
+     * 指定出接口，按名称解析接口索引
+     */
+    public void setDevice(String device) {
+        try {
+            NetworkInterface nif = NetworkInterface.getByName(device);
+            if (nif == null) {
+                throw new IllegalArgumentException("接口不存在: " + device);
+            }
+            encoder.setOutputInterface(nif.getIndex());
+        } catch (SocketException e) {
+            throw new IllegalArgumentException("无法获取接口索引: " + device, e);
+        }
+    }
+
+    private void checkNotInitialized() {
+        if (batch != null) {
+            throw new IllegalStateException("输出已初始化，不能再修改配置");
+        }
+    }
+
+    @Override
+    public boolean createFile(String filePath) {
+        try {
+            File file = new File(filePath);
+            if (file.exists()) {
+                if (verbose) {
+                    System.out.println("netlink文件已存在: " + filePath);
+                }
+                return false;
+            }
+
+            // 创建目录（如果不存在）
+            File parentDir = file.getParentFile();
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+
+            if (file.createNewFile()) {
+                if (verbose) {
+                    System.out.println("netlink文件创建成功: " + filePath);
+                }
+                return true;
+            } else {
+                if (verbose) {
+                    System.err.println("netlink文件创建失败: " + filePath);
+                }
+                return false;
+            }
+        } catch (IOException e) {
+            if (verbose) {
+                System.err.println("创建netlink文件时发生IO异常: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 初始化写入流（延迟初始化，由Generate类调用）
+     */
+    public void initializeWriter() throws IOException {
+        if (batch != null) return;
+        if (sender != null && byteOrder != ByteOrder.nativeOrder()) {
+            throw new IllegalStateException("发送到本机内核时消息头必须使用本机字节序");
+        }
+        OutputStream target = transport != null ? transport : new FileOutputStream(path);
+        out = new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+        batch = ByteBuffer.allocate(batchSize).order(byteOrder);
+        seq = 0;
+        routeCount = 0;
+        batchCount = 0;
+        if (ackStream != null) {
+            ackReader = new Thread(this::readAcks, "netlink-ack-reader");
+            ackReader.setDaemon(true);
+            ackReader.start();
+        }
+    }
+
+    @Override
+    public String[] getNextRoute() {
+        return null;
+    }
+
+    @Override
+    public void setRoute(int index, String[] routeData) {
+        // 消息按顺序编码，不支持索引
+    }
+
+    @Override
+    public String[] getRoute(int index) {
+        return null;
+    }
+
+    /**
+     * 添加（替换）一条路由
+     */
+    public void addRoute(String prefix, String nexthop) {
+        encode(prefix, nexthop, false);
+    }
+
+    /**
+     * 删除一条路由
+     */
+    public void deleteRoute(String prefix) {
+        encode(prefix, null, true);
+    }
+
+    private void encode(String prefix, String nexthop, boolean delete) {
+        if (batch == null) {
+            throw new IllegalStateException("输出尚未初始化");
+        }
+        int n = delete ? encoder.encodeDelete(batch, seq + 1, prefix)
+                : encoder.encodeReplace(batch, seq + 1, prefix, nexthop);
+        if (n < 0) {
+            flushBatch();
+            n = delete ? encoder.encodeDelete(batch, seq + 1, prefix)
+                    : encoder.encodeReplace(batch, seq + 1, prefix, nexthop);
+        }
+        if (n == 0) {
+            RouteLog.log(LOG_SKIP, "跳过无效路由: prefix={}, nexthop={}", prefix, nexthop);
+            return;
+        }
+        seq++;
+        routeCount++;
+    }
+
+    private void flushBatch() {
+        if (batch.position() == 0) return;
+        try {
+            out.writeInt(batch.position());
+            out.write(batch.array(), 0, batch.position());
+        } catch (IOException e) {
+            throw new RuntimeException("写出netlink消息失败: " + e.getMessage(), e);
+        }
+        batch.clear();
+        batchCount++;
+    }
+
+    private void readAcks() {
+        byte[] chunk = new byte[1 << 16];
+        ByteBuffer pending = ByteBuffer.allocate(1 << 17).order(byteOrder);
+        try {
+            int n;
+            while ((n = ackStream.read(chunk)) > 0) {
+                if (pending.remaining() < n) {
+                    ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2 + n).order(byteOrder);
+                    pending.flip();
+                    larger.put(pending);
+                    pending = larger;
+                }
+                pending.put(chunk, 0, n);
+                pending.flip();
+                NetlinkRouteEncoder.decodeAcks(pending, this::onAck);
+                pending.compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            recordError("读取netlink应答失败: " + e.getMessage());
+        }
+    }
+
+    private void onAck(int ackSeq, int error) {
+        ackCount.incrementAndGet();
+        if (error != 0) {
+            errorCount.incrementAndGet();
+            recordError("路由消息 seq=" + ackSeq + " 失败: errno=" + (-error));
+        }
+    }
+
+    private void recordError(String message) {
+        if (errors.size() < MAX_RECORDED_ERRORS) {
+            errors.add(message);
+        }
+        if (verbose) {
+            System.err.println(message);
+        }
+    }
+
+    public long getRouteCount() {
+        return routeCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getAckCount() {
+        return ackCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * 已记录的错误明细（最多 MAX_RECORDED_ERRORS 条）
+     */
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    /**
+     * 等待发送程序退出；异常退出或有请求没有收到应答时计为失败
+     */
+    private void waitForSender() {
+        try {
+            if (!sender.waitFor(ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                sender.destroy();
+                recordError("netlink发送程序未按时退出");
+            } else if (sender.exitValue() != 0) {
+                recordError("netlink发送程序异常退出: exit=" + sender.exitValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long missing = routeCount - ackCount.get();
+        if (missing > 0) {
+            errorCount.addAndGet(missing);
+            recordError("只收到 " + ackCount.get() + "/" + routeCount + " 条netlink应答");
+        }
+        sender = null;
+    }
+
+    /**
+     * 写出最后一帧并关闭输出；接有应答流时等待应答读取结束
+     */
+    public void close() {
+        if (batch == null) return;
+        try {
+            flushBatch();
+            out.close();
+        } catch (IOException e) {
+            System.err.println("写入netlink消息失败: " + path);
+        }
+        batch = null;
+        if (ackReader != null) {
+            try {
+                ackReader.join(ACK_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (ackReader.isAlive() && verbose) {
+                System.err.println("等待netlink应答超时，已收到 " + ackCount.get() + "/" + routeCount);
+            }
+            ackReader = null;
+        }
+        if (sender != null) {
+            waitForSender();
+        }
+        if (verbose) {
+            System.out.println("已编码 " + routeCount + " 条路由消息，共 " + batchCount + " 帧"
+                    + (ackStream != null ? "，失败 " + errorCount.get() + " 条" : ""));
+        }
+    }
+}
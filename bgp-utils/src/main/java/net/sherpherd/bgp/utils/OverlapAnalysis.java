@@ -0,0 +1,286 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * 前缀重叠分析：找出被更短前缀覆盖的更具体前缀、覆盖它的最近的较短前缀，以及两者起源 AS 是否相同
+ * （起源不同的重叠可能是劫持，也可能是流量工程）。
+ *
+ * 两个地址家族共用一组并行数组，IPv4 地址放在 hi 的高 32 位，这样两者可以用同一套 128 位比较。
+ * 按 (家族, 起始地址, 长度) 排序后扫描一遍：前缀之间只有包含或不相交两种关系，栈里保存仍可能覆盖后续前缀的区间，
+ * 栈顶就是当前前缀最近的覆盖者，总复杂度 O(n log n)。重复的前缀只保留第一次出现的。
+ */
+final class OverlapAnalysis {
+    static final String CSV_HEADER = "prefix,origin_as,covering_prefix,covering_origin_as,relation";
+    static final String SAME_ORIGIN = "same-origin";
+    static final String DIFFERENT_ORIGIN = "different-origin";
+    static final String UNKNOWN_ORIGIN = "unknown-origin";
+    private static final int REPORT_EXAMPLES = 10;
+
+    private byte[] family = new byte[1024];
+    private long[] hi = new long[1024];
+    private long[] lo = new long[1024];
+    private byte[] len = new byte[1024];
+    private int[] origin = new int[1024];
+    private String[] prefix = new String[1024];
+    private int size;
+    private long invalid;
+    private final long[] tmp = new long[3];
+
+    // analyze() 的结果：covered[i] 被 covering[i] 覆盖，按排序顺序排列
+    private int[] covered;
+    private int[] covering;
+    private int overlaps;
+    private int coveringPrefixes;
+    private int sameOrigin;
+    private int differentOrigin;
+
+    /**
+     * 写入一条路由 {prefix, as_path, ...}，无效前缀只计数
+     */
+    void add(String[] route) {
+        if (route == null || route.length == 0 || route[0] == null) {
+            invalid++;
+            return;
+        }
+        String cidr = route[0].trim();
+        long addrHi;
+        long addrLo;
+        int length;
+        int fam = PackedPrefix.family(cidr);
+        if (fam == PackedPrefix.FAMILY_IPV4) {
+            long packed = PackedPrefix.parseIPv4(cidr);
+            if (packed < 0) {
+                invalid++;
+                return;
+            }
+            addrHi = PackedPrefix.ipv4Address(packed) << 32;
+            addrLo = 0L;
+            length = PackedPrefix.ipv4Length(packed);
+        } else {
+            if (!PackedPrefix.parseIPv6(cidr, tmp)) {
+                invalid++;
+                return;
+            }
+            fam = PackedPrefix.FAMILY_IPV6;
+            addrHi = tmp[0];
+            addrLo = tmp[1];
+            length = (int) tmp[2];
+        }
+        if (size == family.length) grow();
+        family[size] = (byte) fam;
+        hi[size] = addrHi;
+        lo[size] = addrLo;
+        len[size] = (byte) length;
+        origin[size] = route.length > 1 ? RouteStatistics.originAs(route[1]) : 0;
+        prefix[size] = cidr;
+        size++;
+        covered = null;
+    }
+
+    void addAll(Collection<String[]> routes) {
+        for (String[] route : routes) add(route);
+    }
+
+    /**
+     * 从 CSV 文件逐行读取 prefix 和 as_path 两列
+     */
+    static OverlapAnalysis ofCsv(String csvPath) throws IOException {
+        OverlapAnalysis analysis = new OverlapAnalysis();
+        CSVProvider.readPrefixPaths(csvPath, analysis::add);
+        return analysis;
+    }
+
+    /**
+     * 排序并扫描，结果缓存到下一次 add() 之前
+     */
+    OverlapAnalysis analyze() {
+        if (covered != null) return this;
+        int[] order = sort();
+        covered = new int[Math.max(1, size)];
+        covering = new int[Math.max(1, size)];
+        boolean[] isCovering = new boolean[size];
+        int[] stack = new int[129];
+        long[] endHi = new long[129];
+        long[] endLo = new long[129];
+        int depth = 0;
+        int n = 0;
+        int prev = -1;
+        for (int idx : order) {
+            if (prev >= 0 && samePrefix(prev, idx)) continue;
+            if (prev >= 0 && family[prev] != family[idx]) depth = 0;
+            prev = idx;
+            while (depth > 0 && PackedPrefix.compareIPv6(endHi[depth - 1], endLo[depth - 1], hi[idx], lo[idx]) < 0) {
+                depth--;
+            }
+            if (depth > 0) {
+                covered[n] = idx;
+                covering[n] = stack[depth - 1];
+                isCovering[stack[depth - 1]] = true;
+                n++;
+            }
+            stack[depth] = idx;
+            // IPv4 的 lo 恒为 0，区间终点只看 hi
+            int length = len[idx] & 0xff;
+            endHi[depth] = hi[idx] | ~PackedPrefix.ipv6MaskHi(length);
+            endLo[depth] = family[idx] == PackedPrefix.FAMILY_IPV4 ? 0L : lo[idx] | ~PackedPrefix.ipv6MaskLo(length);
+            depth++;
+        }
+        overlaps = n;
+        coveringPrefixes = 0;
+        for (boolean c : isCovering) {
+            if (c) coveringPrefixes++;
+        }
+        sameOrigin = 0;
+        differentOrigin = 0;
+        for (int i = 0; i < n; i++) {
+            String relation = relation(i);
+            if (relation == SAME_ORIGIN) sameOrigin++;
+            if (relation == DIFFERENT_ORIGIN) differentOrigin++;
+        }
+        return this;
+    }
+
+    /**
+     * 被较短前缀覆盖的更具体前缀数
+     */
+    int overlapCount() {
+        return analyze().overlaps;
+    }
+
+    /**
+     * 至少覆盖一条更具体前缀的前缀数，只计最近的覆盖者
+     */
+    int coveringCount() {
+        return analyze().coveringPrefixes;
+    }
+
+    int sameOriginCount() {
+        return analyze().sameOrigin;
+    }
+
+    int differentOriginCount() {
+        return analyze().differentOrigin;
+    }
+
+    long invalidPrefixes() {
+        return invalid;
+    }
+
+    /**
+     * 第 i 条重叠，格式与 CSV 行相同：{prefix, origin_as, covering_prefix, covering_origin_as, relation}
+     */
+    String[] overlap(int i) {
+        analyze();
+        if (i < 0 || i >= overlaps) {
+            throw new IndexOutOfBoundsException("索引超出范围: " + i);
+        }
+        int a = covered[i];
+        int b = covering[i];
+        return new String[]{prefix[a], originText(origin[a]), prefix[b], originText(origin[b]), relation(i)};
+    }
+
+    /**
+     * 按地址顺序写出全部重叠，IPv4 在前
+     */
+    void writeCsv(String csvPath) throws IOException {
+        analyze();
+        File target = new File(csvPath);
+        File parentDir = target.getAbsoluteFile().getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(target), 1 << 16)) {
+            w.write(CSV_HEADER);
+            w.newLine();
+            for (int i = 0; i < overlaps; i++) {
+                w.write(String.join(",", overlap(i)));
+                w.newLine();
+            }
+        }
+    }
+
+    String report() {
+        analyze();
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== 前缀重叠分析 ===\n");
+        sb.append("前缀 ").append(size).append(" 条（无效 ").append(invalid).append(" 条）\n");
+        sb.append("被覆盖的更具体前缀 ").append(overlaps).append(" 条，覆盖它们的较短前缀 ")
+                .append(coveringPrefixes).append(" 条\n");
+        sb.append("起源 AS 相同 ").append(sameOrigin).append(" 条，不同 ").append(differentOrigin)
+                .append(" 条，未知 ").append(overlaps - sameOrigin - differentOrigin).append(" 条\n");
+        int shown = 0;
+        for (int i = 0; i < overlaps && shown < REPORT_EXAMPLES; i++) {
+            if (relation(i) != DIFFERENT_ORIGIN) continue;
+            String[] row = overlap(i);
+            sb.append("  ").append(row[0]).append(" AS").append(row[1])
+                    .append(" ⊂ ").append(row[2]).append(" AS").append(row[3]).append('\n');
+            shown++;
+        }
+        if (differentOrigin > shown) {
+            sb.append("  ……另有 ").append(differentOrigin - shown).append(" 条起源不同的重叠\n");
+        }
+        return sb.toString();
+    }
+
+    private String relation(int i) {
+        int a = origin[covered[i]];
+        int b = origin[covering[i]];
+        if (a == 0 || b == 0) return UNKNOWN_ORIGIN;
+        return a == b ? SAME_ORIGIN : DIFFERENT_ORIGIN;
+    }
+
+    private static String originText(int asn) {
+        return asn == 0 ? "" : Long.toString(asn & 0xffffffffL);
+    }
+
+    private boolean samePrefix(int a, int b) {
+        return family[a] == family[b] && hi[a] == hi[b] && lo[a] == lo[b] && len[a] == len[b];
+    }
+
+    private int compare(int a, int b) {
+        if (family[a] != family[b]) return Integer.compare(family[a], family[b]);
+        int c = PackedPrefix.compareIPv6(hi[a], lo[a], hi[b], lo[b]);
+        return c != 0 ? c : Integer.compare(len[a] & 0xff, len[b] & 0xff);
+    }
+
+    /**
+     * 按 (家族, 起始地址, 长度) 稳定归并排序，返回下标顺序；长度相同的重复前缀保持输入顺序
+     */
+    private int[] sort() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        int[] tmp = new int[size];
+        for (int width = 1; width < size; width <<= 1) {
+            for (int start = 0; start < size - width; start += width << 1) {
+                int mid = start + width;
+                int end = Math.min(start + (width << 1), size);
+                int i = start;
+                int j = mid;
+                int k = start;
+                while (i < mid && j < end) {
+                    tmp[k++] = compare(order[j], order[i]) < 0 ? order[j++] : order[i++];
+                }
+                while (i < mid) tmp[k++] = order[i++];
+                while (j < end) tmp[k++] = order[j++];
+                System.arraycopy(tmp, start, order, start, end - start);
+            }
+        }
+        return order;
+    }
+
+    private void grow() {
+        int capacity = family.length * 2;
+        family = Arrays.copyOf(family, capacity);
+        hi = Arrays.copyOf(hi, capacity);
+        lo = Arrays.copyOf(lo, capacity);
+        len = Arrays.copyOf(len, capacity);
+        origin = Arrays.copyOf(origin, capacity);
+        prefix = Arrays.copyOf(prefix, capacity);
+    }
+}
@@ -0,0 +1,255 @@
+package net.sherpherd.bgp.utils;
+
+/**
+ * 前缀的紧凑数值表示。
+ * IPv4 前缀压缩为一个 long：高位为网络地址（32位无符号），低 8 位为前缀长度；
+ * IPv6 前缀拆分为 hi/lo 两个 long 与一个前缀长度。
+ * 所有解析方法都不依赖 InetAddress，失败时返回 -1 / false 而不是抛出异常。
+ */
+final class PackedPrefix {
+    static final int FAMILY_NONE = 0;
+    static final int FAMILY_IPV4 = 4;
+    static final int FAMILY_IPV6 = 6;
+
+    private PackedPrefix() {
+    }
+
+    /**
+     * 粗略判断前缀所属地址家族（只看分隔符，不做完整校验）
+     */
+    static int family(String cidr) {
+        if (cidr == null || cidr.isEmpty()) return FAMILY_NONE;
+        return cidr.indexOf(':') >= 0 ? FAMILY_IPV6 : FAMILY_IPV4;
+    }
+
+    // ---------------- IPv4 ----------------
+
+    /**
+     * 解析 IPv4 前缀，返回 (网络地址 << 8) | 前缀长度；主机位会被清零。
+     * @return 打包后的值，无效时返回 -1
+     */
+    static long parseIPv4(String cidr) {
+        if (cidr == null) return -1;
+        int slash = cidr.indexOf('/');
+        if (slash <= 0 || slash == cidr.length() - 1) return -1;
+        long addr = parseIPv4Address(cidr, 0, slash);
+        if (addr < 0) return -1;
+        int len = parseDecimal(cidr, slash + 1, cidr.length());
+        if (len < 0 || len > 32) return -1;
+        return ((addr & ipv4Mask(len)) << 8) | len;
+    }
+
+    /**
+     * 解析不带前缀长度的 IPv4 地址
+     * @return 32位无符号地址，无效时返回 -1
+     */
+    static long parseIPv4Address(String ip) {
+        if (ip == null) return -1;
+        return parseIPv4Address(ip, 0, ip.length());
+    }
+
+    private static long parseIPv4Address(String s, int from, int to) {
+        long addr = 0;
+        int octets = 0;
+        int value = -1;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) return -1;
+            } else if (c == '.') {
+                if (value < 0 || octets == 3) return -1;
+                addr = (addr << 8) | value;
+                octets++;
+                value = -1;
+            } else {
+                return -1;
+            }
+        }
+        if (value < 0 || octets != 3) return -1;
+        return ((addr << 8) | value) & 0xffffffffL;
+    }
+
+    static long ipv4Address(long packed) {
+        return packed >>> 8;
+    }
+
+    static int ipv4Length(long packed) {
+        return (int) (packed & 0xff);
+    }
+
+    static long ipv4Mask(int len) {
+        return len == 0 ? 0L : (0xffffffffL << (32 - len)) & 0xffffffffL;
+    }
+
+    static String formatIPv4(long addr, int len) {
+        StringBuilder sb = new StringBuilder(18);
+        appendIPv4(sb, addr);
+        return sb.append('/').append(len).toString();
+    }
+
+    static String formatIPv4Address(long addr) {
+        StringBuilder sb = new StringBuilder(15);
+        appendIPv4(sb, addr);
+        return sb.toString();
+    }
+
+    private static void appendIPv4(StringBuilder sb, long addr) {
+        sb.append((addr >>> 24) & 0xff).append('.')
+          .append((addr >>> 16) & 0xff).append('.')
+          .append((addr >>> 8) & 0xff).append('.')
+          .append(addr & 0xff);
+    }
+
+    // ---------------- IPv6 ----------------
+
+    /**
+     * 解析 IPv6 前缀到 out：out[0]=高64位，out[1]=低64位，out[2]=前缀长度；主机位会被清零。
+     * @return 解析成功返回 true
+     */
+    static boolean parseIPv6(String cidr, long[] out) {
+        if (cidr == null) return false;
+        int slash = cidr.indexOf('/');
+        if (slash <= 0 || slash == cidr.length() - 1) return false;
+        if (!parseIPv6Address(cidr, 0, slash, out)) return false;
+        int len = parseDecimal(cidr, slash + 1, cidr.length());
+        if (len < 0 || len > 128) return false;
+        out[0] &= ipv6MaskHi(len);
+        out[1] &= ipv6MaskLo(len);
+        out[2] = len;
+        return true;
+    }
+
+    /**
+     * 解析不带前缀长度的 IPv6 地址到 out[0]/out[1]
+     */
+    static boolean parseIPv6Address(String ip, long[] out) {
+        return ip != null && parseIPv6Address(ip, 0, ip.length(), out);
+    }
+
+    private static boolean parseIPv6Address(String s, int from, int to, long[] out) {
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int i = from;
+        if (to - from >= 2 && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+            gap = 0;
+            i += 2;
+        }
+        while (i < to) {
+            int start = i;
+            int value = 0;
+            while (i < to && isHex(s.charAt(i))) {
+                value = (value << 4) | Character.digit(s.charAt(i), 16);
+                i++;
+                if (i - start > 4) return false;
+            }
+            if (i < to && s.charAt(i) == '.') {
+                // 末尾内嵌的 IPv4 地址，例如 ::ffff:192.0.2.1
+                long v4 = parseIPv4Address(s, start, to);
+                if (v4 < 0 || count > 6) return false;
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xffff);
+                i = to;
+                break;
+            }
+            if (i == start) return false;
+            if (count == 8) return false;
+            groups[count++] = value;
+            if (i == to) break;
+            if (s.charAt(i) != ':') return false;
+            i++;
+            if (i < to && s.charAt(i) == ':') {
+                if (gap >= 0) return false;
+                gap = count;
+                i++;
+            } else if (i == to) {
+                return false;
+            }
+        }
+        if (gap < 0 && count != 8) return false;
+        if (gap >= 0 && count > 7) return false;
+        long hi = 0;
+        long lo = 0;
+        int zeros = 8 - count;
+        int g = 0;
+        for (int k = 0; k < 8; k++) {
+            int value;
+            if (gap >= 0 && k >= gap && k < gap + zeros) {
+                value = 0;
+            } else {
+                value = groups[g++];
+            }
+            if (k < 4) {
+                hi = (hi << 16) | value;
+            } else {
+                lo = (lo << 16) | value;
+            }
+        }
+        out[0] = hi;
+        out[1] = lo;
+        return true;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    static long ipv6MaskHi(int len) {
+        if (len <= 0) return 0L;
+        if (len >= 64) return -1L;
+        return -1L << (64 - len);
+    }
+
+    static long ipv6MaskLo(int len) {
+        if (len <= 64) return 0L;
+        if (len >= 128) return -1L;
+        return -1L << (128 - len);
+    }
+
+    /**
+     * 按 InetAddress.getHostAddress() 的风格（不压缩零段）格式化 IPv6 前缀，
+     * 与现有 CSV 输出保持一致
+     */
+    static String formatIPv6(long hi, long lo, int len) {
+        StringBuilder sb = new StringBuilder(44);
+        appendIPv6(sb, hi, lo);
+        return sb.append('/').append(len).toString();
+    }
+
+    static String formatIPv6Address(long hi, long lo) {
+        StringBuilder sb = new StringBuilder(39);
+        appendIPv6(sb, hi, lo);
+        return sb.toString();
+    }
+
+    private static void appendIPv6(StringBuilder sb, long hi, long lo) {
+        for (int k = 0; k < 8; k++) {
+            long word = k < 4 ? hi : lo;
+            int shift = 48 - 16 * (k & 3);
+            if (k > 0) sb.append(':');
+            sb.append(Integer.toHexString((int) ((word >>> shift) & 0xffff)));
+        }
+    }
+
+    /**
+     * 按无符号 128 位比较两个 IPv6 地址
+     */
+    static int compareIPv6(long hi1, long lo1, long hi2, long lo2) {
+        int c = Long.compareUnsigned(hi1, hi2);
+        return c != 0 ? c : Long.compareUnsigned(lo1, lo2);
+    }
+
+    // ---------------- helpers ----------------
+
+    private static int parseDecimal(String s, int from, int to) {
+        if (from >= to || to - from > 3) return -1;
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+}
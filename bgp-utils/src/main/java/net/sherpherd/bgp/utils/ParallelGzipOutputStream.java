@@ -0,0 +1,157 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * pigz 风格的并行 gzip 输出流。
+ *
+ * 数据按固定大小切块，每块在线程池中独立压缩为一个完整的 gzip member，再按原顺序写出。
+ * 多个 member 首尾相接仍是合法的 gzip 文件（RFC 1952），gzip/zcat/GZIPInputStream 均可直接读取。
+ * 同时在途的块数受限，内存占用约为 块大小 × 线程数 × 2。
+ */
+class ParallelGzipOutputStream extends OutputStream {
+    static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    private final int blockSize;
+    private final int level;
+    private byte[] block;
+    private int count;
+    private boolean closed;
+
+    ParallelGzipOutputStream(OutputStream out, int threads) {
+        this(out, threads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param out 底层输出流
+     * @param threads 压缩线程数
+     * @param blockSize 每个压缩块的大小（字节）
+     * @param level 压缩级别（0-9，或 Deflater.DEFAULT_COMPRESSION）
+     */
+    ParallelGzipOutputStream(OutputStream out, int threads, int blockSize, int level) {
+        if (threads <= 0 || blockSize <= 0) {
+            throw new IllegalArgumentException("线程数和块大小必须大于0");
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.maxPending = threads * 2;
+        this.block = new byte[blockSize];
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(RouteMetrics.propagate(r), "gzip-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * 将当前未满的块也压缩写出；频繁调用会产生很多小 member，降低压缩率
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0) {
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        pending.add(pool.submit(() -> compress(data, length)));
+        block = new byte[blockSize];
+        count = 0;
+        while (pending.size() >= maxPending) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> next = pending.poll();
+        try {
+            out.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待压缩线程时被中断");
+        } catch (ExecutionException e) {
+            throw new IOException("压缩数据块失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private byte[] compress(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 3 + 64);
+        try (GZIPOutputStream gz = new LeveledGZIPOutputStream(bos, level)) {
+            gz.write(data, 0, length);
+        }
+        return bos.toByteArray();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("输出流已关闭");
+        }
+    }
+
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+        LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 以内容寻址的转换结果缓存。
+ *
+ * 键是以下内容的 SHA-256：缓存格式版本、工具版本、转换类型、输入指纹、过滤条件（去重排序）、聚合标记、
+ * 输出是否 gzip。输入指纹默认是输入文件内容的 SHA-256（同一进程内按路径、大小、修改时间复用），
+ * 也可以只用大小和修改时间（{@link InputKey#STAT}）。命中时直接把缓存文件复制为输出文件。
+ * 缓存目录中每个结果一个文件，文件修改时间作为最近使用时间，总大小超过上限时按最近最少使用淘汰。
+ * 多个进程可以共用同一目录：写入先落到临时文件再原子改名，读取时文件被其他进程淘汰按未命中处理。
+ */
+final class ResultCache {
+    /**
+     * 输入指纹的计算方式
+     */
+    enum InputKey {
+        /** 输入文件内容的 SHA-256 */
+        CONTENT,
+        /** 输入文件的规范路径、大小和修改时间 */
+        STAT
+    }
+
+    /** 缓存内容格式或转换输出格式变化时递增，使旧缓存失效 */
+    static final int FORMAT_VERSION = 1;
+    static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+    private static final String TOOL_VERSION = detectToolVersion();
+
+    private static final RouteMetrics.Counter HITS = RouteMetrics.counter(RouteMetrics.CACHE_HITS);
+    private static final RouteMetrics.Counter MISSES = RouteMetrics.counter(RouteMetrics.CACHE_MISSES);
+    private static final RouteMetrics.Counter EVICTIONS = RouteMetrics.counter(RouteMetrics.CACHE_EVICTIONS);
+    private static final RouteMetrics.Counter BYTES_SERVED = RouteMetrics.counter(RouteMetrics.CACHE_BYTES_SERVED);
+
+    private final File dir;
+    private final long maxBytes;
+    private final InputKey inputKey;
+    /** 规范路径|大小|修改时间 → 内容摘要 */
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    ResultCache(File dir, long maxBytes, InputKey inputKey) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("缓存大小上限必须大于0: " + maxBytes);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new RuntimeException("无法创建缓存目录: " + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.inputKey = inputKey == null ? InputKey.CONTENT : inputKey;
+    }
+
+    /**
+     * 按系统属性 bgp.cache.dir / bgp.cache.max.bytes / bgp.cache.key (content|stat) 创建缓存，
+     * 未设置 bgp.cache.dir 时返回 null
+     */
+    static ResultCache fromSystemProperties() {
+        String dir = System.getProperty("bgp.cache.dir");
+        if (dir == null || dir.isEmpty()) return null;
+        String size = System.getProperty("bgp.cache.max.bytes");
+        String key = System.getProperty("bgp.cache.key");
+        return new ResultCache(new File(dir), size == null ? DEFAULT_MAX_BYTES : parseSize(size), parseInputKey(key));
+    }
+
+    static InputKey parseInputKey(String value) {
+        if (value == null || value.isEmpty() || "content".equalsIgnoreCase(value)) return InputKey.CONTENT;
+        if ("stat".equalsIgnoreCase(value)) return InputKey.STAT;
+        throw new IllegalArgumentException("无效的缓存键方式: " + value + "（应为 content 或 stat）");
+    }
+
+    /**
+     * 解析字节数，支持 K/M/G 后缀（1024 进制）
+     */
+    static long parseSize(String value) {
+        String v = value.trim().toUpperCase();
+        long unit = 1;
+        if (v.endsWith("B")) v = v.substring(0, v.length() - 1);
+        if (v.endsWith("K")) {
+            unit = 1L << 10;
+        } else if (v.endsWith("M")) {
+            unit = 1L << 20;
+        } else if (v.endsWith("G")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) v = v.substring(0, v.length() - 1);
+        try {
+            return Long.parseLong(v.trim()) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的大小: " + value);
+        }
+    }
+
+    /**
+     * 计算一次转换的缓存键
+     * @param conversion 转换类型，不同转换（或同一转换的不同实现）必须使用不同的名称
+     * @param inputPath 输入文件
+     * @param aspathRegex AS_PATH 过滤条件，可为 null
+     * @param aggregate 是否聚合
+     * @param outputPath 输出文件，只取其是否 gzip
+     */
+    String key(String conversion, String inputPath, List<String> aspathRegex, boolean aggregate, String outputPath) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("bgp-utils-cache/").append(FORMAT_VERSION).append('\n')
+                .append(TOOL_VERSION).append('\n')
+                .append(conversion).append('\n')
+                .append(fingerprint(inputPath)).append('\n');
+        if (aspathRegex != null) {
+            for (String regex : new TreeSet<>(aspathRegex)) {
+                sb.append("regex:").append(regex).append('\n');
+            }
+        }
+        sb.append("aggregate:").append(aggregate).append('\n')
+                .append("gzip:").append(outputPath.toLowerCase().endsWith(DataProvider.GZIP_SUFFIX));
+        return hex(sha256().digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 命中时把缓存结果复制到输出文件
+     * @return 是否命中
+     */
+    boolean restore(String key, String outputPath) {
+        File entry = entry(key);
+        try {
+            Files.copy(entry.toPath(), new File(outputPath).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            long size = entry.length();
+            // 修改时间即最近使用时间
+            entry.setLastModified(System.currentTimeMillis());
+            HITS.increment();
+            BYTES_SERVED.add(size);
+            if (Main.verbose) {
+                System.out.println("结果缓存命中: " + outputPath + " <- " + entry.getName());
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            MISSES.increment();
+            return false;
+        } catch (IOException e) {
+            MISSES.increment();
+            if (Main.verbose) {
+                System.err.println("读取缓存失败，重新计算: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 把输出文件存入缓存；失败只影响缓存，不影响本次转换
+     */
+    void store(String key, String outputPath) {
+        File output = new File(outputPath);
+        if (!output.isFile()) return;
+        if (output.length() > maxBytes) {
+            if (Main.verbose) {
+                System.out.println("输出大于缓存上限，不缓存: " + outputPath);
+            }
+            return;
+        }
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(dir.toPath(), ".", ".tmp");
+            Files.copy(output.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(tmp, entry(key).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException e) {
+            if (Main.verbose) {
+                System.err.println("写入缓存失败: " + e.getMessage());
+            }
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        evict();
+    }
+
+    /**
+     * 总大小超过上限时按修改时间从旧到新删除缓存文件
+     */
+    synchronized void evict() {
+        File[] files = dir.listFiles(f -> f.isFile() && !f.getName().startsWith("."));
+        if (files == null) return;
+        long total = 0;
+        long[][] entries = new long[files.length][];
+        for (int i = 0; i < files.length; i++) {
+            // {修改时间, 大小, 下标}，排序期间修改时间可能被其他线程更新，先取快照
+            entries[i] = new long[]{files[i].lastModified(), files[i].length(), i};
+            total += entries[i][1];
+        }
+        if (total <= maxBytes) return;
+        Arrays.sort(entries, Comparator.comparingLong(e -> e[0]));
+        for (long[] e : entries) {
+            if (total <= maxBytes) break;
+            if (files[(int) e[2]].delete()) {
+                total -= e[1];
+                EVICTIONS.increment();
+            }
+        }
+    }
+
+    /**
+     * 缓存目录中所有结果的总字节数
+     */
+    long size() {
+        File[] files = dir.listFiles(f -> f.isFile() && !f.getName().startsWith("."));
+        long total = 0;
+        if (files != null) {
+            for (File f : files) total += f.length();
+        }
+        return total;
+    }
+
+    File getDirectory() {
+        return dir;
+    }
+
+    private File entry(String key) {
+        return new File(dir, key);
+    }
+
+    private String fingerprint(String inputPath) {
+        File file = new File(inputPath);
+        String stat;
+        try {
+            stat = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified();
+        } catch (IOException e) {
+            throw new RuntimeException("无法读取输入文件信息: " + inputPath + " - " + e.getMessage(), e);
+        }
+        if (inputKey == InputKey.STAT) {
+            return "stat:" + stat;
+        }
+        return "sha256:" + fingerprints.computeIfAbsent(stat, k -> digestFile(file));
+    }
+
+    private static String digestFile(File file) {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("计算输入文件摘要失败: " + file + " - " + e.getMessage(), e);
+        }
+        return hex(md.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("JVM 不支持 SHA-256", e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * jar 的 Implementation-Version；没有时用 jar 的大小和修改时间，重新构建后旧缓存自动失效。
+     * 从 classes 目录运行（开发、测试）时为 dev
+     */
+    private static String detectToolVersion() {
+        String version = ResultCache.class.getPackage() != null
+                ? ResultCache.class.getPackage().getImplementationVersion() : null;
+        if (version != null) return version;
+        try {
+            URL location = ResultCache.class.getProtectionDomain().getCodeSource().getLocation();
+            File jar = new File(location.toURI());
+            if (jar.isFile()) {
+                return "jar:" + jar.length() + ":" + jar.lastModified();
+            }
+        } catch (Exception ignored) {
+        }
+        return "dev";
+    }
+}
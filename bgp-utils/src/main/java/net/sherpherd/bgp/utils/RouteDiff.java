@@ -0,0 +1,288 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * 两张路由表的差异：新增前缀、删除前缀、起源 AS 变化和 AS_PATH 变化（起源不变）。
+ *
+ * 两侧都按打包前缀 (地址家族, 地址, 前缀长度) 有序后做一遍流式归并连接。快照本身已排序，直接按全局索引顺序读取；
+ * CSV 和 MRT 先经 {@link ExternalRouteSorter} 归约为每个前缀一条最短 AS_PATH 路由，超过内存预算的部分写入临时有序段，
+ * 因此内存只取决于预算和归并缓冲。
+ */
+final class RouteDiff {
+    static final String CSV_HEADER = "change,prefix,old_as_path,new_as_path,old_origin_as,new_origin_as";
+    static final String ADDED = "added";
+    static final String REMOVED = "removed";
+    static final String ORIGIN_CHANGED = "origin-changed";
+    static final String PATH_CHANGED = "path-changed";
+
+    /** 未设置内存预算时每一侧使用的默认预算 */
+    static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+
+    private final DataProvider oldTable;
+    private final DataProvider newTable;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private File tempDir;
+
+    private long added;
+    private long removed;
+    private long originChanged;
+    private long pathChanged;
+    private long unchanged;
+
+    /**
+     * 差异的接收者
+     */
+    interface Sink {
+        /**
+         * @param change 变化类型：ADDED、REMOVED、ORIGIN_CHANGED 或 PATH_CHANGED
+         * @param oldRoute 旧表中的路由 {prefix, as_path, ...}，新增时为 null
+         * @param newRoute 新表中的路由，删除时为 null
+         */
+        void change(String change, String[] oldRoute, String[] newRoute) throws IOException;
+    }
+
+    RouteDiff(DataProvider oldTable, DataProvider newTable) {
+        if (oldTable == null || newTable == null) {
+            throw new IllegalArgumentException("比较的两个Provider不能为 null");
+        }
+        this.oldTable = oldTable;
+        this.newTable = newTable;
+    }
+
+    /**
+     * 每一侧排序时的内存预算（字节），快照输入不需要
+     */
+    RouteDiff memoryBudget(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("内存预算必须大于0: " + bytes);
+        }
+        this.memoryBudget = bytes;
+        return this;
+    }
+
+    /**
+     * 排序溢出的临时文件目录，为 null 时使用 java.io.tmpdir
+     */
+    RouteDiff spillDirectory(File dir) {
+        this.tempDir = dir;
+        return this;
+    }
+
+    /**
+     * 执行比较，按前缀顺序输出差异
+     * @return 差异条数
+     */
+    long run(Sink sink) throws IOException {
+        added = removed = originChanged = pathChanged = unchanged = 0;
+        try (ExternalRouteSorter oldSorter = new ExternalRouteSorter(memoryBudget, tempDir);
+             ExternalRouteSorter newSorter = new ExternalRouteSorter(memoryBudget, tempDir);
+             ExternalRouteSorter.Cursor a = open(oldTable, oldSorter);
+             ExternalRouteSorter.Cursor b = open(newTable, newSorter)) {
+            boolean hasA = a.advance();
+            boolean hasB = b.advance();
+            while (hasA || hasB) {
+                int c = !hasA ? 1 : !hasB ? -1 : compare(a, b);
+                if (c < 0) {
+                    removed++;
+                    sink.change(REMOVED, a.route(), null);
+                    hasA = a.advance();
+                } else if (c > 0) {
+                    added++;
+                    sink.change(ADDED, null, b.route());
+                    hasB = b.advance();
+                } else {
+                    String[] before = a.route();
+                    String[] after = b.route();
+                    if (RouteStatistics.originAs(before[1]) != RouteStatistics.originAs(after[1])) {
+                        originChanged++;
+                        sink.change(ORIGIN_CHANGED, before, after);
+                    } else if (!samePath(before[1], after[1])) {
+                        pathChanged++;
+                        sink.change(PATH_CHANGED, before, after);
+                    } else {
+                        unchanged++;
+                    }
+                    hasA = a.advance();
+                    hasB = b.advance();
+                }
+            }
+        }
+        return changes();
+    }
+
+    /**
+     * 执行比较并把差异写入 CSV 文件
+     * @return 差异条数
+     */
+    long writeCsv(String csvPath) throws IOException {
+        File target = new File(csvPath);
+        File parentDir = target.getAbsoluteFile().getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(target), 1 << 16)) {
+            w.write(CSV_HEADER);
+            w.newLine();
+            return run(csvSink(w));
+        }
+    }
+
+    static Sink csvSink(Writer w) {
+        return (change, oldRoute, newRoute) -> {
+            String[] route = newRoute != null ? newRoute : oldRoute;
+            w.write(change);
+            w.write(',');
+            w.write(route[0].trim());
+            w.write(',');
+            w.write(oldRoute == null ? "" : oldRoute[1].trim());
+            w.write(',');
+            w.write(newRoute == null ? "" : newRoute[1].trim());
+            w.write(',');
+            w.write(oldRoute == null ? "" : originText(oldRoute[1]));
+            w.write(',');
+            w.write(newRoute == null ? "" : originText(newRoute[1]));
+            w.write('\n');
+        };
+    }
+
+    long changes() {
+        return added + removed + originChanged + pathChanged;
+    }
+
+    long added() {
+        return added;
+    }
+
+    long removed() {
+        return removed;
+    }
+
+    long originChanged() {
+        return originChanged;
+    }
+
+    long pathChanged() {
+        return pathChanged;
+    }
+
+    long unchanged() {
+        return unchanged;
+    }
+
+    String summary() {
+        return "新增 " + added + " 条，删除 " + removed + " 条，起源 AS 变化 " + originChanged
+                + " 条，AS_PATH 变化 " + pathChanged + " 条，未变 " + unchanged + " 条";
+    }
+
+    /**
+     * 快照直接按顺序读取，其他输入先排序归约
+     */
+    private static ExternalRouteSorter.Cursor open(DataProvider in, ExternalRouteSorter sorter) throws IOException {
+        if (in instanceof SnapshotProvider) {
+            return new SnapshotCursor((SnapshotProvider) in);
+        }
+        String[] route;
+        while ((route = in.getNextRoute()) != null) {
+            if (route.length < 2) continue;
+            String[] row = Generate.toSnapshotRow(in, route);
+            if (!Analysis.isValidCIDR(row[0]) || !Analysis.isValidAsPath(row[1])) {
+                RouteLog.log(Generate.LOG_SKIP, "跳过无效路由: prefix={} AS_PATH={}", row[0], row[1]);
+                continue;
+            }
+            sorter.add(row);
+        }
+        if (in instanceof MRTProvider) {
+            ((MRTProvider) in).close();
+        }
+        return sorter.cursor();
+    }
+
+    private static int compare(ExternalRouteSorter.Cursor a, ExternalRouteSorter.Cursor b) {
+        int c = Integer.compare(a.family(), b.family());
+        if (c != 0) return c;
+        c = PackedPrefix.compareIPv6(a.hi(), a.lo(), b.hi(), b.lo());
+        return c != 0 ? c : Integer.compare(a.len(), b.len());
+    }
+
+    /**
+     * 按 ASN 序列比较，含 AS_SET 等无法解析的 AS_PATH 时比较去掉首尾空白的原文
+     */
+    static boolean samePath(String a, String b) {
+        int[] pa = AsPaths.parse(a);
+        int[] pb = AsPaths.parse(b);
+        if (pa != null && pb != null) return Arrays.equals(pa, pb);
+        return a.trim().equals(b.trim());
+    }
+
+    private static String originText(String aspath) {
+        int asn = RouteStatistics.originAs(aspath);
+        return asn == 0 ? "" : Long.toString(asn & 0xffffffffL);
+    }
+
+    /**
+     * 快照中的路由已按 (家族, 地址, 长度) 排序且每个前缀一条，与排序器的顺序一致
+     */
+    private static final class SnapshotCursor implements ExternalRouteSorter.Cursor {
+        private final SnapshotProvider snapshot;
+        private final long[] key = new long[3];
+        private int index = -1;
+        private int family;
+        private String[] route;
+
+        SnapshotCursor(SnapshotProvider snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean advance() {
+            if (++index >= snapshot.size()) return false;
+            route = snapshot.getRoute(index);
+            if (index < snapshot.ipv4Count()) {
+                long packed = PackedPrefix.parseIPv4(route[0]);
+                family = PackedPrefix.FAMILY_IPV4;
+                key[0] = PackedPrefix.ipv4Address(packed);
+                key[1] = 0L;
+                key[2] = PackedPrefix.ipv4Length(packed);
+            } else {
+                family = PackedPrefix.FAMILY_IPV6;
+                PackedPrefix.parseIPv6(route[0], key);
+            }
+            return true;
+        }
+
+        @Override
+        public int family() {
+            return family;
+        }
+
+        @Override
+        public long hi() {
+            return key[0];
+        }
+
+        @Override
+        public long lo() {
+            return key[1];
+        }
+
+        @Override
+        public int len() {
+            return (int) key[2];
+        }
+
+        @Override
+        public String[] route() {
+            return route;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.sherpherd.bgp.utils;
+
+/**
+ * JDK Flight Recorder 事件的入口。
+ *
+ * 运行环境提供 jdk.jfr 时，begin() 返回记录一次批处理的 {@link Span}，end() 时带上记录数、字节数和丢弃数提交事件；
+ * 没有 jdk.jfr（如旧版 Java 8）时始终返回空实现，不会加载任何 JFR 类。事件类型见 {@link RouteJfrEvents}，
+ * 随 CLI 提供的录制配置为 classpath 中的 bgp-utils.jfc。
+ */
+final class RouteEvents {
+    /**
+     * 事件对应的处理阶段
+     */
+    enum Phase {
+        /** 读取 MRT 记录 */
+        READ,
+        /** 解析 CSV / 纯文本行 */
+        PARSE,
+        VALIDATE,
+        FILTER,
+        AGGREGATE,
+        WRITE
+    }
+
+    /**
+     * 一次正在计时的批处理
+     */
+    interface Span {
+        /**
+         * @param records 处理的记录数（聚合为输入条数）
+         * @param bytes 涉及的字节数，未知时为 0
+         * @param rejected 丢弃的记录数（聚合为输出条数）
+         */
+        void end(long records, long bytes, long rejected);
+    }
+
+    static final Span NOOP = (records, bytes, rejected) -> {
+    };
+
+    static final boolean AVAILABLE = detect();
+
+    private RouteEvents() {
+    }
+
+    static Span begin(Phase phase) {
+        return AVAILABLE ? RouteJfrEvents.begin(phase) : NOOP;
+    }
+
+    private static boolean detect() {
+        try {
+            Class.forName("jdk.jfr.Event", false, RouteEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
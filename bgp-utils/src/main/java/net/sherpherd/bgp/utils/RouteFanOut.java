@@ -0,0 +1,351 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一次读取、多路输出。
+ *
+ * 输入只读取一遍；AS_PATH 过滤和归约按“不同的过滤条件”各做一次（过滤条件相同的输出共用一张表），
+ * 归约方式与 CSV 转换相同（最短 AS_PATH、BGP 选路或多路径，见 Generate.newReduction），
+ * 聚合结果按 (过滤条件, 是否聚合) 缓存共享，最后所有输出在线程池中并发写出。
+ * 启用结果缓存时，CSV、纯文本和快照输出先查缓存，全部命中时不再读取输入。
+ */
+class RouteFanOut {
+
+    /**
+     * 一个输出及其过滤/聚合设置
+     */
+    static final class Sink {
+        final DataProvider out;
+        final List<String> aspathRegex;
+        final boolean aggregate;
+        final String nexthop;
+
+        private Sink(DataProvider out, List<String> aspathRegex, boolean aggregate, String nexthop) {
+            if (out == null) {
+                throw new IllegalArgumentException("输出Provider不能为 null");
+            }
+            this.out = out;
+            this.aspathRegex = aspathRegex;
+            this.aggregate = aggregate;
+            this.nexthop = nexthop;
+        }
+
+        static Sink csv(CSVProvider out, List<String> aspathRegex, boolean aggregate) {
+            return new Sink(out, aspathRegex, aggregate, null);
+        }
+
+        static Sink rawText(RawTextProvider out, List<String> aspathRegex, boolean aggregate) {
+            return new Sink(out, aspathRegex, aggregate, null);
+        }
+
+        static Sink iproute2(Iproute2ScriptProvider out, String nexthop, List<String> aspathRegex, boolean aggregate) {
+            return new Sink(out, aspathRegex, aggregate, nexthop);
+        }
+
+        static Sink snapshot(SnapshotProvider out, List<String> aspathRegex, boolean aggregate) {
+            return new Sink(out, aspathRegex, aggregate, null);
+        }
+
+        /**
+         * 集合输出总是合并区间，aggregate 设置对其无意义
+         */
+        static Sink firewallSet(FirewallSetProvider out, List<String> aspathRegex) {
+            return new Sink(out, aspathRegex, false, null);
+        }
+
+        /**
+         * 过滤条件的规范形式：正则去重排序后拼接，空列表与 null 等价
+         */
+        String filterKey() {
+            if (aspathRegex == null || aspathRegex.isEmpty()) return "";
+            return String.join("\n", new TreeSet<>(aspathRegex));
+        }
+    }
+
+    /** 存在快照输出时，归约的行在原始路由之后追加快照列 */
+    private static final int SNAPSHOT_COLUMNS = 4;
+
+    private static final class FilterGroup {
+        final List<String> regex;
+        final RoutePipeline.Reduction reduction;
+
+        FilterGroup(List<String> regex, RoutePipeline.Reduction reduction) {
+            this.regex = regex;
+            this.reduction = reduction;
+        }
+
+        boolean accepts(String asPath) {
+            return RoutePipeline.matchesAny(asPath, regex);
+        }
+    }
+
+    private final DataProvider in;
+    private final List<Sink> sinks;
+    private final Map<String, FilterGroup> groups = new LinkedHashMap<>();
+    private final Map<String, CompletableFuture<List<String[]>>> views = new HashMap<>();
+    private boolean needSnapshotRows;
+    private long readCount;
+    private int cachedCount;
+
+    RouteFanOut(DataProvider in, List<Sink> sinks) {
+        if (in == null || sinks == null || sinks.isEmpty()) {
+            throw new IllegalArgumentException("输入Provider和输出列表不能为空");
+        }
+        this.in = in;
+        this.sinks = new ArrayList<>(sinks);
+    }
+
+    /**
+     * 读取输入并写出所有输出
+     * @param threads 写出线程数
+     */
+    void run(int threads) {
+        for (Sink sink : sinks) {
+            if (sink.out instanceof SnapshotProvider) {
+                Generate.checkSnapshotReduction();
+            }
+        }
+        Generate.checkInputFile(in.path);
+        for (Sink sink : sinks) {
+            Generate.prepareOutputFile(sink.out.path);
+        }
+
+        // 命中缓存的输出直接复制，不参与过滤和归约
+        List<Sink> pending = new ArrayList<>();
+        Map<Sink, String> cacheKeys = new HashMap<>();
+        for (Sink sink : sinks) {
+            String key = cacheKey(sink);
+            if (Generate.restoreResult(key, sink.out)) {
+                cachedCount++;
+                continue;
+            }
+            cacheKeys.put(sink, key);
+            pending.add(sink);
+        }
+        boolean mrt = in instanceof MRTProvider;
+        for (Sink sink : pending) {
+            groups.computeIfAbsent(sink.filterKey(), k -> new FilterGroup(sink.aspathRegex, Generate.newReduction(mrt)));
+            needSnapshotRows |= sink.out instanceof SnapshotProvider;
+        }
+
+        if (!pending.isEmpty()) {
+            read();
+        } else if (in instanceof MRTProvider) {
+            ((MRTProvider) in).close();
+        }
+
+        AtomicInteger seq = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(RouteMetrics.propagate(r), "fanout-writer-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            for (Sink sink : pending) {
+                writes.add(view(sink, pool).thenAcceptAsync(routes -> {
+                    write(sink, routes);
+                    Generate.storeResult(cacheKeys.get(sink), sink.out);
+                }, pool));
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException("写出失败: " + cause.getMessage(), cause);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (Main.verbose) {
+            RouteLog.flush();
+            System.out.println("多路输出完成：读取 " + readCount + " 条路由，" + groups.size() + " 组过滤条件，"
+                    + views.size() + " 个共享视图，" + sinks.size() + " 个输出（" + cachedCount + " 个来自缓存）");
+        }
+    }
+
+    private void read() {
+        boolean validate = in instanceof CSVProvider;
+        MRTProvider attributeSource = null;
+        for (FilterGroup group : groups.values()) {
+            if (in instanceof MRTProvider && group.reduction.needsAttributes()) {
+                attributeSource = (MRTProvider) in;
+            }
+        }
+        long seq = 0;
+        RoutePipeline.RouteBatch batch = newBatch(seq++, attributeSource != null);
+        String[] route;
+        while ((route = in.getNextRoute()) != null) {
+            if (route.length < 2) continue;
+            if (needSnapshotRows) {
+                // MRT 的 community/peer 只能在读到当前记录时获取
+                String[] snapshotRow = Generate.toSnapshotRow(in, route);
+                String[] row = Arrays.copyOf(route, route.length + SNAPSHOT_COLUMNS);
+                System.arraycopy(snapshotRow, 0, row, route.length, SNAPSHOT_COLUMNS);
+                route = row;
+            }
+            if (attributeSource != null) {
+                batch.attributes[batch.size] = attributeSource.getCurrentPathAttributes();
+            }
+            batch.rows[batch.size++] = route;
+            if (batch.size == batch.rows.length) {
+                reduce(batch, validate);
+                batch = newBatch(seq++, attributeSource != null);
+            }
+        }
+        if (batch.size > 0) {
+            reduce(batch, validate);
+        }
+        if (in instanceof MRTProvider) {
+            ((MRTProvider) in).close();
+        }
+    }
+
+    private static RoutePipeline.RouteBatch newBatch(long seq, boolean attributes) {
+        RoutePipeline.RouteBatch batch = new RoutePipeline.RouteBatch(seq, RoutePipeline.DEFAULT_BATCH_SIZE);
+        if (attributes) {
+            batch.attributes = new BestPathSelector.PathAttributes[RoutePipeline.DEFAULT_BATCH_SIZE];
+        }
+        return batch;
+    }
+
+    /**
+     * 与管道相同的 decode 和校验（CSV 输入），再把每条路由交给接受它的过滤组归约
+     */
+    private void reduce(RoutePipeline.RouteBatch batch, boolean validate) {
+        RoutePipeline.decode(batch);
+        if (validate) {
+            RoutePipeline.validate(batch);
+        }
+        for (int i = 0; i < batch.size; i++) {
+            if (!batch.keep[i]) continue;
+            readCount++;
+            for (FilterGroup group : groups.values()) {
+                if (group.accepts(batch.rows[i][1])) {
+                    group.reduction.offer(batch, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * 返回输出需要的路由视图；相同 (过滤条件, 聚合方式, 行格式) 的输出共享同一次计算
+     */
+    private synchronized CompletableFuture<List<String[]>> view(Sink sink, ExecutorService pool) {
+        FilterGroup group = groups.get(sink.filterKey());
+        boolean snapshot = sink.out instanceof SnapshotProvider;
+        // 只需要前缀的输出（纯文本、iproute2、集合）可以与 CSV 共用同一视图，聚合结果的前缀相同
+        String key = sink.filterKey() + "|" + sink.aggregate + "|" + (snapshot ? "snapshot" : "route");
+        return views.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+            List<String[]> reduced = group.reduction.routes();
+            List<String[]> rows = reduced;
+            if (needSnapshotRows) {
+                rows = new ArrayList<>(reduced.size());
+                for (String[] r : reduced) {
+                    rows.add(snapshot ? Arrays.copyOfRange(r, r.length - SNAPSHOT_COLUMNS, r.length)
+                            : Arrays.copyOf(r, r.length - SNAPSHOT_COLUMNS));
+                }
+            }
+            if (!sink.aggregate) return rows;
+            if (!snapshot && in instanceof CSVProvider) {
+                // 与 CSV 到 CSV 的转换一致，聚合后 AS_PATH 固定为 0
+                return Generate.aggregateRoutesWithFixedASPath(rows, "0");
+            }
+            return Generate.aggregateRoutes(rows);
+        }, pool));
+    }
+
+    /**
+     * 输出的缓存键；iproute2 和集合输出依赖 Provider 上的其他设置，不缓存
+     */
+    private String cacheKey(Sink sink) {
+        String kind;
+        if (sink.out instanceof CSVProvider) {
+            kind = "fanout-csv";
+        } else if (sink.out instanceof RawTextProvider) {
+            kind = "fanout-raw";
+        } else if (sink.out instanceof SnapshotProvider) {
+            kind = "fanout-snapshot";
+        } else {
+            return null;
+        }
+        return Generate.resultCacheKey(kind + Generate.reductionKind(in instanceof MRTProvider),
+                in, sink.out, sink.aspathRegex, sink.aggregate);
+    }
+
+    private void write(Sink sink, Collection<String[]> routes) {
+        // 多路径结果中同一前缀的路由相邻，只输出前缀的目标只写一次；聚合后前缀已唯一
+        boolean skipRepeats = !sink.aggregate && groups.get(sink.filterKey()).reduction.multiPath();
+        try {
+            if (sink.out instanceof CSVProvider) {
+                CSVProvider csv = (CSVProvider) sink.out;
+                csv.beginWrite();
+                for (String[] r : routes) {
+                    csv.writeRoute(r);
+                }
+                csv.endWrite();
+            } else if (sink.out instanceof RawTextProvider) {
+                RawTextProvider raw = (RawTextProvider) sink.out;
+                String previous = null;
+                for (String[] r : routes) {
+                    if (skipRepeats && r[0].equals(previous)) continue;
+                    previous = r[0];
+                    raw.setRoute(-1, new String[]{r[0]});
+                }
+                raw.writeToFile();
+            } else if (sink.out instanceof Iproute2ScriptProvider) {
+                Iproute2ScriptProvider script = (Iproute2ScriptProvider) sink.out;
+                script.initializeWriter();
+                String previous = null;
+                for (String[] r : routes) {
+                    if (skipRepeats && r[0].equals(previous)) continue;
+                    previous = r[0];
+                    script.addRoute(r[0], sink.nexthop);
+                }
+                script.close();
+            } else if (sink.out instanceof SnapshotProvider) {
+                SnapshotProvider snapshot = (SnapshotProvider) sink.out;
+                for (String[] r : routes) {
+                    snapshot.setRoute(-1, r);
+                }
+                snapshot.writeToFile();
+            } else if (sink.out instanceof FirewallSetProvider) {
+                FirewallSetProvider set = (FirewallSetProvider) sink.out;
+                for (String[] r : routes) {
+                    set.setRoute(-1, r);
+                }
+                set.writeToFile();
+            } else {
+                throw new IllegalArgumentException("不支持的输出类型: " + sink.out.getClass().getSimpleName());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("写入输出文件失败: " + sink.out.path + " - " + e.getMessage(), e);
+        }
+    }
+
+    int filterGroupCount() {
+        return groups.size();
+    }
+
+    int viewCount() {
+        return views.size();
+    }
+
+    int cachedCount() {
+        return cachedCount;
+    }
+}
@@ -0,0 +1,107 @@
+package net.sherpherd.bgp.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 自定义 JFR 事件类型，只能经由 {@link RouteEvents} 在 jdk.jfr 可用时加载。
+ * 每个事件对应一批记录，而不是一条路由；未启用录制时 isEnabled() 为 false，begin() 直接返回空实现。
+ */
+final class RouteJfrEvents {
+    static final String PREFIX = "net.sherpherd.bgp.";
+
+    private RouteJfrEvents() {
+    }
+
+    @Category({"BGP Utils", "Routes"})
+    @StackTrace(false)
+    abstract static class RouteBatchEvent extends Event {
+        @Label("Records")
+        @Description("处理的记录数")
+        long records;
+
+        @Label("Bytes")
+        @Description("MRT 读取为文件字节数，文本解析、写出为按 CSV 估计的字符数，Analysis 聚合为输入文件大小")
+        @DataAmount
+        long bytes;
+
+        @Label("Rejected")
+        @Description("丢弃的记录数")
+        long rejected;
+    }
+
+    @Name(PREFIX + "Read")
+    @Label("MRT Read")
+    @Description("从 MRT 文件读取一批路由")
+    static final class ReadEvent extends RouteBatchEvent {
+    }
+
+    @Name(PREFIX + "Parse")
+    @Label("Text Parse")
+    @Description("从 CSV / 纯文本文件解析一批路由")
+    static final class ParseEvent extends RouteBatchEvent {
+    }
+
+    @Name(PREFIX + "Validate")
+    @Label("Validate")
+    static final class ValidateEvent extends RouteBatchEvent {
+    }
+
+    @Name(PREFIX + "Filter")
+    @Label("AS_PATH Filter")
+    static final class FilterEvent extends RouteBatchEvent {
+    }
+
+    @Name(PREFIX + "Aggregate")
+    @Label("Aggregate")
+    @Description("前缀聚合：records 为输入条数，rejected 为输出条数")
+    static final class AggregateEvent extends RouteBatchEvent {
+    }
+
+    @Name(PREFIX + "Write")
+    @Label("Provider Write")
+    static final class WriteEvent extends RouteBatchEvent {
+    }
+
+    static RouteEvents.Span begin(RouteEvents.Phase phase) {
+        RouteBatchEvent event;
+        switch (phase) {
+            case READ:
+                event = new ReadEvent();
+                break;
+            case PARSE:
+                event = new ParseEvent();
+                break;
+            case VALIDATE:
+                event = new ValidateEvent();
+                break;
+            case FILTER:
+                event = new FilterEvent();
+                break;
+            case AGGREGATE:
+                event = new AggregateEvent();
+                break;
+            default:
+                event = new WriteEvent();
+                break;
+        }
+        if (!event.isEnabled()) {
+            return RouteEvents.NOOP;
+        }
+        event.begin();
+        return (records, bytes, rejected) -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.records = records;
+                event.bytes = bytes;
+                event.rejected = rejected;
+                event.commit();
+            }
+        };
+    }
+}
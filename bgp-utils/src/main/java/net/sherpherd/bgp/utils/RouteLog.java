@@ -0,0 +1,215 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 逐条路由日志。
+ *
+ * 只在调试输出开启（Main.verbose）时生效，关闭时 log() 在第一行返回，不格式化也不分配对象。
+ * 消息以 "{}" 占位符加参数的形式进入有界环形缓冲区，由后台线程格式化并输出；缓冲区满时丢弃新消息而不是阻塞
+ * 处理线程。每个类别可以设置采样间隔（每 N 条输出 1 条）和每秒输出上限，被采样或限流省略的条数在 flush() 时汇总。
+ */
+final class RouteLog {
+    static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * 日志类别，采样和限流按类别独立计数
+     */
+    static final class Category {
+        final String name;
+        final boolean error;
+        private volatile int sampleEvery = 1;
+        private volatile int maxPerSecond;
+        private final AtomicLong seen = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+        private final AtomicLong window = new AtomicLong();
+        private final AtomicLong windowCount = new AtomicLong();
+
+        private Category(String name, boolean error) {
+            this.name = name;
+            this.error = error;
+        }
+
+        /**
+         * 每 n 条只输出第 1 条
+         */
+        Category sample(int n) {
+            if (n <= 0) {
+                throw new IllegalArgumentException("采样间隔必须大于0: " + n);
+            }
+            this.sampleEvery = n;
+            return this;
+        }
+
+        /**
+         * 每秒最多输出 n 条，0 表示不限制
+         */
+        Category rateLimit(int n) {
+            if (n < 0) {
+                throw new IllegalArgumentException("速率上限不能为负数: " + n);
+            }
+            this.maxPerSecond = n;
+            return this;
+        }
+
+        long suppressed() {
+            return suppressed.get();
+        }
+
+        private boolean admit() {
+            long n = seen.getAndIncrement();
+            int every = sampleEvery;
+            if (every > 1 && n % every != 0) {
+                suppressed.incrementAndGet();
+                return false;
+            }
+            int limit = maxPerSecond;
+            if (limit > 0) {
+                long now = System.nanoTime() / 1_000_000_000L;
+                long current = window.get();
+                if (current != now && window.compareAndSet(current, now)) {
+                    windowCount.set(0);
+                }
+                if (windowCount.incrementAndGet() > limit) {
+                    suppressed.incrementAndGet();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Entry {
+        final Category category;
+        final String pattern;
+        final Object a;
+        final Object b;
+        final Object c;
+
+        Entry(Category category, String pattern, Object a, Object b, Object c) {
+            this.category = category;
+            this.pattern = pattern;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+    }
+
+    private static final Map<String, Category> CATEGORIES = new ConcurrentHashMap<>();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static volatile ArrayBlockingQueue<Entry> buffer = new ArrayBlockingQueue<>(DEFAULT_CAPACITY);
+    private static Thread drainer;
+
+    private RouteLog() {
+    }
+
+    /**
+     * 获取或创建一个类别
+     * @param error 为 true 时输出到标准错误
+     */
+    static Category category(String name, boolean error) {
+        return CATEGORIES.computeIfAbsent(name, n -> new Category(n, error));
+    }
+
+    /**
+     * 设置环形缓冲区容量，只应在没有日志待输出时调用
+     */
+    static synchronized void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("日志缓冲区容量必须大于0: " + capacity);
+        }
+        flush();
+        buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    static boolean enabled() {
+        return Main.verbose;
+    }
+
+    static void log(Category category, String pattern, Object a) {
+        if (!Main.verbose) return;
+        enqueue(category, pattern, a, null, null);
+    }
+
+    static void log(Category category, String pattern, Object a, Object b) {
+        if (!Main.verbose) return;
+        enqueue(category, pattern, a, b, null);
+    }
+
+    static void log(Category category, String pattern, Object a, Object b, Object c) {
+        if (!Main.verbose) return;
+        enqueue(category, pattern, a, b, c);
+    }
+
+    private static void enqueue(Category category, String pattern, Object a, Object b, Object c) {
+        if (!category.admit()) return;
+        if (!buffer.offer(new Entry(category, pattern, a, b, c))) {
+            DROPPED.incrementAndGet();
+            return;
+        }
+        startDrainer();
+    }
+
+    private static synchronized void startDrainer() {
+        if (drainer != null && drainer.isAlive()) return;
+        drainer = new Thread(() -> {
+            try {
+                while (true) {
+                    print(buffer.take());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "route-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * 输出缓冲区中剩余的日志，并汇总被省略和丢弃的条数。处理结束时调用
+     */
+    static synchronized void flush() {
+        List<Entry> rest = new ArrayList<>();
+        buffer.drainTo(rest);
+        for (Entry e : rest) {
+            print(e);
+        }
+        for (Category category : CATEGORIES.values()) {
+            long n = category.suppressed.getAndSet(0);
+            if (n > 0) {
+                (category.error ? System.err : System.out).println("[" + category.name + "] 已省略 " + n + " 条日志");
+            }
+        }
+        long dropped = DROPPED.getAndSet(0);
+        if (dropped > 0) {
+            System.err.println("日志缓冲区已满，丢弃 " + dropped + " 条日志");
+        }
+    }
+
+    private static void print(Entry e) {
+        PrintStream out = e.category.error ? System.err : System.out;
+        out.println(format(e.pattern, e.a, e.b, e.c));
+    }
+
+    /**
+     * 依次用参数替换 pattern 中的 "{}"
+     */
+    static String format(String pattern, Object a, Object b, Object c) {
+        StringBuilder sb = new StringBuilder(pattern.length() + 32);
+        Object[] args = {a, b, c};
+        int arg = 0;
+        int from = 0;
+        int at;
+        while (arg < args.length && (at = pattern.indexOf("{}", from)) >= 0) {
+            sb.append(pattern, from, at).append(args[arg++]);
+            from = at + 2;
+        }
+        return sb.append(pattern, from, pattern.length()).toString();
+    }
+}
@@ -0,0 +1,352 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 转换过程的指标登记表。
+ *
+ * 计数器基于 LongAdder，直方图使用 HDR 风格的对数-线性分桶（每个 2 的幂区间再分 16 个子桶，相对误差约 6%），
+ * 记录时只做一次原子加，不加锁。名称约定：read.* 读取、reject.* 按原因分类的丢弃、filter.* 正则过滤、
+ * reduce.* 最短 AS_PATH 归约、aggregate.* 聚合前后数量、write.* 写出、cache.* 结果缓存、stage.*.nanos 各阶段每批耗时。
+ * 每次转换开始前 reset()，结束后通过 summary() 或 writeJson() 输出；JSON 中包含值为 0 的指标。
+ * 并发执行的多个转换（如批处理的任务组）各自在一个 {@link Scope} 中运行，全局登记表记录总数，Scope 记录各自的部分。
+ */
+final class RouteMetrics {
+    static final String READ_RECORDS = "read.records";
+    static final String READ_BYTES = "read.bytes";
+    static final String REJECT_INVALID_PREFIX = "reject.invalid_prefix";
+    static final String REJECT_INVALID_ASPATH = "reject.invalid_aspath";
+    static final String REJECT_DEFAULT_ROUTE = "reject.default_route";
+    static final String REJECT_INVALID_NEXTHOP = "reject.invalid_nexthop";
+    static final String REJECT_FAMILY_MISMATCH = "reject.family_mismatch";
+    static final String FILTER_REJECTS = "filter.regex_rejects";
+    static final String REDUCE_UPSERTS = "reduce.upserts";
+    static final String REDUCE_REPLACEMENTS = "reduce.replacements";
+    static final String AGGREGATE_INPUT = "aggregate.input";
+    static final String AGGREGATE_OUTPUT = "aggregate.output";
+    static final String WRITE_RECORDS = "write.records";
+    static final String CACHE_HITS = "cache.hits";
+    static final String CACHE_MISSES = "cache.misses";
+    static final String CACHE_EVICTIONS = "cache.evictions";
+    static final String CACHE_BYTES_SERVED = "cache.bytes_served";
+
+    /**
+     * 只增计数器
+     */
+    static final class Counter {
+        private final String name;
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        void increment() {
+            value.increment();
+            Scope scope = CURRENT.get();
+            if (scope != null) scope.counter(name).value.increment();
+        }
+
+        void add(long n) {
+            value.add(n);
+            Scope scope = CURRENT.get();
+            if (scope != null) scope.counter(name).value.add(n);
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * 对数-线性分桶直方图，记录非负 long 值（通常是纳秒）
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int LINEAR = 2 * SUB_COUNT;
+        private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * 不在登记表中的独立直方图，不计入 Scope
+         */
+        Histogram() {
+            this(null);
+        }
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            add(value);
+            Scope scope = name != null ? CURRENT.get() : null;
+            if (scope != null) scope.histogram(name).add(value);
+        }
+
+        private void add(long value) {
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        /**
+         * @param p 百分位 (0, 100]
+         * @return 该百分位所在桶的上界，不超过记录到的最大值
+         */
+        long percentile(double p) {
+            long total = count();
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * p / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max());
+                }
+            }
+            return max();
+        }
+
+        static int index(long value) {
+            if (value < LINEAR) return (int) value;
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+            return LINEAR + (exp - SUB_BITS - 1) * SUB_COUNT + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < LINEAR) return index;
+            int exp = (index - LINEAR) / SUB_COUNT + SUB_BITS + 1;
+            long sub = (index - LINEAR) % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+    }
+
+    /**
+     * 统计读取字节数的输入流，放在缓冲层之下，每次填充缓冲区只计数一次
+     */
+    static final class CountingInputStream extends FilterInputStream {
+        private final Counter bytes;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+            this.bytes = counter(READ_BYTES);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) bytes.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) bytes.add(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) bytes.add(skipped);
+            return skipped;
+        }
+    }
+
+    /**
+     * 一个转换专属的指标。当前线程 enter() 之后记录的指标同时计入该 Scope；
+     * 转换内部的线程池通过 {@link #propagate(Runnable)} 继承创建线程时的 Scope
+     */
+    static final class Scope {
+        private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+        private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+        Counter counter(String name) {
+            Counter c = counters.get(name);
+            return c != null ? c : counters.computeIfAbsent(name, Counter::new);
+        }
+
+        Histogram histogram(String name) {
+            Histogram h = histograms.get(name);
+            return h != null ? h : histograms.computeIfAbsent(name, Histogram::new);
+        }
+
+        /**
+         * 把当前线程切换到该 Scope
+         * @return 之前的 Scope，结束时交给 {@link RouteMetrics#restore(Scope)}
+         */
+        Scope enter() {
+            Scope previous = CURRENT.get();
+            CURRENT.set(this);
+            return previous;
+        }
+
+        String summary(String title) {
+            return RouteMetrics.summary(title, counters, histograms);
+        }
+    }
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private RouteMetrics() {
+    }
+
+    static Counter counter(String name) {
+        Counter c = COUNTERS.get(name);
+        return c != null ? c : COUNTERS.computeIfAbsent(name, Counter::new);
+    }
+
+    static Histogram histogram(String name) {
+        Histogram h = HISTOGRAMS.get(name);
+        return h != null ? h : HISTOGRAMS.computeIfAbsent(name, Histogram::new);
+    }
+
+    static void restore(Scope previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * 让任务在调用线程当前的 Scope 中运行，用于线程池的 ThreadFactory；没有 Scope 时原样返回
+     */
+    static Runnable propagate(Runnable task) {
+        Scope scope = CURRENT.get();
+        if (scope == null) return task;
+        return () -> {
+            scope.enter();
+            try {
+                task.run();
+            } finally {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    /**
+     * 记录一个阶段一次执行的耗时
+     * @param startNanos System.nanoTime() 取得的开始时间
+     */
+    static void recordStage(String stage, long startNanos) {
+        histogram("stage." + stage + ".nanos").record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 将所有指标清零；已取得的 Counter/Histogram 引用仍然有效，可以缓存在静态字段中
+     */
+    static void reset() {
+        for (Counter c : COUNTERS.values()) c.reset();
+        for (Histogram h : HISTOGRAMS.values()) h.reset();
+    }
+
+    /**
+     * 人类可读的汇总，只列出非零指标
+     */
+    static String summary() {
+        return summary("转换指标", COUNTERS, HISTOGRAMS);
+    }
+
+    private static String summary(String title, Map<String, Counter> counters, Map<String, Histogram> histograms) {
+        StringBuilder sb = new StringBuilder("=== ").append(title).append(" ===");
+        for (Map.Entry<String, Counter> e : new TreeMap<>(counters).entrySet()) {
+            long v = e.getValue().get();
+            if (v != 0) {
+                sb.append('\n').append(e.getKey()).append(": ").append(v);
+            }
+        }
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = e.getValue();
+            if (h.count() == 0) continue;
+            boolean nanos = e.getKey().endsWith(".nanos");
+            sb.append('\n').append(e.getKey()).append(": count=").append(h.count())
+                    .append(" total=").append(formatValue(h.sum(), nanos))
+                    .append(" p50=").append(formatValue(h.percentile(50), nanos))
+                    .append(" p99=").append(formatValue(h.percentile(99), nanos))
+                    .append(" max=").append(formatValue(h.max(), nanos));
+        }
+        return sb.toString();
+    }
+
+    private static String formatValue(long v, boolean nanos) {
+        if (!nanos) return Long.toString(v);
+        if (v >= 1_000_000_000L) return String.format("%.2fs", v / 1e9);
+        if (v >= 1_000_000L) return String.format("%.2fms", v / 1e6);
+        return String.format("%.1fus", v / 1e3);
+    }
+
+    /**
+     * 以 JSON 输出全部指标：{"counters":{...},"histograms":{"name":{"count","sum","p50","p90","p99","max"}}}
+     */
+    static void writeJson(Writer out) {
+        PrintWriter w = new PrintWriter(out);
+        w.print("{\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Counter> e : new TreeMap<>(COUNTERS).entrySet()) {
+            if (!first) w.print(',');
+            first = false;
+            w.print('"' + e.getKey() + "\":" + e.getValue().get());
+        }
+        w.print("},\"histograms\":{");
+        first = true;
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            if (!first) w.print(',');
+            first = false;
+            Histogram h = e.getValue();
+            w.print('"' + e.getKey() + "\":{\"count\":" + h.count() + ",\"sum\":" + h.sum()
+                    + ",\"p50\":" + h.percentile(50) + ",\"p90\":" + h.percentile(90)
+                    + ",\"p99\":" + h.percentile(99) + ",\"max\":" + h.max() + "}");
+        }
+        w.println("}}");
+        w.flush();
+    }
+}
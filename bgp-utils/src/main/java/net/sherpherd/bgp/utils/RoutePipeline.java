@@ -0,0 +1,884 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * 流式路由处理管道：source → decode → validate → filter → reduce → aggregate → sink。
+ *
+ * 输入按批读取为 {@link RouteBatch}（前缀、AS_PATH 跳数等字段以基本类型数组保存），
+ * decode/validate/filter 以及 addStage() 加入的阶段都是无状态的批处理阶段，各自拥有工作线程数，
+ * 阶段之间用有界队列连接，队列满时上游阻塞，内存占用只取决于批大小和队列容量。
+ * 批处理阶段完成后按批序号重新排序，reduce / aggregate / sink 在调用线程中按输入顺序执行，
+ * 因此输出与顺序处理完全一致（最短 AS_PATH 相同时保留最先出现的路由）。
+ * reduceShortestPath(int) 把归约也作为多线程阶段执行，以输入序号取舍，结果相同。
+ */
+class RoutePipeline {
+    static final int DEFAULT_BATCH_SIZE = 4096;
+    static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    /**
+     * 一批路由记录。row 保留原始行供输出使用，其余字段由 decode 阶段填充
+     */
+    static final class RouteBatch {
+        final long seq;
+        final String[][] rows;
+        final int[] family;
+        final long[] hi;
+        final long[] lo;
+        final int[] len;
+        final int[] pathLen;
+        final boolean[] keep;
+        /** 最优路径选择需要的属性，只有 reduceBestPath 时由读取阶段填充 */
+        BestPathSelector.PathAttributes[] attributes;
+        int size;
+
+        RouteBatch(long seq, int capacity) {
+            this.seq = seq;
+            this.rows = new String[capacity][];
+            this.family = new int[capacity];
+            this.hi = new long[capacity];
+            this.lo = new long[capacity];
+            this.len = new int[capacity];
+            this.pathLen = new int[capacity];
+            this.keep = new boolean[capacity];
+        }
+    }
+
+    /**
+     * 批处理阶段：就地处理一批记录，通过清除 keep 标记丢弃记录。
+     * 同一阶段的多个工作线程会并发调用 process()，实现必须是无状态或线程安全的
+     */
+    interface Stage {
+        void process(RouteBatch batch);
+    }
+
+    /**
+     * 管道的输出端
+     */
+    interface Sink {
+        void open() throws IOException;
+
+        void write(String[] route) throws IOException;
+
+        void close() throws IOException;
+
+        /**
+         * 只输出前缀的 Sink 对同一前缀的多条路由（reduceTopPaths）只写一次
+         */
+        default boolean prefixOnly() {
+            return false;
+        }
+
+        static Sink csv(CSVProvider out) {
+            return new Sink() {
+                public void open() throws IOException {
+                    out.beginWrite();
+                }
+
+                public void write(String[] route) {
+                    out.writeRoute(route);
+                }
+
+                public void close() throws IOException {
+                    out.endWrite();
+                }
+            };
+        }
+
+        static Sink rawText(RawTextProvider out) {
+            return new Sink() {
+                public void open() {
+                }
+
+                public void write(String[] route) {
+                    out.setRoute(-1, new String[]{route[0]});
+                }
+
+                public boolean prefixOnly() {
+                    return true;
+                }
+
+                public void close() throws IOException {
+                    out.writeToFile();
+                }
+            };
+        }
+
+        /**
+         * @param nexthop 所有路由使用的下一跳
+         */
+        static Sink iproute2(Iproute2ScriptProvider out, String nexthop) {
+            return new Sink() {
+                public void open() throws IOException {
+                    out.initializeWriter();
+                }
+
+                public void write(String[] route) {
+                    out.addRoute(route[0], nexthop);
+                }
+
+                public boolean prefixOnly() {
+                    return true;
+                }
+
+                public void close() {
+                    out.close();
+                }
+            };
+        }
+
+        /**
+         * 集合输出在写出时合并区间，只需要前缀
+         */
+        static Sink firewallSet(FirewallSetProvider out) {
+            return new Sink() {
+                public void open() {
+                }
+
+                public void write(String[] route) {
+                    out.setRoute(-1, new String[]{route[0]});
+                }
+
+                public boolean prefixOnly() {
+                    return true;
+                }
+
+                public void close() throws IOException {
+                    out.writeToFile();
+                }
+            };
+        }
+
+        /**
+         * 路由行须为快照列顺序 {prefix, as_path, community, peer}，见 {@link Generate#toSnapshotRow}
+         */
+        static Sink snapshot(SnapshotProvider out) {
+            return new Sink() {
+                public void open() {
+                }
+
+                public void write(String[] route) {
+                    out.setRoute(-1, route);
+                }
+
+                public void close() throws IOException {
+                    out.writeToFile();
+                }
+            };
+        }
+    }
+
+    private static final RouteMetrics.Counter FILTER_REJECTS = RouteMetrics.counter(RouteMetrics.FILTER_REJECTS);
+    private static final RouteMetrics.Counter REJECT_INVALID_PREFIX = RouteMetrics.counter(RouteMetrics.REJECT_INVALID_PREFIX);
+    private static final RouteMetrics.Counter REJECT_INVALID_ASPATH = RouteMetrics.counter(RouteMetrics.REJECT_INVALID_ASPATH);
+
+    /** 批处理结束标记 */
+    private static final RouteBatch END = new RouteBatch(-1, 0);
+
+    private final DataProvider in;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Integer> parallelism = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private boolean reduce;
+    private ConcurrentRouteReducer reducer;
+    private BestPathSelector selector;
+    private TopPathTable topPaths;
+    private RouteStatistics statistics;
+    private OverlapAnalysis overlaps;
+    private boolean aggregate;
+    private String fixedAsPath;
+    private UnaryOperator<String[]> rowMapper;
+    private long readCount;
+    private long writtenCount;
+
+    RoutePipeline(DataProvider in) {
+        if (in == null) {
+            throw new IllegalArgumentException("输入Provider不能为 null");
+        }
+        this.in = in;
+        addStage("decode", RoutePipeline::decode, 1);
+    }
+
+    RoutePipeline setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("批大小必须大于0: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    RoutePipeline setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("队列容量必须大于0: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * 加入一个批处理阶段
+     * @param threads 该阶段的工作线程数
+     */
+    RoutePipeline addStage(Stage stage, int threads) {
+        return addStage("stage" + stages.size(), stage, threads);
+    }
+
+    /**
+     * 加入一个具名的批处理阶段，每批耗时记录在指标 stage.&lt;name&gt;.nanos 中
+     * @param threads 该阶段的工作线程数
+     */
+    RoutePipeline addStage(String name, Stage stage, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("阶段线程数必须大于0: " + threads);
+        }
+        stages.add(stage);
+        parallelism.add(threads);
+        names.add(name);
+        return this;
+    }
+
+    /**
+     * 在读取线程中转换每条输入路由，用于只能在读到当前记录时获取的信息（如 MRT 的 community/peer）。
+     * 转换结果的前两列仍须为 prefix 和 AS_PATH
+     */
+    RoutePipeline mapRows(UnaryOperator<String[]> mapper) {
+        this.rowMapper = mapper;
+        return this;
+    }
+
+    /**
+     * 丢弃前缀或 AS_PATH 无效的路由
+     */
+    RoutePipeline validate() {
+        return addStage("validate", RoutePipeline::validate, 1);
+    }
+
+    /**
+     * 只保留 AS_PATH 至少匹配一条正则的路由；正则列表为空时不加入阶段。
+     * 正则匹配是管道中最耗时的部分，默认使用全部处理器
+     */
+    RoutePipeline filter(List<String> aspathRegex) {
+        return filter(aspathRegex, Runtime.getRuntime().availableProcessors());
+    }
+
+    RoutePipeline filter(List<String> aspathRegex, int threads) {
+        if (aspathRegex == null || aspathRegex.isEmpty()) return this;
+        List<String> regex = new ArrayList<>(aspathRegex);
+        return addStage("filter", batch -> filter(batch, regex), threads);
+    }
+
+    /**
+     * 每个前缀只保留 AS_PATH 最短的路由
+     */
+    RoutePipeline reduceShortestPath() {
+        this.reduce = true;
+        return this;
+    }
+
+    /**
+     * 每个前缀只保留 AS_PATH 最短的路由，归约作为多线程阶段写入 {@link ConcurrentRouteReducer}。
+     * 以输入序号作为跳数相同时的取舍规则，结果和输出顺序与单线程归约相同
+     * @param threads 归约阶段的工作线程数，为 1 时在调用线程中顺序归约
+     */
+    RoutePipeline reduceShortestPath(int threads) {
+        if (threads <= 1) {
+            return reduceShortestPath();
+        }
+        ConcurrentRouteReducer target = new ConcurrentRouteReducer(ConcurrentRouteReducer.TieBreak.FIRST_SEEN);
+        addStage("reduce", batch -> {
+            long base = batch.seq * batchSize;
+            for (int i = 0; i < batch.size; i++) {
+                if (!batch.keep[i]) continue;
+                batch.keep[i] = false;
+                if (batch.rows[i].length < 2 || batch.family[i] == PackedPrefix.FAMILY_NONE) continue;
+                target.offer(batch.family[i], batch.hi[i], batch.lo[i], batch.len[i], batch.pathLen[i],
+                        base + i, batch.rows[i]);
+            }
+        }, threads);
+        this.reduce = true;
+        this.reducer = target;
+        return this;
+    }
+
+    /**
+     * 每个前缀按 BGP 决策过程（LOCAL_PREF、AS_PATH 长度、ORIGIN、同相邻 AS 的 MED、路由器 ID、对等体地址）
+     * 只保留一条路由，见 {@link BestPathSelector}。属性从 MRT 记录读取，其他输入使用默认属性，
+     * 结果与 reduceShortestPath 相同。结果和输出顺序与线程数无关
+     * @param threads 归约阶段的工作线程数
+     */
+    RoutePipeline reduceBestPath(int threads) {
+        BestPathSelector target = new BestPathSelector();
+        addStage("reduce", batch -> {
+            long base = batch.seq * batchSize;
+            BestPathSelector.PathAttributes[] attributes = batch.attributes;
+            for (int i = 0; i < batch.size; i++) {
+                if (!batch.keep[i]) continue;
+                batch.keep[i] = false;
+                if (batch.rows[i].length < 2 || batch.family[i] == PackedPrefix.FAMILY_NONE) continue;
+                target.offer(batch.family[i], batch.hi[i], batch.lo[i], batch.len[i], batch.pathLen[i],
+                        attributes == null ? null : attributes[i], base + i, batch.rows[i]);
+            }
+        }, Math.max(threads, 1));
+        this.reduce = true;
+        this.selector = target;
+        return this;
+    }
+
+    /**
+     * 每个前缀保留 AS_PATH 最短的 k 条路由，同一前缀的路由相邻输出，按跳数从短到长排列，见 {@link TopPathTable}。
+     * 在收集线程中按输入顺序归约，结果与单线程相同
+     * @param distinctNeighbor 是否要求同一前缀保留的路由相邻 AS 互不相同
+     */
+    RoutePipeline reduceTopPaths(int k, boolean distinctNeighbor) {
+        this.topPaths = new TopPathTable(k, distinctNeighbor);
+        this.reduce = true;
+        return this;
+    }
+
+    /**
+     * 在收集阶段统计归约后、聚合前的每条路由（没有归约时为过滤后的路由），运行结束后从 stats 取报告
+     */
+    RoutePipeline statistics(RouteStatistics stats) {
+        this.statistics = stats;
+        return this;
+    }
+
+    /**
+     * 与 statistics 相同的位置收集路由做重叠分析，运行结束后调用 analysis.analyze()
+     */
+    RoutePipeline overlaps(OverlapAnalysis analysis) {
+        this.overlaps = analysis;
+        return this;
+    }
+
+    /**
+     * 对输出路由做前缀聚合
+     * @param fixedAsPath 聚合后使用的固定 AS_PATH，为 null 时保留每个地址家族第一条路由的其他信息
+     */
+    RoutePipeline aggregate(String fixedAsPath) {
+        this.aggregate = true;
+        this.fixedAsPath = fixedAsPath;
+        return this;
+    }
+
+    /**
+     * 运行管道，返回写出的路由数
+     */
+    long run(Sink sink) throws IOException {
+        int threads = 1;
+        for (int p : parallelism) threads += p;
+        AtomicInteger seq = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(RouteMetrics.propagate(r), "pipeline-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<BlockingQueue<RouteBatch>> queues = new ArrayList<>();
+        for (int i = 0; i <= stages.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        try {
+            pool.execute(guard(failure, pool, () -> readSource(queues.get(0))));
+            for (int i = 0; i < stages.size(); i++) {
+                Stage stage = stages.get(i);
+                RouteMetrics.Histogram timing = RouteMetrics.histogram("stage." + names.get(i) + ".nanos");
+                BlockingQueue<RouteBatch> from = queues.get(i);
+                BlockingQueue<RouteBatch> to = queues.get(i + 1);
+                AtomicInteger remaining = new AtomicInteger(parallelism.get(i));
+                for (int t = 0; t < parallelism.get(i); t++) {
+                    pool.execute(guard(failure, pool, () -> runStage(stage, timing, from, to, remaining)));
+                }
+            }
+            long start = System.nanoTime();
+            collect(queues.get(stages.size()), failure, sink);
+            RouteMetrics.recordStage("collect", start);
+        } finally {
+            pool.shutdownNow();
+            if (RouteLog.enabled()) {
+                RouteLog.flush();
+            }
+        }
+        return writtenCount;
+    }
+
+    long getReadCount() {
+        return readCount;
+    }
+
+    long getWrittenCount() {
+        return writtenCount;
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static Runnable guard(AtomicReference<Throwable> failure, ExecutorService pool, Task task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                pool.shutdownNow();
+            }
+        };
+    }
+
+    private void readSource(BlockingQueue<RouteBatch> out) throws InterruptedException {
+        // MRT 事件记录从文件读取的字节数；文本输入的读取缓冲在 Provider 打开时就已预读，改为统计解析的字符数
+        boolean mrt = in instanceof MRTProvider;
+        MRTProvider attributeSource = mrt && selector != null ? (MRTProvider) in : null;
+        RouteEvents.Phase phase = mrt ? RouteEvents.Phase.READ : RouteEvents.Phase.PARSE;
+        RouteMetrics.Counter bytes = RouteMetrics.counter(RouteMetrics.READ_BYTES);
+        long batchSeq = 0;
+        RouteBatch batch = newBatch(batchSeq++, attributeSource != null);
+        RouteEvents.Span span = RouteEvents.begin(phase);
+        boolean recording = span != RouteEvents.NOOP;
+        long bytesBefore = recording ? bytes.get() : 0;
+        long chars = 0;
+        String[] route;
+        long count = 0;
+        while ((route = in.getNextRoute()) != null) {
+            if (rowMapper != null) {
+                route = rowMapper.apply(route);
+            }
+            if (attributeSource != null) {
+                batch.attributes[batch.size] = attributeSource.getCurrentPathAttributes();
+            }
+            batch.rows[batch.size++] = route;
+            count++;
+            if (recording && !mrt) chars += rowChars(route);
+            if (batch.size == batchSize) {
+                span.end(batch.size, mrt ? bytes.get() - bytesBefore : chars, 0);
+                out.put(batch);
+                batch = newBatch(batchSeq++, attributeSource != null);
+                span = RouteEvents.begin(phase);
+                recording = span != RouteEvents.NOOP;
+                bytesBefore = recording ? bytes.get() : 0;
+                chars = 0;
+            }
+        }
+        if (batch.size > 0) {
+            span.end(batch.size, mrt ? bytes.get() - bytesBefore : chars, 0);
+            out.put(batch);
+        }
+        readCount = count;
+        out.put(END);
+    }
+
+    private RouteBatch newBatch(long seq, boolean attributes) {
+        RouteBatch batch = new RouteBatch(seq, batchSize);
+        if (attributes) {
+            batch.attributes = new BestPathSelector.PathAttributes[batchSize];
+        }
+        return batch;
+    }
+
+    private static void runStage(Stage stage, RouteMetrics.Histogram timing, BlockingQueue<RouteBatch> from,
+                                 BlockingQueue<RouteBatch> to, AtomicInteger remaining) throws InterruptedException {
+        while (true) {
+            RouteBatch batch = from.take();
+            if (batch == END) {
+                // 放回结束标记让同阶段的其他线程也能退出，最后一个退出的线程通知下游
+                from.put(END);
+                if (remaining.decrementAndGet() == 0) {
+                    to.put(END);
+                }
+                return;
+            }
+            long start = System.nanoTime();
+            stage.process(batch);
+            timing.record(System.nanoTime() - start);
+            to.put(batch);
+        }
+    }
+
+    /**
+     * 按批序号恢复输入顺序，依次执行 reduce / aggregate / sink
+     */
+    private void collect(BlockingQueue<RouteBatch> from, AtomicReference<Throwable> failure, Sink sink) throws IOException {
+        ShortestPathTable table = reduce && reducer == null && selector == null && topPaths == null
+                ? new ShortestPathTable() : null;
+        List<String[]> pending = aggregate && !reduce ? new ArrayList<>() : null;
+        boolean streaming = !reduce && !aggregate;
+        if (streaming) {
+            sink.open();
+        }
+
+        Map<Long, RouteBatch> reorder = new HashMap<>();
+        long next = 0;
+        while (true) {
+            RouteBatch batch;
+            try {
+                batch = from.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("路由处理被中断", e);
+            }
+            Throwable error = failure.get();
+            if (error != null) {
+                if (error instanceof RuntimeException) throw (RuntimeException) error;
+                if (error instanceof IOException) throw (IOException) error;
+                throw new RuntimeException("路由处理失败: " + error.getMessage(), error);
+            }
+            if (batch == null) continue;
+            if (batch == END) break;
+            reorder.put(batch.seq, batch);
+            while ((batch = reorder.remove(next)) != null) {
+                next++;
+                RouteEvents.Span span = streaming ? RouteEvents.begin(RouteEvents.Phase.WRITE) : RouteEvents.NOOP;
+                long written = 0;
+                long chars = 0;
+                for (int i = 0; i < batch.size; i++) {
+                    if (!batch.keep[i]) continue;
+                    if (table != null) {
+                        table.offer(batch, i);
+                    } else if (topPaths != null) {
+                        if (batch.family[i] != PackedPrefix.FAMILY_NONE) {
+                            topPaths.offer(batch.family[i], batch.hi[i], batch.lo[i], batch.len[i], batch.pathLen[i],
+                                    batch.seq * batchSize + i, batch.rows[i]);
+                        }
+                    } else if (pending != null) {
+                        pending.add(batch.rows[i]);
+                    } else {
+                        if (statistics != null) statistics.add(batch.rows[i]);
+                        if (overlaps != null) overlaps.add(batch.rows[i]);
+                        sink.write(batch.rows[i]);
+                        written++;
+                        if (span != RouteEvents.NOOP) chars += rowChars(batch.rows[i]);
+                    }
+                }
+                writtenCount += written;
+                span.end(written, chars, 0);
+            }
+        }
+
+        if (streaming) {
+            sink.close();
+            return;
+        }
+        List<String[]> routes = table != null ? table.routes() : reducer != null ? reducer.routes()
+                : selector != null ? selector.routes() : topPaths != null ? topPaths.routes() : pending;
+        if (reduce) {
+            RouteMetrics.counter(RouteMetrics.REDUCE_UPSERTS).add(routes.size());
+            RouteMetrics.counter(RouteMetrics.REDUCE_REPLACEMENTS).add(table != null ? table.replacements()
+                    : reducer != null ? reducer.replacements()
+                    : selector != null ? selector.replacements() : topPaths.replacements());
+        }
+        if (statistics != null) {
+            if (topPaths != null) {
+                // 多路径结果中同一前缀的行相邻且最优路由在前，统计只计每个前缀的最优路由
+                String previous = null;
+                for (String[] route : routes) {
+                    if (route[0].equals(previous)) continue;
+                    previous = route[0];
+                    statistics.add(route);
+                }
+            } else {
+                statistics.addAll(routes);
+            }
+        }
+        if (overlaps != null) {
+            overlaps.addAll(routes);
+        }
+        if (aggregate) {
+            int before = routes.size();
+            routes = fixedAsPath != null
+                    ? Generate.aggregateRoutesWithFixedASPath(routes, fixedAsPath)
+                    : Generate.aggregateRoutes(routes);
+            if (Main.verbose) {
+                System.out.println("路由聚合完成，从 " + before + " 条路由聚合为 " + routes.size() + " 条路由");
+            }
+        }
+        sink.open();
+        RouteEvents.Span span = RouteEvents.begin(RouteEvents.Phase.WRITE);
+        long chars = 0;
+        int n = 0;
+        // 多路径结果中同一前缀的路由相邻，聚合后前缀已唯一
+        boolean skipRepeats = topPaths != null && !aggregate && sink.prefixOnly();
+        String previous = null;
+        for (String[] route : routes) {
+            if (skipRepeats) {
+                if (route[0].equals(previous)) continue;
+                previous = route[0];
+            }
+            sink.write(route);
+            if (span != RouteEvents.NOOP) chars += rowChars(route);
+            // 与流式写出相同，每批一个事件
+            if (++n % batchSize == 0) {
+                span.end(batchSize, chars, 0);
+                span = RouteEvents.begin(RouteEvents.Phase.WRITE);
+                chars = 0;
+            }
+        }
+        span.end(n % batchSize, chars, 0);
+        writtenCount = n;
+        sink.close();
+    }
+
+    /**
+     * 一行路由按 CSV 读写时的字符数估计（字段长度加分隔符），用于 JFR 解析和写出事件
+     */
+    private static long rowChars(String[] row) {
+        long n = row.length;
+        for (String field : row) {
+            if (field != null) n += field.length();
+        }
+        return n;
+    }
+
+    // ---------------- 内置阶段 ----------------
+
+    static void decode(RouteBatch batch) {
+        long[] key = new long[3];
+        for (int i = 0; i < batch.size; i++) {
+            String[] row = batch.rows[i];
+            batch.keep[i] = true;
+            batch.family[i] = PackedPrefix.FAMILY_NONE;
+            batch.pathLen[i] = row.length > 1 ? AsPaths.length(row[1]) : 0;
+            String prefix = row[0].trim();
+            if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+                long packed = PackedPrefix.parseIPv4(prefix);
+                if (packed >= 0) {
+                    batch.family[i] = PackedPrefix.FAMILY_IPV4;
+                    batch.hi[i] = PackedPrefix.ipv4Address(packed);
+                    batch.lo[i] = 0;
+                    batch.len[i] = PackedPrefix.ipv4Length(packed);
+                }
+            } else if (PackedPrefix.parseIPv6(prefix, key)) {
+                batch.family[i] = PackedPrefix.FAMILY_IPV6;
+                batch.hi[i] = key[0];
+                batch.lo[i] = key[1];
+                batch.len[i] = (int) key[2];
+            }
+        }
+    }
+
+    static void validate(RouteBatch batch) {
+        RouteEvents.Span span = RouteEvents.begin(RouteEvents.Phase.VALIDATE);
+        int rejected = 0;
+        for (int i = 0; i < batch.size; i++) {
+            if (!batch.keep[i]) continue;
+            String[] row = batch.rows[i];
+            // decode 已按家族解析过前缀，这里不再对两个家族分别做字符串校验
+            boolean prefixOk = batch.family[i] != PackedPrefix.FAMILY_NONE && !hasOuterWhitespace(row[0]);
+            if (!prefixOk || row.length < 2 || !Analysis.isValidAsPath(row[1])) {
+                batch.keep[i] = false;
+                rejected++;
+                (prefixOk ? REJECT_INVALID_ASPATH : REJECT_INVALID_PREFIX).increment();
+                RouteLog.log(Generate.LOG_SKIP, "跳过无效路由: prefix={} AS_PATH={}", row[0], row.length > 1 ? row[1] : "");
+            }
+        }
+        span.end(batch.size, 0, rejected);
+    }
+
+    /**
+     * decode 解析前会去掉首尾空白，而 CSV 输出保留原始字段，带空白的前缀仍视为无效
+     */
+    private static boolean hasOuterWhitespace(String s) {
+        return s.isEmpty() || s.charAt(0) <= ' ' || s.charAt(s.length() - 1) <= ' ';
+    }
+
+    static void filter(RouteBatch batch, List<String> aspathRegex) {
+        RouteEvents.Span span = RouteEvents.begin(RouteEvents.Phase.FILTER);
+        int rejected = 0;
+        for (int i = 0; i < batch.size; i++) {
+            String[] row = batch.rows[i];
+            // 没有 AS_PATH 列的路由（纯文本输入）不参与过滤
+            if (!batch.keep[i] || row.length < 2) continue;
+            boolean matched = matchesAny(row[1], aspathRegex);
+            batch.keep[i] = matched;
+            if (!matched) rejected++;
+        }
+        FILTER_REJECTS.add(rejected);
+        span.end(batch.size, 0, rejected);
+    }
+
+    /**
+     * AS_PATH 是否至少匹配一条正则；正则列表为空或 null 时总是匹配
+     */
+    static boolean matchesAny(String asPath, List<String> aspathRegex) {
+        if (aspathRegex == null || aspathRegex.isEmpty()) return true;
+        for (String regex : aspathRegex) {
+            if (CiscoIOSRegex.matches(asPath, regex)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 在调用线程中顺序归约已 decode 的批，按构造方式选择最短 AS_PATH、BGP 选路或多路径，
+     * 取舍规则与管道中对应的归约阶段相同。供一次读取多路输出时每组过滤条件各用一张表
+     */
+    static final class Reduction {
+        private final ShortestPathTable shortest;
+        private final BestPathSelector selector;
+        private final TopPathTable topPaths;
+
+        private Reduction(ShortestPathTable shortest, BestPathSelector selector, TopPathTable topPaths) {
+            this.shortest = shortest;
+            this.selector = selector;
+            this.topPaths = topPaths;
+        }
+
+        static Reduction shortestPath() {
+            return new Reduction(new ShortestPathTable(), null, null);
+        }
+
+        static Reduction bestPath() {
+            return new Reduction(null, new BestPathSelector(1), null);
+        }
+
+        static Reduction topPaths(int k, boolean distinctNeighbor) {
+            return new Reduction(null, null, new TopPathTable(k, distinctNeighbor));
+        }
+
+        /**
+         * 只有 BGP 选路需要读取阶段填充 batch.attributes
+         */
+        boolean needsAttributes() {
+            return selector != null;
+        }
+
+        /**
+         * 同一前缀可能输出多条路由（相邻且最优的在前）
+         */
+        boolean multiPath() {
+            return topPaths != null;
+        }
+
+        void offer(RouteBatch batch, int i) {
+            if (shortest != null) {
+                shortest.offer(batch, i);
+                return;
+            }
+            if (batch.rows[i].length < 2 || batch.family[i] == PackedPrefix.FAMILY_NONE) return;
+            long seq = batch.seq * batch.rows.length + i;
+            if (selector != null) {
+                selector.offer(batch.family[i], batch.hi[i], batch.lo[i], batch.len[i], batch.pathLen[i],
+                        batch.attributes == null ? null : batch.attributes[i], seq, batch.rows[i]);
+            } else {
+                topPaths.offer(batch.family[i], batch.hi[i], batch.lo[i], batch.len[i], batch.pathLen[i], seq, batch.rows[i]);
+            }
+        }
+
+        List<String[]> routes() {
+            return shortest != null ? shortest.routes() : selector != null ? selector.routes() : topPaths.routes();
+        }
+    }
+
+    /**
+     * 以打包前缀为键的最短 AS_PATH 表（开放寻址），保持前缀首次出现的顺序
+     */
+    static final class ShortestPathTable {
+        private long[] keyHi = new long[1024];
+        private long[] keyLo = new long[1024];
+        private int[] keyMeta = new int[1024];
+        private int[] slotIndex = new int[1024];
+        private final List<String[]> rows = new ArrayList<>();
+        private int[] pathLens = new int[1024];
+        private long replacements;
+
+        void offer(RouteBatch batch, int i) {
+            // 与 Analysis.isShorterAsPath 一致：缺少 AS_PATH 的记录不参与
+            if (batch.rows[i].length < 2 || batch.family[i] == PackedPrefix.FAMILY_NONE) return;
+            int meta = batch.family[i] << 8 | batch.len[i];
+            long hi = batch.hi[i];
+            long lo = batch.lo[i];
+            int mask = keyMeta.length - 1;
+            int slot = hash(hi, lo, meta) & mask;
+            while (keyMeta[slot] != 0) {
+                if (keyMeta[slot] == meta && keyHi[slot] == hi && keyLo[slot] == lo) {
+                    int idx = slotIndex[slot];
+                    if (isShorter(batch.pathLen[i], pathLens[idx])) {
+                        replacements++;
+                        rows.set(idx, batch.rows[i]);
+                        pathLens[idx] = batch.pathLen[i];
+                    }
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int idx = rows.size();
+            rows.add(batch.rows[i]);
+            if (idx == pathLens.length) {
+                pathLens = Arrays.copyOf(pathLens, idx * 2);
+            }
+            pathLens[idx] = batch.pathLen[i];
+            keyMeta[slot] = meta;
+            keyHi[slot] = hi;
+            keyLo[slot] = lo;
+            slotIndex[slot] = idx;
+            if (rows.size() * 2 > keyMeta.length) {
+                rehash();
+            }
+        }
+
+        List<String[]> routes() {
+            return rows;
+        }
+
+        int size() {
+            return rows.size();
+        }
+
+        long replacements() {
+            return replacements;
+        }
+
+        static boolean isShorter(int a, int b) {
+            if (a == 0) return false;
+            if (b == 0) return true;
+            return a < b;
+        }
+
+        static int hash(long hi, long lo, int meta) {
+            long h = hi * 0x9E3779B97F4A7C15L ^ lo * 0xC2B2AE3D27D4EB4FL ^ meta;
+            h ^= h >>> 31;
+            h *= 0x94D049BB133111EBL;
+            return (int) (h ^ h >>> 29);
+        }
+
+        private void rehash() {
+            long[] oldHi = keyHi;
+            long[] oldLo = keyLo;
+            int[] oldMeta = keyMeta;
+            int[] oldIndex = slotIndex;
+            int capacity = oldMeta.length * 2;
+            keyHi = new long[capacity];
+            keyLo = new long[capacity];
+            keyMeta = new int[capacity];
+            slotIndex = new int[capacity];
+            int mask = capacity - 1;
+            for (int s = 0; s < oldMeta.length; s++) {
+                if (oldMeta[s] == 0) continue;
+                int slot = hash(oldHi[s], oldLo[s], oldMeta[s]) & mask;
+                while (keyMeta[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keyHi[slot] = oldHi[s];
+                keyLo[slot] = oldLo[s];
+                keyMeta[slot] = oldMeta[s];
+                slotIndex[slot] = oldIndex[s];
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package net.sherpherd.bgp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * (前缀, 下一跳) 集合，用于期望路由表与内核当前路由表之间的差异计算。
+ *
+ * 前缀以 PackedPrefix 的数值形式存放在基本类型数组中，下一跳字符串统一规范化后编号去重：
+ * IPv4 每条记录打包为一个 long（地址 << 30 | 长度 << 24 | 下一跳编号），
+ * IPv6 使用 hi/lo 两个 long 加一个 int（长度 << 24 | 下一跳编号）。
+ * 排序后两张表按前缀做有序归并，代价为 O(n log n + m log m)，输出只包含真正变化的路由。
+ */
+final class RouteSet {
+    /** 下一跳编号上限（24 位） */
+    static final int MAX_GATEWAYS = 1 << 24;
+
+    /**
+     * 差异的接收者
+     */
+    interface DiffListener {
+        /** 期望存在但当前没有 */
+        void add(String prefix, String gateway);
+
+        /** 两边都存在但下一跳不同 */
+        void replace(String prefix, String oldGateway, String gateway);
+
+        /** 当前存在但不再期望 */
+        void delete(String prefix, String oldGateway);
+    }
+
+    private final List<String> gateways = new ArrayList<>();
+    private final Map<String, Integer> gatewayIds = new HashMap<>();
+    private final long[] keyBuf = new long[3];
+    private long[] v4 = new long[1024];
+    private int v4Count;
+    private long[] v6Hi = new long[256];
+    private long[] v6Lo = new long[256];
+    private int[] v6Meta = new int[256];
+    private int v6Count;
+    private boolean sorted = true;
+
+    RouteSet() {
+        gateways.add("");
+        gatewayIds.put("", 0);
+    }
+
+    /**
+     * 加入一条路由
+     * @param gateway 下一跳，可为 null（直连或没有网关的路由）
+     * @return 前缀无效时返回 false
+     */
+    boolean add(String prefix, String gateway) {
+        prefix = prefix.trim();
+        int gw = gatewayId(gateway);
+        if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+            long packed = PackedPrefix.parseIPv4(prefix);
+            if (packed < 0) return false;
+            if (v4Count == v4.length) {
+                v4 = Arrays.copyOf(v4, v4Count * 2);
+            }
+            v4[v4Count++] = (PackedPrefix.ipv4Address(packed) << 30)
+                    | ((long) PackedPrefix.ipv4Length(packed) << 24) | gw;
+        } else if (PackedPrefix.parseIPv6(prefix, keyBuf)) {
+            if (v6Count == v6Hi.length) {
+                v6Hi = Arrays.copyOf(v6Hi, v6Count * 2);
+                v6Lo = Arrays.copyOf(v6Lo, v6Count * 2);
+                v6Meta = Arrays.copyOf(v6Meta, v6Count * 2);
+            }
+            v6Hi[v6Count] = keyBuf[0];
+            v6Lo[v6Count] = keyBuf[1];
+            v6Meta[v6Count] = ((int) keyBuf[2] << 24) | gw;
+            v6Count++;
+        } else {
+            return false;
+        }
+        sorted = false;
+        return true;
+    }
+
+    /**
+     * 只保留指定地址家族的路由
+     */
+    void retainFamily(int family) {
+        if (family != PackedPrefix.FAMILY_IPV4) v4Count = 0;
+        if (family != PackedPrefix.FAMILY_IPV6) v6Count = 0;
+    }
+
+    int size() {
+        sort();
+        return v4Count + v6Count;
+    }
+
+    /**
+     * 规范化下一跳并返回编号；地址会被重新格式化，使 "2001:db8::1" 与 "2001:db8:0:0:0:0:0:1" 相等
+     */
+    private int gatewayId(String gateway) {
+        String key = canonicalGateway(gateway);
+        Integer id = gatewayIds.get(key);
+        if (id == null) {
+            id = gateways.size();
+            if (id >= MAX_GATEWAYS) {
+                throw new IllegalStateException("下一跳数量超过上限: " + MAX_GATEWAYS);
+            }
+            gateways.add(key);
+            gatewayIds.put(key, id);
+        }
+        return id;
+    }
+
+    private String canonicalGateway(String gateway) {
+        if (gateway == null) return "";
+        gateway = gateway.trim();
+        if (gateway.indexOf(':') >= 0) {
+            return PackedPrefix.parseIPv6Address(gateway, keyBuf)
+                    ? PackedPrefix.formatIPv6Address(keyBuf[0], keyBuf[1]) : gateway;
+        }
+        long addr = PackedPrefix.parseIPv4Address(gateway);
+        return addr >= 0 ? PackedPrefix.formatIPv4Address(addr) : gateway;
+    }
+
+    /**
+     * 排序并去掉重复前缀（每个前缀保留一条）
+     */
+    private void sort() {
+        if (sorted) return;
+        Arrays.sort(v4, 0, v4Count);
+        int n = 0;
+        for (int i = 0; i < v4Count; i++) {
+            if (n > 0 && (v4[n - 1] >>> 24) == (v4[i] >>> 24)) continue;
+            v4[n++] = v4[i];
+        }
+        v4Count = n;
+
+        sortIPv6(0, v6Count - 1);
+        n = 0;
+        for (int i = 0; i < v6Count; i++) {
+            if (n > 0 && compareIPv6(n - 1, i) == 0) continue;
+            v6Hi[n] = v6Hi[i];
+            v6Lo[n] = v6Lo[i];
+            v6Meta[n] = v6Meta[i];
+            n++;
+        }
+        v6Count = n;
+        sorted = true;
+    }
+
+    private int compareIPv6(int i, int j) {
+        int c = PackedPrefix.compareIPv6(v6Hi[i], v6Lo[i], v6Hi[j], v6Lo[j]);
+        return c != 0 ? c : Integer.compare(v6Meta[i] >>> 24, v6Meta[j] >>> 24);
+    }
+
+    private void sortIPv6(int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            swap(mid, hi);
+            int store = lo;
+            for (int i = lo; i < hi; i++) {
+                if (compareIPv6(i, hi) < 0) {
+                    swap(i, store++);
+                }
+            }
+            swap(store, hi);
+            // 先递归较短的一侧，栈深度为 O(log n)
+            if (store - lo < hi - store) {
+                sortIPv6(lo, store - 1);
+                lo = store + 1;
+            } else {
+                sortIPv6(store + 1, hi);
+                hi = store - 1;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long h = v6Hi[i];
+        v6Hi[i] = v6Hi[j];
+        v6Hi[j] = h;
+        long l = v6Lo[i];
+        v6Lo[i] = v6Lo[j];
+        v6Lo[j] = l;
+        int m = v6Meta[i];
+        v6Meta[i] = v6Meta[j];
+        v6Meta[j] = m;
+    }
+
+    /**
+     * 计算把 current 变为 desired 所需的最少操作
+     * @param desired 期望的路由
+     * @param current 当前已安装的路由
+     */
+    static void diff(RouteSet desired, RouteSet current, DiffListener listener) {
+        desired.sort();
+        current.sort();
+
+        int i = 0;
+        int j = 0;
+        while (i < desired.v4Count || j < current.v4Count) {
+            long a = i < desired.v4Count ? desired.v4[i] : Long.MAX_VALUE;
+            long b = j < current.v4Count ? current.v4[j] : Long.MAX_VALUE;
+            int c = Long.compare(a >>> 24, b >>> 24);
+            if (c < 0) {
+                listener.add(formatIPv4(a), desired.gateways.get((int) (a & 0xffffff)));
+                i++;
+            } else if (c > 0) {
+                listener.delete(formatIPv4(b), current.gateways.get((int) (b & 0xffffff)));
+                j++;
+            } else {
+                String gw = desired.gateways.get((int) (a & 0xffffff));
+                String old = current.gateways.get((int) (b & 0xffffff));
+                if (!gw.equals(old)) {
+                    listener.replace(formatIPv4(a), old, gw);
+                }
+                i++;
+                j++;
+            }
+        }
+
+        i = 0;
+        j = 0;
+        while (i < desired.v6Count || j < current.v6Count) {
+            int c;
+            if (i == desired.v6Count) {
+                c = 1;
+            } else if (j == current.v6Count) {
+                c = -1;
+            } else {
+                c = PackedPrefix.compareIPv6(desired.v6Hi[i], desired.v6Lo[i], current.v6Hi[j], current.v6Lo[j]);
+                if (c == 0) c = Integer.compare(desired.v6Meta[i] >>> 24, current.v6Meta[j] >>> 24);
+            }
+            if (c < 0) {
+                listener.add(desired.formatIPv6(i), desired.gateways.get(desired.v6Meta[i] & 0xffffff));
+                i++;
+            } else if (c > 0) {
+                listener.delete(current.formatIPv6(j), current.gateways.get(current.v6Meta[j] & 0xffffff));
+                j++;
+            } else {
+                String gw = desired.gateways.get(desired.v6Meta[i] & 0xffffff);
+                String old = current.gateways.get(current.v6Meta[j] & 0xffffff);
+                if (!gw.equals(old)) {
+                    listener.replace(desired.formatIPv6(i), old, gw);
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private static String formatIPv4(long key) {
+        return PackedPrefix.formatIPv4(key >>> 30, (int) ((key >>> 24) & 0x3f));
+    }
+
+    private String formatIPv6(int i) {
+        return PackedPrefix.formatIPv6(v6Hi[i], v6Lo[i], v6Meta[i] >>> 24);
+    }
+}
@@ -0,0 +1,310 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单遍的地址空间统计。
+ *
+ * 在管道收集阶段对每条输出路由调用 add()，只用基本类型数组和计数器：每个地址家族的前缀数和前缀长度分布、
+ * AS_PATH 跳数分布、按起源 AS（AS_PATH 最后一个 ASN）的前缀数和地址空间（以 int 为键的开放寻址表）。
+ * 前缀本身存入 {@link FamilyLanes}，结束时一次排序得到聚合后的覆盖空间和更具体前缀数，不再读取文件。
+ * IPv4 空间以地址数计，IPv6 以 /64 块数计（与 Analysis.ipv6Summary 相同，长于 /64 的前缀计为 0，
+ * 超过 2^64-1 时饱和）。起源 AS 的空间按前缀大小直接累加，不扣除重叠部分。
+ */
+final class RouteStatistics {
+    /** 报告中列出的起源 AS 数 */
+    static final int TOP_ORIGINS = 20;
+
+    private final FamilyLanes lanes = new FamilyLanes();
+    private final long[] ipv4Lengths = new long[33];
+    private final long[] ipv6Lengths = new long[129];
+    private long[] pathLengths = new long[16];
+    private long invalid;
+
+    // 起源 AS 表，ASN 0 表示无法确定起源（AS_PATH 以 AS_SET 结尾或为空）
+    private int[] originKeys = new int[256];
+    private boolean[] originUsed = new boolean[256];
+    private long[] originPrefixes = new long[256];
+    private long[] originIPv4 = new long[256];
+    private long[] originIPv6 = new long[256];
+    private int origins;
+
+    private boolean finished;
+    private long ipv4Covered;
+    private long ipv6Covered;
+    private int ipv4Aggregated;
+    private int ipv6Aggregated;
+    private int ipv4MoreSpecifics;
+    private int ipv6MoreSpecifics;
+
+    /**
+     * 统计一条路由
+     * @param route route[0] 为前缀，route[1]（如有）为 AS_PATH
+     */
+    void add(String[] route) {
+        String prefix = route[0].trim();
+        int family = lanes.add(prefix);
+        if (family == PackedPrefix.FAMILY_NONE) {
+            invalid++;
+            return;
+        }
+        int len = prefixLength(prefix);
+        long ipv4Space = 0;
+        long ipv6Space = 0;
+        if (family == PackedPrefix.FAMILY_IPV4) {
+            ipv4Lengths[len]++;
+            ipv4Space = 1L << (32 - len);
+        } else {
+            ipv6Lengths[len]++;
+            ipv6Space = len > 64 ? 0 : len == 0 ? -1L : 1L << (64 - len);
+        }
+        String aspath = route.length > 1 ? route[1] : null;
+        int hops = aspath == null ? 0 : AsPaths.length(aspath);
+        if (hops >= pathLengths.length) pathLengths = Arrays.copyOf(pathLengths, Math.max(hops + 1, pathLengths.length * 2));
+        pathLengths[hops]++;
+
+        int slot = originSlot(originAs(aspath));
+        originPrefixes[slot]++;
+        originIPv4[slot] += ipv4Space;
+        originIPv6[slot] = saturatingAdd(originIPv6[slot], ipv6Space);
+        finished = false;
+    }
+
+    void addAll(List<String[]> routes) {
+        for (String[] route : routes) add(route);
+    }
+
+    /**
+     * 对 CSV 文件的 prefix / as_path 列做一次统计（没有 prefix 列时取第一列）
+     */
+    static RouteStatistics ofCsv(String csvPath) throws IOException {
+        RouteStatistics stats = new RouteStatistics();
+        CSVProvider.readPrefixPaths(csvPath, stats::add);
+        return stats;
+    }
+
+    long ipv4Prefixes() {
+        return lanes.ipv4Size();
+    }
+
+    long ipv6Prefixes() {
+        return lanes.ipv6Size();
+    }
+
+    /**
+     * 无法解析前缀而未计入统计的路由数
+     */
+    long invalidPrefixes() {
+        return invalid;
+    }
+
+    /**
+     * 聚合后 IPv4 覆盖的地址数
+     */
+    long ipv4Covered() {
+        finish();
+        return ipv4Covered;
+    }
+
+    /**
+     * 聚合后 IPv6 覆盖的 /64 块数（无符号）
+     */
+    long ipv6Covered() {
+        finish();
+        return ipv6Covered;
+    }
+
+    int ipv4MoreSpecifics() {
+        finish();
+        return ipv4MoreSpecifics;
+    }
+
+    int ipv6MoreSpecifics() {
+        finish();
+        return ipv6MoreSpecifics;
+    }
+
+    long ipv4LengthCount(int len) {
+        return ipv4Lengths[len];
+    }
+
+    long ipv6LengthCount(int len) {
+        return ipv6Lengths[len];
+    }
+
+    long pathLengthCount(int hops) {
+        return hops < pathLengths.length ? pathLengths[hops] : 0;
+    }
+
+    long originPrefixes(int asn) {
+        int slot = findOrigin(asn);
+        return slot < 0 ? 0 : originPrefixes[slot];
+    }
+
+    long originIPv4Space(int asn) {
+        int slot = findOrigin(asn);
+        return slot < 0 ? 0 : originIPv4[slot];
+    }
+
+    long originIPv6Space(int asn) {
+        int slot = findOrigin(asn);
+        return slot < 0 ? 0 : originIPv6[slot];
+    }
+
+    int originCount() {
+        return origins;
+    }
+
+    /**
+     * 文本报告
+     */
+    String report() {
+        finish();
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== 路由统计 ===\n");
+        sb.append("IPv4: 前缀 ").append(lanes.ipv4Size()).append(" 条，覆盖 ").append(ipv4Covered)
+                .append(" 个地址（聚合为 ").append(ipv4Aggregated).append(" 个 CIDR），更具体前缀 ")
+                .append(ipv4MoreSpecifics).append(" 条\n");
+        sb.append("IPv6: 前缀 ").append(lanes.ipv6Size()).append(" 条，覆盖 ").append(Long.toUnsignedString(ipv6Covered))
+                .append(" 个 /64（聚合为 ").append(ipv6Aggregated).append(" 个 CIDR），更具体前缀 ")
+                .append(ipv6MoreSpecifics).append(" 条\n");
+        if (invalid > 0) {
+            sb.append("无效前缀: ").append(invalid).append(" 条\n");
+        }
+        appendHistogram(sb, "IPv4 前缀长度分布:", "/", ipv4Lengths);
+        appendHistogram(sb, "IPv6 前缀长度分布:", "/", ipv6Lengths);
+        appendHistogram(sb, "AS_PATH 跳数分布:", "", pathLengths);
+
+        Integer[] order = new Integer[originKeys.length];
+        int n = 0;
+        for (int s = 0; s < originKeys.length; s++) {
+            if (originUsed[s]) order[n++] = s;
+        }
+        order = Arrays.copyOf(order, n);
+        Arrays.sort(order, (a, b) -> originPrefixes[a] != originPrefixes[b]
+                ? Long.compare(originPrefixes[b], originPrefixes[a])
+                : Integer.compareUnsigned(originKeys[a], originKeys[b]));
+        sb.append("起源 AS: ").append(origins).append(" 个，按前缀数前 ").append(Math.min(TOP_ORIGINS, n)).append(" 个:\n");
+        for (int i = 0; i < n && i < TOP_ORIGINS; i++) {
+            int s = order[i];
+            sb.append("  ").append(originKeys[s] == 0 ? "未知" : "AS" + Integer.toUnsignedString(originKeys[s]))
+                    .append(" 前缀 ").append(originPrefixes[s]).append(" 条，IPv4 地址 ").append(originIPv4[s])
+                    .append("，IPv6 /64 ").append(Long.toUnsignedString(originIPv6[s])).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void finish() {
+        if (finished) return;
+        List<List<String>> aggregated = lanes.aggregate();
+        ipv4Covered = 0;
+        for (String cidr : aggregated.get(0)) {
+            ipv4Covered += 1L << (32 - prefixLength(cidr));
+        }
+        ipv6Covered = 0;
+        for (String cidr : aggregated.get(1)) {
+            int len = prefixLength(cidr);
+            ipv6Covered = saturatingAdd(ipv6Covered, len > 64 ? 0 : len == 0 ? -1L : 1L << (64 - len));
+        }
+        ipv4Aggregated = aggregated.get(0).size();
+        ipv6Aggregated = aggregated.get(1).size();
+        ipv4MoreSpecifics = lanes.moreSpecificsIPv4();
+        ipv6MoreSpecifics = lanes.moreSpecificsIPv6();
+        finished = true;
+    }
+
+    private static void appendHistogram(StringBuilder sb, String title, String label, long[] counts) {
+        sb.append(title);
+        boolean any = false;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            sb.append(' ').append(label).append(i).append('=').append(counts[i]);
+            any = true;
+        }
+        sb.append(any ? "\n" : " 无\n");
+    }
+
+    /**
+     * AS_PATH 的最后一个 ASN，即起源 AS；以 AS_SET 结尾、为空或无法解析时为 0
+     */
+    static int originAs(String aspath) {
+        if (aspath == null) return 0;
+        int end = aspath.length();
+        while (end > 0 && aspath.charAt(end - 1) <= ' ') end--;
+        int start = end;
+        while (start > 0 && aspath.charAt(start - 1) >= '0' && aspath.charAt(start - 1) <= '9') start--;
+        if (start == end || end - start > 10 || (start > 0 && aspath.charAt(start - 1) > ' ')) return 0;
+        long v = Long.parseLong(aspath.substring(start, end));
+        return v > 0xffffffffL ? 0 : (int) v;
+    }
+
+    private static int prefixLength(String cidr) {
+        int slash = cidr.lastIndexOf('/');
+        return Integer.parseInt(cidr.substring(slash + 1).trim());
+    }
+
+    private static long saturatingAdd(long a, long b) {
+        long sum = a + b;
+        return Long.compareUnsigned(sum, a) < 0 ? -1L : sum;
+    }
+
+    private int findOrigin(int asn) {
+        int mask = originKeys.length - 1;
+        int slot = mix(asn) & mask;
+        while (originUsed[slot]) {
+            if (originKeys[slot] == asn) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int originSlot(int asn) {
+        int mask = originKeys.length - 1;
+        int slot = mix(asn) & mask;
+        while (originUsed[slot]) {
+            if (originKeys[slot] == asn) return slot;
+            slot = (slot + 1) & mask;
+        }
+        originUsed[slot] = true;
+        originKeys[slot] = asn;
+        if (++origins * 2 > originKeys.length) {
+            rehashOrigins();
+            return findOrigin(asn);
+        }
+        return slot;
+    }
+
+    private static int mix(int asn) {
+        int h = asn * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehashOrigins() {
+        int[] oldKeys = originKeys;
+        boolean[] oldUsed = originUsed;
+        long[] oldPrefixes = originPrefixes;
+        long[] oldIPv4 = originIPv4;
+        long[] oldIPv6 = originIPv6;
+        int capacity = oldKeys.length * 2;
+        originKeys = new int[capacity];
+        originUsed = new boolean[capacity];
+        originPrefixes = new long[capacity];
+        originIPv4 = new long[capacity];
+        originIPv6 = new long[capacity];
+        int mask = capacity - 1;
+        for (int s = 0; s < oldKeys.length; s++) {
+            if (!oldUsed[s]) continue;
+            int slot = mix(oldKeys[s]) & mask;
+            while (originUsed[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            originUsed[slot] = true;
+            originKeys[slot] = oldKeys[s];
+            originPrefixes[slot] = oldPrefixes[s];
+            originIPv4[slot] = oldIPv4[s];
+            originIPv6[slot] = oldIPv6[s];
+        }
+    }
+}
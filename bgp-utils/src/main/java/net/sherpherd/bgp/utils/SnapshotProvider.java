@@ -0,0 +1,657 @@
+package net.sherpherd.bgp.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 二进制列式路由快照。
+ *
+ * 文件布局（大端序）：
+ * <pre>
+ * header   : magic "BGPSNAP\0", version, flags, v4Count, v6Count, pathCount, asnCount,
+ *            communityCount, peerCount, 以及各段的起始偏移
+ * v4 段    : int addr[n] | byte len[n] | int pathId[n] | [int communityId[n]] | [int peerId[n]]
+ * v6 段    : long hi[n] | long lo[n] | byte len[n] | int pathId[n] | [int communityId[n]] | [int peerId[n]]
+ * AS_PATH  : int offsets[pathCount + 1] | int asns[asnCount]
+ * 字符串字典: int offsets[count + 1] | UTF-8 bytes （community 与 peer 各一份）
+ * </pre>
+ * 每个地址家族内按 (地址, 前缀长度) 升序排列，读取时通过内存映射直接二分查找，无需整体加载。
+ * 路由数据格式为 {prefix, as_path, community, peer}，后两列可为空。
+ */
+class SnapshotProvider extends DataProvider implements CreateProviderFile {
+    static final byte[] MAGIC = {'B', 'G', 'P', 'S', 'N', 'A', 'P', 0};
+    static final int VERSION = 1;
+    static final int FLAG_COMMUNITY = 1;
+    static final int FLAG_PEER = 2;
+    static final int HEADER_SIZE = 96;
+
+    // 写入快照时是否同时生成 AS_PATH 倒排索引
+    private static volatile boolean writeAsIndex = false;
+
+    private final List<String[]> pending;
+    private MappedByteBuffer buffer;
+    private int flags;
+    private int v4Count;
+    private int v6Count;
+    private int pathCount;
+    private long v4Offset;
+    private long v6Offset;
+    private long pathOffset;
+    private long communityOffset;
+    private long peerOffset;
+    private int communityCount;
+    private int peerCount;
+    private int cursor;
+
+    /**
+     * 开启后 writeToFile() 在快照旁边同时写入 {@link AsPathIndex}
+     */
+    static void setWriteAsIndex(boolean enabled) {
+        writeAsIndex = enabled;
+    }
+
+    static boolean isWriteAsIndex() {
+        return writeAsIndex;
+    }
+
+    public SnapshotProvider(String path) {
+        super(path);
+        this.pending = new ArrayList<>();
+        initialize();
+    }
+
+    @Override
+    public boolean createFile(String filePath) {
+        try {
+            File file = new File(filePath);
+            if (file.exists()) {
+                if (verbose) {
+                    System.out.println("快照文件已存在: " + filePath);
+                }
+                return false;
+            }
+
+            // 创建目录（如果不存在）
+            File parentDir = file.getParentFile();
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+
+            if (file.createNewFile()) {
+                if (verbose) {
+                    System.out.println("快照文件创建成功: " + filePath);
+                }
+                return true;
+            } else {
+                if (verbose) {
+                    System.err.println("快照文件创建失败: " + filePath);
+                }
+                return false;
+            }
+        } catch (IOException e) {
+            if (verbose) {
+                System.err.println("创建快照文件时发生IO异常: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    private void initialize() {
+        File file = new File(path);
+
+        // 文件不存在或为空时视为待写入的新快照
+        if (!file.exists() || file.length() == 0) {
+            return;
+        }
+
+        try {
+            map(file);
+        } catch (IOException e) {
+            buffer = null;
+            if (verbose) {
+                System.err.println("初始化SnapshotProvider失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private void map(File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException("快照文件过大，无法映射: " + file.length() + " 字节");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.capacity() < HEADER_SIZE) {
+                throw new IOException("快照文件头不完整: " + path);
+            }
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (mapped.get(i) != MAGIC[i]) {
+                    throw new IOException("不是有效的路由快照文件: " + path);
+                }
+            }
+            int version = mapped.getInt(8);
+            if (version != VERSION) {
+                throw new IOException("不支持的快照版本: " + version);
+            }
+            flags = mapped.getInt(12);
+            v4Count = mapped.getInt(16);
+            v6Count = mapped.getInt(20);
+            pathCount = mapped.getInt(24);
+            communityCount = mapped.getInt(32);
+            peerCount = mapped.getInt(36);
+            v4Offset = mapped.getLong(40);
+            v6Offset = mapped.getLong(48);
+            pathOffset = mapped.getLong(56);
+            communityOffset = mapped.getLong(64);
+            peerOffset = mapped.getLong(72);
+            buffer = mapped;
+        }
+    }
+
+    /**
+     * 快照中的路由总数（IPv4 在前，IPv6 在后）
+     */
+    public int size() {
+        return buffer == null ? 0 : v4Count + v6Count;
+    }
+
+    public int ipv4Count() {
+        return buffer == null ? 0 : v4Count;
+    }
+
+    public int ipv6Count() {
+        return buffer == null ? 0 : v6Count;
+    }
+
+    @Override
+    public String[] getNextRoute() {
+        if (cursor >= size()) {
+            return null;
+        }
+        return getRoute(cursor++);
+    }
+
+    /**
+     * 按全局索引读取快照中的路由：[0, v4Count) 为 IPv4，其后为 IPv6
+     */
+    @Override
+    public String[] getRoute(int index) {
+        if (buffer == null || index < 0 || index >= v4Count + v6Count) {
+            return null;
+        }
+        if (index < v4Count) {
+            long addr = buffer.getInt((int) (v4Offset + 4L * index)) & 0xffffffffL;
+            int len = buffer.get((int) (v4Offset + 4L * v4Count + index)) & 0xff;
+            return buildRoute(PackedPrefix.formatIPv4(addr, len), v4Offset, v4Count, 5, index);
+        }
+        int i = index - v4Count;
+        long hi = buffer.getLong((int) (v6Offset + 8L * i));
+        long lo = buffer.getLong((int) (v6Offset + 8L * v6Count + 8L * i));
+        int len = buffer.get((int) (v6Offset + 16L * v6Count + i)) & 0xff;
+        return buildRoute(PackedPrefix.formatIPv6(hi, lo, len), v6Offset, v6Count, 17, i);
+    }
+
+    /**
+     * 写入缓冲区：index 为 -1 或等于当前大小时追加，否则替换。
+     * 缓冲的路由在 writeToFile() 时才会生成快照文件。
+     */
+    @Override
+    public void setRoute(int index, String[] routeData) {
+        if (routeData == null || routeData.length < 2) {
+            throw new IllegalArgumentException("快照路由数据至少需要prefix和as_path");
+        }
+        if (index == -1 || index == pending.size()) {
+            pending.add(routeData);
+        } else if (index >= 0 && index < pending.size()) {
+            pending.set(index, routeData);
+        } else {
+            throw new IndexOutOfBoundsException("索引超出范围: " + index);
+        }
+    }
+
+    /**
+     * 精确查找前缀
+     * @return 路由数据，不存在时返回 null
+     */
+    public String[] lookup(String prefix) {
+        if (buffer == null) return null;
+        if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+            long packed = PackedPrefix.parseIPv4(prefix);
+            if (packed < 0) return null;
+            int i = findIPv4(PackedPrefix.ipv4Address(packed), PackedPrefix.ipv4Length(packed));
+            return i < 0 ? null : getRoute(i);
+        }
+        long[] v6 = new long[3];
+        if (!PackedPrefix.parseIPv6(prefix, v6)) return null;
+        int i = findIPv6(v6[0], v6[1], (int) v6[2]);
+        return i < 0 ? null : getRoute(v4Count + i);
+    }
+
+    /**
+     * 最长前缀匹配：依次从最长的前缀长度向下做二分查找
+     * @param address 不带前缀长度的 IPv4/IPv6 地址
+     * @return 覆盖该地址的最具体路由，不存在时返回 null
+     */
+    public String[] longestMatch(String address) {
+        if (buffer == null || address == null) return null;
+        if (PackedPrefix.family(address) == PackedPrefix.FAMILY_IPV4) {
+            long addr = PackedPrefix.parseIPv4Address(address);
+            if (addr < 0) return null;
+            for (int len = 32; len >= 0; len--) {
+                int i = findIPv4(addr & PackedPrefix.ipv4Mask(len), len);
+                if (i >= 0) return getRoute(i);
+            }
+            return null;
+        }
+        long[] v6 = new long[2];
+        if (!PackedPrefix.parseIPv6Address(address, v6)) return null;
+        for (int len = 128; len >= 0; len--) {
+            int i = findIPv6(v6[0] & PackedPrefix.ipv6MaskHi(len), v6[1] & PackedPrefix.ipv6MaskLo(len), len);
+            if (i >= 0) return getRoute(v4Count + i);
+        }
+        return null;
+    }
+
+    private int findIPv4(long addr, int len) {
+        int lo = 0;
+        int hi = v4Count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long a = buffer.getInt((int) (v4Offset + 4L * mid)) & 0xffffffffL;
+            int c = Long.compare(a, addr);
+            if (c == 0) {
+                c = Integer.compare(buffer.get((int) (v4Offset + 4L * v4Count + mid)) & 0xff, len);
+            }
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int findIPv6(long addrHi, long addrLo, int len) {
+        int lo = 0;
+        int hi = v6Count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long h = buffer.getLong((int) (v6Offset + 8L * mid));
+            long l = buffer.getLong((int) (v6Offset + 8L * v6Count + 8L * mid));
+            int c = PackedPrefix.compareIPv6(h, l, addrHi, addrLo);
+            if (c == 0) {
+                c = Integer.compare(buffer.get((int) (v6Offset + 16L * v6Count + mid)) & 0xff, len);
+            }
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按全局索引读取路由的 AS_PATH，不经过字符串
+     * @return ASN 数组，索引无效时返回 null
+     */
+    int[] getPathAsns(int index) {
+        if (buffer == null || index < 0 || index >= v4Count + v6Count) {
+            return null;
+        }
+        long pathCol = index < v4Count
+                ? align(v4Offset + 5L * v4Count, 4) + 4L * index
+                : align(v6Offset + 17L * v6Count, 4) + 4L * (index - v4Count);
+        int pathId = buffer.getInt((int) pathCol);
+        if (pathId < 0 || pathId >= pathCount) return new int[0];
+        int start = buffer.getInt((int) (pathOffset + 4L * pathId));
+        int end = buffer.getInt((int) (pathOffset + 4L * (pathId + 1)));
+        long asnBase = pathOffset + 4L * (pathCount + 1);
+        int[] asns = new int[end - start];
+        for (int k = start; k < end; k++) {
+            asns[k - start] = buffer.getInt((int) (asnBase + 4L * k));
+        }
+        return asns;
+    }
+
+    /**
+     * @param fixedWidth 每条路由在 pathId 列之前占用的字节数（IPv4 为 4+1，IPv6 为 8+8+1）
+     */
+    private String[] buildRoute(String prefix, long sectionOffset, int count, int fixedWidth, int i) {
+        long pathCol = align(sectionOffset + (long) fixedWidth * count, 4);
+        int pathId = buffer.getInt((int) (pathCol + 4L * i));
+        long next = pathCol + 4L * count;
+        String community = "";
+        String peer = "";
+        if ((flags & FLAG_COMMUNITY) != 0) {
+            community = readString(communityOffset, communityCount, buffer.getInt((int) (next + 4L * i)));
+            next += 4L * count;
+        }
+        if ((flags & FLAG_PEER) != 0) {
+            peer = readString(peerOffset, peerCount, buffer.getInt((int) (next + 4L * i)));
+        }
+        return new String[]{prefix, readPath(pathId), community, peer};
+    }
+
+    private String readPath(int pathId) {
+        if (pathId < 0 || pathId >= pathCount) return "";
+        int start = buffer.getInt((int) (pathOffset + 4L * pathId));
+        int end = buffer.getInt((int) (pathOffset + 4L * (pathId + 1)));
+        long asnBase = pathOffset + 4L * (pathCount + 1);
+        StringBuilder sb = new StringBuilder((end - start) * 7);
+        for (int k = start; k < end; k++) {
+            if (k > start) sb.append(' ');
+            sb.append(buffer.getInt((int) (asnBase + 4L * k)) & 0xffffffffL);
+        }
+        return sb.toString();
+    }
+
+    private String readString(long offset, int count, int id) {
+        if (id < 0 || id >= count) return "";
+        int start = buffer.getInt((int) (offset + 4L * id));
+        int end = buffer.getInt((int) (offset + 4L * (id + 1)));
+        byte[] bytes = new byte[end - start];
+        long base = offset + 4L * (count + 1);
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = buffer.get((int) (base + start + k));
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 将缓冲的路由写入快照文件：先写临时文件再原子替换，写完后重新映射
+     */
+    public void writeToFile() throws IOException {
+        List<long[]> v4 = new ArrayList<>();
+        List<long[]> v6 = new ArrayList<>();
+        Dictionary paths = new Dictionary();
+        Dictionary communities = new Dictionary();
+        Dictionary peers = new Dictionary();
+        List<int[]> pathAsns = new ArrayList<>();
+        long[] tmp = new long[3];
+
+        // 每条记录: {hi, lo, len, pathId, communityId, peerId}，IPv4 的 hi 为地址
+        for (String[] route : pending) {
+            String prefix = route[0] == null ? "" : route[0].trim();
+            int[] asns = AsPaths.parse(route[1]);
+            if (asns == null) {
+                if (verbose) {
+                    System.err.println("忽略无效AS_PATH: " + route[1]);
+                }
+                continue;
+            }
+            String community = route.length > 2 && route[2] != null ? route[2].trim() : "";
+            String peer = route.length > 3 && route[3] != null ? route[3].trim() : "";
+
+            long[] rec;
+            if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+                long packed = PackedPrefix.parseIPv4(prefix);
+                if (packed < 0) {
+                    if (verbose) {
+                        System.err.println("忽略无效CIDR: " + prefix);
+                    }
+                    continue;
+                }
+                rec = new long[]{PackedPrefix.ipv4Address(packed), 0L, PackedPrefix.ipv4Length(packed), 0, 0, 0};
+                v4.add(rec);
+            } else if (PackedPrefix.parseIPv6(prefix, tmp)) {
+                rec = new long[]{tmp[0], tmp[1], tmp[2], 0, 0, 0};
+                v6.add(rec);
+            } else {
+                if (verbose) {
+                    System.err.println("忽略无效CIDR: " + prefix);
+                }
+                continue;
+            }
+            String pathKey = AsPaths.format(asns);
+            int before = paths.size();
+            rec[3] = paths.id(pathKey);
+            if (paths.size() > before) {
+                pathAsns.add(asns);
+            }
+            rec[4] = community.isEmpty() ? -1 : communities.id(community);
+            rec[5] = peer.isEmpty() ? -1 : peers.id(peer);
+        }
+
+        // 稳定排序后去重，同一前缀保留最先出现的记录
+        v4.sort(Comparator.<long[]>comparingLong(r -> r[0]).thenComparingLong(r -> r[2]));
+        v6.sort((a, b) -> {
+            int c = PackedPrefix.compareIPv6(a[0], a[1], b[0], b[1]);
+            return c != 0 ? c : Long.compare(a[2], b[2]);
+        });
+        v4 = dedup(v4);
+        v6 = dedup(v6);
+
+        int newFlags = (communities.size() > 0 ? FLAG_COMMUNITY : 0) | (peers.size() > 0 ? FLAG_PEER : 0);
+        int columns = 1 + ((newFlags & FLAG_COMMUNITY) != 0 ? 1 : 0) + ((newFlags & FLAG_PEER) != 0 ? 1 : 0);
+        int asnCount = 0;
+        for (int[] a : pathAsns) asnCount += a.length;
+
+        long v4Off = HEADER_SIZE;
+        long v4End = align(v4Off + 5L * v4.size(), 4) + 4L * columns * v4.size();
+        long v6Off = align(v4End, 8);
+        long v6End = align(v6Off + 17L * v6.size(), 4) + 4L * columns * v6.size();
+        long pathOff = align(v6End, 4);
+        long pathEnd = pathOff + 4L * (pathAsns.size() + 1) + 4L * asnCount;
+        long communityOff = pathEnd;
+        long peerOff = communityOff + communities.byteSize();
+
+        File target = new File(path);
+        File parentDir = target.getAbsoluteFile().getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        File tmpFile = new File(target.getAbsolutePath() + ".tmp");
+        try (CountingOutput out = new CountingOutput(new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(newFlags);
+            out.writeInt(v4.size());
+            out.writeInt(v6.size());
+            out.writeInt(pathAsns.size());
+            out.writeInt(asnCount);
+            out.writeInt(communities.size());
+            out.writeInt(peers.size());
+            out.writeLong(v4Off);
+            out.writeLong(v6Off);
+            out.writeLong(pathOff);
+            out.writeLong(communityOff);
+            out.writeLong(peerOff);
+            out.padTo(HEADER_SIZE);
+
+            for (long[] r : v4) out.writeInt((int) r[0]);
+            for (long[] r : v4) out.writeByte((int) r[2]);
+            out.padTo(align(out.position(), 4));
+            writeIdColumns(out, v4, newFlags);
+
+            out.padTo(v6Off);
+            for (long[] r : v6) out.writeLong(r[0]);
+            for (long[] r : v6) out.writeLong(r[1]);
+            for (long[] r : v6) out.writeByte((int) r[2]);
+            out.padTo(align(out.position(), 4));
+            writeIdColumns(out, v6, newFlags);
+
+            out.padTo(pathOff);
+            int offset = 0;
+            for (int[] a : pathAsns) {
+                out.writeInt(offset);
+                offset += a.length;
+            }
+            out.writeInt(offset);
+            for (int[] a : pathAsns) {
+                for (int asn : a) out.writeInt(asn);
+            }
+
+            communities.writeTo(out);
+            peers.writeTo(out);
+        }
+
+        buffer = null;
+        Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        map(target);
+        pending.clear();
+        cursor = 0;
+
+        // 索引 ID 与快照的全局索引一致，直接复用排序后的记录，旧索引作废
+        File indexFile = new File(AsPathIndex.indexPath(target.getPath()));
+        if (writeAsIndex) {
+            AsPathIndex.Builder index = new AsPathIndex.Builder();
+            for (int i = 0; i < v4.size(); i++) {
+                index.add(i, pathAsns.get((int) v4.get(i)[3]));
+            }
+            for (int i = 0; i < v6.size(); i++) {
+                index.add(v4.size() + i, pathAsns.get((int) v6.get(i)[3]));
+            }
+            index.build(target).write(indexFile.getPath());
+        } else if (indexFile.exists()) {
+            Files.delete(indexFile.toPath());
+        }
+
+        if (verbose) {
+            System.out.println("已写入 " + (v4.size() + v6.size()) + " 条路由到快照: " + path
+                    + " (IPv4 " + v4.size() + ", IPv6 " + v6.size() + ", AS_PATH " + pathAsns.size() + ")");
+        }
+    }
+
+    private static void writeIdColumns(CountingOutput out, List<long[]> recs, int flags) throws IOException {
+        for (long[] r : recs) out.writeInt((int) r[3]);
+        if ((flags & FLAG_COMMUNITY) != 0) {
+            for (long[] r : recs) out.writeInt((int) r[4]);
+        }
+        if ((flags & FLAG_PEER) != 0) {
+            for (long[] r : recs) out.writeInt((int) r[5]);
+        }
+    }
+
+    private static List<long[]> dedup(List<long[]> sorted) {
+        List<long[]> out = new ArrayList<>(sorted.size());
+        long[] prev = null;
+        for (long[] r : sorted) {
+            if (prev != null && prev[0] == r[0] && prev[1] == r[1] && prev[2] == r[2]) continue;
+            out.add(r);
+            prev = r;
+        }
+        return out;
+    }
+
+    private static long align(long v, int to) {
+        return (v + to - 1) / to * to;
+    }
+
+    public void close() {
+        buffer = null;
+        cursor = 0;
+    }
+
+    /**
+     * 字符串字典，按首次出现顺序分配 ID
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<byte[]> values = new ArrayList<>();
+        private long bytes;
+
+        int id(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                byte[] b = value.getBytes(StandardCharsets.UTF_8);
+                values.add(b);
+                bytes += b.length;
+            }
+            return id;
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        long byteSize() {
+            return values.isEmpty() ? 0 : 4L * (values.size() + 1) + bytes;
+        }
+
+        void writeTo(CountingOutput out) throws IOException {
+            if (values.isEmpty()) return;
+            int offset = 0;
+            for (byte[] b : values) {
+                out.writeInt(offset);
+                offset += b.length;
+            }
+            out.writeInt(offset);
+            for (byte[] b : values) out.write(b);
+        }
+    }
+
+    /**
+     * 记录已写字节数的输出流，用于按偏移量对齐各段
+     */
+    private static class CountingOutput implements AutoCloseable {
+        private final DataOutputStream out;
+
+        CountingOutput(DataOutputStream out) {
+            this.out = out;
+        }
+
+        long position() {
+            return out.size();
+        }
+
+        void padTo(long pos) throws IOException {
+            while (out.size() < pos) out.writeByte(0);
+        }
+
+        void write(byte[] b) throws IOException {
+            out.write(b);
+        }
+
+        void writeByte(int v) throws IOException {
+            out.writeByte(v);
+        }
+
+        void writeInt(int v) throws IOException {
+            out.writeInt(v);
+        }
+
+        void writeLong(long v) throws IOException {
+            out.writeLong(v);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static boolean isSnapshotFile(String filePath) {
+        File file = new File(filePath);
+        if (!file.isFile() || file.length() < MAGIC.length) return false;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] head = new byte[MAGIC.length];
+            raf.readFully(head);
+            return Arrays.equals(head, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package net.sherpherd.bgp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 每个前缀保留 AS_PATH 最短的 K 条路由，用于计算备份路由。
+ *
+ * 前缀按首次出现的顺序编号，第 p 个前缀的候选存放在平铺数组（arena）的 [p * K, p * K + K) 区间，
+ * 以大顶堆组织：堆顶是当前最差的候选，新候选只需与堆顶比较。排名键为 (AS_PATH 跳数 &lt;&lt; 40 | 输入序号)，
+ * 越小越优，因此结果与写入顺序无关。除原始路由行外不为每条候选创建对象，内存随 K × 前缀数增长。
+ *
+ * 开启多样性时每个相邻 AS（AS_PATH 的第一个 ASN）最多保留一条，即先取每个相邻 AS 的最优路由，再从中取前 K 条。
+ */
+final class TopPathTable {
+    static final int MAX_K = 64;
+    private static final int SEQ_BITS = 40;
+
+    private final int k;
+    private final boolean distinctNeighbor;
+
+    // 前缀 → 编号的开放寻址表
+    private long[] keyHi = new long[1024];
+    private long[] keyLo = new long[1024];
+    private int[] keyMeta = new int[1024];
+    private int[] slotIndex = new int[1024];
+    private int prefixes;
+
+    // 每个前缀 K 个槽位的 arena
+    private byte[] count = new byte[512];
+    private long[] rank;
+    private int[] neighbor;
+    private String[][] rows;
+    private long replacements;
+
+    /**
+     * @param k 每个前缀保留的路由数，1 到 {@link #MAX_K}
+     * @param distinctNeighbor 是否要求相邻 AS 互不相同
+     */
+    TopPathTable(int k, boolean distinctNeighbor) {
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException("每个前缀保留的路由数必须在 1 到 " + MAX_K + " 之间: " + k);
+        }
+        this.k = k;
+        this.distinctNeighbor = distinctNeighbor;
+        this.rank = new long[count.length * k];
+        this.neighbor = new int[count.length * k];
+        this.rows = new String[count.length * k][];
+    }
+
+    /**
+     * 写入一条候选路由，缺少 AS_PATH 的不参与
+     * @param pathLen AS_PATH 跳数，0 表示缺少 AS_PATH
+     * @param seq 输入序号，跳数相同时序号小者优先
+     * @param route 原始路由数据，route[1] 为 AS_PATH
+     */
+    void offer(int family, long hi, long lo, int len, int pathLen, long seq, String[] route) {
+        if (pathLen == 0 || route.length < 2) return;
+        int p = prefixIndex(family << 8 | len, hi, lo);
+        long r = (long) pathLen << SEQ_BITS | (seq & ((1L << SEQ_BITS) - 1));
+        int as = distinctNeighbor ? BestPathSelector.neighborAs(route[1]) : 0;
+        int base = p * k;
+        int n = count[p];
+
+        if (distinctNeighbor) {
+            for (int i = 0; i < n; i++) {
+                if (neighbor[base + i] != as) continue;
+                // 同一相邻 AS 已有候选：只在更优时原位替换，排名变小后向下调整
+                if (r < rank[base + i]) {
+                    replacements++;
+                    rank[base + i] = r;
+                    rows[base + i] = route;
+                    siftDown(base, n, i);
+                }
+                return;
+            }
+        }
+        if (n < k) {
+            rank[base + n] = r;
+            neighbor[base + n] = as;
+            rows[base + n] = route;
+            count[p] = (byte) (n + 1);
+            siftUp(base, n);
+            return;
+        }
+        if (r >= rank[base]) return;
+        replacements++;
+        rank[base] = r;
+        neighbor[base] = as;
+        rows[base] = route;
+        siftDown(base, n, 0);
+    }
+
+    /**
+     * 按前缀首次出现的顺序输出，同一前缀的路由按 AS_PATH 从短到长排列
+     */
+    List<String[]> routes() {
+        List<String[]> result = new ArrayList<>(prefixes);
+        long[] sortedRank = new long[k];
+        int[] order = new int[k];
+        for (int p = 0; p < prefixes; p++) {
+            int base = p * k;
+            int n = count[p];
+            // 最多 K 条，插入排序即可
+            for (int i = 0; i < n; i++) {
+                long r = rank[base + i];
+                int j = i - 1;
+                while (j >= 0 && sortedRank[j] > r) {
+                    sortedRank[j + 1] = sortedRank[j];
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                sortedRank[j + 1] = r;
+                order[j + 1] = base + i;
+            }
+            for (int i = 0; i < n; i++) {
+                result.add(rows[order[i]]);
+            }
+        }
+        return result;
+    }
+
+    int prefixCount() {
+        return prefixes;
+    }
+
+    /**
+     * 已保留的候选被更优路由替换的次数
+     */
+    long replacements() {
+        return replacements;
+    }
+
+    private void siftUp(int base, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (rank[base + parent] >= rank[base + i]) return;
+            swap(base + parent, base + i);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int base, int n, int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= n) return;
+            int worst = left + 1 < n && rank[base + left + 1] > rank[base + left] ? left + 1 : left;
+            if (rank[base + i] >= rank[base + worst]) return;
+            swap(base + i, base + worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long r = rank[a];
+        rank[a] = rank[b];
+        rank[b] = r;
+        int as = neighbor[a];
+        neighbor[a] = neighbor[b];
+        neighbor[b] = as;
+        String[] row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+    }
+
+    private int prefixIndex(int meta, long hi, long lo) {
+        int mask = keyMeta.length - 1;
+        int slot = RoutePipeline.ShortestPathTable.hash(hi, lo, meta) & mask;
+        while (keyMeta[slot] != 0) {
+            if (keyMeta[slot] == meta && keyHi[slot] == hi && keyLo[slot] == lo) {
+                return slotIndex[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int p = prefixes++;
+        if (p == count.length) {
+            int capacity = count.length * 2;
+            count = Arrays.copyOf(count, capacity);
+            rank = Arrays.copyOf(rank, capacity * k);
+            neighbor = Arrays.copyOf(neighbor, capacity * k);
+            rows = Arrays.copyOf(rows, capacity * k);
+        }
+        keyMeta[slot] = meta;
+        keyHi[slot] = hi;
+        keyLo[slot] = lo;
+        slotIndex[slot] = p;
+        if (prefixes * 2 > keyMeta.length) {
+            rehash();
+        }
+        return p;
+    }
+
+    private void rehash() {
+        long[] oldHi = keyHi;
+        long[] oldLo = keyLo;
+        int[] oldMeta = keyMeta;
+        int[] oldIndex = slotIndex;
+        int capacity = oldMeta.length * 2;
+        keyHi = new long[capacity];
+        keyLo = new long[capacity];
+        keyMeta = new int[capacity];
+        slotIndex = new int[capacity];
+        int mask = capacity - 1;
+        for (int s = 0; s < oldMeta.length; s++) {
+            if (oldMeta[s] == 0) continue;
+            int slot = RoutePipeline.ShortestPathTable.hash(oldHi[s], oldLo[s], oldMeta[s]) & mask;
+            while (keyMeta[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keyHi[slot] = oldHi[s];
+            keyLo[slot] = oldLo[s];
+            keyMeta[slot] = oldMeta[s];
+            slotIndex[slot] = oldIndex[s];
+        }
+    }
+}
@@ -0,0 +1,98 @@
+#!/usr/bin/env python3
+# NetlinkRouteProvider 帧流的发送程序：把 RTM_NEWROUTE / RTM_DELROUTE 消息写入 NETLINK_ROUTE 套接字。
+#
+# 标准输入为连续的帧（4 字节大端长度 + 若干 netlink 消息），标准输出原样写回内核的 NLMSG_ERROR 应答，
+# 由 NetlinkRouteProvider 统计失败的请求。每次 sendmsg() 最多发送 CHUNK 条消息，并在发送下一批之前
+# 收齐这批消息的应答，避免应答超出接收缓冲区被内核丢弃。需要 CAP_NET_ADMIN。
+#
+# 用法: python3 netlink-send.py < routes.nl > acks.bin
+#       （也可以由 NetlinkRouteProvider.connectSender() 启动）
+
+import socket
+import struct
+import sys
+
+NETLINK_ROUTE = 0
+SOL_NETLINK = 270
+NETLINK_CAP_ACK = 10
+NLMSG_ERROR = 2
+NLMSG_HDRLEN = 16
+NLM_F_ACK = 0x4
+CHUNK = 512
+RCVBUF = 4 << 20
+ACK_TIMEOUT = 30.0
+
+
+def read_exact(stream, n):
+    data = bytearray()
+    while len(data) < n:
+        part = stream.read(n - len(data))
+        if not part:
+            if data:
+                raise EOFError("帧不完整")
+            return None
+        data.extend(part)
+    return bytes(data)
+
+
+def split_messages(frame):
+    # 消息头为主机字节序，帧必须在本机（或同字节序的机器）上生成
+    messages = []
+    pos = 0
+    while pos + NLMSG_HDRLEN <= len(frame):
+        length, _type, flags, seq = struct.unpack_from("=IHHI", frame, pos)
+        if length < NLMSG_HDRLEN or pos + length > len(frame):
+            raise ValueError("无效的netlink消息长度: %d" % length)
+        messages.append((frame[pos:pos + length], flags, seq))
+        pos += (length + 3) & ~3
+    return messages
+
+
+def main():
+    sock = socket.socket(socket.AF_NETLINK, socket.SOCK_RAW, NETLINK_ROUTE)
+    try:
+        sock.setsockopt(socket.SOL_SOCKET, 33, RCVBUF)  # SO_RCVBUFFORCE
+    except OSError:
+        sock.setsockopt(socket.SOL_SOCKET, socket.SO_RCVBUF, RCVBUF)
+    try:
+        # 应答中只带原请求的消息头，不回显整个请求
+        sock.setsockopt(SOL_NETLINK, NETLINK_CAP_ACK, 1)
+    except OSError:
+        pass
+    sock.bind((0, 0))
+    sock.settimeout(ACK_TIMEOUT)
+
+    stdin = sys.stdin.buffer
+    stdout = sys.stdout.buffer
+    while True:
+        head = read_exact(stdin, 4)
+        if head is None:
+            break
+        frame = read_exact(stdin, struct.unpack(">I", head)[0])
+        messages = split_messages(frame)
+        for i in range(0, len(messages), CHUNK):
+            chunk = messages[i:i + CHUNK]
+            pending = set(seq for _msg, flags, seq in chunk if flags & NLM_F_ACK)
+            sock.sendto(b"".join(m + b"\0" * (-len(m) % 4) for m, _f, _s in chunk), (0, 0))
+            while pending:
+                try:
+                    reply = sock.recv(1 << 20)
+                except socket.timeout:
+                    sys.stderr.write("等待netlink应答超时，还有 %d 条未确认\n" % len(pending))
+                    return 2
+                pos = 0
+                while pos + NLMSG_HDRLEN <= len(reply):
+                    length, msg_type = struct.unpack_from("=IH", reply, pos)
+                    if length < NLMSG_HDRLEN:
+                        break
+                    if msg_type == NLMSG_ERROR and length >= NLMSG_HDRLEN * 2 + 4:
+                        seq = struct.unpack_from("=I", reply, pos + NLMSG_HDRLEN + 4 + 8)[0]
+                        pending.discard(seq)
+                    pos += (length + 3) & ~3
+                stdout.write(reply)
+            stdout.flush()
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,228 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class AsPathIndexTest {
+
+    @After
+    public void disableIndex() {
+        SnapshotProvider.setWriteAsIndex(false);
+    }
+
+    @Test
+    public void testOriginAndTransit() {
+        AsPathIndex index = new AsPathIndex.Builder()
+                .add(0, new int[]{100, 200, 300})
+                .add(1, new int[]{100, 300, 300, 300})
+                .add(2, new int[]{200, 100, 300, 400})
+                .add(3, new int[]{300})
+                .add(5, new int[]{-1, 100})
+                .build();
+
+        assertEquals(6, index.routeCount());
+        assertEquals(5, index.asnCount());
+        assertEquals(IdSet.of(0, 1, 3), index.origin(300));
+        // 起源 AS 的 prepend 不算中转
+        assertEquals(IdSet.of(2), index.transit(300));
+        assertEquals(IdSet.of(0, 1, 2), index.transit(100));
+        assertEquals(IdSet.of(2), index.origin(400));
+        assertEquals(IdSet.of(5), index.origin(100));
+        assertEquals(IdSet.of(0, 2), index.transit(200));
+        assertEquals(IdSet.of(5), index.transit(-1));
+        assertEquals(IdSet.of(0, 1, 2, 5), index.any(100));
+        assertTrue(index.origin(999).isEmpty());
+
+        // 经过 100 且起源为 300 的路由
+        assertEquals(IdSet.of(0, 1), index.transit(100).and(index.origin(300)));
+        assertEquals(IdSet.of(2, 5), index.any(100).andNot(index.origin(300)));
+    }
+
+    @Test
+    public void testContainersMatchBruteForce() {
+        Random rnd = new Random(47);
+        int n = 50000;
+        int[][] paths = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int hops = 1 + rnd.nextInt(5);
+            paths[i] = new int[hops];
+            // 174 几乎出现在每条路由中，走位图；其余 ASN 稀疏，走差分编码
+            for (int h = 0; h < hops; h++) paths[i][h] = h == 0 && rnd.nextInt(10) > 0 ? 174 : 1000 + rnd.nextInt(3000);
+        }
+        AsPathIndex.Builder builder = new AsPathIndex.Builder();
+        long postings = 0;
+        for (int i = 0; i < n; i++) {
+            builder.add(i, paths[i]);
+            postings += paths[i].length;
+        }
+        AsPathIndex index = builder.build();
+
+        for (int asn : new int[]{174, 1000, 1500, 3999, 5000}) {
+            TreeSet<Integer> origin = new TreeSet<>();
+            TreeSet<Integer> transit = new TreeSet<>();
+            for (int i = 0; i < n; i++) {
+                int[] p = paths[i];
+                int last = p[p.length - 1];
+                if (last == asn) origin.add(i);
+                for (int h = 0; h < p.length - 1; h++) {
+                    if (p[h] == asn && last != asn) transit.add(i);
+                }
+            }
+            assertArrayEquals(String.valueOf(asn), toArray(origin), index.origin(asn).toArray());
+            assertArrayEquals(String.valueOf(asn), toArray(transit), index.transit(asn).toArray());
+        }
+        assertTrue(index.transit(174).isDense());
+        assertFalse(index.origin(1500).isDense());
+        // 压缩后明显小于每个 ID 4 字节
+        assertTrue(index.compressedBytes() + " / " + postings, index.compressedBytes() < 3L * postings);
+    }
+
+    @Test
+    public void testIdSetOperations() {
+        Random rnd = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            IdSet a = randomSet(rnd);
+            IdSet b = randomSet(rnd);
+            TreeSet<Integer> sa = toSet(a);
+            TreeSet<Integer> sb = toSet(b);
+
+            TreeSet<Integer> and = new TreeSet<>(sa);
+            and.retainAll(sb);
+            TreeSet<Integer> or = new TreeSet<>(sa);
+            or.addAll(sb);
+            TreeSet<Integer> andNot = new TreeSet<>(sa);
+            andNot.removeAll(sb);
+
+            assertArrayEquals(toArray(and), a.and(b).toArray());
+            assertArrayEquals(toArray(or), a.or(b).toArray());
+            assertArrayEquals(toArray(andNot), a.andNot(b).toArray());
+            assertEquals(and.size(), a.and(b).size());
+            for (int id : sa) assertTrue(a.contains(id));
+        }
+    }
+
+    @Test
+    public void testSnapshotIndexPersisted() throws Exception {
+        File dir = Files.createTempDirectory("as-index-").toFile();
+        File snapFile = new File(dir, "routes.snap");
+        File indexFile = new File(AsPathIndex.indexPath(snapFile.getPath()));
+
+        SnapshotProvider.setWriteAsIndex(true);
+        SnapshotProvider snap = new SnapshotProvider(snapFile.getPath());
+        snap.setRoute(-1, new String[]{"2001:db8::/32", "10 20 30"});
+        snap.setRoute(-1, new String[]{"10.0.0.0/8", "10 30"});
+        snap.setRoute(-1, new String[]{"192.0.2.0/24", "20 40"});
+        snap.writeToFile();
+        assertTrue(indexFile.exists());
+
+        AsPathIndex index = AsPathIndex.forSnapshot(snap);
+        List<String> viaOrigin30 = new ArrayList<>();
+        for (int id : index.origin(30).toArray()) viaOrigin30.add(snap.getRoute(id)[0]);
+        assertEquals(Arrays.asList("10.0.0.0/8", "2001:db8:0:0:0:0:0:0/32"), viaOrigin30);
+        assertEquals(IdSet.of(1, 2), index.transit(20).or(index.origin(40)).and(IdSet.of(1, 2)));
+        assertEquals(IdSet.of(1), index.origin(40));
+
+        // 删除或过期的索引会从快照重建
+        assertTrue(indexFile.delete());
+        assertEquals(IdSet.of(1), AsPathIndex.forSnapshot(snap).origin(40));
+        assertTrue(indexFile.exists());
+
+        SnapshotProvider.setWriteAsIndex(false);
+        snap.setRoute(-1, new String[]{"10.0.0.0/8", "50"});
+        snap.writeToFile();
+        assertFalse(indexFile.exists());
+        assertEquals(IdSet.of(0), AsPathIndex.forSnapshot(snap).origin(50));
+        assertEquals(IdSet.of(0), AsPathIndex.read(indexFile.getPath()).origin(50));
+    }
+
+    @Test
+    public void testIndexRebuiltWhenSnapshotContentChanges() throws Exception {
+        File dir = Files.createTempDirectory("as-index-").toFile();
+        File snapFile = new File(dir, "routes.snap");
+        File indexFile = new File(AsPathIndex.indexPath(snapFile.getPath()));
+
+        SnapshotProvider.setWriteAsIndex(true);
+        SnapshotProvider snap = new SnapshotProvider(snapFile.getPath());
+        snap.setRoute(-1, new String[]{"10.0.0.0/8", "10 30"});
+        snap.setRoute(-1, new String[]{"192.0.2.0/24", "20 40"});
+        snap.writeToFile();
+        long length = snapFile.length();
+        long mtime = snapFile.lastModified();
+        byte[] staleIndex = Files.readAllBytes(indexFile.toPath());
+
+        // 换成同样长度、同样路由数、只有起源 AS 不同的快照，再放回旧索引
+        SnapshotProvider.setWriteAsIndex(false);
+        SnapshotProvider changed = new SnapshotProvider(snapFile.getPath());
+        changed.setRoute(-1, new String[]{"10.0.0.0/8", "10 31"});
+        changed.setRoute(-1, new String[]{"192.0.2.0/24", "20 41"});
+        changed.writeToFile();
+        assertEquals(length, snapFile.length());
+        assertTrue(snapFile.setLastModified(mtime + 5000));
+        Files.write(indexFile.toPath(), staleIndex);
+        assertEquals(IdSet.of(0), AsPathIndex.read(indexFile.getPath()).origin(30));
+
+        AsPathIndex index = AsPathIndex.forSnapshot(new SnapshotProvider(snapFile.getPath()));
+        assertTrue(index.origin(30).isEmpty());
+        assertEquals(IdSet.of(0), index.origin(31));
+        assertEquals(IdSet.of(1), AsPathIndex.read(indexFile.getPath()).origin(41));
+    }
+
+    @Test
+    public void testMtimeChecksBeforeChecksum() throws Exception {
+        File dir = Files.createTempDirectory("as-index-").toFile();
+        File snapFile = new File(dir, "routes.snap");
+        File indexFile = new File(AsPathIndex.indexPath(snapFile.getPath()));
+
+        SnapshotProvider.setWriteAsIndex(true);
+        SnapshotProvider snap = new SnapshotProvider(snapFile.getPath());
+        snap.setRoute(-1, new String[]{"10.0.0.0/8", "10 30"});
+        snap.setRoute(-1, new String[]{"192.0.2.0/24", "20 40"});
+        snap.writeToFile();
+        assertEquals(snapFile.lastModified(), AsPathIndex.read(indexFile.getPath()).snapshotMtime());
+
+        // 只改修改时间（如从缓存恢复）：校验 CRC 后沿用索引，并记下新的修改时间
+        long touched = snapFile.lastModified() + 5000;
+        assertTrue(snapFile.setLastModified(touched));
+        assertEquals(IdSet.of(0), AsPathIndex.forSnapshot(new SnapshotProvider(snapFile.getPath())).origin(30));
+        assertEquals(touched, AsPathIndex.read(indexFile.getPath()).snapshotMtime());
+
+        // 长度和修改时间都一致时不读取快照内容，索引保持原样
+        byte[] content = Files.readAllBytes(snapFile.toPath());
+        byte[] indexBytes = Files.readAllBytes(indexFile.toPath());
+        content[content.length - 1] ^= 1;
+        Files.write(snapFile.toPath(), content);
+        assertTrue(snapFile.setLastModified(touched));
+        AsPathIndex.forSnapshot(new SnapshotProvider(snapFile.getPath()));
+        assertArrayEquals(indexBytes, Files.readAllBytes(indexFile.toPath()));
+    }
+
+    private static IdSet randomSet(Random rnd) {
+        int n = rnd.nextInt(3) == 0 ? 0 : rnd.nextInt(400);
+        int range = rnd.nextBoolean() ? 500 : 100000;
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) ids[i] = rnd.nextInt(range);
+        return IdSet.of(ids);
+    }
+
+    private static TreeSet<Integer> toSet(IdSet set) {
+        TreeSet<Integer> out = new TreeSet<>();
+        for (int id : set.toArray()) out.add(id);
+        return out;
+    }
+
+    private static int[] toArray(TreeSet<Integer> set) {
+        int[] out = new int[set.size()];
+        int i = 0;
+        for (int id : set) out[i++] = id;
+        return out;
+    }
+}
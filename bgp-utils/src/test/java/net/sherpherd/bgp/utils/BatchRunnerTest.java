@@ -0,0 +1,150 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchRunnerTest {
+
+    @After
+    public void resetReduction() {
+        Generate.setAlternatePaths(0, false);
+        Generate.setStatisticsReport(false);
+        Generate.setOverlapReport(null);
+    }
+
+    @Test
+    public void testParseJobLine() {
+        List<String> tokens = BatchRunner.tokenize("name=a in=rib.mrt out=a.csv  out=a.sh.gz regex=\"^1 2$\" aggregate=yes nexthop=192.0.2.1");
+        assertEquals(Arrays.asList("name=a", "in=rib.mrt", "out=a.csv", "out=a.sh.gz", "regex=^1 2$",
+                "aggregate=yes", "nexthop=192.0.2.1"), tokens);
+
+        BatchRunner.Job job = BatchRunner.parseJob(tokens, "job1");
+        assertEquals("a", job.name);
+        assertEquals(Arrays.asList("a.csv", "a.sh.gz"), job.outputs);
+        assertEquals(Collections.singletonList("^1 2$"), job.aspathRegex);
+        assertTrue(job.aggregate);
+        assertEquals("sh", BatchRunner.outputType("a.sh.gz"));
+
+        try {
+            BatchRunner.parseJob(Arrays.asList("in=rib.mrt", "out=a.sh"), "job1");
+            fail("iproute2 输出缺少 nexthop 应当报错");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testSharedInputDependentJobAndFailure() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+        File dir = Files.createTempDirectory("batch-").toFile();
+        dir.deleteOnExit();
+        File plain = new File(dir, "plain.csv");
+        File filtered = new File(dir, "filtered.txt");
+        File fromOutput = new File(dir, "second.txt");
+        File jobs = new File(dir, "jobs.txt");
+        Files.write(jobs.toPath(), Arrays.asList(
+                "# 两个任务共享输入，第三个任务读取第一个任务的输出",
+                "name=plain in=" + csvPath + " out=" + plain,
+                "name=filtered in=" + csvPath + " out=" + filtered + " regex=_16509$ aggregate=true",
+                "",
+                "name=second in=" + plain + " out=" + fromOutput,
+                "name=missing in=" + new File(dir, "missing.csv") + " out=" + new File(dir, "never.csv")));
+
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        int code = BatchRunner.run(new String[]{"--threads", "2", "--jobs", jobs.getPath()}, new PrintStream(report, true, "UTF-8"));
+        String text = report.toString("UTF-8");
+
+        assertEquals(text, BatchRunner.EXIT_FAILED, code);
+        assertTrue(text, text.contains("与 1 个任务共享输入"));
+        assertTrue(text, text.contains("输入文件不存在"));
+
+        File expected = new File(dir, "expected.csv");
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(csvPath), new CSVProvider(expected.getAbsolutePath()), null, false);
+        assertEquals(Files.readAllLines(expected.toPath()), Files.readAllLines(plain.toPath()));
+
+        File expectedFiltered = new File(dir, "expected.txt");
+        Generate.generateRawRouteFromCSVToRawText(new CSVProvider(csvPath),
+                new RawTextProvider(expectedFiltered.getAbsolutePath()), Collections.singletonList("_16509$"), true);
+        assertEquals(new HashSet<>(Files.readAllLines(expectedFiltered.toPath())),
+                new HashSet<>(Files.readAllLines(filtered.toPath())));
+
+        // second 在 plain 完成后才读取它的输出
+        assertEquals(Files.readAllLines(expected.toPath()).size() - 1, Files.readAllLines(fromOutput.toPath()).size());
+    }
+
+    @Test
+    public void testUsageErrors() {
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+        assertEquals(BatchRunner.EXIT_USAGE, BatchRunner.run(new String[0], sink));
+        assertEquals(BatchRunner.EXIT_USAGE, BatchRunner.run(new String[]{"in=a.csv", "out=b.csv", "color=red"}, sink));
+        assertEquals(BatchRunner.EXIT_USAGE, BatchRunner.run(new String[]{"in=a.csv", "out=a.csv"}, sink));
+        // 只能作为输出的格式不能当作 MRT 读取
+        assertEquals(BatchRunner.EXIT_USAGE, BatchRunner.run(new String[]{"in=routes.txt", "out=b.csv"}, sink));
+        assertEquals(BatchRunner.EXIT_USAGE, BatchRunner.run(new String[]{"in=routes.sh.gz", "out=b.csv"}, sink));
+    }
+
+    @Test
+    public void testMetricsScopedPerGroup() throws Exception {
+        File dir = Files.createTempDirectory("batch-").toFile();
+        File small = new File(dir, "small.csv");
+        File large = new File(dir, "large.csv");
+        List<String> rows = new ArrayList<>();
+        rows.add("prefix,as_path");
+        for (int i = 0; i < 3000; i++) {
+            rows.add("10." + (i >> 8) + "." + (i & 0xff) + ".0/24,1 " + i);
+        }
+        Files.write(large.toPath(), rows);
+        Files.write(small.toPath(), rows.subList(0, 11));
+
+        List<BatchRunner.Job> jobs = Arrays.asList(
+                BatchRunner.parseJob(Arrays.asList("in=" + small, "out=" + new File(dir, "small.txt")), "small"),
+                BatchRunner.parseJob(Arrays.asList("in=" + large, "out=" + new File(dir, "large.txt")), "large"));
+        RouteMetrics.reset();
+        List<BatchRunner.Result> results = BatchRunner.execute(jobs, 2);
+
+        // 两个任务组并发执行，各自的指标互不混淆，合计与全局登记表一致
+        assertEquals(10, results.get(0).metrics.counter(RouteMetrics.READ_RECORDS).get());
+        assertEquals(3000, results.get(1).metrics.counter(RouteMetrics.READ_RECORDS).get());
+        assertEquals(10, results.get(0).metrics.counter(RouteMetrics.WRITE_RECORDS).get());
+        assertEquals(3010, RouteMetrics.counter(RouteMetrics.READ_RECORDS).get());
+    }
+
+    @Test
+    public void testReductionOptions() throws Exception {
+        File dir = Files.createTempDirectory("batch-").toFile();
+        File in = new File(dir, "in.csv");
+        Files.write(in.toPath(), Arrays.asList("prefix,as_path",
+                "10.0.0.0/24,1 2 3", "10.0.0.0/24,1 4", "10.0.1.0/24,7", "10.0.0.0/24,5 6", "10.0.0.0/24,8"));
+        File out = new File(dir, "out.csv");
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+
+        // 多路径设置与单独的 CSV 转换一致
+        Generate.setAlternatePaths(3, false);
+        assertEquals(BatchRunner.EXIT_OK, BatchRunner.run(new String[]{"in=" + in, "out=" + out}, sink));
+        assertEquals(Arrays.asList("prefix,as_path", "10.0.0.0/24,8", "10.0.0.0/24,1 4", "10.0.0.0/24,5 6",
+                "10.0.1.0/24,7"), Files.readAllLines(out.toPath()));
+
+        // 报告类选项直接拒绝，不写出任何输出
+        File never = new File(dir, "never.csv");
+        Generate.setStatisticsReport(true);
+        assertEquals(BatchRunner.EXIT_USAGE, BatchRunner.run(new String[]{"in=" + in, "out=" + never}, sink));
+        Generate.setStatisticsReport(false);
+        Generate.setOverlapReport(new File(dir, "overlaps.csv").getPath());
+        assertEquals(BatchRunner.EXIT_USAGE, BatchRunner.run(new String[]{"in=" + in, "out=" + never}, sink));
+        assertFalse(never.exists());
+    }
+}
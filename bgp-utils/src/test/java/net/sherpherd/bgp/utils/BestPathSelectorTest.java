@@ -0,0 +1,153 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BestPathSelectorTest {
+
+    private static final long PREFIX = 0x0a000000L;
+
+    private static BestPathSelector.PathAttributes attrs(long localPref, int origin, long med, long routerId) {
+        return new BestPathSelector.PathAttributes(localPref, origin, med, routerId, routerId);
+    }
+
+    private static String[] best(List<Object[]> candidates) {
+        BestPathSelector selector = new BestPathSelector(4);
+        for (int i = 0; i < candidates.size(); i++) {
+            String[] route = (String[]) candidates.get(i)[0];
+            selector.offer(PackedPrefix.FAMILY_IPV4, PREFIX, 0, 24, AsPaths.length(route[1]),
+                    (BestPathSelector.PathAttributes) candidates.get(i)[1], i, route);
+        }
+        List<String[]> routes = selector.routes();
+        assertEquals(1, routes.size());
+        return routes.get(0);
+    }
+
+    @Test
+    public void testDecisionOrder() {
+        // LOCAL_PREF 优先于 AS_PATH 长度
+        assertEquals("1 2 3", best(Arrays.asList(
+                new Object[]{new String[]{"10.0.0.0/24", "4 5"}, attrs(100, 0, 0, 1)},
+                new Object[]{new String[]{"10.0.0.0/24", "1 2 3"}, attrs(200, 0, 0, 2)}))[1]);
+        // AS_PATH 长度优先于 ORIGIN
+        assertEquals("4 5 6", best(Arrays.asList(
+                new Object[]{new String[]{"10.0.0.0/24", "1 2 3 9"}, attrs(100, BestPathSelector.ORIGIN_IGP, 0, 1)},
+                new Object[]{new String[]{"10.0.0.0/24", "4 5 6"}, attrs(100, BestPathSelector.ORIGIN_INCOMPLETE, 0, 2)}))[1]);
+        // ORIGIN 优先于 MED
+        assertEquals("1 3", best(Arrays.asList(
+                new Object[]{new String[]{"10.0.0.0/24", "1 2"}, attrs(100, BestPathSelector.ORIGIN_EGP, 0, 1)},
+                new Object[]{new String[]{"10.0.0.0/24", "1 3"}, attrs(100, BestPathSelector.ORIGIN_IGP, 50, 2)}))[1]);
+        // 相邻 AS 相同时比较 MED，不同时直接比较路由器 ID
+        assertEquals("1 3", best(Arrays.asList(
+                new Object[]{new String[]{"10.0.0.0/24", "1 2"}, attrs(100, 0, 20, 1)},
+                new Object[]{new String[]{"10.0.0.0/24", "1 3"}, attrs(100, 0, 10, 2)}))[1]);
+        assertEquals("7 2", best(Arrays.asList(
+                new Object[]{new String[]{"10.0.0.0/24", "7 2"}, attrs(100, 0, 20, 1)},
+                new Object[]{new String[]{"10.0.0.0/24", "1 3"}, attrs(100, 0, 10, 2)}))[1]);
+        // 全部相同时保留序号最小的
+        assertEquals("1 2", best(Arrays.asList(
+                new Object[]{new String[]{"10.0.0.0/24", "1 2"}, null},
+                new Object[]{new String[]{"10.0.0.0/24", "3 4"}, null}))[1]);
+    }
+
+    @Test
+    public void testMedComparisonIsOrderIndependent() {
+        // 经典的 MED 不可传递例子：A、C 来自 AS 1，B 来自 AS 2。
+        // 先比 MED 淘汰 A（C 的 MED 更低），再在 B、C 之间按路由器 ID 选出 B
+        List<Object[]> candidates = Arrays.asList(
+                new Object[]{new String[]{"10.0.0.0/24", "1 9"}, attrs(100, 0, 10, 1)},
+                new Object[]{new String[]{"10.0.0.0/24", "2 9"}, attrs(100, 0, 0, 2)},
+                new Object[]{new String[]{"10.0.0.0/24", "1 8"}, attrs(100, 0, 5, 3)});
+        Random rnd = new Random(44);
+        for (int i = 0; i < 20; i++) {
+            List<Object[]> shuffled = new ArrayList<>(candidates);
+            Collections.shuffle(shuffled, rnd);
+            assertEquals("2 9", best(shuffled)[1]);
+        }
+    }
+
+    @Test
+    public void testParallelOffersMatchSequential() throws Exception {
+        Random rnd = new Random(7);
+        int n = 50000;
+        String[][] routes = new String[n][];
+        BestPathSelector.PathAttributes[] attributes = new BestPathSelector.PathAttributes[n];
+        for (int i = 0; i < n; i++) {
+            routes[i] = new String[]{"10.0." + rnd.nextInt(64) + ".0/24", (1 + rnd.nextInt(3)) + " " + (10 + rnd.nextInt(5))};
+            attributes[i] = attrs(100 + rnd.nextInt(2) * 100, rnd.nextInt(3), rnd.nextInt(3), rnd.nextInt(4));
+        }
+        BestPathSelector sequential = new BestPathSelector(1);
+        for (int i = 0; i < n; i++) offer(sequential, routes[i], attributes[i], i);
+
+        BestPathSelector parallel = new BestPathSelector();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            int start = t;
+            // 每个线程倒序写入自己的一份，写入顺序与顺序版本完全不同
+            pool.execute(() -> {
+                for (int i = n - 1 - start; i >= 0; i -= 4) offer(parallel, routes[i], attributes[i], i);
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        List<String[]> expected = sequential.routes();
+        List<String[]> actual = parallel.routes();
+        assertEquals(64, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static void offer(BestPathSelector selector, String[] route, BestPathSelector.PathAttributes a, long seq) {
+        long packed = PackedPrefix.parseIPv4(route[0]);
+        selector.offer(PackedPrefix.FAMILY_IPV4, PackedPrefix.ipv4Address(packed), 0, PackedPrefix.ipv4Length(packed),
+                AsPaths.length(route[1]), a, seq, route);
+    }
+
+    @Test
+    public void testParseRecordText() {
+        BestPathSelector.PathAttributes a = BestPathSelector.PathAttributes.parse(
+                "TABLE_DUMP2|1700000000|B|192.0.2.7|64500|10.0.0.0/24|64500 64501|INCOMPLETE|192.0.2.7|150|30||NAG||");
+        assertEquals(150, a.localPref);
+        assertEquals(BestPathSelector.ORIGIN_INCOMPLETE, a.origin);
+        assertEquals(30, a.med);
+        assertEquals(0xc0000207L, a.routerId);
+        assertEquals(0xc0000207L, a.peer);
+        assertEquals(64500, BestPathSelector.neighborAs(" 64500 64501"));
+        assertEquals(0, BestPathSelector.neighborAs("{1,2} 3"));
+        assertTrue(BestPathSelector.prefKey(200, 9, 2) < BestPathSelector.prefKey(100, 1, 0));
+        assertSame(BestPathSelector.PathAttributes.DEFAULT, BestPathSelector.PathAttributes.parse(null));
+    }
+
+    @Test
+    public void testPipelineWithoutAttributesMatchesShortestPath() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+        File shortest = File.createTempFile("shortest-", ".csv");
+        File bestPath = File.createTempFile("bestpath-", ".csv");
+        shortest.deleteOnExit();
+        bestPath.deleteOnExit();
+
+        new RoutePipeline(new CSVProvider(csvPath)).validate().reduceShortestPath(4)
+                .run(RoutePipeline.Sink.csv(new CSVProvider(shortest.getPath())));
+        new RoutePipeline(new CSVProvider(csvPath)).validate().reduceBestPath(4)
+                .run(RoutePipeline.Sink.csv(new CSVProvider(bestPath.getPath())));
+        assertEquals(Files.readAllLines(shortest.toPath()), Files.readAllLines(bestPath.toPath()));
+    }
+}
@@ -0,0 +1,188 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BogonFilterTest {
+
+    @After
+    public void resetMetrics() {
+        BogonFilter.setActive(null);
+        Generate.setResultCache(null);
+        RouteMetrics.reset();
+    }
+
+    @Test
+    public void testCacheKeyTracksActiveFilter() throws Exception {
+        File dir = Files.createTempDirectory("bogon-cache-").toFile();
+        File in = new File(dir, "in.csv");
+        Files.write(in.toPath(), Arrays.asList("prefix,as_path", "10.0.0.0/8,1"));
+        Generate.setResultCache(new ResultCache(new File(dir, "cache"), ResultCache.DEFAULT_MAX_BYTES,
+                ResultCache.InputKey.CONTENT));
+        CSVProvider input = new CSVProvider(in.getPath());
+        CSVProvider output = new CSVProvider(new File(dir, "out.csv").getPath());
+
+        String none = Generate.resultCacheKey("mrt-csv", input, output, null, false);
+        BogonFilter.setActive(BogonFilter.defaults());
+        String defaults = Generate.resultCacheKey("mrt-csv", input, output, null, false);
+        BogonFilter.setActive(new BogonFilter.Builder().defaults().maxLength(24, 64).build());
+        String longerV6 = Generate.resultCacheKey("mrt-csv", input, output, null, false);
+        BogonFilter.setActive(new BogonFilter.Builder().defaults().build());
+        assertEquals("相同规则应得到相同的键", defaults, Generate.resultCacheKey("mrt-csv", input, output, null, false));
+        assertNotEquals(none, defaults);
+        assertNotEquals(defaults, longerV6);
+        assertEquals("none", BogonFilter.digestOf(null));
+    }
+
+    @Test
+    public void testDefaultRules() {
+        BogonFilter filter = BogonFilter.defaults();
+        assertEquals("private", rule(filter, "10.1.0.0/16", "174 3356"));
+        assertEquals("private", rule(filter, "100.64.0.0/10", "174"));
+        assertEquals("documentation", rule(filter, "192.0.2.0/24", "174"));
+        assertEquals("multicast", rule(filter, "239.0.0.0/8", "174"));
+        assertEquals("reserved", rule(filter, "255.255.255.0/24", "174"));
+        assertEquals("too-specific", rule(filter, "8.8.8.0/25", "15169"));
+        assertEquals("too-specific", rule(filter, "2001:4860::/64", "15169"));
+        assertEquals("documentation", rule(filter, "2001:db8:1::/48", "174"));
+        assertEquals("private", rule(filter, "fd00::/8", "174"));
+        assertEquals("multicast", rule(filter, "ff02::/16", "174"));
+
+        assertEquals("private-asn", rule(filter, "8.8.8.0/24", "174 64512 15169"));
+        assertEquals("private-asn", rule(filter, "8.8.8.0/24", "174 4242420000"));
+        assertEquals("reserved-asn", rule(filter, "8.8.8.0/24", "174 {23456,15169}"));
+        assertEquals("documentation-asn", rule(filter, "8.8.8.0/24", "65536"));
+        assertEquals("reserved-asn", rule(filter, "8.8.8.0/24", "4294967295"));
+
+        assertNull(rule(filter, "8.8.8.0/24", "174 15169"));
+        assertNull(rule(filter, "2001:4860::/32", "15169"));
+        // 覆盖保留地址段的较短前缀不算 bogon，默认路由由读取方单独处理
+        assertNull(rule(filter, "0.0.0.0/0", "174"));
+        assertNull(rule(filter, "192.0.0.0/2", "174"));
+        assertNull(rule(filter, "11.0.0.0/8", "174 4294967296"));
+    }
+
+    @Test
+    public void testPerRuleCounters() {
+        BogonFilter filter = BogonFilter.defaults();
+        assertTrue(filter.accept("8.8.8.0/24", "174 15169"));
+        assertFalse(filter.accept("10.0.0.0/8", "174"));
+        assertFalse(filter.accept("192.168.1.0/24", "174"));
+        assertFalse(filter.accept("8.8.8.0/24", "65000"));
+        assertEquals(2, filter.rejects("private"));
+        assertEquals(1, filter.rejects("private-asn"));
+        assertEquals(2, RouteMetrics.counter(BogonFilter.COUNTER_PREFIX + "private").get());
+        assertEquals(0, filter.rejects("documentation"));
+    }
+
+    @Test
+    public void testOverlappingRulesAndAdjacentRanges() {
+        BogonFilter filter = new BogonFilter.Builder()
+                .prefix("inner", "10.1.0.0/16")
+                .prefix("outer", "10.0.0.0/8")
+                .prefix("next", "11.0.0.0/8")
+                .prefix("top", "255.255.255.255/32")
+                .prefix("v6", "::/1")
+                .prefix("v6-top", "8000::/1")
+                .asn("low", 0, 10)
+                .asn("high", 11, 4294967295L)
+                .build();
+        // 先定义的规则优先，后定义的外层区间被切成两段
+        assertEquals("inner", rule(filter, "10.1.2.0/24", "1"));
+        assertEquals("outer", rule(filter, "10.2.0.0/16", "1"));
+        assertEquals("outer", rule(filter, "10.255.0.0/16", "1"));
+        // 整体落在相接的区间内，取起点所在区间的规则
+        assertEquals("outer", rule(filter, "10.0.0.0/7", "1"));
+        assertEquals("top", rule(filter, "255.255.255.255/32", "1"));
+        assertNull(rule(filter, "12.0.0.0/8", ""));
+        assertEquals("v6", rule(filter, "::/0", "100"));
+        assertEquals("v6-top", rule(filter, "ffff::/16", "100"));
+        assertEquals("low", rule(filter, "12.0.0.0/8", "10 100"));
+        assertEquals("high", rule(filter, "12.0.0.0/8", "4294967295"));
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random rnd = new Random(50);
+        List<long[]> ranges = new ArrayList<>();
+        BogonFilter.Builder builder = new BogonFilter.Builder();
+        for (int i = 0; i < 200; i++) {
+            int len = 8 + rnd.nextInt(17);
+            long addr = (rnd.nextLong() & 0xffffffffL) & PackedPrefix.ipv4Mask(len);
+            builder.prefix("r" + i, PackedPrefix.formatIPv4(addr, len));
+            ranges.add(new long[]{addr, addr | (~PackedPrefix.ipv4Mask(len) & 0xffffffffL)});
+        }
+        BogonFilter filter = builder.build();
+        for (int n = 0; n < 20000; n++) {
+            int len = 8 + rnd.nextInt(17);
+            long addr = n % 2 == 0
+                    ? ranges.get(rnd.nextInt(ranges.size()))[0] + (rnd.nextInt(1 << 16) << 8)
+                    : rnd.nextLong() & 0xffffffffL;
+            addr &= PackedPrefix.ipv4Mask(len) & 0xffffffffL;
+            long end = addr | (~PackedPrefix.ipv4Mask(len) & 0xffffffffL);
+
+            // 逐个地址段覆盖：每个地址取最先定义的规则，要求整个前缀都被覆盖
+            String expected = null;
+            long cursor = addr;
+            boolean covered = true;
+            while (covered && cursor <= end) {
+                covered = false;
+                for (int i = 0; i < ranges.size(); i++) {
+                    long[] r = ranges.get(i);
+                    if (r[0] <= cursor && cursor <= r[1]) {
+                        if (cursor == addr) expected = "r" + i;
+                        cursor = r[1] + 1;
+                        covered = true;
+                        break;
+                    }
+                }
+            }
+            assertEquals(PackedPrefix.formatIPv4(addr, len), covered ? expected : null,
+                    rule(filter, PackedPrefix.formatIPv4(addr, len), "1"));
+        }
+    }
+
+    @Test
+    public void testRulesFile() throws Exception {
+        File rules = File.createTempFile("bogons-", ".txt");
+        rules.deleteOnExit();
+        Files.write(rules.toPath(), Arrays.asList(
+                "# dn42 使用私有 ASN，只保留默认规则中的地址段",
+                "prefix private 10.0.0.0/8",
+                "prefix documentation 2001:db8::/32   # 行尾注释",
+                "asn reserved-asn 0",
+                "max-length 29 64"));
+        BogonFilter filter = new BogonFilter.Builder().load(rules).build();
+        assertNull(rule(filter, "172.20.0.0/24", "4242420000 4242421080"));
+        assertNull(rule(filter, "172.20.0.0/29", "4242420000"));
+        assertEquals("too-specific", rule(filter, "172.20.0.0/30", "4242420000"));
+        assertEquals("private", rule(filter, "10.0.0.0/24", "4242420000"));
+        assertEquals("reserved-asn", rule(filter, "172.20.0.0/24", "0"));
+
+        Files.write(rules.toPath(), Arrays.asList("defaults", "max-length 32 128"));
+        filter = new BogonFilter.Builder().load(rules).build();
+        assertNull(rule(filter, "8.8.8.8/32", "15169"));
+        assertEquals("private-asn", rule(filter, "8.8.8.8/32", "4242420000"));
+
+        Files.write(rules.toPath(), Arrays.asList("prefix private 10.0.0.0/33"));
+        try {
+            new BogonFilter.Builder().load(rules);
+            fail("无效前缀应当报错");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("第 1 行"));
+        }
+    }
+
+    private static String rule(BogonFilter filter, String prefix, String aspath) {
+        int rule = filter.check(prefix, aspath);
+        return rule < 0 ? null : filter.ruleName(rule);
+    }
+}
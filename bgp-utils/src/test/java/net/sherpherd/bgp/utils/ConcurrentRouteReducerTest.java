@@ -0,0 +1,151 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentRouteReducerTest {
+    private static final int THREADS = 32;
+
+    @Test
+    public void testFirstSeenMatchesSequentialWith32Writers() throws Exception {
+        List<String[]> routes = workload();
+
+        // 参考结果：顺序归约，跳数相同时保留最先出现的
+        Map<String, String[]> expected = new LinkedHashMap<>();
+        for (String[] r : routes) {
+            String[] existing = expected.get(r[0]);
+            if (existing == null || Analysis.isShorterAsPath(r[1], existing[1])) {
+                expected.put(r[0], r);
+            }
+        }
+
+        for (int round = 0; round < 3; round++) {
+            ConcurrentRouteReducer reducer = reduce(routes, ConcurrentRouteReducer.TieBreak.FIRST_SEEN);
+            List<String[]> actual = reducer.routes();
+            assertEquals(expected.size(), actual.size());
+            int i = 0;
+            for (String[] r : expected.values()) {
+                assertSame(r, actual.get(i++));
+            }
+        }
+    }
+
+    @Test
+    public void testLowestPathIsIndependentOfInterleaving() throws Exception {
+        List<String[]> routes = workload();
+        Map<String, String> first = toMap(reduce(routes, ConcurrentRouteReducer.TieBreak.LOWEST_PATH).routes());
+        for (int round = 0; round < 3; round++) {
+            assertEquals(first, toMap(reduce(routes, ConcurrentRouteReducer.TieBreak.LOWEST_PATH).routes()));
+        }
+        // 两条等长路径中 ASN 序列较小的胜出
+        assertEquals("64500 100 200", first.get("198.51.100.0/24"));
+    }
+
+    @Test
+    public void testParallelPipelineReduceMatchesSequential() throws Exception {
+        String csvPath = resource("/output.csv");
+        File sequential = tempFile();
+        File parallel = tempFile();
+        new RoutePipeline(new CSVProvider(csvPath)).setBatchSize(64).validate().reduceShortestPath()
+                .run(RoutePipeline.Sink.csv(new CSVProvider(sequential.getAbsolutePath())));
+        new RoutePipeline(new CSVProvider(csvPath)).setBatchSize(64).validate().reduceShortestPath(8)
+                .run(RoutePipeline.Sink.csv(new CSVProvider(parallel.getAbsolutePath())));
+        assertEquals(Files.readAllLines(sequential.toPath()), Files.readAllLines(parallel.toPath()));
+    }
+
+    /**
+     * 测试数据中的路由，每个前缀再追加一条等长的不同路径，制造大量跳数相同的竞争
+     */
+    private List<String[]> workload() throws Exception {
+        List<String[]> routes = new ArrayList<>();
+        CSVProvider in = new CSVProvider(resource("/output.csv"));
+        String[] r;
+        while ((r = in.getNextRoute()) != null) {
+            if (r.length < 2 || !Analysis.isValidCIDR(r[0]) || !Analysis.isValidAsPath(r[1])) continue;
+            routes.add(r);
+        }
+        int n = routes.size();
+        for (int i = 0; i < n; i++) {
+            String[] orig = routes.get(i);
+            routes.add(new String[]{orig[0], orig[1].replaceFirst("^\\d+", "1")});
+        }
+        routes.add(new String[]{"198.51.100.0/24", "64500 300 200"});
+        routes.add(new String[]{"198.51.100.0/24", "64500 100 200"});
+        routes.add(new String[]{"198.51.100.0/24", "64500 100 300"});
+        return routes;
+    }
+
+    private static ConcurrentRouteReducer reduce(List<String[]> routes, ConcurrentRouteReducer.TieBreak tieBreak)
+            throws InterruptedException {
+        ConcurrentRouteReducer reducer = new ConcurrentRouteReducer(tieBreak);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                long[] key = new long[3];
+                try {
+                    start.await();
+                    // 奇数线程倒序写入，让同一前缀的竞争顺序在每轮都不同
+                    for (int k = 0; k < routes.size(); k++) {
+                        int i = id % 2 == 0 ? k : routes.size() - 1 - k;
+                        if (i % THREADS != id) continue;
+                        String[] r = routes.get(i);
+                        String prefix = r[0];
+                        if (PackedPrefix.family(prefix) == PackedPrefix.FAMILY_IPV4) {
+                            long packed = PackedPrefix.parseIPv4(prefix);
+                            reducer.offer(PackedPrefix.FAMILY_IPV4, PackedPrefix.ipv4Address(packed), 0,
+                                    PackedPrefix.ipv4Length(packed), AsPaths.length(r[1]), i, r);
+                        } else if (PackedPrefix.parseIPv6(prefix, key)) {
+                            reducer.offer(PackedPrefix.FAMILY_IPV6, key[0], key[1], (int) key[2],
+                                    AsPaths.length(r[1]), i, r);
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        return reducer;
+    }
+
+    private static Map<String, String> toMap(List<String[]> routes) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String[] r : routes) {
+            map.put(r[0], r[1]);
+        }
+        return map;
+    }
+
+    private String resource(String name) throws Exception {
+        URL res = getClass().getResource(name);
+        assertNotNull("Test CSV resource must exist: " + name, res);
+        return Paths.get(res.toURI()).toFile().getAbsolutePath();
+    }
+
+    private static File tempFile() throws Exception {
+        File f = Files.createTempFile("reducer-", ".csv").toFile();
+        f.deleteOnExit();
+        return f;
+    }
+}
@@ -5,6 +5,10 @@ import java.io.File;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -107,6 +111,168 @@ public class CsvToIproute2Test {
         }
     }
     
+    @Test
+    public void testRawTextToIproute2BatchMode() throws Exception {
+        String resourcePath = "/output.csv";
+        URL res = getClass().getResource(resourcePath);
+        assertNotNull("Test CSV resource must exist: " + resourcePath, res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+
+        File rawText = Files.createTempFile("prefixes-", ".txt").toFile();
+        File batch = Files.createTempFile("routes-", ".batch").toFile();
+        rawText.deleteOnExit();
+        batch.deleteOnExit();
+
+        Generate.generateRawRouteFromCSVToRawText(new CSVProvider(csvPath), new RawTextProvider(rawText.getAbsolutePath()));
+        Iproute2ScriptProvider out = new Iproute2ScriptProvider(batch.getAbsolutePath(), Iproute2ScriptProvider.Mode.BATCH);
+        Generate.generateScriptFromRawTextToIproute2(new RawTextProvider(rawText.getAbsolutePath()), out, "192.168.0.1");
+
+        long ipv4Count = Files.readAllLines(rawText.toPath()).stream().filter(Analysis::isValidIPv4Cidr).count();
+        int commands = 0;
+        for (String line : Files.readAllLines(batch.toPath())) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            // 批处理文件中的命令不能带 ip 前缀，且使用 replace 保证可重复执行
+            assertTrue("Batch line should be a route replace command: " + line, line.startsWith("route replace "));
+            assertTrue(line.endsWith(" via 192.168.0.1"));
+            commands++;
+        }
+        assertEquals(ipv4Count, commands);
+        assertEquals(ipv4Count, out.getRouteCount());
+    }
+
+    @Test
+    public void testCsvNexthopColumnToNexthopObjects() throws Exception {
+        File csv = Files.createTempFile("routes-", ".csv").toFile();
+        File batch = Files.createTempFile("routes-", ".batch").toFile();
+        csv.deleteOnExit();
+        batch.deleteOnExit();
+        Files.write(csv.toPath(), Arrays.asList(
+                "prefix,as_path,nexthop",
+                "10.0.0.0/8,65001 65002,192.0.2.1",
+                "172.16.0.0/12,65001,192.0.2.2 192.0.2.1",
+                "192.168.0.0/16,65003,192.0.2.1 192.0.2.2",
+                "198.51.100.0/24,65004,",
+                "203.0.113.0/24,65005,192.0.2.3"));
+
+        Iproute2ScriptProvider out = new Iproute2ScriptProvider(batch.getAbsolutePath(), Iproute2ScriptProvider.Mode.NEXTHOP);
+        out.setDevice("eth0");
+        out.setNexthopIdBase(100);
+        Generate.generateScriptFromCSVToIproute2(new CSVProvider(csv.getAbsolutePath()), out, "192.0.2.1");
+
+        List<String> commands = new ArrayList<>();
+        for (String line : Files.readAllLines(batch.toPath())) {
+            if (!line.isEmpty() && !line.startsWith("#")) commands.add(line);
+        }
+        // 每个下一跳只定义一次，且定义在第一次引用之前；同一下一跳集合无论顺序复用同一个组
+        assertEquals(Arrays.asList(
+                "nexthop replace id 100 via 192.0.2.1 dev eth0",
+                "route replace 10.0.0.0/8 nhid 100",
+                "nexthop replace id 101 via 192.0.2.2 dev eth0",
+                "nexthop replace id 102 group 100/101",
+                "route replace 172.16.0.0/12 nhid 102",
+                "route replace 192.168.0.0/16 nhid 102",
+                "route replace 198.51.100.0/24 nhid 100",
+                "nexthop replace id 103 via 192.0.2.3 dev eth0",
+                "route replace 203.0.113.0/24 nhid 103"), commands);
+        assertEquals(4, out.getNexthopCount());
+        assertEquals(5, out.getRouteCount());
+    }
+
+    @Test
+    public void testReconcileAgainstKernelTable() throws Exception {
+        File rawText = Files.createTempFile("prefixes-", ".txt").toFile();
+        File dump = Files.createTempFile("table-", ".json").toFile();
+        File batch = Files.createTempFile("routes-", ".batch").toFile();
+        rawText.deleteOnExit();
+        dump.deleteOnExit();
+        batch.deleteOnExit();
+
+        Files.write(rawText.toPath(), Arrays.asList(
+                "10.0.0.0/8", "172.16.0.0/12", "192.0.2.0/24", "2001:db8::/32", "2001:db8:1::/48"));
+        // 10/8 已正确安装；172.16/12 下一跳不同；198.51.100.0/24 已不再需要；
+        // 专用协议安装的默认路由不删除；dhcp 默认路由、手工添加的 boot 静态路由、直连路由和 local 路由
+        // 不属于管理范围，IPv6 路由与下一跳地址家族不同，保持不变
+        String json = "[{\"dst\":\"default\",\"gateway\":\"192.168.0.254\",\"dev\":\"eth0\",\"protocol\":\"dhcp\",\"metric\":100,\"flags\":[]},"
+                + "{\"dst\":\"default\",\"gateway\":\"192.168.0.1\",\"dev\":\"eth0\",\"protocol\":\"bgputils\",\"flags\":[]},"
+                + "{\"dst\":\"10.0.0.0/8\",\"gateway\":\"192.168.0.1\",\"dev\":\"eth0\",\"protocol\":\"bgputils\",\"flags\":[]},"
+                + "{\"dst\":\"172.16.0.0/12\",\"gateway\":\"192.168.0.2\",\"dev\":\"eth0\",\"protocol\":\"bgputils\",\"flags\":[\"onlink\"]},"
+                + "{\"dst\":\"198.51.100.0/24\",\"gateway\":\"192.168.0.1\",\"dev\":\"eth0\",\"protocol\":\"bgputils\",\"flags\":[]},"
+                + "{\"dst\":\"203.0.113.0/24\",\"gateway\":\"192.168.0.1\",\"dev\":\"eth0\",\"flags\":[]},"
+                + "{\"dst\":\"100.64.0.0/10\",\"gateway\":\"192.168.0.1\",\"dev\":\"eth0\",\"protocol\":\"static\",\"flags\":[]},"
+                + "{\"dst\":\"192.168.0.0/24\",\"dev\":\"eth0\",\"protocol\":\"kernel\",\"scope\":\"link\",\"prefsrc\":\"192.168.0.10\",\"flags\":[]},"
+                + "{\"type\":\"local\",\"dst\":\"192.168.0.10\",\"dev\":\"eth0\",\"protocol\":\"kernel\",\"scope\":\"host\",\"flags\":[]},"
+                + "{\"dst\":\"2001:db8::/32\",\"gateway\":\"2001:db8::1\",\"dev\":\"eth0\",\"protocol\":\"bgputils\",\"metric\":1024,\"pref\":\"medium\",\"flags\":[]},"
+                + "{\"dst\":\"2001:db8:2::/48\",\"dev\":\"eth0\",\"protocol\":\"bgputils\",\"metric\":1024,\"nexthops\":[{\"gateway\":\"2001:db8::1\",\"weight\":1,\"flags\":[]}]}]";
+        Files.write(dump.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+        Iproute2ScriptProvider out = new Iproute2ScriptProvider(batch.getAbsolutePath(), Iproute2ScriptProvider.Mode.BATCH);
+        out.setTable(100);
+        out.setProtocol("bgputils");
+        RawTextProvider in = new RawTextProvider(rawText.getAbsolutePath());
+        long[] counts = Generate.generateReconcileScriptFromRawTextToIproute2(in, dump.getAbsolutePath(), out, "192.168.0.1");
+
+        List<String> commands = new ArrayList<>();
+        for (String line : Files.readAllLines(batch.toPath())) {
+            if (!line.isEmpty() && !line.startsWith("#")) commands.add(line);
+        }
+        assertTrue(commands.contains("route replace 172.16.0.0/12 via 192.168.0.1 proto bgputils table 100"));
+        assertTrue(commands.contains("route replace 192.0.2.0/24 via 192.168.0.1 proto bgputils table 100"));
+        assertTrue(commands.contains("route del 198.51.100.0/24 proto bgputils table 100"));
+        assertFalse("Other address family must be left alone", commands.stream().anyMatch(c -> c.contains(":")));
+        assertFalse("Unchanged route must not be rewritten", commands.stream().anyMatch(c -> c.contains("10.0.0.0/8")));
+        assertFalse("Foreign routes must be left alone", commands.stream().anyMatch(c -> c.contains("default")
+                || c.contains("0.0.0.0/0") || c.contains("203.0.113.0/24") || c.contains("100.64.0.0/10")
+                || c.contains("192.168.0.0/24") || c.contains("192.168.0.10")));
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[2]);
+        assertEquals(3, commands.size());
+    }
+
+    @Test
+    public void testReconcileRequiresDedicatedTableAndProtocol() throws Exception {
+        File rawText = Files.createTempFile("prefixes-", ".txt").toFile();
+        File dump = Files.createTempFile("table-", ".json").toFile();
+        File batch = Files.createTempFile("routes-", ".batch").toFile();
+        rawText.deleteOnExit();
+        dump.deleteOnExit();
+        batch.deleteOnExit();
+        Files.write(rawText.toPath(), Arrays.asList("10.0.0.0/8"));
+        Files.write(dump.toPath(), "[]".getBytes(StandardCharsets.UTF_8));
+
+        Iproute2ScriptProvider out = new Iproute2ScriptProvider(batch.getAbsolutePath(), Iproute2ScriptProvider.Mode.BATCH);
+        out.setProtocol("200");
+        for (int table : new int[]{0, 253, 254, 255}) {
+            out.setTable(table);
+            try {
+                Generate.generateReconcileScriptFromRawTextToIproute2(new RawTextProvider(rawText.getAbsolutePath()),
+                        dump.getAbsolutePath(), out, "192.168.0.1");
+                fail("系统路由表不允许差异同步: " + table);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        // 255 以上的专用路由表可以使用
+        out.setTable(1000);
+        Generate.generateReconcileScriptFromRawTextToIproute2(new RawTextProvider(rawText.getAbsolutePath()),
+                dump.getAbsolutePath(), out, "192.168.0.1");
+        assertTrue(new String(Files.readAllBytes(batch.toPath()), StandardCharsets.UTF_8).contains("table 1000"));
+        out.setTable(100);
+        out.setProtocol(null);
+        try {
+            Generate.generateReconcileScriptFromRawTextToIproute2(new RawTextProvider(rawText.getAbsolutePath()),
+                    dump.getAbsolutePath(), out, "192.168.0.1");
+            fail("未指定协议标识不允许差异同步");
+        } catch (IllegalArgumentException expected) {
+        }
+        for (String reserved : new String[]{"boot", "static", "3", "256"}) {
+            try {
+                out.setProtocol(reserved);
+                fail("保留协议不能使用: " + reserved);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
     /**
      * 准备输出文件：如果不存在则创建，如果存在则覆盖
      */
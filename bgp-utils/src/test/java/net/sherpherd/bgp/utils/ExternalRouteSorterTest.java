@@ -0,0 +1,139 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ExternalRouteSorterTest {
+
+    @After
+    public void resetBudget() {
+        Generate.setMemoryBudget(0);
+    }
+
+    @Test
+    public void testStreamedCsvRowsAreNotRetained() throws Exception {
+        File csv = Files.createTempFile("stream-", ".csv").toFile();
+        csv.deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        lines.add("prefix,as_path");
+        for (int i = 0; i < 1000; i++) {
+            lines.add("10." + (i >> 8) + "." + (i & 0xff) + ".0/24,1 " + i);
+        }
+        Files.write(csv.toPath(), lines);
+
+        // 流式读取的行只由调用方持有，GC 后应当能被回收
+        CSVProvider in = new CSVProvider(csv.getPath());
+        List<WeakReference<String[]>> rows = new ArrayList<>();
+        String[] route;
+        while ((route = in.getNextRoute()) != null) {
+            rows.add(new WeakReference<>(route));
+        }
+        assertEquals(1000, rows.size());
+        route = null;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        int collected = 0;
+        for (WeakReference<String[]> row : rows) {
+            if (row.get() == null) collected++;
+        }
+        assertTrue("Streamed rows must not be cached: " + collected, collected > 0);
+
+        // 按索引访问时才加载整张表，已读出的行不会再次返回
+        assertArrayEquals(new String[]{"10.0.1.0/24", "1 1"}, in.getRoute(1));
+        assertArrayEquals(new String[]{"10.3.231.0/24", "1 999"}, in.getRoute(999));
+        assertNull(in.getNextRoute());
+
+        CSVProvider indexed = new CSVProvider(csv.getPath());
+        assertArrayEquals(new String[]{"10.0.0.0/24", "1 0"}, indexed.getNextRoute());
+        assertArrayEquals(new String[]{"10.0.0.0/24", "1 0"}, indexed.getRoute(0));
+        assertEquals(Arrays.asList("10.0.1.0/24", "1 1"), Arrays.asList(indexed.getNextRoute()));
+    }
+
+    @Test
+    public void testSpillingMatchesInMemory() throws Exception {
+        assertSameOutput(false);
+    }
+
+    @Test
+    public void testSpillingMatchesInMemoryAggregated() throws Exception {
+        assertSameOutput(true);
+    }
+
+    @Test
+    public void testFanInBoundedByBudget() throws Exception {
+        List<String> expected = new ArrayList<>();
+        try (ExternalRouteSorter sorter = new ExternalRouteSorter(1L << 30, null)) {
+            addRoutes(sorter);
+            sorter.merge((family, hi, lo, len, route) -> expected.add(String.join(",", route)));
+            assertEquals(0, sorter.runCount());
+        }
+
+        // 每条记录都写出一个段，预算只够同时打开 2 个段
+        List<String> actual = new ArrayList<>();
+        try (ExternalRouteSorter sorter = new ExternalRouteSorter(2 * ExternalRouteSorter.READ_BUFFER, null)) {
+            assertEquals(2, sorter.fanIn());
+            addRoutes(sorter);
+            int spilled = sorter.runCount();
+            assertTrue(spilled > 100);
+            sorter.merge((family, hi, lo, len, route) -> actual.add(String.join(",", route)));
+            assertTrue(sorter.runCount() <= sorter.fanIn());
+            assertEquals(spilled - sorter.runCount(), sorter.intermediateRuns() * (sorter.fanIn() - 1));
+        }
+        assertEquals(expected, actual);
+        assertEquals(ExternalRouteSorter.MAX_FAN_IN, new ExternalRouteSorter(1L << 40, null).fanIn());
+    }
+
+    private static void addRoutes(ExternalRouteSorter sorter) throws Exception {
+        StringBuilder pad = new StringBuilder();
+        for (int i = 0; i < 33000; i++) pad.append('x');
+        for (int i = 0; i < 300; i++) {
+            // 同一前缀多次出现，最短 AS_PATH（同长度时最早的一条）胜出
+            sorter.add(new String[]{"10." + (i % 97) + ".0.0/16", (i % 5 + 1) + " " + i + (i % 3 == 0 ? " 7" : ""), pad.toString(), pad.toString()});
+        }
+        sorter.add(new String[]{"2001:db8::/32", "1 2", pad.toString(), pad.toString()});
+    }
+
+    private void assertSameOutput(boolean aggregate) throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+
+        File inMemory = Files.createTempFile("in-memory-", ".csv").toFile();
+        File spilled = Files.createTempFile("spilled-", ".csv").toFile();
+        inMemory.deleteOnExit();
+        spilled.deleteOnExit();
+
+        Generate.setMemoryBudget(0);
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(csvPath), new CSVProvider(inMemory.getAbsolutePath()), null, aggregate);
+
+        // 约 64KB 的预算会强制写出多个有序段
+        Generate.setMemoryBudget(64 * 1024);
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(csvPath), new CSVProvider(spilled.getAbsolutePath()), null, aggregate);
+
+        List<String> expected = Files.readAllLines(inMemory.toPath());
+        List<String> actual = Files.readAllLines(spilled.toPath());
+        assertEquals(expected.get(0), actual.get(0));
+        assertEquals(expected.size(), actual.size());
+        Set<String> expectedPrefixes = new HashSet<>();
+        Set<String> actualPrefixes = new HashSet<>();
+        for (String line : expected.subList(1, expected.size())) expectedPrefixes.add(line.split(",")[0]);
+        for (String line : actual.subList(1, actual.size())) actualPrefixes.add(line.split(",")[0]);
+        assertEquals(expectedPrefixes, actualPrefixes);
+        if (!aggregate) {
+            assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+        }
+    }
+}
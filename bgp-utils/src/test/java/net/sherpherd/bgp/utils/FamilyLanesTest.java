@@ -0,0 +1,67 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FamilyLanesTest {
+
+    @Test
+    public void testMatchesAnalysisAggregate() throws Exception {
+        List<String> prefixes = new ArrayList<>(Arrays.asList(
+                "0.0.0.0/1", "128.0.0.0/2", "255.255.255.255/32", "10.0.0.0/24", "10.0.1.0/24",
+                "10.0.0.128/25", "192.0.2.0/25", "192.0.2.128/25",
+                "::/1", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff/128", "fffe::/16",
+                "2001:db8::/33", "2001:db8:8000::/33", "2001:db8:1::/48", "2001:db9::/32"));
+        Random rnd = new Random(43);
+        for (int i = 0; i < 2000; i++) {
+            int len = 8 + rnd.nextInt(25);
+            long addr = (rnd.nextInt() & 0xffffffffL) & PackedPrefix.ipv4Mask(len);
+            prefixes.add(PackedPrefix.formatIPv4(addr, len));
+            int len6 = 16 + rnd.nextInt(113);
+            long hi = (0x2001_0db8_0000_0000L | (rnd.nextLong() & 0xffffffffL)) & PackedPrefix.ipv6MaskHi(len6);
+            long lo = rnd.nextLong() & PackedPrefix.ipv6MaskLo(len6);
+            prefixes.add(PackedPrefix.formatIPv6(hi, lo, len6));
+        }
+
+        File csv = File.createTempFile("lanes-", ".csv");
+        csv.deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        lines.add("prefix,as_path");
+        for (String p : prefixes) lines.add(p + ",1");
+        Files.write(csv.toPath(), lines);
+
+        List<String> expected = new ArrayList<>(Analysis.ipv4Aggregate(csv.getPath()));
+        expected.addAll(Analysis.ipv6Aggregate(csv.getPath()));
+        assertEquals(expected, Generate.aggregatePrefixes(prefixes));
+
+        assertEquals(Arrays.asList("0.0.0.0/0"), Generate.aggregatePrefixes(Arrays.asList("0.0.0.0/1", "128.0.0.0/1")));
+        assertEquals(Arrays.asList("0:0:0:0:0:0:0:0/0"), Generate.aggregatePrefixes(Arrays.asList("8000::/1", "::/1")));
+    }
+
+    @Test
+    public void testParallelLanesMatchSequential() {
+        FamilyLanes lanes = new FamilyLanes();
+        Random rnd = new Random(7);
+        for (int i = 0; i < FamilyLanes.PARALLEL_THRESHOLD * 2; i++) {
+            int len = 16 + rnd.nextInt(17);
+            assertEquals(PackedPrefix.FAMILY_IPV4,
+                    lanes.add(PackedPrefix.formatIPv4((rnd.nextInt() & 0xffffffffL) & PackedPrefix.ipv4Mask(len), len)));
+            int len6 = 32 + rnd.nextInt(33);
+            assertEquals(PackedPrefix.FAMILY_IPV6,
+                    lanes.add(PackedPrefix.formatIPv6(rnd.nextLong() & PackedPrefix.ipv6MaskHi(len6), 0, len6)));
+        }
+        assertEquals(PackedPrefix.FAMILY_NONE, lanes.add("10.0.0.0/33"));
+        assertEquals(PackedPrefix.FAMILY_NONE, lanes.add("2001:db8::/129"));
+
+        List<String> expected = new ArrayList<>(lanes.aggregateIPv4());
+        expected.addAll(lanes.aggregateIPv6());
+        assertEquals(expected, lanes.aggregatePrefixes());
+    }
+}
@@ -0,0 +1,62 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FirewallSetProviderTest {
+
+    private static final List<String> PREFIXES = Arrays.asList(
+            "10.0.0.0/24", "10.0.1.0/24", "10.0.2.0/24", "10.0.1.0/24",
+            "192.0.2.0/25", "192.0.2.128/25",
+            "2001:db8::/33", "2001:db8:8000::/33");
+
+    @Test
+    public void testNftablesIntervalSet() throws Exception {
+        File out = writeSet(FirewallSetProvider.Format.NFTABLES, 1);
+        List<String> lines = Files.readAllLines(out.toPath());
+
+        assertTrue(lines.contains("add table inet bgp"));
+        assertTrue(lines.contains("add set inet bgp bgp_v4 { type ipv4_addr; flags interval; }"));
+        assertTrue(lines.contains("flush set inet bgp bgp_v4"));
+        // 合并后的区间不是单个 CIDR 时写成 start-end，分块大小为 1 时每个元素一条语句
+        assertTrue(lines.contains("add element inet bgp bgp_v4 { 10.0.0.0-10.0.2.255 }"));
+        assertTrue(lines.contains("add element inet bgp bgp_v4 { 192.0.2.0/24 }"));
+        assertTrue(lines.contains("add element inet bgp bgp_v6 { 2001:db8:0:0:0:0:0:0/32 }"));
+        assertEquals(3, lines.stream().filter(l -> l.startsWith("add element")).count());
+    }
+
+    @Test
+    public void testIpsetRestoreUsesCidrsAndSwap() throws Exception {
+        File out = writeSet(FirewallSetProvider.Format.IPSET, FirewallSetProvider.DEFAULT_CHUNK_SIZE);
+        List<String> lines = Files.readAllLines(out.toPath());
+
+        assertTrue(lines.contains("add bgp_v4-tmp 10.0.0.0/23"));
+        assertTrue(lines.contains("add bgp_v4-tmp 10.0.2.0/24"));
+        assertTrue(lines.contains("add bgp_v4-tmp 192.0.2.0/24"));
+        assertTrue(lines.contains("add bgp_v6-tmp 2001:db8:0:0:0:0:0:0/32"));
+        assertEquals(4, lines.stream().filter(l -> l.startsWith("add ")).count());
+        // 填充完成后才替换正式集合
+        int lastAdd = lines.indexOf("add bgp_v4-tmp 192.0.2.0/24");
+        assertTrue(lines.indexOf("swap bgp_v4-tmp bgp_v4") > lastAdd);
+    }
+
+    private File writeSet(FirewallSetProvider.Format format, int chunkSize) throws Exception {
+        File input = File.createTempFile("prefixes", ".txt");
+        File output = File.createTempFile("set", ".nft");
+        input.deleteOnExit();
+        output.deleteOnExit();
+        Files.write(input.toPath(), PREFIXES);
+
+        FirewallSetProvider out = new FirewallSetProvider(output.getAbsolutePath(), format);
+        out.setChunkSize(chunkSize);
+        Generate.generateFirewallSetFromRawText(new RawTextProvider(input.getAbsolutePath()), out);
+        assertEquals(format == FirewallSetProvider.Format.IPSET ? 3 : 2, out.getIpv4ElementCount());
+        assertEquals(1, out.getIpv6ElementCount());
+        return output;
+    }
+}
@@ -0,0 +1,80 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IncrementalCsvStoreTest {
+
+    @Test
+    public void testAppendAndCompact() throws Exception {
+        File dir = Files.createTempDirectory("incremental-").toFile();
+        File csv = new File(dir, "routes.csv");
+        // 基础文件包含额外列与重复前缀
+        Files.write(csv.toPath(), Arrays.asList(
+                "prefix,as_path,community",
+                "192.0.2.0/24,1 2 3,65000:1",
+                "198.51.100.0/24,4 5,",
+                "192.0.2.0/24,6 7,"));
+
+        try (IncrementalCsvStore store = IncrementalCsvStore.open(csv)) {
+            assertEquals(2, store.size());
+            assertEquals(2, store.pathLength("192.0.2.0/24"));
+            assertEquals(-1, store.pathLength("203.0.113.0/24"));
+            store.put("203.0.113.0/24", "8 9 10");
+            store.put("198.51.100.0/24", "11");
+        }
+        File delta = new File(csv.getPath() + IncrementalCsvStore.DELTA_SUFFIX);
+        File idx = new File(csv.getPath() + IncrementalCsvStore.INDEX_SUFFIX);
+        assertTrue("Delta log should hold the changes", delta.exists());
+        assertTrue(idx.exists());
+        assertEquals("Base file must not be rewritten for small changes", 4, Files.readAllLines(csv.toPath()).size());
+
+        // 重新打开时直接复用索引
+        try (IncrementalCsvStore store = IncrementalCsvStore.open(csv)) {
+            assertEquals(3, store.size());
+            assertEquals(1, store.pathLength("198.51.100.0/24"));
+            assertEquals(3, store.pathLength("203.0.113.0/24"));
+            store.compact();
+            assertEquals(0, store.deltaLength());
+        }
+
+        // 重复前缀保留在最短那一行的位置
+        List<String> lines = Files.readAllLines(csv.toPath());
+        assertEquals(Arrays.asList(
+                "prefix,as_path,community",
+                "198.51.100.0/24,11,",
+                "192.0.2.0/24,6 7,",
+                "203.0.113.0/24,8 9 10,"), lines);
+        assertFalse(delta.exists());
+
+        // 没有增量时压缩不重写基础文件
+        assertTrue(csv.setLastModified(1000000000000L));
+        try (IncrementalCsvStore store = IncrementalCsvStore.open(csv)) {
+            store.compact();
+        }
+        IncrementalCsvStore.compactPending(csv);
+        assertEquals(1000000000000L, csv.lastModified());
+    }
+
+    @Test
+    public void testHeaderFixAndGrowth() throws Exception {
+        File dir = Files.createTempDirectory("incremental-").toFile();
+        File csv = new File(dir, "routes.csv");
+        Files.write(csv.toPath(), Arrays.asList("prefix", "192.0.2.0/24"));
+
+        try (IncrementalCsvStore store = IncrementalCsvStore.open(csv)) {
+            assertEquals("prefix,as_path", Files.readAllLines(csv.toPath()).get(0));
+            for (int i = 0; i < 300; i++) {
+                store.put("10." + (i / 256) + "." + (i % 256) + ".0/24", "65000 " + i);
+            }
+            assertEquals(301, store.size());
+            assertEquals(2, store.pathLength("10.1.3.0/24"));
+            assertEquals(-1, store.pathLength("192.0.2.0/24"));
+        }
+    }
+}
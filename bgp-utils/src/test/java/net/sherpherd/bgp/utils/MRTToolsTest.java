@@ -2,10 +2,15 @@ package net.sherpherd.bgp.utils;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -79,6 +84,89 @@ public class MRTToolsTest {
         }
     }
 
+    @Test
+    public void testIncrementalUpdateIsVisibleToCSVProvider() throws Exception {
+        File dir = Files.createTempDirectory("mrt-to-csv-").toFile();
+        File csv = new File(dir, "routes.csv");
+        java.util.List<String> base = new java.util.ArrayList<>(java.util.Arrays.asList("prefix,as_path",
+                "10.0.0.0/8,1 2 3", "192.0.2.0/24,7", "198.51.100.0/24,8 9"));
+        for (int i = 0; i < 50; i++) base.add("172.16." + i + ".0/24,64512 " + i);
+        Files.write(csv.toPath(), base);
+
+        // 一次只有少量变化的更新：10/8 路径变短，新增 203.0.113.0/24，192.0.2.0/24 的更长路径被忽略
+        File mrt = new File(dir, "updates.mrt");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mrt))) {
+            writeUpdate(out, new long[]{4, 3}, new int[]{10, 0, 0, 0}, 8);
+            writeUpdate(out, new long[]{5, 6}, new int[]{203, 0, 113, 0}, 24);
+            writeUpdate(out, new long[]{5, 6, 7}, new int[]{192, 0, 2, 0}, 24);
+        }
+        MRTTools.mrtToCSV(mrt.getAbsolutePath(), csv.getAbsolutePath());
+        // 少量变化只追加到增量日志，不重写 CSV
+        File delta = new File(csv.getPath() + IncrementalCsvStore.DELTA_SUFFIX);
+        assertTrue(delta.length() > 0);
+        assertEquals(base, Files.readAllLines(csv.toPath()));
+
+        Map<String, String> routes = new HashMap<>();
+        CSVProvider provider = new CSVProvider(csv.getAbsolutePath());
+        String[] route;
+        while ((route = provider.getNextRoute()) != null) {
+            assertNull("前缀只应出现一次: " + route[0], routes.put(route[0].trim(), route[1].trim()));
+        }
+        assertEquals(54, routes.size());
+        assertEquals("4 3", routes.get("10.0.0.0/8"));
+        assertEquals("5 6", routes.get("203.0.113.0/24"));
+        assertEquals("7", routes.get("192.0.2.0/24"));
+        assertEquals("8 9", routes.get("198.51.100.0/24"));
+        // 读取时已合并增量日志
+        assertFalse(delta.exists());
+        assertTrue(Files.readAllLines(csv.toPath()).contains("203.0.113.0/24,5 6"));
+
+        // 显式要求合并时返回前 CSV 即完整
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mrt))) {
+            writeUpdate(out, new long[]{9}, new int[]{198, 51, 100, 0}, 24);
+        }
+        MRTTools.mrtToCSV(mrt.getAbsolutePath(), csv.getAbsolutePath(), true);
+        assertFalse(delta.exists());
+        assertTrue(Files.readAllLines(csv.toPath()).contains("198.51.100.0/24,9"));
+    }
+
+    /**
+     * 写一条 BGP4MP_MESSAGE_AS4 的 UPDATE 记录，只含一个 IPv4 NLRI
+     */
+    private static void writeUpdate(DataOutputStream out, long[] asPath, int[] prefix, int length) throws IOException {
+        ByteArrayOutputStream attrs = new ByteArrayOutputStream();
+        DataOutputStream a = new DataOutputStream(attrs);
+        a.write(new byte[]{0x40, 1, 1, 0});
+        a.write(new byte[]{0x40, 2, (byte) (2 + 4 * asPath.length), 2, (byte) asPath.length});
+        for (long asn : asPath) a.writeInt((int) asn);
+        a.write(new byte[]{0x40, 3, 4, (byte) 192, 0, 2, 1});
+
+        int prefixBytes = (length + 7) / 8;
+        int bgpLength = 16 + 2 + 1 + 2 + 2 + attrs.size() + 1 + prefixBytes;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream b = new DataOutputStream(body);
+        b.writeInt((int) asPath[0]);
+        b.writeInt(65000);
+        b.writeShort(0);
+        b.writeShort(1);
+        b.write(new byte[]{(byte) 192, 0, 2, 1});
+        b.write(new byte[]{(byte) 192, 0, 2, 2});
+        for (int i = 0; i < 16; i++) b.write(0xff);
+        b.writeShort(bgpLength);
+        b.write(2);
+        b.writeShort(0);
+        b.writeShort(attrs.size());
+        attrs.writeTo(b);
+        b.write(length);
+        for (int i = 0; i < prefixBytes; i++) b.write(prefix[i]);
+
+        out.writeInt(1764028800);
+        out.writeShort(16);
+        out.writeShort(4);
+        out.writeInt(body.size());
+        body.writeTo(out);
+    }
+
     private static String unquote(String s) {
         if (s == null) return "";
         if (s.length() >= 2 && s.startsWith("\"") && s.endsWith("\"")) {
@@ -0,0 +1,226 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Assume;
+import org.junit.Test;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class NetlinkRouteEncoderTest {
+
+    @Test
+    public void testIPv4ReplaceMatchesGolden() throws Exception {
+        NetlinkRouteEncoder encoder = new NetlinkRouteEncoder();
+        ByteBuffer buf = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        int n = encoder.encodeReplace(buf, 1, "192.0.2.0/24", "192.0.2.1");
+        assertArrayEquals(loadFixture("/netlink/newroute-v4-le.hex"), Arrays.copyOf(buf.array(), n));
+    }
+
+    @Test
+    public void testIPv6ReplaceWithLargeTableMatchesGolden() throws Exception {
+        NetlinkRouteEncoder encoder = new NetlinkRouteEncoder();
+        encoder.setTable(1000);
+        ByteBuffer buf = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        int n = encoder.encodeReplace(buf, 7, "2001:db8::/32", "2001:db8::1");
+        assertArrayEquals(loadFixture("/netlink/newroute-v6-table-le.hex"), Arrays.copyOf(buf.array(), n));
+    }
+
+    @Test
+    public void testIPv4DeleteMatchesGolden() throws Exception {
+        NetlinkRouteEncoder encoder = new NetlinkRouteEncoder();
+        ByteBuffer buf = ByteBuffer.allocate(256).order(ByteOrder.BIG_ENDIAN);
+        int n = encoder.encodeDelete(buf, 2, "10.0.0.0/8");
+        assertArrayEquals(loadFixture("/netlink/delroute-v4-be.hex"), Arrays.copyOf(buf.array(), n));
+    }
+
+    @Test
+    public void testInvalidAndOverflow() {
+        NetlinkRouteEncoder encoder = new NetlinkRouteEncoder();
+        ByteBuffer buf = ByteBuffer.allocate(50).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals("Family mismatch should be rejected", 0, encoder.encodeReplace(buf, 1, "10.0.0.0/8", "2001:db8::1"));
+        assertEquals(0, encoder.encodeReplace(buf, 1, "not-a-prefix", "10.0.0.1"));
+        assertEquals(44, encoder.encodeReplace(buf, 1, "10.0.0.0/8", "10.0.0.1"));
+        assertEquals("Full buffer should report -1", -1, encoder.encodeReplace(buf, 2, "10.1.0.0/16", "10.0.0.1"));
+        assertEquals("Buffer must be unchanged on overflow", 44, buf.position());
+    }
+
+    @Test
+    public void testProviderBatchesAndAsyncAcks() throws Exception {
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        ByteBuffer acks = ByteBuffer.allocate(1024).order(ByteOrder.nativeOrder());
+        putAck(acks, 1, 0);
+        putAck(acks, 2, -17);
+        putAck(acks, 3, 0);
+
+        NetlinkRouteProvider out = new NetlinkRouteProvider("unused");
+        out.setBatchSize(256);
+        out.connect(requests, new ByteArrayInputStream(acks.array(), 0, acks.position()));
+        out.initializeWriter();
+        out.addRoute("192.0.2.0/24", "192.0.2.1");
+        out.addRoute("198.51.100.0/24", "192.0.2.1");
+        out.addRoute("203.0.113.0/24", "192.0.2.1");
+        out.addRoute("2001:db8::/32", "192.0.2.1");
+        for (int i = 0; i < 10; i++) {
+            out.addRoute("10." + i + ".0.0/16", "192.0.2.1");
+        }
+        out.close();
+
+        assertEquals("Invalid route should be skipped", 13, out.getRouteCount());
+        assertEquals(3, out.getAckCount());
+        assertEquals(1, out.getErrorCount());
+        assertTrue(out.getErrors().get(0).contains("seq=2"));
+
+        // 256 字节的帧最多容纳 5 条 44 字节的消息
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(requests.toByteArray()));
+        int frames = 0;
+        int messages = 0;
+        while (in.available() > 0) {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            assertTrue(frame.length <= 256);
+            messages += frame.length / 44;
+            frames++;
+        }
+        assertEquals(out.getBatchCount(), frames);
+        assertEquals(3, frames);
+        assertEquals(13, messages);
+    }
+
+    @Test
+    public void testGenerateNetlinkFile() throws Exception {
+        File input = File.createTempFile("prefixes", ".txt");
+        File output = File.createTempFile("routes", ".nl");
+        input.deleteOnExit();
+        output.deleteOnExit();
+        Files.write(input.toPath(), "192.0.2.0/24\n198.51.100.0/24\n".getBytes(StandardCharsets.UTF_8));
+
+        NetlinkRouteProvider out = new NetlinkRouteProvider(output.getAbsolutePath());
+        out.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        Generate.generateNetlinkFromRawText(new RawTextProvider(input.getAbsolutePath()), out, "192.0.2.1");
+
+        byte[] data = Files.readAllBytes(output.toPath());
+        assertEquals(4 + 88, data.length);
+        byte[] first = Arrays.copyOfRange(data, 4, 4 + 44);
+        assertArrayEquals(loadFixture("/netlink/newroute-v4-le.hex"), first);
+    }
+
+    @Test
+    public void testProtocol() throws Exception {
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        NetlinkRouteProvider out = new NetlinkRouteProvider("unused");
+        out.setTable(1000);
+        out.setProtocol(" 99 ");
+        assertEquals("99", out.getProtocol());
+        out.connect(requests, null);
+        out.initializeWriter();
+        out.addRoute("192.0.2.0/24", "192.0.2.1");
+        out.close();
+        // 帧长度 4 字节 + nlmsghdr 16 字节之后，rtm_protocol 是 rtmsg 的第 6 个字节
+        assertEquals(99, requests.toByteArray()[4 + 16 + 5]);
+
+        File protos = File.createTempFile("rt_protos", "");
+        protos.deleteOnExit();
+        Files.write(protos.toPath(), Arrays.asList("# 注释", "3\tboot", "186 bgp-utils", "4 mystatic"));
+        assertEquals(186, NetlinkRouteProvider.resolveProtocol("bgp-utils", "/nonexistent/rt_protos", protos.getPath()));
+        for (String invalid : new String[]{"mystatic", "unknown"}) {
+            try {
+                NetlinkRouteProvider.resolveProtocol(invalid, protos.getPath());
+                fail(invalid + " 应当被拒绝");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        for (String invalid : new String[]{"boot", "4", "256"}) {
+            try {
+                new NetlinkRouteProvider("unused").setProtocol(invalid);
+                fail(invalid + " 应当被拒绝");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testSenderProgramsKernel() throws Exception {
+        // 在新的用户与网络命名空间中运行发送程序，不影响本机路由表；先启用其中的 lo，路由直接指向 lo
+        String up = "import fcntl, socket, struct; "
+                + "fcntl.ioctl(socket.socket(), 0x8914, struct.pack('16sH', b'lo', 0x41))";
+        String[] launcher = {"unshare", "-rn", "sh", "-c", "python3 -c \"" + up + "\" && exec python3 \"$0\""};
+        Assume.assumeTrue("需要 unshare 与 python3", commandSucceeds("unshare", "-rn", "python3", "-c", up));
+
+        NetlinkRouteProvider out = new NetlinkRouteProvider("unused");
+        out.setBatchSize(256);
+        out.setDevice("lo");
+        out.connectSender(launcher);
+        out.initializeWriter();
+        for (int i = 0; i < 20; i++) {
+            out.addRoute("10." + i + ".0.0/16", null);
+        }
+        out.deleteRoute("10.0.0.0/16");
+        // 经不可达网关的路由与删除不存在的路由由内核拒绝
+        out.addRoute("192.0.2.0/24", "198.51.100.1");
+        out.deleteRoute("10.0.0.0/16");
+        out.close();
+
+        assertEquals(23, out.getRouteCount());
+        assertEquals(23, out.getAckCount());
+        assertEquals(out.getErrors().toString(), 2, out.getErrorCount());
+        assertTrue(out.getErrors().get(0), out.getErrors().get(0).contains("seq=22")
+                && out.getErrors().get(0).endsWith("errno=101"));
+        assertTrue(out.getErrors().get(1), out.getErrors().get(1).contains("seq=23")
+                && out.getErrors().get(1).endsWith("errno=3"));
+    }
+
+    private static boolean commandSucceeds(String... command) {
+        try {
+            Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+            while (p.getInputStream().read() >= 0) {
+                // 丢弃输出
+            }
+            return p.waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static void putAck(ByteBuffer buf, int seq, int error) {
+        buf.putInt(36);
+        buf.putShort(NetlinkRouteEncoder.NLMSG_ERROR);
+        buf.putShort((short) 0x100);
+        buf.putInt(seq);
+        buf.putInt(0);
+        buf.putInt(error);
+        // 原请求头
+        buf.putInt(44);
+        buf.putShort(NetlinkRouteEncoder.RTM_NEWROUTE);
+        buf.putShort((short) 0x505);
+        buf.putInt(seq);
+        buf.putInt(0);
+    }
+
+    private byte[] loadFixture(String name) throws Exception {
+        InputStream res = getClass().getResourceAsStream(name);
+        assertNotNull("Fixture must exist: " + name, res);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(res, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                for (String hex : line.split("\\s+")) {
+                    bos.write(Integer.parseInt(hex, 16));
+                }
+            }
+        }
+        return bos.toByteArray();
+    }
+}
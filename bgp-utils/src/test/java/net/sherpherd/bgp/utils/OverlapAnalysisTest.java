@@ -0,0 +1,127 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OverlapAnalysisTest {
+
+    @After
+    public void disableReport() {
+        Generate.setOverlapReport(null);
+    }
+
+    @Test
+    public void testNearestCoveringPrefix() {
+        OverlapAnalysis analysis = new OverlapAnalysis();
+        analysis.add(new String[]{"10.1.2.0/24", "100 2"});
+        analysis.add(new String[]{"10.0.0.0/8", "100 1"});
+        analysis.add(new String[]{"10.1.0.0/16", "100 200 1"});
+        analysis.add(new String[]{"10.1.0.0/16", "300 9"});
+        analysis.add(new String[]{"10.2.0.0/16", "100 {1,2}"});
+        analysis.add(new String[]{"11.0.0.0/8", "1"});
+        analysis.add(new String[]{"2001:db8::/32", "100 5"});
+        analysis.add(new String[]{"2001:db8:ffff::/48", "100 5"});
+        analysis.add(new String[]{"::/0", "7"});
+        analysis.add(new String[]{"bad", "1"});
+
+        assertEquals(1, analysis.invalidPrefixes());
+        assertEquals(5, analysis.overlapCount());
+        assertEquals(4, analysis.coveringCount());
+        assertEquals(2, analysis.sameOriginCount());
+        assertEquals(2, analysis.differentOriginCount());
+
+        // 重复的 10.1.0.0/16 只保留第一条，/24 的最近覆盖者是 /16 而不是 /8
+        assertArrayEquals(new String[]{"10.1.0.0/16", "1", "10.0.0.0/8", "1", OverlapAnalysis.SAME_ORIGIN},
+                analysis.overlap(0));
+        assertArrayEquals(new String[]{"10.1.2.0/24", "2", "10.1.0.0/16", "1", OverlapAnalysis.DIFFERENT_ORIGIN},
+                analysis.overlap(1));
+        assertArrayEquals(new String[]{"10.2.0.0/16", "", "10.0.0.0/8", "1", OverlapAnalysis.UNKNOWN_ORIGIN},
+                analysis.overlap(2));
+        assertArrayEquals(new String[]{"2001:db8::/32", "5", "::/0", "7", OverlapAnalysis.DIFFERENT_ORIGIN},
+                analysis.overlap(3));
+        assertArrayEquals(new String[]{"2001:db8:ffff::/48", "5", "2001:db8::/32", "5", OverlapAnalysis.SAME_ORIGIN},
+                analysis.overlap(4));
+
+        String report = analysis.report();
+        assertTrue(report, report.contains("被覆盖的更具体前缀 5 条"));
+        assertTrue(report, report.contains("10.1.2.0/24 AS2 ⊂ 10.1.0.0/16 AS1"));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random rnd = new Random(48);
+        List<String[]> routes = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int len = 8 + rnd.nextInt(17);
+            long addr = (10L << 24 | rnd.nextInt(1 << 16) << 8) & PackedPrefix.ipv4Mask(len);
+            routes.add(new String[]{PackedPrefix.formatIPv4(addr, len), "100 " + (1 + rnd.nextInt(3))});
+        }
+        OverlapAnalysis analysis = new OverlapAnalysis();
+        analysis.addAll(routes);
+
+        // 暴力求每个前缀最近（最长）的覆盖前缀
+        Map<String, String[]> first = new HashMap<>();
+        for (String[] r : routes) first.putIfAbsent(r[0], r);
+        Map<String, String> expected = new HashMap<>();
+        for (String[] r : first.values()) {
+            long p = PackedPrefix.parseIPv4(r[0]);
+            String best = null;
+            int bestLen = -1;
+            for (String[] c : first.values()) {
+                long q = PackedPrefix.parseIPv4(c[0]);
+                int cl = PackedPrefix.ipv4Length(q);
+                if (cl < PackedPrefix.ipv4Length(p) && cl > bestLen
+                        && (PackedPrefix.ipv4Address(p) & PackedPrefix.ipv4Mask(cl)) == PackedPrefix.ipv4Address(q)) {
+                    best = c[0];
+                    bestLen = cl;
+                }
+            }
+            if (best != null) expected.put(r[0], best);
+        }
+
+        assertEquals(expected.size(), analysis.overlapCount());
+        int different = 0;
+        for (int i = 0; i < analysis.overlapCount(); i++) {
+            String[] row = analysis.overlap(i);
+            assertEquals(row[0], expected.get(row[0]), row[2]);
+            assertEquals(first.get(row[0])[1].substring(4), row[1]);
+            if (!row[1].equals(row[3])) different++;
+        }
+        assertEquals(different, analysis.differentOriginCount());
+    }
+
+    @Test
+    public void testCsvConversionWritesReport() throws Exception {
+        File dir = Files.createTempDirectory("overlaps-").toFile();
+        File in = new File(dir, "in.csv");
+        Files.write(in.toPath(), Arrays.asList("prefix,as_path",
+                "10.0.0.0/8,1 2", "10.0.0.0/24,1 3", "10.0.0.0/24,4 5 6", "10.0.1.0/24,1 2"));
+        File out = new File(dir, "out.csv");
+        File report = new File(dir, "overlaps.csv");
+
+        Generate.setOverlapReport(report.getPath());
+        // 聚合后只剩 10.0.0.0/8，分析的是聚合前归约后的路由
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()), null, true);
+        assertEquals(Arrays.asList(OverlapAnalysis.CSV_HEADER,
+                "10.0.0.0/24,3,10.0.0.0/8,2,different-origin",
+                "10.0.1.0/24,2,10.0.0.0/8,2,same-origin"), Files.readAllLines(report.toPath()));
+
+        assertEquals(2, OverlapAnalysis.ofCsv(in.getPath()).overlapCount());
+
+        // 引号中的 AS_SET 含逗号，不能把后面的列挤错位
+        Files.write(in.toPath(), Arrays.asList("as_path,prefix",
+                "\"1 {2,3}\",10.0.0.0/8", "1 2,10.0.0.0/24", "\"4 {5,6}\",10.0.1.0/24"));
+        OverlapAnalysis analysis = OverlapAnalysis.ofCsv(in.getPath()).analyze();
+        assertEquals(2, analysis.overlapCount());
+    }
+}
@@ -0,0 +1,69 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelGzipOutputStreamTest {
+
+    @Test
+    public void testMultiMemberRoundTrip() throws Exception {
+        byte[] data = new byte[1_000_003];
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('0' + random.nextInt(10));
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gz = new ParallelGzipOutputStream(bos, 4, 64 * 1024, 6)) {
+            gz.write(data, 0, 100);
+            gz.write(data, 100, data.length - 100);
+        }
+        assertTrue("Output should be compressed", bos.size() < data.length);
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray()))));
+    }
+
+    @Test
+    public void testCompressedCSVOutputIsReadable() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+
+        File plain = Files.createTempFile("plain-", ".csv").toFile();
+        File gz = Files.createTempFile("compressed-", ".csv.gz").toFile();
+        plain.deleteOnExit();
+        gz.deleteOnExit();
+
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(csvPath), new CSVProvider(plain.getAbsolutePath()));
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(csvPath), new CSVProvider(gz.getAbsolutePath()));
+
+        byte[] expected = Files.readAllBytes(plain.toPath());
+        try (InputStream in = new GZIPInputStream(new FileInputStream(gz))) {
+            assertArrayEquals(expected, readAll(in));
+        }
+
+        // 读取端自动识别gzip
+        CSVProvider reader = new CSVProvider(gz.getAbsolutePath());
+        String[] first = reader.getNextRoute();
+        assertNotNull(first);
+        assertTrue(Analysis.isValidCIDR(first[0]));
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int r;
+        while ((r = in.read(buf)) != -1) out.write(buf, 0, r);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,110 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    @After
+    public void disableCache() {
+        Generate.setResultCache(null);
+    }
+
+    @Test
+    public void testConversionServedFromCacheUntilInputChanges() throws Exception {
+        File dir = Files.createTempDirectory("cache-test-").toFile();
+        File in = new File(dir, "in.csv");
+        File out = new File(dir, "out.csv");
+        Files.write(in.toPath(), Arrays.asList("prefix,as_path", "10.0.0.0/24,1 2 3", "10.0.0.0/24,4 5", "10.0.1.0/24,6"));
+        Generate.setResultCache(new ResultCache(new File(dir, "cache"), ResultCache.DEFAULT_MAX_BYTES, ResultCache.InputKey.CONTENT));
+
+        RouteMetrics.reset();
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()), null, false);
+        byte[] computed = Files.readAllBytes(out.toPath());
+        assertEquals(0, RouteMetrics.counter(RouteMetrics.CACHE_HITS).get());
+        assertEquals(1, RouteMetrics.counter(RouteMetrics.CACHE_MISSES).get());
+
+        assertTrue(out.delete());
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()), null, false);
+        assertArrayEquals(computed, Files.readAllBytes(out.toPath()));
+        assertEquals(1, RouteMetrics.counter(RouteMetrics.CACHE_HITS).get());
+
+        // 过滤条件不同、输入内容变化都不应命中
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()),
+                Collections.singletonList("_6$"), false);
+        assertEquals(Arrays.asList("prefix,as_path", "10.0.1.0/24,6"), Files.readAllLines(out.toPath()));
+        Files.write(in.toPath(), Arrays.asList("prefix,as_path", "10.0.2.0/24,7"));
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()), null, false);
+        assertEquals(Arrays.asList("prefix,as_path", "10.0.2.0/24,7"), Files.readAllLines(out.toPath()));
+        assertEquals(1, RouteMetrics.counter(RouteMetrics.CACHE_HITS).get());
+        assertEquals(3, RouteMetrics.counter(RouteMetrics.CACHE_MISSES).get());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        File dir = Files.createTempDirectory("cache-lru-").toFile();
+        ResultCache cache = new ResultCache(new File(dir, "cache"), 2500, ResultCache.InputKey.STAT);
+        File in = new File(dir, "in.csv");
+        Files.write(in.toPath(), Collections.singletonList("prefix,as_path"));
+        File out = new File(dir, "out.csv");
+        Files.write(out.toPath(), new byte[1000]);
+
+        String a = cache.key("a", in.getPath(), null, false, out.getPath());
+        String b = cache.key("b", in.getPath(), null, false, out.getPath());
+        String c = cache.key("c", in.getPath(), null, false, out.getPath());
+        assertNotEquals(a, b);
+        assertEquals(a, cache.key("a", in.getPath(), Collections.emptyList(), false, out.getPath()));
+
+        cache.store(a, out.getPath());
+        cache.store(b, out.getPath());
+        // 让 a 比 b 更早写入，再通过命中把 a 变为最近使用
+        new File(cache.getDirectory(), a).setLastModified(System.currentTimeMillis() - 20_000);
+        new File(cache.getDirectory(), b).setLastModified(System.currentTimeMillis() - 10_000);
+        assertTrue(cache.restore(a, new File(dir, "restored.csv").getPath()));
+
+        RouteMetrics.reset();
+        cache.store(c, out.getPath());
+        assertEquals(2000, cache.size());
+        assertEquals(1, RouteMetrics.counter(RouteMetrics.CACHE_EVICTIONS).get());
+        assertTrue(cache.restore(a, new File(dir, "restored.csv").getPath()));
+        assertFalse(cache.restore(b, new File(dir, "restored.csv").getPath()));
+    }
+
+    @Test
+    public void testFanOutSkipsReadWhenAllOutputsCached() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+        File dir = Files.createTempDirectory("cache-fanout-").toFile();
+        Generate.setResultCache(new ResultCache(new File(dir, "cache"), ResultCache.DEFAULT_MAX_BYTES, ResultCache.InputKey.CONTENT));
+        File csv = new File(dir, "out.csv");
+        File raw = new File(dir, "out.txt");
+
+        RouteFanOut first = fanOut(csvPath, csv, raw);
+        first.run(2);
+        assertEquals(0, first.cachedCount());
+        byte[] csvBytes = Files.readAllBytes(csv.toPath());
+        byte[] rawBytes = Files.readAllBytes(raw.toPath());
+
+        RouteFanOut second = fanOut(csvPath, csv, raw);
+        second.run(2);
+        assertEquals(2, second.cachedCount());
+        assertEquals(0, second.filterGroupCount());
+        assertArrayEquals(csvBytes, Files.readAllBytes(csv.toPath()));
+        assertArrayEquals(rawBytes, Files.readAllBytes(raw.toPath()));
+    }
+
+    private static RouteFanOut fanOut(String csvPath, File csv, File raw) {
+        return new RouteFanOut(new CSVProvider(csvPath), Arrays.asList(
+                RouteFanOut.Sink.csv(new CSVProvider(csv.getPath()), Collections.singletonList("_16509$"), true),
+                RouteFanOut.Sink.rawText(new RawTextProvider(raw.getPath()), null, false)));
+    }
+}
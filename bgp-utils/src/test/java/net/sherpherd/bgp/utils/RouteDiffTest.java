@@ -0,0 +1,86 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RouteDiffTest {
+
+    @Test
+    public void testCategorizedChanges() throws Exception {
+        File dir = Files.createTempDirectory("route-diff-").toFile();
+        File before = new File(dir, "old.csv");
+        File after = new File(dir, "new.csv");
+        Files.write(before.toPath(), Arrays.asList("prefix,as_path",
+                "10.0.0.0/8,1 2", "10.1.0.0/16,1 3", "10.2.0.0/16,1 4", "2001:db8::/32,5 6", "192.0.2.0/24,7",
+                "10.3.0.0/16,1 {8,9}"));
+        Files.write(after.toPath(), Arrays.asList("prefix,as_path",
+                "192.0.2.0/24,7", "2001:db8::/32,5 9", "10.2.0.0/16,1 5 4", "10.0.0.0/8,1 2",
+                "10.0.0.0/8,3 4 5 2", "10.4.0.0/16,1 4", "2001:db8:1::/48,6", "10.3.0.0/16,1 {8,9}"));
+
+        File out = new File(dir, "diff.csv");
+        long changes = Generate.generateDiff(new CSVProvider(before.getPath()), new CSVProvider(after.getPath()),
+                out.getPath());
+        assertEquals(5, changes);
+        assertEquals(Arrays.asList(RouteDiff.CSV_HEADER,
+                "removed,10.1.0.0/16,1 3,,3,",
+                "path-changed,10.2.0.0/16,1 4,1 5 4,4,4",
+                "added,10.4.0.0/16,,1 4,,4",
+                "origin-changed,2001:db8::/32,5 6,5 9,6,9",
+                "added,2001:db8:1::/48,,6,,6"), Files.readAllLines(out.toPath()));
+    }
+
+    @Test
+    public void testSnapshotAndSpilledCsvAgree() throws Exception {
+        Random rnd = new Random(49);
+        File dir = Files.createTempDirectory("route-diff-").toFile();
+        Map<String, String> oldRoutes = new HashMap<>();
+        Map<String, String> newRoutes = new HashMap<>();
+        List<String> oldLines = new ArrayList<>();
+        List<String> newLines = new ArrayList<>();
+        oldLines.add("prefix,as_path");
+        newLines.add("prefix,as_path");
+        for (int i = 0; i < 5000; i++) {
+            String prefix = "10." + rnd.nextInt(40) + "." + rnd.nextInt(256) + ".0/24";
+            String path = (1 + rnd.nextInt(3)) + " " + (100 + rnd.nextInt(3));
+            if (rnd.nextInt(4) > 0 && oldRoutes.putIfAbsent(prefix, path) == null) oldLines.add(prefix + "," + path);
+            if (rnd.nextInt(4) > 0 && newRoutes.putIfAbsent(prefix, path) == null) newLines.add(prefix + "," + path);
+        }
+        File before = new File(dir, "old.csv");
+        File after = new File(dir, "new.csv");
+        Files.write(before.toPath(), oldLines);
+        Files.write(after.toPath(), newLines);
+
+        long expected = 0;
+        for (Map.Entry<String, String> e : oldRoutes.entrySet()) {
+            if (!e.getValue().equals(newRoutes.get(e.getKey()))) expected++;
+        }
+        for (String prefix : newRoutes.keySet()) {
+            if (!oldRoutes.containsKey(prefix)) expected++;
+        }
+
+        // 很小的内存预算会产生大量有序段
+        RouteDiff csvDiff = new RouteDiff(new CSVProvider(before.getPath()), new CSVProvider(after.getPath()))
+                .memoryBudget(16 << 10);
+        File csvOut = new File(dir, "csv-diff.csv");
+        assertEquals(expected, csvDiff.writeCsv(csvOut.getPath()));
+
+        SnapshotProvider oldSnap = new SnapshotProvider(new File(dir, "old.snap").getPath());
+        Generate.generateSnapshot(new CSVProvider(before.getPath()), oldSnap);
+        File snapOut = new File(dir, "snap-diff.csv");
+        RouteDiff snapDiff = new RouteDiff(oldSnap, new CSVProvider(after.getPath()));
+        assertEquals(expected, snapDiff.writeCsv(snapOut.getPath()));
+        assertEquals(Files.readAllLines(csvOut.toPath()), Files.readAllLines(snapOut.toPath()));
+        assertEquals(csvDiff.summary(), snapDiff.summary());
+        assertEquals(oldRoutes.size() - csvDiff.removed(),
+                csvDiff.unchanged() + csvDiff.pathChanged() + csvDiff.originChanged());
+    }
+}
@@ -0,0 +1,77 @@
+package net.sherpherd.bgp.utils;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RouteEventsTest {
+
+    @Test
+    public void testSpanIsNoopWithoutRecording() {
+        assertTrue(RouteEvents.AVAILABLE);
+        assertSame(RouteEvents.NOOP, RouteEvents.begin(RouteEvents.Phase.FILTER));
+    }
+
+    @Test
+    public void testConversionEmitsBatchEvents() throws Exception {
+        File in = Files.createTempFile("jfr-", ".csv").toFile();
+        File out = Files.createTempFile("jfr-out-", ".csv").toFile();
+        File jfr = Files.createTempFile("jfr-", ".jfr").toFile();
+        in.deleteOnExit();
+        out.deleteOnExit();
+        jfr.deleteOnExit();
+        Files.write(in.toPath(), Arrays.asList(
+                "prefix,as_path",
+                "10.0.0.0/24,1 2 3",
+                "10.0.1.0/24,4 5",
+                "10.0.2.0/24,6 9",
+                "10.0.3.0/24,abc"));
+
+        Configuration config;
+        try (Reader r = new InputStreamReader(getClass().getResourceAsStream("/bgp-utils.jfc"), StandardCharsets.UTF_8)) {
+            config = Configuration.create(r);
+        }
+        try (Recording recording = new Recording(config)) {
+            recording.start();
+            Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getAbsolutePath()),
+                    new CSVProvider(out.getAbsolutePath()), Arrays.asList("_9$", "^1"), true);
+            recording.stop();
+            recording.dump(jfr.toPath());
+        }
+
+        Map<String, long[]> totals = new HashMap<>();
+        List<RecordedEvent> events = RecordingFile.readAllEvents(jfr.toPath());
+        for (RecordedEvent e : events) {
+            String name = e.getEventType().getName();
+            if (!name.startsWith(RouteJfrEvents.PREFIX)) continue;
+            long[] t = totals.computeIfAbsent(name.substring(RouteJfrEvents.PREFIX.length()), k -> new long[3]);
+            t[0] += e.getLong("records");
+            t[1] += e.getLong("bytes");
+            t[2] += e.getLong("rejected");
+        }
+
+        // CSVProvider 在解析时已丢弃无效 AS_PATH 的行
+        assertEquals(3, totals.get("Parse")[0]);
+        assertTrue(totals.get("Parse")[1] > 0);
+        assertArrayEquals(new long[]{3, 0, 0}, totals.get("Validate"));
+        assertArrayEquals(new long[]{3, 0, 1}, totals.get("Filter"));
+        // 两条路由 10.0.0.0/24 与 10.0.2.0/24 不相邻，聚合后仍为两条
+        assertEquals(2, totals.get("Aggregate")[0]);
+        assertEquals(2, totals.get("Aggregate")[2]);
+        assertEquals(2, totals.get("Write")[0]);
+        assertTrue(totals.get("Write")[1] > 0);
+    }
+}
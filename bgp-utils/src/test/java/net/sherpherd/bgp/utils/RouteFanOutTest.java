@@ -0,0 +1,109 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RouteFanOutTest {
+
+    @After
+    public void resetAlternatePaths() {
+        Generate.setAlternatePaths(0, false);
+    }
+
+    @Test
+    public void testFanOutMatchesSeparateRuns() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+        List<String> regex = Collections.singletonList("_16509$");
+
+        File plain = tempFile(".csv");
+        File aggregated = tempFile(".csv");
+        File filtered = tempFile(".csv");
+        File raw = tempFile(".txt");
+        File rawSecond = tempFile(".txt");
+
+        RouteFanOut fanOut = new RouteFanOut(new CSVProvider(csvPath), Arrays.asList(
+                RouteFanOut.Sink.csv(new CSVProvider(plain.getAbsolutePath()), null, false),
+                RouteFanOut.Sink.csv(new CSVProvider(aggregated.getAbsolutePath()), null, true),
+                RouteFanOut.Sink.csv(new CSVProvider(filtered.getAbsolutePath()), regex, false),
+                RouteFanOut.Sink.rawText(new RawTextProvider(raw.getAbsolutePath()), null, true),
+                RouteFanOut.Sink.rawText(new RawTextProvider(rawSecond.getAbsolutePath()), Collections.emptyList(), true)));
+        fanOut.run(4);
+
+        // 无过滤与过滤两组；两个纯文本输出与聚合 CSV 共用同一份聚合结果
+        assertEquals(2, fanOut.filterGroupCount());
+        assertEquals(3, fanOut.viewCount());
+
+        assertSameLines(plain, separateCsv(csvPath, null, false));
+        assertSameLines(aggregated, separateCsv(csvPath, null, true));
+        assertSameLines(filtered, separateCsv(csvPath, regex, false));
+
+        File separateRaw = tempFile(".txt");
+        Generate.generateRawRouteFromCSVToRawText(new CSVProvider(csvPath),
+                new RawTextProvider(separateRaw.getAbsolutePath()), null, true);
+        assertEquals(new HashSet<>(Files.readAllLines(separateRaw.toPath())),
+                new HashSet<>(Files.readAllLines(raw.toPath())));
+        assertEquals(Files.readAllLines(raw.toPath()), Files.readAllLines(rawSecond.toPath()));
+    }
+
+    @Test
+    public void testFanOutKeepsAlternatePaths() throws Exception {
+        File in = tempFile(".csv");
+        Files.write(in.toPath(), Arrays.asList("prefix,as_path",
+                "10.0.0.0/24,1 2 3", "10.0.0.0/24,1 4", "10.0.1.0/24,7", "10.0.0.0/24,5 6", "10.0.0.0/24,8"));
+        Generate.setAlternatePaths(3, false);
+
+        File csv = tempFile(".csv");
+        File raw = tempFile(".txt");
+        new RouteFanOut(new CSVProvider(in.getAbsolutePath()), Arrays.asList(
+                RouteFanOut.Sink.csv(new CSVProvider(csv.getAbsolutePath()), null, false),
+                RouteFanOut.Sink.rawText(new RawTextProvider(raw.getAbsolutePath()), null, false))).run(2);
+
+        // 与单独的 CSV 转换使用同一归约，纯文本输出每个前缀只写一次
+        assertEquals(Arrays.asList("prefix,as_path", "10.0.0.0/24,8", "10.0.0.0/24,1 4", "10.0.0.0/24,5 6",
+                "10.0.1.0/24,7"), Files.readAllLines(csv.toPath()));
+        assertSameLines(csv, separateCsv(in.getAbsolutePath(), null, false));
+        assertEquals(Arrays.asList("10.0.0.0/24", "10.0.1.0/24"), Files.readAllLines(raw.toPath()));
+
+        // 快照按前缀去重，不能保存多条路由
+        File snap = tempFile(".snap");
+        try {
+            new RouteFanOut(new CSVProvider(in.getAbsolutePath()), Collections.singletonList(
+                    RouteFanOut.Sink.snapshot(new SnapshotProvider(snap.getAbsolutePath()), null, false))).run(1);
+            fail("snapshot output must reject alternate paths");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            Generate.generateSnapshot(new CSVProvider(in.getAbsolutePath()), new SnapshotProvider(snap.getAbsolutePath()));
+            fail("snapshot conversion must reject alternate paths");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private File separateCsv(String csvPath, List<String> regex, boolean aggregate) throws Exception {
+        File out = tempFile(".csv");
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(csvPath), new CSVProvider(out.getAbsolutePath()), regex, aggregate);
+        return out;
+    }
+
+    private static void assertSameLines(File actual, File expected) throws Exception {
+        assertEquals(Files.readAllLines(expected.toPath()), Files.readAllLines(actual.toPath()));
+    }
+
+    private static File tempFile(String suffix) throws Exception {
+        File f = Files.createTempFile("fanout-", suffix).toFile();
+        f.deleteOnExit();
+        return f;
+    }
+}
@@ -0,0 +1,71 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RouteLogTest {
+
+    @After
+    public void resetVerbose() {
+        Main.verbose = false;
+        RouteLog.flush();
+        RouteLog.setCapacity(RouteLog.DEFAULT_CAPACITY);
+    }
+
+    @Test
+    public void testFormatReplacesPlaceholdersInOrder() {
+        assertEquals("prefix=10.0.0.0/8 AS_PATH=1 2", RouteLog.format("prefix={} AS_PATH={}", "10.0.0.0/8", "1 2", null));
+        assertEquals("no args", RouteLog.format("no args", "x", null, null));
+        assertEquals("a=1 b=null", RouteLog.format("a={} b={}", 1, null, null));
+    }
+
+    @Test
+    public void testDisabledLogIsNoop() {
+        Main.verbose = false;
+        RouteLog.Category category = RouteLog.category("test.disabled", false).sample(2);
+        for (int i = 0; i < 100; i++) {
+            RouteLog.log(category, "route {}", i);
+        }
+        assertEquals(0, category.suppressed());
+    }
+
+    @Test
+    public void testSamplingAndRateLimit() {
+        Main.verbose = true;
+        RouteLog.Category sampled = RouteLog.category("test.sampled", false).sample(10);
+        for (int i = 0; i < 100; i++) {
+            RouteLog.log(sampled, "sampled {}", i);
+        }
+        assertEquals(90, sampled.suppressed());
+
+        RouteLog.Category limited = RouteLog.category("test.limited", false).rateLimit(5);
+        for (int i = 0; i < 1000; i++) {
+            RouteLog.log(limited, "limited {}", i);
+        }
+        // 即使恰好跨过一秒边界，也最多输出两个窗口的配额
+        assertTrue(limited.suppressed() >= 990);
+    }
+
+    @Test
+    public void testProviderPerRouteMessagesAreRateLimited() {
+        Main.verbose = true;
+        RouteLog.flush();
+        // 小缓冲区只是为了少输出几行，限流在入队之前生效
+        RouteLog.setCapacity(16);
+        RouteLog.Category skip = RouteLog.category("iproute2.skip", true);
+        RouteLog.Category command = RouteLog.category("iproute2.command", false);
+        long skipBefore = skip.suppressed();
+        long commandBefore = command.suppressed();
+
+        Iproute2ScriptProvider out = new Iproute2ScriptProvider("unused");
+        for (int i = 0; i < 3000; i++) {
+            out.addRoute("10.0.0.0/33", "192.0.2.1");
+            out.addRoute("10." + (i >> 8) + "." + (i & 0xff) + ".0/24", "192.0.2.1");
+        }
+        assertTrue(skip.suppressed() - skipBefore >= 1000);
+        assertTrue(command.suppressed() - commandBefore >= 1000);
+        assertEquals(3000, out.getRouteCount());
+    }
+}
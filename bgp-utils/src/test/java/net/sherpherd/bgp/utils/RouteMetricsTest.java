@@ -0,0 +1,96 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.io.StringWriter;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RouteMetricsTest {
+
+    @Test
+    public void testHistogramPercentilesWithinBucketError() {
+        RouteMetrics.Histogram h = new RouteMetrics.Histogram();
+        for (long v = 1; v <= 10000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(10000, h.count());
+        assertEquals(10_000_000L, h.max());
+        long p50 = h.percentile(50);
+        long p99 = h.percentile(99);
+        // 每个 2 的幂区间 16 个子桶，相对误差不超过 1/16
+        assertTrue("p50=" + p50, Math.abs(p50 - 5_000_000L) <= 5_000_000L / 16);
+        assertTrue("p99=" + p99, Math.abs(p99 - 9_900_000L) <= 9_900_000L / 16);
+        assertEquals(10_000_000L, h.percentile(100));
+        for (long v : new long[]{0, 31, 32, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int i = RouteMetrics.Histogram.index(v);
+            assertTrue(v <= RouteMetrics.Histogram.upperBound(i) || RouteMetrics.Histogram.upperBound(i) < 0);
+        }
+    }
+
+    @Test
+    public void testConversionCountsRejectsAndReduction() throws Exception {
+        File in = Files.createTempFile("metrics-", ".csv").toFile();
+        File out = Files.createTempFile("metrics-out-", ".csv").toFile();
+        in.deleteOnExit();
+        out.deleteOnExit();
+        Files.write(in.toPath(), Arrays.asList(
+                "prefix,as_path",
+                "10.0.0.0/24,1 2 3",
+                "10.0.0.0/24,4 5",
+                "10.0.1.0/24,6 7",
+                "10.0.2.0/24,8 9",
+                "300.0.0.0/24,1",
+                "10.0.3.0/24,abc"));
+
+        RouteMetrics.reset();
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getAbsolutePath()), new CSVProvider(out.getAbsolutePath()),
+                Arrays.asList("_9$", "^4"), true);
+
+        assertEquals(4, RouteMetrics.counter(RouteMetrics.READ_RECORDS).get());
+        assertEquals(Files.size(in.toPath()), RouteMetrics.counter(RouteMetrics.READ_BYTES).get());
+        assertEquals(1, RouteMetrics.counter(RouteMetrics.REJECT_INVALID_PREFIX).get());
+        assertEquals(1, RouteMetrics.counter(RouteMetrics.REJECT_INVALID_ASPATH).get());
+        assertEquals(2, RouteMetrics.counter(RouteMetrics.FILTER_REJECTS).get());
+        assertEquals(2, RouteMetrics.counter(RouteMetrics.REDUCE_UPSERTS).get());
+        assertEquals(2, RouteMetrics.counter(RouteMetrics.AGGREGATE_INPUT).get());
+        assertEquals(2, RouteMetrics.counter(RouteMetrics.AGGREGATE_OUTPUT).get());
+        assertEquals(2, RouteMetrics.counter(RouteMetrics.WRITE_RECORDS).get());
+        assertTrue(RouteMetrics.histogram("stage.filter.nanos").count() > 0);
+
+        StringWriter json = new StringWriter();
+        RouteMetrics.writeJson(json);
+        assertTrue(json.toString().startsWith("{\"counters\":{"));
+        assertTrue(json.toString().contains("\"filter.regex_rejects\":2"));
+        assertTrue(RouteMetrics.summary().contains("reduce.upserts: 2"));
+    }
+
+    @Test
+    public void testReplacementsCountedInConcurrentReduce() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+        File out = Files.createTempFile("metrics-", ".csv").toFile();
+        out.deleteOnExit();
+
+        RouteMetrics.reset();
+        new RoutePipeline(new CSVProvider(csvPath)).setBatchSize(128).reduceShortestPath()
+                .run(RoutePipeline.Sink.csv(new CSVProvider(out.getAbsolutePath())));
+        long read = RouteMetrics.counter(RouteMetrics.READ_RECORDS).get();
+        long upserts = RouteMetrics.counter(RouteMetrics.REDUCE_UPSERTS).get();
+        long replacements = RouteMetrics.counter(RouteMetrics.REDUCE_REPLACEMENTS).get();
+        assertTrue(upserts > 0);
+        assertTrue(upserts + replacements <= read);
+
+        RouteMetrics.reset();
+        new RoutePipeline(new CSVProvider(csvPath)).setBatchSize(128).reduceShortestPath(4)
+                .run(RoutePipeline.Sink.csv(new CSVProvider(out.getAbsolutePath())));
+        assertEquals(read, RouteMetrics.counter(RouteMetrics.READ_RECORDS).get());
+        assertEquals(upserts, RouteMetrics.counter(RouteMetrics.REDUCE_UPSERTS).get());
+        assertTrue(RouteMetrics.histogram("stage.reduce.nanos").count() > 0);
+    }
+}
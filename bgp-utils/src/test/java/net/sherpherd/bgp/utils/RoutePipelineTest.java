@@ -0,0 +1,101 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RoutePipelineTest {
+
+    @Test
+    public void testSmallBatchesKeepInputOrder() throws Exception {
+        String csvPath = resource("/output.csv");
+
+        // 参考结果：按输入顺序逐行归约
+        Map<String, String[]> expected = new LinkedHashMap<>();
+        CSVProvider reference = new CSVProvider(csvPath);
+        String[] route;
+        while ((route = reference.getNextRoute()) != null) {
+            if (route.length < 2 || !Analysis.isValidCIDR(route[0]) || !Analysis.isValidAsPath(route[1])) continue;
+            String[] existing = expected.get(route[0]);
+            if (existing == null || Analysis.isShorterAsPath(route[1], existing[1])) {
+                expected.put(route[0], route);
+            }
+        }
+
+        // 很小的批和多个乱序完成的工作线程，依然要得到相同顺序的结果
+        File out = tempFile(".csv");
+        RoutePipeline pipeline = new RoutePipeline(new CSVProvider(csvPath))
+                .setBatchSize(7)
+                .setQueueCapacity(2)
+                .addStage(batch -> Thread.yield(), 8)
+                .validate()
+                .reduceShortestPath();
+        long written = pipeline.run(RoutePipeline.Sink.csv(new CSVProvider(out.getAbsolutePath())));
+
+        List<String> lines = Files.readAllLines(out.toPath());
+        assertEquals(expected.size(), written);
+        assertEquals(expected.size() + 1, lines.size());
+        int i = 1;
+        for (String[] r : expected.values()) {
+            assertEquals(String.join(",", r), lines.get(i++));
+        }
+    }
+
+    @Test
+    public void testEqualLengthKeepsFirstSeen() throws Exception {
+        File in = tempFile(".csv");
+        Files.write(in.toPath(), Arrays.asList(
+                "prefix,as_path",
+                "10.0.0.0/24,1 2 3",
+                "10.0.0.0/24,4 5",
+                "10.0.0.0/24,6 7",
+                "2001:db8::/32,1",
+                "10.0.1.0/24,9"));
+        File out = tempFile(".csv");
+        new RoutePipeline(new CSVProvider(in.getAbsolutePath()))
+                .setBatchSize(1)
+                .validate()
+                .reduceShortestPath()
+                .run(RoutePipeline.Sink.csv(new CSVProvider(out.getAbsolutePath())));
+        assertEquals(Arrays.asList("prefix,as_path", "10.0.0.0/24,4 5", "2001:db8::/32,1", "10.0.1.0/24,9"),
+                Files.readAllLines(out.toPath()));
+    }
+
+    @Test
+    public void testStageFailureStopsPipeline() throws Exception {
+        String csvPath = resource("/output.csv");
+        File out = tempFile(".csv");
+        RoutePipeline pipeline = new RoutePipeline(new CSVProvider(csvPath))
+                .setBatchSize(16)
+                .setQueueCapacity(1)
+                .addStage(batch -> {
+                    if (batch.seq == 3) throw new IllegalStateException("boom");
+                }, 4);
+        try {
+            pipeline.run(RoutePipeline.Sink.csv(new CSVProvider(out.getAbsolutePath())));
+            fail("阶段异常应当传递给调用者");
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+    }
+
+    private String resource(String name) throws Exception {
+        URL res = getClass().getResource(name);
+        assertNotNull("Test CSV resource must exist: " + name, res);
+        return Paths.get(res.toURI()).toFile().getAbsolutePath();
+    }
+
+    private static File tempFile(String suffix) throws Exception {
+        File f = Files.createTempFile("pipeline-", suffix).toFile();
+        f.deleteOnExit();
+        return f;
+    }
+}
@@ -0,0 +1,150 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+import java.math.BigInteger;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RouteStatisticsTest {
+
+    @After
+    public void disableReport() {
+        Generate.setStatisticsReport(false);
+        Generate.setAlternatePaths(0, false);
+    }
+
+    @Test
+    public void testCountsInOnePass() {
+        RouteStatistics stats = new RouteStatistics();
+        stats.add(new String[]{"10.0.0.0/8", "100 1"});
+        stats.add(new String[]{"10.1.0.0/16", "100 200 2"});
+        stats.add(new String[]{"10.1.2.0/24", "100 2"});
+        stats.add(new String[]{"11.0.0.0/8", "300 1"});
+        stats.add(new String[]{"192.0.2.0/24", "100 {1,2}"});
+        stats.add(new String[]{"2001:db8::/32", "100 2"});
+        stats.add(new String[]{"2001:db8:1::/48", "100 2"});
+        stats.add(new String[]{"2001:db9::/33", "100 3"});
+        stats.add(new String[]{"bad", "1"});
+
+        assertEquals(5, stats.ipv4Prefixes());
+        assertEquals(3, stats.ipv6Prefixes());
+        assertEquals(1, stats.invalidPrefixes());
+        assertEquals(2 * (1L << 24) + 256, stats.ipv4Covered());
+        assertEquals((1L << 32) + (1L << 31), stats.ipv6Covered());
+        assertEquals(2, stats.ipv4MoreSpecifics());
+        assertEquals(1, stats.ipv6MoreSpecifics());
+
+        assertEquals(2, stats.ipv4LengthCount(8));
+        assertEquals(2, stats.ipv4LengthCount(24));
+        assertEquals(1, stats.ipv6LengthCount(48));
+        assertEquals(7, stats.pathLengthCount(2));
+        assertEquals(1, stats.pathLengthCount(3));
+
+        assertEquals(4, stats.originCount());
+        assertEquals(2, stats.originPrefixes(1));
+        assertEquals(2 * (1L << 24), stats.originIPv4Space(1));
+        assertEquals(4, stats.originPrefixes(2));
+        assertEquals((1L << 16) + 256, stats.originIPv4Space(2));
+        assertEquals((1L << 32) + (1L << 16), stats.originIPv6Space(2));
+        assertEquals(1, stats.originPrefixes(0));
+        assertEquals(0, stats.originPrefixes(4));
+
+        String report = stats.report();
+        assertTrue(report, report.contains("更具体前缀 2 条"));
+        assertTrue(report, report.contains("AS2 前缀 4 条"));
+        assertTrue(report, report.contains("未知 前缀 1 条"));
+    }
+
+    @Test
+    public void testSummariesMatchAggregation() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+
+        long ipv4 = 0;
+        for (String cidr : Analysis.ipv4Aggregate(csvPath)) {
+            ipv4 += 1L << (32 - Integer.parseInt(cidr.substring(cidr.indexOf('/') + 1)));
+        }
+        BigInteger ipv6 = BigInteger.ZERO;
+        for (String cidr : Analysis.ipv6Aggregate(csvPath)) {
+            int len = Integer.parseInt(cidr.substring(cidr.indexOf('/') + 1));
+            if (len <= 64) ipv6 = ipv6.add(BigInteger.ONE.shiftLeft(64 - len));
+        }
+        assertEquals(ipv4, Analysis.ipv4Summary(csvPath));
+        assertEquals(ipv6, Analysis.ipv6Summary(csvPath));
+    }
+
+    @Test
+    public void testConversionCollectsStatistics() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+        File out = File.createTempFile("stats-", ".csv");
+        out.deleteOnExit();
+
+        Generate.setStatisticsReport(true);
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(csvPath), new CSVProvider(out.getPath()), null, false);
+        RouteStatistics stats = Generate.getLastStatistics();
+        assertNotNull(stats);
+
+        // 统计的是归约后的路由，与输出文件逐行统计的结果相同
+        RouteStatistics expected = RouteStatistics.ofCsv(out.getPath());
+        assertEquals(expected.ipv4Prefixes(), stats.ipv4Prefixes());
+        assertEquals(expected.ipv6Prefixes(), stats.ipv6Prefixes());
+        assertEquals(Files.readAllLines(out.toPath()).size() - 1, stats.ipv4Prefixes() + stats.ipv6Prefixes());
+        assertEquals(expected.report(), stats.report());
+    }
+
+    @Test
+    public void testAlternatePathsCountEachPrefixOnce() throws Exception {
+        File dir = Files.createTempDirectory("stats-paths-").toFile();
+        File in = new File(dir, "in.csv");
+        File out = new File(dir, "out.csv");
+        Files.write(in.toPath(), Arrays.asList("prefix,as_path",
+                "10.0.0.0/8,100 1", "10.0.0.0/8,200 300 1", "10.0.0.0/8,400 9",
+                "10.1.0.0/16,100 2", "10.1.0.0/16,200 5 6 2", "2001:db8::/32,100 3", "2001:db8::/32,7 8 3"));
+
+        Generate.setStatisticsReport(true);
+        Generate.setAlternatePaths(3, false);
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()), null, false);
+        assertEquals("Alternate paths must still be written", 8, Files.readAllLines(out.toPath()).size());
+
+        // 每个前缀只按最优路由统计一次
+        RouteStatistics stats = Generate.getLastStatistics();
+        assertEquals(2, stats.ipv4Prefixes());
+        assertEquals(1, stats.ipv6Prefixes());
+        assertEquals(1, stats.ipv4LengthCount(8));
+        assertEquals(1L << 24, stats.ipv4Covered());
+        assertEquals(3, stats.pathLengthCount(2));
+        assertEquals(1, stats.originPrefixes(1));
+        assertEquals(1L << 24, stats.originIPv4Space(1));
+        assertEquals(0, stats.originPrefixes(9));
+        assertEquals(3, stats.originCount());
+    }
+
+    @Test
+    public void testCsvWithQuotedAsSet() throws Exception {
+        File csv = Files.createTempFile("stats-as-set-", ".csv").toFile();
+        csv.deleteOnExit();
+        // 引号中的 AS_SET 含逗号，as_path 在 prefix 前面时按逗号直接切分会把前缀读错
+        Files.write(csv.toPath(), Arrays.asList("as_path,prefix",
+                "\"100 {1,2}\",192.0.2.0/24", "100 1,10.0.0.0/8", "\"100 200 {3,4}\",2001:db8::/32"));
+
+        RouteStatistics stats = RouteStatistics.ofCsv(csv.getPath());
+        assertEquals(0, stats.invalidPrefixes());
+        assertEquals(2, stats.ipv4Prefixes());
+        assertEquals(1, stats.ipv6Prefixes());
+        assertEquals(2, stats.originPrefixes(0));
+        assertEquals(1, stats.originPrefixes(1));
+        assertEquals(1, stats.pathLengthCount(3));
+        assertEquals((1L << 24) + 256, Analysis.ipv4Summary(csv.getPath()));
+        assertEquals(BigInteger.ONE.shiftLeft(32), Analysis.ipv6Summary(csv.getPath()));
+        assertEquals(Arrays.asList("10.0.0.0/8", "192.0.2.0/24"), Analysis.ipv4Aggregate(csv.getPath()));
+    }
+}
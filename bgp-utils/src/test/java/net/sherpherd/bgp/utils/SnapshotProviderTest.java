@@ -0,0 +1,83 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.Test;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SnapshotProviderTest {
+
+    @Test
+    public void testSnapshotFromCSV() throws Exception {
+        URL res = getClass().getResource("/output.csv");
+        assertNotNull("Test CSV resource must exist: /output.csv", res);
+        String csvPath = Paths.get(res.toURI()).toFile().getAbsolutePath();
+
+        File snapshot = Files.createTempFile("routes-", ".snap").toFile();
+        snapshot.deleteOnExit();
+
+        Generate.generateSnapshot(new CSVProvider(csvPath), new SnapshotProvider(snapshot.getAbsolutePath()));
+        assertTrue("Snapshot should be recognised by magic", SnapshotProvider.isSnapshotFile(snapshot.getAbsolutePath()));
+
+        // 重新打开快照，只做内存映射
+        SnapshotProvider snap = new SnapshotProvider(snapshot.getAbsolutePath());
+
+        Set<String> expected = new HashSet<>();
+        for (String line : Files.readAllLines(Paths.get(csvPath))) {
+            String prefix = line.split(",")[0].trim();
+            if (Analysis.isValidCIDR(prefix)) expected.add(prefix);
+        }
+        assertEquals(expected.size(), snap.size());
+
+        String[] route = snap.lookup("130.137.90.0/24");
+        assertNotNull(route);
+        assertEquals("22652 16509", route[1]);
+
+        route = snap.lookup("2c0f:ee00::/48");
+        assertNotNull(route);
+        assertEquals("2c0f:ee00:0:0:0:0:0:0/48", route[0]);
+        assertEquals("37721", route[1]);
+
+        route = snap.longestMatch("130.137.90.77");
+        assertNotNull(route);
+        assertEquals("130.137.90.0/24", route[0]);
+        assertNull(snap.lookup("10.255.255.0/24"));
+
+        // 顺序遍历应当按地址升序且前缀不重复
+        Set<String> seen = new HashSet<>();
+        long prev = -1;
+        int count = 0;
+        String[] r;
+        while ((r = snap.getNextRoute()) != null) {
+            assertTrue("Duplicate prefix in snapshot: " + r[0], seen.add(r[0]));
+            if (count < snap.ipv4Count()) {
+                long packed = PackedPrefix.parseIPv4(r[0]);
+                assertTrue(packed > prev);
+                prev = packed;
+            }
+            count++;
+        }
+        assertEquals(snap.size(), count);
+        snap.close();
+    }
+
+    @Test
+    public void testPackedPrefixRoundTrip() {
+        long packed = PackedPrefix.parseIPv4("192.0.2.0/24");
+        assertEquals("192.0.2.0/24", PackedPrefix.formatIPv4(PackedPrefix.ipv4Address(packed), PackedPrefix.ipv4Length(packed)));
+        assertEquals(-1, PackedPrefix.parseIPv4("192.0.2.0/33"));
+        assertEquals(-1, PackedPrefix.parseIPv4("192.0.2/24"));
+
+        long[] v6 = new long[3];
+        assertTrue(PackedPrefix.parseIPv6("2001:db8::/32", v6));
+        assertEquals("2001:db8:0:0:0:0:0:0/32", PackedPrefix.formatIPv6(v6[0], v6[1], (int) v6[2]));
+        assertTrue(PackedPrefix.parseIPv6("::ffff:192.0.2.1/128", v6));
+        assertEquals(0xffffc0000201L, v6[1]);
+        assertFalse(PackedPrefix.parseIPv6("2001:db8:::1/64", v6));
+    }
+}
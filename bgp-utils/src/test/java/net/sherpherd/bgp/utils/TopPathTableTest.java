@@ -0,0 +1,125 @@
+package net.sherpherd.bgp.utils;
+
+import org.junit.After;
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TopPathTableTest {
+
+    @After
+    public void resetAlternatePaths() {
+        Generate.setAlternatePaths(0, false);
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random rnd = new Random(45);
+        int n = 20000;
+        String[][] routes = new String[n][];
+        for (int i = 0; i < n; i++) {
+            StringBuilder path = new StringBuilder().append(1 + rnd.nextInt(6));
+            int hops = rnd.nextInt(6);
+            for (int h = 0; h < hops; h++) path.append(' ').append(100 + rnd.nextInt(50));
+            routes[i] = new String[]{"10." + rnd.nextInt(4) + "." + rnd.nextInt(100) + ".0/24", path.toString()};
+        }
+        for (boolean distinct : new boolean[]{false, true}) {
+            for (int k : new int[]{1, 3, 4}) {
+                TopPathTable table = new TopPathTable(k, distinct);
+                // 乱序写入，序号保持不变，结果应与写入顺序无关
+                List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < n; i++) order.add(i);
+                Collections.shuffle(order, rnd);
+                for (int i : order) offer(table, routes[i], i);
+                List<String[]> actual = table.routes();
+
+                // 打乱写入后前缀编号顺序不同，按前缀分组比较
+                Map<String, List<String[]>> expected = bruteForce(routes, k, distinct);
+                Map<String, List<String[]>> grouped = new LinkedHashMap<>();
+                for (String[] r : actual) grouped.computeIfAbsent(r[0], p -> new ArrayList<>()).add(r);
+                assertEquals(expected.keySet(), new HashSet<>(grouped.keySet()));
+                for (Map.Entry<String, List<String[]>> e : expected.entrySet()) {
+                    List<String[]> got = grouped.get(e.getKey());
+                    assertEquals(k + "/" + distinct + " " + e.getKey(), e.getValue().size(), got.size());
+                    for (int i = 0; i < got.size(); i++) {
+                        assertSame(e.getValue().get(i), got.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, List<String[]>> bruteForce(String[][] routes, int k, boolean distinct) {
+        Map<String, List<Integer>> byPrefix = new LinkedHashMap<>();
+        for (int i = 0; i < routes.length; i++) {
+            byPrefix.computeIfAbsent(routes[i][0], p -> new ArrayList<>()).add(i);
+        }
+        Map<String, List<String[]>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Integer>> e : byPrefix.entrySet()) {
+            List<Integer> candidates = new ArrayList<>(e.getValue());
+            candidates.sort(Comparator.<Integer>comparingInt(i -> AsPaths.length(routes[i][1])).thenComparingInt(i -> i));
+            List<String[]> best = new ArrayList<>();
+            Set<Integer> neighbors = new HashSet<>();
+            for (int i : candidates) {
+                if (best.size() == k) break;
+                if (distinct && !neighbors.add(BestPathSelector.neighborAs(routes[i][1]))) continue;
+                best.add(routes[i]);
+            }
+            result.put(e.getKey(), best);
+        }
+        return result;
+    }
+
+    private static void offer(TopPathTable table, String[] route, long seq) {
+        long packed = PackedPrefix.parseIPv4(route[0]);
+        table.offer(PackedPrefix.FAMILY_IPV4, PackedPrefix.ipv4Address(packed), 0, PackedPrefix.ipv4Length(packed),
+                AsPaths.length(route[1]), seq, route);
+    }
+
+    @Test
+    public void testCsvConversionKeepsAlternatePaths() throws Exception {
+        File dir = Files.createTempDirectory("top-paths-").toFile();
+        File in = new File(dir, "in.csv");
+        Files.write(in.toPath(), Arrays.asList("prefix,as_path",
+                "10.0.0.0/24,1 2 3", "10.0.0.0/24,1 4", "10.0.1.0/24,7", "10.0.0.0/24,5 6", "10.0.0.0/24,8"));
+
+        File out = new File(dir, "out.csv");
+        Generate.setAlternatePaths(3, false);
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()), null, false);
+        assertEquals(Arrays.asList("prefix,as_path", "10.0.0.0/24,8", "10.0.0.0/24,1 4", "10.0.0.0/24,5 6",
+                "10.0.1.0/24,7"), Files.readAllLines(out.toPath()));
+
+        Generate.setAlternatePaths(3, true);
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()), null, false);
+        assertEquals(Arrays.asList("prefix,as_path", "10.0.0.0/24,8", "10.0.0.0/24,1 4", "10.0.0.0/24,5 6",
+                "10.0.1.0/24,7"), Files.readAllLines(out.toPath()));
+        Generate.setAlternatePaths(2, true);
+        Generate.generateRouteFromCSVToCSV(new CSVProvider(in.getPath()), new CSVProvider(out.getPath()),
+                Collections.singletonList("^1_"), false);
+        // 两条候选的相邻 AS 都是 1，只保留较短的一条
+        assertEquals(Arrays.asList("prefix,as_path", "10.0.0.0/24,1 4"), Files.readAllLines(out.toPath()));
+
+        // 只输出前缀的 Sink 对同一前缀只写一次
+        File raw = new File(dir, "out.txt");
+        new RoutePipeline(new CSVProvider(in.getPath())).reduceTopPaths(3, false)
+                .run(RoutePipeline.Sink.rawText(new RawTextProvider(raw.getPath())));
+        assertEquals(Arrays.asList("10.0.0.0/24", "10.0.1.0/24"), Files.readAllLines(raw.toPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidK() {
+        new TopPathTable(0, false);
+    }
+}